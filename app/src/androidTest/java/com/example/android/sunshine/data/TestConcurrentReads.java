@@ -0,0 +1,190 @@
+/*
+ * Copyright (C) 2016 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.example.android.sunshine.data;
+
+import android.content.Context;
+import android.database.Cursor;
+import android.database.DatabaseUtils;
+import android.database.sqlite.SQLiteDatabase;
+import android.os.Build;
+import android.support.test.InstrumentationRegistry;
+import android.support.test.runner.AndroidJUnit4;
+import android.util.Log;
+
+import com.example.android.sunshine.data.WeatherContract.WeatherEntry;
+import com.example.android.sunshine.utilities.SunshineDateUtils;
+
+import org.junit.After;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.Locale;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+
+import static junit.framework.Assert.assertEquals;
+import static junit.framework.Assert.assertTrue;
+
+/**
+ * Measures how long the forecast screens' queries take while a sync writes a large forecast in
+ * one transaction, once with the old rollback journal and once with the write-ahead log that
+ * {@link WeatherDbHelper} now enables. The percentiles of both are written to logcat under the
+ * TestConcurrentReads tag.
+ */
+@RunWith(AndroidJUnit4.class)
+public class TestConcurrentReads {
+
+    private static final String TAG = TestConcurrentReads.class.getSimpleName();
+
+    private static final String ROLLBACK_DATABASE_NAME = "weather_rollback_test.db";
+    private static final String WAL_DATABASE_NAME = "weather_wal_test.db";
+
+    /* Rows the writer inserts in its one transaction */
+    private static final int BULK_INSERT_ROWS = 20000;
+
+    /* How long the reader waits between two queries */
+    private static final long READ_INTERVAL_MILLIS = 5;
+
+    private final Context context = InstrumentationRegistry.getTargetContext();
+
+    @After
+    public void tearDown() {
+        context.deleteDatabase(ROLLBACK_DATABASE_NAME);
+        context.deleteDatabase(WAL_DATABASE_NAME);
+    }
+
+    @Test
+    public void testWriteAheadLogIsEnabled() {
+        WeatherDbHelper dbHelper = new WeatherDbHelper(context, WAL_DATABASE_NAME, true);
+        try {
+            String journalMode = DatabaseUtils.stringForQuery(dbHelper.getWritableDatabase(),
+                    "PRAGMA journal_mode", null);
+            String expected = Build.VERSION.SDK_INT >= Build.VERSION_CODES.HONEYCOMB
+                    ? "wal" : "delete";
+            assertEquals(expected, journalMode.toLowerCase(Locale.US));
+        } finally {
+            dbHelper.close();
+        }
+    }
+
+    @Test
+    public void testReadsDuringBulkInsert() throws Exception {
+        List<Long> rollbackLatencies = readDuringBulkInsert(ROLLBACK_DATABASE_NAME, false);
+        List<Long> walLatencies = readDuringBulkInsert(WAL_DATABASE_NAME, true);
+
+        logLatencies("rollback journal", rollbackLatencies);
+        logLatencies("write-ahead log", walLatencies);
+
+        if (Build.VERSION.SDK_INT >= Build.VERSION_CODES.HONEYCOMB) {
+            /* With a rollback journal the first read waits for the whole insert to commit */
+            assertTrue("Reads should not wait for the writer with a write-ahead log",
+                    percentile(walLatencies, 100) < percentile(rollbackLatencies, 100));
+        }
+    }
+
+    /**
+     * Inserts {@link #BULK_INSERT_ROWS} rows in one transaction on a background thread, while
+     * querying the next two weeks of forecast on this thread until the insert commits.
+     *
+     * @return The latency of every query, in milliseconds
+     */
+    private List<Long> readDuringBulkInsert(String databaseName, boolean writeAheadLogging)
+            throws Exception {
+        context.deleteDatabase(databaseName);
+        final WeatherDbHelper dbHelper =
+                new WeatherDbHelper(context, databaseName, writeAheadLogging);
+        final SQLiteDatabase db = dbHelper.getWritableDatabase();
+
+        /* Something for the reader to find, committed before the writer starts */
+        final long today = SunshineDateUtils.normalizeDate(System.currentTimeMillis());
+        db.insert(WeatherEntry.TABLE_NAME, null, WeatherFixtures.createWeatherValues(today, -1));
+
+        final CountDownLatch writing = new CountDownLatch(1);
+        final CountDownLatch committed = new CountDownLatch(1);
+        Thread writer = new Thread(new Runnable() {
+            @Override
+            public void run() {
+                db.beginTransaction();
+                CompiledUpsert upsert = new CompiledUpsert(db, WeatherEntry.TABLE_NAME,
+                        WeatherEntry.COLUMN_DATE);
+                try {
+                    for (int day = 0; day < BULK_INSERT_ROWS; day++) {
+                        upsert.upsert(WeatherFixtures.createWeatherValues(
+                                today + day * SunshineDateUtils.DAY_IN_MILLIS, day));
+                        if (day == 0) {
+                            writing.countDown();
+                        }
+                    }
+                    db.setTransactionSuccessful();
+                } finally {
+                    upsert.close();
+                    db.endTransaction();
+                    committed.countDown();
+                }
+            }
+        }, "bulk-insert");
+
+        List<Long> latencies = new ArrayList<Long>();
+        try {
+            writer.start();
+            assertTrue(writing.await(10, TimeUnit.SECONDS));
+
+            String[] selectionArgs = {Long.toString(today)};
+            while (committed.getCount() > 0) {
+                long start = System.nanoTime();
+                Cursor cursor = dbHelper.getReadableDatabase().query(WeatherEntry.TABLE_NAME,
+                        null, WeatherEntry.COLUMN_DATE + " >= ?", selectionArgs, null, null,
+                        WeatherEntry.COLUMN_DATE + " ASC", "14");
+                try {
+                    assertTrue(cursor.moveToFirst());
+                } finally {
+                    cursor.close();
+                }
+                latencies.add(TimeUnit.NANOSECONDS.toMillis(System.nanoTime() - start));
+                committed.await(READ_INTERVAL_MILLIS, TimeUnit.MILLISECONDS);
+            }
+            writer.join();
+
+            /* The rows of day 0 and on replaced the one committed first */
+            assertEquals(BULK_INSERT_ROWS,
+                    DatabaseUtils.queryNumEntries(db, WeatherEntry.TABLE_NAME));
+        } finally {
+            dbHelper.close();
+        }
+        return latencies;
+    }
+
+    private static void logLatencies(String journal, List<Long> latencies) {
+        Log.i(TAG, String.format(Locale.US,
+                "%s: %d reads during the insert, p50 %dms, p95 %dms, max %dms", journal,
+                latencies.size(), percentile(latencies, 50), percentile(latencies, 95),
+                percentile(latencies, 100)));
+    }
+
+    /* The nearest-rank percentile */
+    private static long percentile(List<Long> latencies, int percentile) {
+        if (latencies.isEmpty()) {
+            return 0;
+        }
+        List<Long> sorted = new ArrayList<Long>(latencies);
+        Collections.sort(sorted);
+        int rank = (int) Math.ceil(percentile / 100.0 * sorted.size());
+        return sorted.get(Math.max(0, rank - 1));
+    }
+}
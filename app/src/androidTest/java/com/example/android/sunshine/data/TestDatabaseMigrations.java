@@ -0,0 +1,361 @@
+/*
+ * Copyright (C) 2016 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.example.android.sunshine.data;
+
+import android.content.ContentValues;
+import android.content.Context;
+import android.database.Cursor;
+import android.database.DatabaseUtils;
+import android.database.sqlite.SQLiteDatabase;
+import android.support.test.InstrumentationRegistry;
+import android.support.test.runner.AndroidJUnit4;
+
+import com.example.android.sunshine.data.WeatherContract.ArchiveEntry;
+import com.example.android.sunshine.data.WeatherContract.LocationEntry;
+import com.example.android.sunshine.data.WeatherContract.LocationWeatherEntry;
+import com.example.android.sunshine.data.WeatherContract.WeatherEntry;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+
+import static junit.framework.Assert.assertEquals;
+import static junit.framework.Assert.assertTrue;
+
+/**
+ * Tests {@link WeatherDbHelper#onUpgrade} against databases created with the schema of each
+ * older version, as it was when that version shipped. The statements below are copies, not
+ * built from WeatherContract, so that they keep describing the old schema as the contract
+ * changes. When you add a migration, add the schema of the version it upgrades from here.
+ */
+@RunWith(AndroidJUnit4.class)
+public class TestDatabaseMigrations {
+
+    private static final String DATABASE_NAME = "weather_migration_test.db";
+
+    private static final String CREATE_WEATHER_V6 = "CREATE TABLE weather ("
+            + "_id INTEGER PRIMARY KEY AUTOINCREMENT, "
+            + "date INTEGER NOT NULL, "
+            + "weather_id INTEGER NOT NULL,"
+            + "weather_desc TEXT,"
+            + "min REAL NOT NULL, "
+            + "max REAL NOT NULL, "
+            + "wind REAL NOT NULL, "
+            + "degrees REAL NOT NULL, "
+            + "degrees_desc TEXT,"
+            + "PrecipitationProbability REAL NOT NULL, "
+            + "HoursOfPrecipitation REAL NOT NULL, "
+            + " UNIQUE (date) ON CONFLICT REPLACE);";
+
+    private static final String CREATE_LOCATION_V7 = "CREATE TABLE location ("
+            + "_id INTEGER PRIMARY KEY AUTOINCREMENT, "
+            + "location_query TEXT NOT NULL, "
+            + "location_key TEXT NOT NULL, "
+            + "fetched_at INTEGER NOT NULL, "
+            + "last_used INTEGER NOT NULL, "
+            + " UNIQUE (location_query) ON CONFLICT REPLACE);";
+
+    private static final String CREATE_LOCATION_WEATHER_V8 = "CREATE TABLE location_weather ("
+            + "_id INTEGER PRIMARY KEY AUTOINCREMENT, "
+            + "location_query TEXT NOT NULL, "
+            + "date INTEGER NOT NULL, "
+            + "weather_id INTEGER NOT NULL,"
+            + "weather_desc TEXT,"
+            + "min REAL NOT NULL, "
+            + "max REAL NOT NULL, "
+            + "wind REAL NOT NULL, "
+            + "degrees REAL NOT NULL, "
+            + "degrees_desc TEXT,"
+            + "PrecipitationProbability REAL NOT NULL, "
+            + "HoursOfPrecipitation REAL NOT NULL, "
+            + " UNIQUE (location_query, date) ON CONFLICT REPLACE);";
+
+    private static final String CREATE_WEATHER_V9 = "CREATE TABLE weather ("
+            + "_id INTEGER PRIMARY KEY, "
+            + "date INTEGER NOT NULL, "
+            + "weather_id INTEGER NOT NULL,"
+            + "weather_desc TEXT,"
+            + "min REAL NOT NULL, "
+            + "max REAL NOT NULL, "
+            + "wind REAL NOT NULL, "
+            + "degrees REAL NOT NULL, "
+            + "degrees_desc TEXT,"
+            + "PrecipitationProbability REAL NOT NULL, "
+            + "HoursOfPrecipitation REAL NOT NULL, "
+            + " UNIQUE (date) ON CONFLICT REPLACE);";
+
+    private static final String CREATE_WEATHER_LIST_INDEX_V9 = "CREATE INDEX weather_list_index"
+            + " ON weather (date, max, min, weather_id, weather_desc);";
+
+    /* The statements that create each version's schema, starting at the oldest migratable one */
+    private static final String[][] SCHEMAS = {
+            /* 6 */ {CREATE_WEATHER_V6},
+            /* 7 */ {CREATE_WEATHER_V6, CREATE_LOCATION_V7},
+            /* 8 */ {CREATE_WEATHER_V6, CREATE_LOCATION_V7, CREATE_LOCATION_WEATHER_V8},
+            /* 9 */ {CREATE_WEATHER_V9, CREATE_WEATHER_LIST_INDEX_V9, CREATE_LOCATION_V7,
+                    CREATE_LOCATION_WEATHER_V8},
+    };
+
+    private final Context context = InstrumentationRegistry.getTargetContext();
+
+    @Before
+    public void setUp() {
+        context.deleteDatabase(DATABASE_NAME);
+    }
+
+    @After
+    public void tearDown() {
+        context.deleteDatabase(DATABASE_NAME);
+    }
+
+    @Test
+    public void testEveryVersionHasAMigration() {
+        WeatherDbHelper dbHelper = new WeatherDbHelper(context, DATABASE_NAME, false);
+        try {
+            int currentVersion = dbHelper.getWritableDatabase().getVersion();
+            assertEquals("Each version since the oldest migratable one needs a migration",
+                    currentVersion,
+                    WeatherDbHelper.OLDEST_MIGRATABLE_VERSION
+                            + WeatherDbHelper.MIGRATIONS.length);
+            assertEquals("Each migration needs the schema it upgrades from in this test",
+                    WeatherDbHelper.MIGRATIONS.length, SCHEMAS.length);
+        } finally {
+            dbHelper.close();
+        }
+    }
+
+    @Test
+    public void testUpgradeFromEachVersionMatchesNewSchema() {
+        List<String> newSchema = describeCurrentSchema();
+        context.deleteDatabase(DATABASE_NAME);
+
+        for (int i = 0; i < SCHEMAS.length; i++) {
+            int version = WeatherDbHelper.OLDEST_MIGRATABLE_VERSION + i;
+            createDatabase(version).close();
+            assertEquals("Upgrading from version " + version + " should give the new schema",
+                    newSchema, describeCurrentSchema());
+            context.deleteDatabase(DATABASE_NAME);
+        }
+    }
+
+    @Test
+    public void testEachMigrationAppliesOnlyItsOwnStep() {
+        for (int i = 0; i < SCHEMAS.length - 1; i++) {
+            int version = WeatherDbHelper.OLDEST_MIGRATABLE_VERSION + i;
+
+            SQLiteDatabase migrated = createDatabase(version);
+            WeatherDbHelper.MIGRATIONS[i].migrate(migrated);
+            List<String> migratedSchema = describeSchema(migrated);
+            migrated.close();
+            context.deleteDatabase(DATABASE_NAME);
+
+            SQLiteDatabase next = createDatabase(version + 1);
+            assertEquals("Migration " + version + " to " + (version + 1),
+                    describeSchema(next), migratedSchema);
+            next.close();
+            context.deleteDatabase(DATABASE_NAME);
+        }
+    }
+
+    @Test
+    public void testUpgradeKeepsCachedForecast() {
+        SQLiteDatabase old = createDatabase(WeatherDbHelper.OLDEST_MIGRATABLE_VERSION);
+        ContentValues weatherValues = TestUtilities.createTestWeatherContentValues();
+        assertTrue(old.insert(WeatherEntry.TABLE_NAME, null, weatherValues) != -1);
+        old.close();
+
+        SQLiteDatabase upgraded = openCurrentDatabase();
+        Cursor cursor = upgraded.query(WeatherEntry.TABLE_NAME, null, null, null, null, null,
+                null);
+        try {
+            TestUtilities.validateThenCloseCursor("The forecast should survive the upgrade",
+                    cursor, weatherValues);
+        } finally {
+            upgraded.close();
+        }
+    }
+
+    @Test
+    public void testUpgradeKeepsWeatherIds() {
+        SQLiteDatabase old = createDatabase(WeatherDbHelper.OLDEST_MIGRATABLE_VERSION + 2);
+        ContentValues weatherValues = TestUtilities.createTestWeatherContentValues();
+        weatherValues.put(WeatherEntry._ID, 42L);
+        assertTrue(old.insert(WeatherEntry.TABLE_NAME, null, weatherValues) != -1);
+        old.close();
+
+        SQLiteDatabase upgraded = openCurrentDatabase();
+        try {
+            assertEquals(42L, DatabaseUtils.longForQuery(upgraded, "SELECT "
+                    + WeatherEntry._ID + " FROM " + WeatherEntry.TABLE_NAME, null));
+            assertEquals("The old weather table's sequence should be gone", 0,
+                    DatabaseUtils.longForQuery(upgraded,
+                            "SELECT count(*) FROM sqlite_sequence WHERE name LIKE ?",
+                            new String[]{WeatherEntry.TABLE_NAME + "%"}));
+        } finally {
+            upgraded.close();
+        }
+    }
+
+    @Test
+    public void testUpgradeArchivesCachedForecast() {
+        SQLiteDatabase old = createDatabase(WeatherDbHelper.OLDEST_MIGRATABLE_VERSION + 3);
+        ContentValues weatherValues = TestUtilities.createTestWeatherContentValues();
+        assertTrue(old.insert(WeatherEntry.TABLE_NAME, null, weatherValues) != -1);
+        old.close();
+
+        SQLiteDatabase upgraded = openCurrentDatabase();
+        try {
+            assertEquals(1, DatabaseUtils.queryNumEntries(upgraded, WeatherEntry.TABLE_NAME));
+            assertEquals("The stored forecast should be the archive's first revision", 1,
+                    DatabaseUtils.longForQuery(upgraded, "SELECT count(*) FROM "
+                            + ArchiveEntry.TABLE_NAME + " WHERE " + WeatherEntry.COLUMN_DATE
+                            + " = ?", new String[]{
+                            weatherValues.getAsString(WeatherEntry.COLUMN_DATE)}));
+        } finally {
+            upgraded.close();
+        }
+    }
+
+    @Test
+    public void testUpgradeKeepsLocationKeys() {
+        SQLiteDatabase old = createDatabase(WeatherDbHelper.OLDEST_MIGRATABLE_VERSION + 1);
+        ContentValues locationValues = new ContentValues();
+        locationValues.put(LocationEntry.COLUMN_LOCATION_QUERY, "mountain view, ca");
+        locationValues.put(LocationEntry.COLUMN_LOCATION_KEY, "337169");
+        locationValues.put(LocationEntry.COLUMN_FETCHED_AT, 1000L);
+        locationValues.put(LocationEntry.COLUMN_LAST_USED, 2000L);
+        assertTrue(old.insert(LocationEntry.TABLE_NAME, null, locationValues) != -1);
+        old.close();
+
+        SQLiteDatabase upgraded = openCurrentDatabase();
+        try {
+            assertEquals(1, DatabaseUtils.queryNumEntries(upgraded, LocationEntry.TABLE_NAME));
+            assertEquals(0, DatabaseUtils.queryNumEntries(upgraded,
+                    LocationWeatherEntry.TABLE_NAME));
+        } finally {
+            upgraded.close();
+        }
+    }
+
+    @Test
+    public void testUpgradeFromUnknownVersionRecreatesDatabase() {
+        SQLiteDatabase old = context.openOrCreateDatabase(DATABASE_NAME, Context.MODE_PRIVATE,
+                null);
+        old.execSQL("CREATE TABLE weather (_id INTEGER PRIMARY KEY, date TEXT)");
+        old.execSQL("INSERT INTO weather (date) VALUES ('yesterday')");
+        old.setVersion(WeatherDbHelper.OLDEST_MIGRATABLE_VERSION - 1);
+        old.close();
+
+        SQLiteDatabase upgraded = openCurrentDatabase();
+        List<String> upgradedSchema = describeSchema(upgraded);
+        try {
+            assertEquals(0, DatabaseUtils.queryNumEntries(upgraded, WeatherEntry.TABLE_NAME));
+        } finally {
+            upgraded.close();
+        }
+
+        context.deleteDatabase(DATABASE_NAME);
+        assertEquals(describeCurrentSchema(), upgradedSchema);
+    }
+
+    /* Creates the test database with the schema that shipped with the given version */
+    private SQLiteDatabase createDatabase(int version) {
+        SQLiteDatabase db = context.openOrCreateDatabase(DATABASE_NAME, Context.MODE_PRIVATE,
+                null);
+        for (String statement : SCHEMAS[version - WeatherDbHelper.OLDEST_MIGRATABLE_VERSION]) {
+            db.execSQL(statement);
+        }
+        db.setVersion(version);
+        return db;
+    }
+
+    /* Opens the test database through WeatherDbHelper, upgrading it if it is older */
+    private SQLiteDatabase openCurrentDatabase() {
+        return new WeatherDbHelper(context, DATABASE_NAME, false).getWritableDatabase();
+    }
+
+    /* Describes the schema of the test database after opening it through WeatherDbHelper */
+    private List<String> describeCurrentSchema() {
+        SQLiteDatabase db = openCurrentDatabase();
+        try {
+            return describeSchema(db);
+        } finally {
+            db.close();
+        }
+    }
+
+    /**
+     * Describes every table's columns and indices, one line each and sorted, so two schemas can
+     * be compared however their CREATE statements were written.
+     */
+    private static List<String> describeSchema(SQLiteDatabase db) {
+        List<String> schema = new ArrayList<String>();
+        Cursor tables = db.rawQuery("SELECT name FROM sqlite_master WHERE type = 'table'"
+                + " AND name NOT LIKE 'sqlite_%' AND name != 'android_metadata'", null);
+        try {
+            while (tables.moveToNext()) {
+                String table = tables.getString(0);
+
+                Cursor columns = db.rawQuery("PRAGMA table_info(" + table + ")", null);
+                try {
+                    while (columns.moveToNext()) {
+                        schema.add(table + " column "
+                                + columns.getString(columns.getColumnIndex("name")) + " "
+                                + columns.getString(columns.getColumnIndex("type"))
+                                + " notnull=" + columns.getInt(columns.getColumnIndex("notnull"))
+                                + " pk=" + columns.getInt(columns.getColumnIndex("pk")));
+                    }
+                } finally {
+                    columns.close();
+                }
+
+                Cursor indices = db.rawQuery("PRAGMA index_list(" + table + ")", null);
+                try {
+                    while (indices.moveToNext()) {
+                        String index = indices.getString(indices.getColumnIndex("name"));
+                        schema.add(table + " index " + index
+                                + " unique=" + indices.getInt(indices.getColumnIndex("unique"))
+                                + " on " + describeIndexColumns(db, index));
+                    }
+                } finally {
+                    indices.close();
+                }
+            }
+        } finally {
+            tables.close();
+        }
+        Collections.sort(schema);
+        return schema;
+    }
+
+    private static String describeIndexColumns(SQLiteDatabase db, String index) {
+        StringBuilder columns = new StringBuilder();
+        Cursor cursor = db.rawQuery("PRAGMA index_info(" + index + ")", null);
+        try {
+            while (cursor.moveToNext()) {
+                columns.append(cursor.getString(cursor.getColumnIndex("name"))).append(' ');
+            }
+        } finally {
+            cursor.close();
+        }
+        return columns.toString().trim();
+    }
+}
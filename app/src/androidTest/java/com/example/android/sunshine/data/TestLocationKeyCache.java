@@ -0,0 +1,91 @@
+/*
+ * Copyright (C) 2016 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.example.android.sunshine.data;
+
+import android.content.ContentValues;
+import android.content.Context;
+import android.database.sqlite.SQLiteDatabase;
+import android.support.test.InstrumentationRegistry;
+import android.support.test.runner.AndroidJUnit4;
+
+import org.junit.Before;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+
+import static junit.framework.Assert.assertEquals;
+import static junit.framework.Assert.assertNull;
+
+/**
+ * Tests the lookup, expiry and eviction behaviour of {@link LocationKeyCache}.
+ */
+@RunWith(AndroidJUnit4.class)
+public class TestLocationKeyCache {
+
+    private final Context mContext = InstrumentationRegistry.getTargetContext();
+
+    private LocationKeyCache mCache;
+
+    @Before
+    public void setUp() {
+        SQLiteDatabase database = WeatherDbHelper.getInstance(mContext).getWritableDatabase();
+        database.delete(WeatherContract.LocationEntry.TABLE_NAME, null, null);
+
+        mCache = new LocationKeyCache(mContext);
+    }
+
+    @Test
+    public void testEquivalentQueriesShareOneEntry() {
+        mCache.put("Ypsilanti,MI,48198", "329380");
+
+        assertEquals("329380", mCache.get("  ypsilanti , mi,  48198 "));
+        assertEquals("ypsilanti,mi,48198", LocationKeyCache.normalizeQuery("Ypsilanti, MI, 48198"));
+    }
+
+    @Test
+    public void testExpiredEntryIsNotReturned() {
+        mCache.put("Mountain View,CA", "337169");
+
+        /* Age the entry past its time to live */
+        ContentValues values = new ContentValues();
+        values.put(WeatherContract.LocationEntry.COLUMN_FETCHED_AT,
+                System.currentTimeMillis() - LocationKeyCache.TTL_MILLIS - 1);
+        SQLiteDatabase database = WeatherDbHelper.getInstance(mContext).getWritableDatabase();
+        database.update(WeatherContract.LocationEntry.TABLE_NAME, values, null, null);
+
+        assertNull(mCache.get("Mountain View,CA"));
+    }
+
+    @Test
+    public void testLeastRecentlyUsedEntryIsEvicted() {
+        for (int i = 0; i < LocationKeyCache.MAX_ENTRIES; i++) {
+            mCache.put("location " + i, "key " + i);
+        }
+
+        /* Mark every entry but the first as recently used */
+        ContentValues values = new ContentValues();
+        values.put(WeatherContract.LocationEntry.COLUMN_LAST_USED, 0);
+        SQLiteDatabase database = WeatherDbHelper.getInstance(mContext).getWritableDatabase();
+        database.update(WeatherContract.LocationEntry.TABLE_NAME, values,
+                WeatherContract.LocationEntry.COLUMN_LOCATION_QUERY + " = ?",
+                new String[]{"location 0"});
+
+        mCache.put("one more location", "one more key");
+
+        assertNull(mCache.get("location 0"));
+        assertEquals("key 1", mCache.get("location 1"));
+        assertEquals("one more key", mCache.get("one more location"));
+    }
+}
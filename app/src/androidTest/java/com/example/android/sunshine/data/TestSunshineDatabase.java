@@ -382,9 +382,10 @@ public class TestSunshineDatabase {
     }
 
     /**
-     * This method tests the {@link WeatherDbHelper#onUpgrade(SQLiteDatabase, int, int)}. The proper
-     * behavior for this method in our case is to simply DROP (or delete) the weather table from
-     * the database and then have the table recreated.
+     * This method tests the {@link WeatherDbHelper#onUpgrade(SQLiteDatabase, int, int)} from a
+     * version it has no migration for. The proper behavior in that case is to simply DROP (or
+     * delete) the weather table from the database and then have the table recreated. Upgrades
+     * from the versions that do have migrations are tested in {@link TestDatabaseMigrations}.
      */
     @Test
     public void testOnUpgradeBehavesCorrectly() {
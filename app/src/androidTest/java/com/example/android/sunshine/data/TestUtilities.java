@@ -29,6 +29,7 @@ import java.lang.reflect.Field;
 import java.lang.reflect.Modifier;
 import java.util.Map;
 import java.util.Set;
+import java.util.concurrent.atomic.AtomicInteger;
 import java.util.regex.Matcher;
 import java.util.regex.Pattern;
 
@@ -188,6 +189,8 @@ class TestUtilities {
     static class TestContentObserver extends ContentObserver {
         final HandlerThread mHT;
         boolean mContentChanged;
+        /* How many times onChange was called */
+        final AtomicInteger mChangeCount = new AtomicInteger();
 
         private TestContentObserver(HandlerThread ht) {
             super(new Handler(ht.getLooper()));
@@ -223,6 +226,7 @@ class TestUtilities {
         @Override
         public void onChange(boolean selfChange, Uri uri) {
             mContentChanged = true;
+            mChangeCount.incrementAndGet();
         }
 
         /**
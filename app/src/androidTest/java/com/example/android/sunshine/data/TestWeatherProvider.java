@@ -16,6 +16,9 @@
 package com.example.android.sunshine.data;
 
 import android.content.ComponentName;
+import android.content.ContentProviderClient;
+import android.content.ContentProviderOperation;
+import android.content.ContentProviderResult;
 import android.content.ContentResolver;
 import android.content.ContentValues;
 import android.content.Context;
@@ -23,17 +26,25 @@ import android.content.pm.PackageManager;
 import android.content.pm.ProviderInfo;
 import android.database.Cursor;
 import android.database.sqlite.SQLiteDatabase;
+import android.database.sqlite.SQLiteQueryBuilder;
 import android.net.Uri;
 import android.support.test.InstrumentationRegistry;
 import android.support.test.runner.AndroidJUnit4;
 
+import com.example.android.sunshine.MainActivity;
+import com.example.android.sunshine.data.WeatherContract.ArchiveEntry;
+import com.example.android.sunshine.utilities.SunshineDateUtils;
+
 import org.junit.Before;
 import org.junit.Test;
 import org.junit.runner.RunWith;
 
+import java.util.ArrayList;
+
 import static com.example.android.sunshine.data.TestUtilities.BULK_INSERT_RECORDS_TO_INSERT;
 import static com.example.android.sunshine.data.TestUtilities.createBulkInsertTestWeatherValues;
 import static junit.framework.Assert.assertEquals;
+import static junit.framework.Assert.assertFalse;
 import static junit.framework.Assert.assertNotNull;
 import static junit.framework.Assert.assertTrue;
 import static junit.framework.Assert.fail;
@@ -79,6 +90,8 @@ public class TestWeatherProvider {
     @Before
     public void setUp() {
         deleteAllRecordsFromWeatherTable();
+        deleteAllRecordsFromLocationWeatherTable();
+        deleteAllRecordsFromArchiveTable();
     }
 
     /**
@@ -207,6 +220,155 @@ public class TestWeatherProvider {
                 testWeatherValues);
     }
 
+    /**
+     * Checks that SQLite answers the forecast list's query, as the provider runs it for
+     * MainActivity, from the weather table's covering index alone, without reading the table's
+     * rows.
+     */
+    @Test
+    public void testForecastListQueryUsesCoveringIndex() {
+        WeatherDbHelper dbHelper = new WeatherDbHelper(mContext);
+        SQLiteDatabase database = dbHelper.getReadableDatabase();
+
+        String listQuery = SQLiteQueryBuilder.buildQueryString(false,
+                WeatherContract.WeatherEntry.TABLE_NAME,
+                MainActivity.MAIN_FORECAST_PROJECTION,
+                ForecastSnapshotCache.SQL_SELECT_UPCOMING,
+                null,
+                null,
+                WeatherContract.WeatherEntry.COLUMN_DATE + " ASC",
+                null);
+        String[] today = {Long.toString(
+                SunshineDateUtils.normalizeDate(System.currentTimeMillis()))};
+
+        StringBuilder queryPlan = new StringBuilder();
+        Cursor planCursor = database.rawQuery("EXPLAIN QUERY PLAN " + listQuery, today);
+        try {
+            int detailIndex = planCursor.getColumnIndexOrThrow("detail");
+            while (planCursor.moveToNext()) {
+                queryPlan.append(planCursor.getString(detailIndex)).append('\n');
+            }
+        } finally {
+            planCursor.close();
+            dbHelper.close();
+        }
+
+        String index = WeatherDbHelper.WEATHER_LIST_INDEX;
+        String notCovered = "The list query should only read " + index
+                + ", but its plan is:\n" + queryPlan;
+        assertTrue(notCovered, queryPlan.toString().contains("COVERING INDEX " + index));
+        /* Nor should it need to sort the rows itself */
+        assertFalse(notCovered, queryPlan.toString().contains("TEMP B-TREE"));
+    }
+
+    /**
+     * Stores yesterday and the next three days, and queries UPCOMING_URI, which should return
+     * today onwards, by date. A selection isn't allowed, as the provider picks the days itself.
+     */
+    @Test
+    public void testUpcomingQuery() {
+        ContentResolver contentResolver = mContext.getContentResolver();
+        long today = SunshineDateUtils.normalizeDate(System.currentTimeMillis());
+        ContentValues[] forecast = new ContentValues[4];
+        for (int day = 0; day < forecast.length; day++) {
+            forecast[day] = createWeatherValues(day);
+            forecast[day].put(WeatherContract.WeatherEntry.COLUMN_DATE,
+                    today + (day - 1) * SunshineDateUtils.DAY_IN_MILLIS);
+        }
+        contentResolver.bulkInsert(WeatherContract.WeatherEntry.CONTENT_URI, forecast);
+
+        Cursor cursor = contentResolver.query(WeatherContract.WeatherEntry.UPCOMING_URI,
+                new String[]{WeatherContract.WeatherEntry.COLUMN_DATE}, null, null, null);
+        assertNotNull(cursor);
+        try {
+            assertEquals("Yesterday shouldn't be upcoming", 3, cursor.getCount());
+            for (int day = 0; cursor.moveToNext(); day++) {
+                assertEquals(today + day * SunshineDateUtils.DAY_IN_MILLIS, cursor.getLong(0));
+            }
+        } finally {
+            cursor.close();
+        }
+
+        try {
+            contentResolver.query(WeatherContract.WeatherEntry.UPCOMING_URI, null,
+                    WeatherContract.WeatherEntry.COLUMN_WEATHER_ID + " = 3", null, null);
+            fail("A selection on UPCOMING_URI should be rejected");
+        } catch (IllegalArgumentException expected) {
+            /* Today is the only selection */
+        }
+    }
+
+    /**
+     * Queries the forecast list, as MainActivity does, twice before and once after a sync. The
+     * second query should be answered from the provider's snapshot, and the one after the sync
+     * should see the new forecast.
+     */
+    @Test
+    public void testForecastListQueryIsCached() {
+        ContentResolver contentResolver = mContext.getContentResolver();
+        long today = SunshineDateUtils.normalizeDate(System.currentTimeMillis());
+        ContentValues[] forecast = new ContentValues[5];
+        for (int day = 0; day < forecast.length; day++) {
+            forecast[day] = createWeatherValues(day);
+            forecast[day].put(WeatherContract.WeatherEntry.COLUMN_DATE,
+                    today + day * SunshineDateUtils.DAY_IN_MILLIS);
+        }
+        contentResolver.bulkInsert(WeatherContract.WeatherEntry.MERGE_URI, forecast);
+
+        ContentProviderClient client = contentResolver.acquireContentProviderClient(
+                WeatherContract.CONTENT_AUTHORITY);
+        assertNotNull(client);
+        try {
+            ForecastSnapshotCache cache =
+                    ((WeatherProvider) client.getLocalContentProvider()).getForecastCache();
+            int hits = cache.getHitCount();
+            int misses = cache.getMissCount();
+
+            assertForecastList(forecast);
+            assertEquals("The first query should go to the database",
+                    misses + 1, cache.getMissCount());
+            assertForecastList(forecast);
+            assertEquals("The second query should be answered from memory",
+                    hits + 1, cache.getHitCount());
+
+            forecast[2].put(WeatherContract.WeatherEntry.COLUMN_MAX_TEMP, 30.0);
+            contentResolver.bulkInsert(WeatherContract.WeatherEntry.MERGE_URI, forecast);
+            assertForecastList(forecast);
+            assertEquals("A write should invalidate the snapshot",
+                    misses + 2, cache.getMissCount());
+
+            /* Any other query still goes to the database */
+            contentResolver.query(WeatherContract.WeatherEntry.CONTENT_URI,
+                    null, null, null, null).close();
+            assertEquals(hits + 1, cache.getHitCount());
+            assertEquals(misses + 2, cache.getMissCount());
+        } finally {
+            client.release();
+        }
+    }
+
+    private void assertForecastList(ContentValues[] forecast) {
+        Cursor cursor = mContext.getContentResolver().query(
+                WeatherContract.WeatherEntry.UPCOMING_URI,
+                MainActivity.MAIN_FORECAST_PROJECTION,
+                null,
+                null,
+                WeatherContract.WeatherEntry.COLUMN_DATE + " ASC");
+        assertNotNull(cursor);
+        try {
+            assertEquals(forecast.length, cursor.getCount());
+            for (int day = 0; cursor.moveToNext(); day++) {
+                for (String column : MainActivity.MAIN_FORECAST_PROJECTION) {
+                    int index = cursor.getColumnIndexOrThrow(column);
+                    assertEquals("Unexpected " + column + " on day " + day,
+                            forecast[day].getAsString(column), cursor.getString(index));
+                }
+            }
+        } finally {
+            cursor.close();
+        }
+    }
+
     /**
      * This test test the bulkInsert feature of the ContentProvider. It also verifies that
      * registered ContentObservers receive onChange callbacks when data is inserted.
@@ -326,6 +488,388 @@ public class TestWeatherProvider {
         cursor.close();
     }
 
+    /**
+     * This test inserts the forecasts of two locations in one bulkInsert, then a newer forecast
+     * for just one of them. The newer forecast should replace that location's rows entirely
+     * while leaving the other location untouched.
+     */
+    @Test
+    public void testBulkInsertLocationWeatherReplacesEachLocation() {
+        ContentResolver contentResolver = mContext.getContentResolver();
+        Uri locationWeatherUri = WeatherContract.LocationWeatherEntry.CONTENT_URI;
+
+        ContentValues[] firstSync = new ContentValues[6];
+        for (int i = 0; i < 3; i++) {
+            firstSync[i] = createLocationWeatherValues("ypsilanti,mi", i);
+            firstSync[i + 3] = createLocationWeatherValues("mountain view,ca", i);
+        }
+
+        TestUtilities.TestContentObserver observer = TestUtilities.getTestContentObserver();
+        contentResolver.registerContentObserver(locationWeatherUri, true, observer);
+        assertEquals(6, contentResolver.bulkInsert(locationWeatherUri, firstSync));
+        observer.waitForNotificationOrFail();
+        contentResolver.unregisterContentObserver(observer);
+
+        /* The second sync only has a shorter forecast for Ypsilanti */
+        ContentValues[] secondSync = new ContentValues[]{
+                createLocationWeatherValues("ypsilanti,mi", 1),
+                createLocationWeatherValues("ypsilanti,mi", 2)
+        };
+        assertEquals(2, contentResolver.bulkInsert(locationWeatherUri, secondSync));
+
+        assertEquals("Ypsilanti's old forecast should have been replaced",
+                2, countLocationWeatherRows("ypsilanti,mi"));
+        assertEquals("Mountain View's forecast should not have been touched",
+                3, countLocationWeatherRows("mountain view,ca"));
+    }
+
+    /**
+     * This test syncs two locations with Ypsilanti preferred, then switches the preferred
+     * location to Mountain View with nothing new to store, as when the server answers that its
+     * forecast hasn't changed. The weather table should follow the switch from Mountain View's
+     * stored forecast, and merging it again should change nothing.
+     */
+    @Test
+    public void testBulkInsertForecastsMergesPreferredLocation() {
+        ContentResolver contentResolver = mContext.getContentResolver();
+
+        ContentValues[] forecasts = new ContentValues[6];
+        ContentValues[] mountainViewForecast = new ContentValues[3];
+        for (int i = 0; i < 3; i++) {
+            forecasts[i] = createLocationWeatherValues("ypsilanti,mi", i);
+            forecasts[i + 3] = createLocationWeatherValues("mountain view,ca", i);
+            forecasts[i + 3].put(WeatherContract.WeatherEntry.COLUMN_MAX_TEMP, 30.0 + i);
+
+            mountainViewForecast[i] = new ContentValues(forecasts[i + 3]);
+            mountainViewForecast[i].remove(
+                    WeatherContract.LocationWeatherEntry.COLUMN_LOCATION_QUERY);
+        }
+
+        assertEquals("Ypsilanti's forecast should have been merged into the weather table",
+                3, contentResolver.bulkInsert(WeatherContract.LocationWeatherEntry
+                        .buildUriWithPreferredLocation("ypsilanti,mi"), forecasts));
+        assertEquals(3, countLocationWeatherRows("mountain view,ca"));
+
+        /* Nothing new to store, but Mountain View is now the preferred location */
+        Uri mountainViewUri = WeatherContract.LocationWeatherEntry
+                .buildUriWithPreferredLocation("mountain view,ca");
+        TestUtilities.TestContentObserver observer = TestUtilities.getTestContentObserver();
+        contentResolver.registerContentObserver(
+                WeatherContract.WeatherEntry.CONTENT_URI, true, observer);
+        assertEquals("Every day's maximum temperature differs between the two locations",
+                3, contentResolver.bulkInsert(mountainViewUri, new ContentValues[0]));
+        observer.waitForNotificationOrFail();
+        contentResolver.unregisterContentObserver(observer);
+
+        Cursor cursor = contentResolver.query(WeatherContract.WeatherEntry.CONTENT_URI,
+                null, null, null, WeatherContract.WeatherEntry.COLUMN_DATE + " ASC");
+        assertNotNull(cursor);
+        assertEquals(mountainViewForecast.length, cursor.getCount());
+        cursor.moveToFirst();
+        for (int i = 0; i < mountainViewForecast.length; i++, cursor.moveToNext()) {
+            TestUtilities.validateCurrentRecord("testBulkInsertForecastsMergesPreferredLocation. "
+                    + "Error validating WeatherEntry " + i, cursor, mountainViewForecast[i]);
+        }
+        cursor.close();
+
+        assertEquals("Mountain View's stored forecast is already in the weather table",
+                0, contentResolver.bulkInsert(mountainViewUri, new ContentValues[0]));
+    }
+
+    /**
+     * This test merges a forecast into an empty table, merges the same forecast again, then
+     * merges the next day's forecast. Only the rows that differ should be written, and observers
+     * should be notified only when something changed.
+     */
+    @Test
+    public void testMergeWritesOnlyChangedDays() throws InterruptedException {
+        ContentResolver contentResolver = mContext.getContentResolver();
+        Uri mergeUri = WeatherContract.WeatherEntry.MERGE_URI;
+
+        ContentValues[] firstSync = new ContentValues[5];
+        for (int day = 0; day < firstSync.length; day++) {
+            firstSync[day] = createWeatherValues(day);
+        }
+
+        TestUtilities.TestContentObserver observer = TestUtilities.getTestContentObserver();
+        contentResolver.registerContentObserver(
+                WeatherContract.WeatherEntry.CONTENT_URI, true, observer);
+        assertEquals(5, contentResolver.bulkInsert(mergeUri, firstSync));
+        observer.waitForNotificationOrFail();
+        contentResolver.unregisterContentObserver(observer);
+
+        /* The same forecast again: nothing is written, and nobody is told */
+        observer = TestUtilities.getTestContentObserver();
+        contentResolver.registerContentObserver(
+                WeatherContract.WeatherEntry.CONTENT_URI, true, observer);
+        assertEquals(0, contentResolver.bulkInsert(mergeUri, firstSync));
+        Thread.sleep(500);
+        assertFalse("An unchanged forecast should not notify observers",
+                observer.mContentChanged);
+        contentResolver.unregisterContentObserver(observer);
+        observer.mHT.quit();
+
+        /* A day later: day 0 has passed, day 2's forecast changed and day 5 is new */
+        ContentValues[] secondSync = new ContentValues[5];
+        for (int day = 1; day <= secondSync.length; day++) {
+            secondSync[day - 1] = createWeatherValues(day);
+        }
+        secondSync[1].put(WeatherContract.WeatherEntry.COLUMN_MAX_TEMP, 30.0);
+        assertEquals("Expected one delete, one update and one insert",
+                3, contentResolver.bulkInsert(mergeUri, secondSync));
+
+        Cursor cursor = contentResolver.query(WeatherContract.WeatherEntry.CONTENT_URI,
+                null, null, null, WeatherContract.WeatherEntry.COLUMN_DATE + " ASC");
+        assertNotNull(cursor);
+        assertEquals(secondSync.length, cursor.getCount());
+        cursor.moveToFirst();
+        for (int i = 0; i < secondSync.length; i++, cursor.moveToNext()) {
+            TestUtilities.validateCurrentRecord("testMergeWritesOnlyChangedDays. Error validating "
+                    + "WeatherEntry " + i, cursor, secondSync[i]);
+        }
+        cursor.close();
+    }
+
+    /**
+     * Observes one day, as the detail screen does, and the whole table, as the forecast list
+     * does, while merging forecasts. The day's observer should only be called when its day or
+     * the set of days changed, and the table's observer once per changed day.
+     */
+    @Test
+    public void testMergeNotifiesOnlyChangedDays() throws InterruptedException {
+        ContentResolver contentResolver = mContext.getContentResolver();
+        Uri mergeUri = WeatherContract.WeatherEntry.MERGE_URI;
+
+        ContentValues[] forecast = new ContentValues[5];
+        for (int day = 0; day < forecast.length; day++) {
+            forecast[day] = createWeatherValues(day);
+        }
+        contentResolver.bulkInsert(mergeUri, forecast);
+
+        Uri dayUri = WeatherContract.WeatherEntry.buildWeatherUriWithDate(
+                forecast[3].getAsLong(WeatherContract.WeatherEntry.COLUMN_DATE));
+        TestUtilities.TestContentObserver dayObserver = TestUtilities.getTestContentObserver();
+        TestUtilities.TestContentObserver listObserver = TestUtilities.getTestContentObserver();
+        contentResolver.registerContentObserver(dayUri, false, dayObserver);
+        contentResolver.registerContentObserver(
+                WeatherContract.WeatherEntry.CONTENT_URI, true, listObserver);
+
+        /* Days 1 and 2 change, day 3 doesn't */
+        forecast[1].put(WeatherContract.WeatherEntry.COLUMN_MAX_TEMP, 30.0);
+        forecast[2].put(WeatherContract.WeatherEntry.COLUMN_MIN_TEMP, 0.0);
+        assertEquals(2, contentResolver.bulkInsert(mergeUri, forecast));
+        Thread.sleep(500);
+        assertEquals("Day 3 didn't change, so its observer shouldn't be called",
+                0, dayObserver.mChangeCount.get());
+        assertEquals("The list should hear about each changed day",
+                2, listObserver.mChangeCount.get());
+
+        /* Day 3 changes */
+        forecast[3].put(WeatherContract.WeatherEntry.COLUMN_MAX_TEMP, 30.0);
+        assertEquals(1, contentResolver.bulkInsert(mergeUri, forecast));
+        Thread.sleep(500);
+        assertEquals(1, dayObserver.mChangeCount.get());
+        assertEquals(3, listObserver.mChangeCount.get());
+
+        /* A day later: day 0 has passed and day 5 is new, so the set of days changed */
+        ContentValues[] nextDay = new ContentValues[forecast.length];
+        System.arraycopy(forecast, 1, nextDay, 0, forecast.length - 1);
+        nextDay[forecast.length - 1] = createWeatherValues(forecast.length);
+        assertEquals(2, contentResolver.bulkInsert(mergeUri, nextDay));
+        Thread.sleep(500);
+        assertEquals("A changed set of days should be notified once, to everyone",
+                2, dayObserver.mChangeCount.get());
+        assertEquals(4, listObserver.mChangeCount.get());
+
+        contentResolver.unregisterContentObserver(dayObserver);
+        contentResolver.unregisterContentObserver(listObserver);
+        dayObserver.mHT.quit();
+        listObserver.mHT.quit();
+    }
+
+    /**
+     * Merges a forecast, the same forecast again, then a forecast with one day changed and one
+     * day added. Each day that was written should be archived as a new revision, and nothing
+     * else.
+     */
+    @Test
+    public void testMergeArchivesEachRevision() throws InterruptedException {
+        ContentResolver contentResolver = mContext.getContentResolver();
+        Uri mergeUri = WeatherContract.WeatherEntry.MERGE_URI;
+
+        ContentValues[] firstSync = new ContentValues[3];
+        for (int day = 0; day < firstSync.length; day++) {
+            firstSync[day] = createWeatherValues(day);
+        }
+        contentResolver.bulkInsert(mergeUri, firstSync);
+        assertEquals(3, countArchivedRevisions(null));
+
+        contentResolver.bulkInsert(mergeUri, firstSync);
+        assertEquals("An unchanged forecast should not be archived again",
+                3, countArchivedRevisions(null));
+
+        /* Revisions are told apart by their sync time */
+        Thread.sleep(10);
+        ContentValues[] secondSync = new ContentValues[4];
+        for (int day = 0; day < secondSync.length; day++) {
+            secondSync[day] = createWeatherValues(day);
+        }
+        secondSync[1].put(WeatherContract.WeatherEntry.COLUMN_MAX_TEMP, 30.0);
+        contentResolver.bulkInsert(mergeUri, secondSync);
+
+        assertEquals(5, countArchivedRevisions(null));
+        assertEquals("Day 1 should have two revisions",
+                2, countArchivedRevisions(secondSync[1]));
+        assertEquals("Day 1's first revision is superseded by its second",
+                1, countArchivedRevisions(null, ArchiveEntry.getSqlSelectSuperseded()));
+    }
+
+    /**
+     * Applies a batch that inserts two days, updates one and deletes another. Every operation
+     * should be applied, and observers of the weather table notified once, after the batch.
+     */
+    @Test
+    public void testApplyBatchNotifiesOnce() throws Exception {
+        ContentResolver contentResolver = mContext.getContentResolver();
+        Uri weatherUri = WeatherContract.WeatherEntry.CONTENT_URI;
+
+        ContentValues[] forecast = new ContentValues[3];
+        for (int day = 0; day < forecast.length; day++) {
+            forecast[day] = createWeatherValues(day);
+        }
+        contentResolver.bulkInsert(weatherUri, forecast);
+
+        ContentValues updated = new ContentValues();
+        updated.put(WeatherContract.WeatherEntry.COLUMN_MAX_TEMP, 30.0);
+        ArrayList<ContentProviderOperation> operations =
+                new ArrayList<ContentProviderOperation>();
+        operations.add(ContentProviderOperation.newInsert(weatherUri)
+                .withValues(createWeatherValues(3)).build());
+        operations.add(ContentProviderOperation.newInsert(weatherUri)
+                .withValues(createWeatherValues(4)).build());
+        operations.add(ContentProviderOperation.newUpdate(
+                WeatherContract.WeatherEntry.buildWeatherUriWithDate(
+                        forecast[1].getAsLong(WeatherContract.WeatherEntry.COLUMN_DATE)))
+                .withValues(updated).build());
+        operations.add(ContentProviderOperation.newDelete(weatherUri)
+                .withSelection(WeatherContract.WeatherEntry.COLUMN_DATE + " = ?", new String[]{
+                        forecast[0].getAsString(WeatherContract.WeatherEntry.COLUMN_DATE)})
+                .build());
+
+        TestUtilities.TestContentObserver observer = TestUtilities.getTestContentObserver();
+        contentResolver.registerContentObserver(weatherUri, true, observer);
+        ContentProviderResult[] results =
+                contentResolver.applyBatch(WeatherContract.CONTENT_AUTHORITY, operations);
+        Thread.sleep(500);
+        contentResolver.unregisterContentObserver(observer);
+        observer.mHT.quit();
+
+        assertEquals(operations.size(), results.length);
+        assertEquals("The update should change day 1", 1, results[2].count.intValue());
+        assertEquals("The delete should remove day 0", 1, results[3].count.intValue());
+        assertEquals("A batch should notify observers once, after it commits",
+                1, observer.mChangeCount.get());
+
+        Cursor cursor = contentResolver.query(weatherUri, null, null, null,
+                WeatherContract.WeatherEntry.COLUMN_DATE + " ASC");
+        assertNotNull(cursor);
+        try {
+            assertEquals(4, cursor.getCount());
+            cursor.moveToFirst();
+            assertEquals(30.0, cursor.getDouble(
+                    cursor.getColumnIndex(WeatherContract.WeatherEntry.COLUMN_MAX_TEMP)));
+        } finally {
+            cursor.close();
+        }
+    }
+
+    /**
+     * Applies a batch whose last operation fails. None of its operations should be kept, and
+     * nobody should be notified.
+     */
+    @Test
+    public void testApplyBatchRollsBackOnFailure() throws Exception {
+        ContentResolver contentResolver = mContext.getContentResolver();
+        Uri weatherUri = WeatherContract.WeatherEntry.CONTENT_URI;
+
+        ContentValues notNormalized = createWeatherValues(1);
+        notNormalized.put(WeatherContract.WeatherEntry.COLUMN_DATE,
+                TestUtilities.DATE_NORMALIZED + 1);
+        ArrayList<ContentProviderOperation> operations =
+                new ArrayList<ContentProviderOperation>();
+        operations.add(ContentProviderOperation.newInsert(weatherUri)
+                .withValues(createWeatherValues(0)).build());
+        operations.add(ContentProviderOperation.newInsert(weatherUri)
+                .withValues(notNormalized).build());
+
+        TestUtilities.TestContentObserver observer = TestUtilities.getTestContentObserver();
+        contentResolver.registerContentObserver(weatherUri, true, observer);
+        try {
+            contentResolver.applyBatch(WeatherContract.CONTENT_AUTHORITY, operations);
+            fail("A date that isn't normalized should fail the batch");
+        } catch (IllegalArgumentException expected) {
+            /* The batch is rolled back */
+        }
+        Thread.sleep(500);
+        contentResolver.unregisterContentObserver(observer);
+        observer.mHT.quit();
+
+        assertFalse("A failed batch should not notify observers", observer.mContentChanged);
+        Cursor cursor = contentResolver.query(weatherUri, null, null, null, null);
+        assertNotNull(cursor);
+        try {
+            assertEquals("The first insert should be rolled back", 0, cursor.getCount());
+        } finally {
+            cursor.close();
+        }
+    }
+
+    private int countArchivedRevisions(ContentValues day) {
+        return countArchivedRevisions(day, null);
+    }
+
+    private int countArchivedRevisions(ContentValues day, String selection) {
+        String[] selectionArgs = null;
+        if (day != null) {
+            selection = WeatherContract.WeatherEntry.COLUMN_DATE + " = ?";
+            selectionArgs = new String[]{
+                    day.getAsString(WeatherContract.WeatherEntry.COLUMN_DATE)};
+        }
+        Cursor cursor = mContext.getContentResolver().query(ArchiveEntry.CONTENT_URI,
+                null, selection, selectionArgs, null);
+        assertNotNull(cursor);
+        try {
+            return cursor.getCount();
+        } finally {
+            cursor.close();
+        }
+    }
+
+    /* The forecast for the given number of days after TestUtilities.DATE_NORMALIZED */
+    private static ContentValues createWeatherValues(int day) {
+        return WeatherFixtures.createWeatherValues(
+                TestUtilities.DATE_NORMALIZED + SunshineDateUtils.DAY_IN_MILLIS * day, day);
+    }
+
+    private static ContentValues createLocationWeatherValues(String location, int day) {
+        ContentValues values = createWeatherValues(day);
+        values.put(WeatherContract.LocationWeatherEntry.COLUMN_LOCATION_QUERY, location);
+        return values;
+    }
+
+    private int countLocationWeatherRows(String location) {
+        Cursor cursor = mContext.getContentResolver().query(
+                WeatherContract.LocationWeatherEntry.CONTENT_URI,
+                null,
+                WeatherContract.LocationWeatherEntry.COLUMN_LOCATION_QUERY + " = ?",
+                new String[]{location},
+                null);
+        assertNotNull(cursor);
+        int count = cursor.getCount();
+        cursor.close();
+        return count;
+    }
+
     /**
      * This test deletes all records from the weather table using the ContentProvider. It also
      * verifies that registered ContentObservers receive onChange callbacks when data is deleted.
@@ -446,4 +990,20 @@ public class TestWeatherProvider {
         /* Always close the database when you're through with it */
         database.close();
     }
+
+    /* Like deleteAllRecordsFromWeatherTable, for the weather_archive table */
+    private void deleteAllRecordsFromArchiveTable() {
+        WeatherDbHelper helper = new WeatherDbHelper(InstrumentationRegistry.getTargetContext());
+        SQLiteDatabase database = helper.getWritableDatabase();
+        database.delete(ArchiveEntry.TABLE_NAME, null, null);
+        database.close();
+    }
+
+    /* Like deleteAllRecordsFromWeatherTable, for the location_weather table */
+    private void deleteAllRecordsFromLocationWeatherTable() {
+        WeatherDbHelper helper = new WeatherDbHelper(InstrumentationRegistry.getTargetContext());
+        SQLiteDatabase database = helper.getWritableDatabase();
+        database.delete(WeatherContract.LocationWeatherEntry.TABLE_NAME, null, null);
+        database.close();
+    }
 }
\ No newline at end of file
@@ -0,0 +1,183 @@
+/*
+ * Copyright (C) 2016 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.example.android.sunshine.sync;
+
+import android.content.ContentValues;
+import android.content.Context;
+import android.database.Cursor;
+import android.database.sqlite.SQLiteDatabase;
+import android.net.Uri;
+import android.support.test.InstrumentationRegistry;
+import android.support.test.runner.AndroidJUnit4;
+
+import com.example.android.sunshine.data.WeatherContract.ArchiveEntry;
+import com.example.android.sunshine.data.WeatherContract.WeatherEntry;
+import com.example.android.sunshine.data.WeatherDbHelper;
+import com.example.android.sunshine.data.WeatherFixtures;
+import com.example.android.sunshine.utilities.SunshineDateUtils;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+
+import java.util.TimeZone;
+import java.util.concurrent.TimeUnit;
+
+import static junit.framework.Assert.assertEquals;
+import static junit.framework.Assert.assertNotNull;
+import static junit.framework.Assert.assertTrue;
+
+@RunWith(AndroidJUnit4.class)
+public class TestArchiveCompaction {
+
+    private static final long DAY = SunshineDateUtils.DAY_IN_MILLIS;
+    private static final long HOUR = TimeUnit.HOURS.toMillis(1);
+
+    /* Keep every revision for two days, and each day's final forecast for 90 */
+    private static final ArchiveCompactionTask.RetentionPolicy POLICY =
+            new ArchiveCompactionTask.RetentionPolicy(2 * DAY, 90 * DAY);
+
+    private final Context mContext = InstrumentationRegistry.getTargetContext();
+
+    private TimeZone mDefaultTimeZone;
+    private long mNow;
+    private long mToday;
+
+    @Before
+    public void setUp() {
+        mDefaultTimeZone = TimeZone.getDefault();
+        mContext.getContentResolver().delete(WeatherEntry.CONTENT_URI, null, null);
+        mContext.getContentResolver().delete(ArchiveEntry.CONTENT_URI, null, null);
+        mNow = System.currentTimeMillis();
+        mToday = SunshineDateUtils.normalizeDate(mNow + mDefaultTimeZone.getOffset(mNow));
+    }
+
+    @After
+    public void tearDown() {
+        TimeZone.setDefault(mDefaultTimeZone);
+    }
+
+    @Test
+    public void testCompaction() {
+        /* The weather table still holds yesterday, as no sync has run since midnight */
+        insertWeather(mToday - DAY);
+        insertWeather(mToday);
+
+        /* Tomorrow was synced five and four days ago, and an hour ago */
+        long tomorrow = mToday + DAY;
+        insertRevision(tomorrow, mNow - 5 * DAY);
+        insertRevision(tomorrow, mNow - 4 * DAY);
+        insertRevision(tomorrow, mNow - HOUR);
+
+        /* The day after tomorrow was synced yesterday and two hours ago */
+        long dayAfterTomorrow = mToday + 2 * DAY;
+        insertRevision(dayAfterTomorrow, mNow - DAY);
+        insertRevision(dayAfterTomorrow, mNow - 2 * HOUR);
+
+        /* A month ago is within the archive retention, a hundred days ago isn't */
+        insertRevision(mToday - 30 * DAY, mNow - 31 * DAY);
+        insertRevision(mToday - 100 * DAY, mNow - 101 * DAY);
+
+        int removed = ArchiveCompactionTask.compact(mContext, POLICY, mNow);
+
+        assertEquals("Yesterday, two old revisions and one expired day should be removed",
+                4, removed);
+        assertEquals("Only today should be left in the weather table",
+                1, count(WeatherEntry.CONTENT_URI, null));
+        assertEquals("Tomorrow's old revisions should be downsampled to its final forecast",
+                1, count(ArchiveEntry.CONTENT_URI, tomorrow));
+        assertEquals("Recent revisions should all be kept",
+                2, count(ArchiveEntry.CONTENT_URI, dayAfterTomorrow));
+        assertEquals(1, count(ArchiveEntry.CONTENT_URI, mToday - 30 * DAY));
+        assertEquals(0, count(ArchiveEntry.CONTENT_URI, mToday - 100 * DAY));
+
+        assertEquals("Compacting again should find nothing to do",
+                0, ArchiveCompactionTask.compact(mContext, POLICY, mNow));
+    }
+
+    @Test
+    public void testFinalForecastsOnly() {
+        long tomorrow = mToday + DAY;
+        insertRevision(tomorrow, mNow - 2 * HOUR);
+        insertRevision(tomorrow, mNow - HOUR);
+
+        ArchiveCompactionTask.RetentionPolicy finalsOnly =
+                new ArchiveCompactionTask.RetentionPolicy(0, 90 * DAY);
+        ArchiveCompactionTask.compact(mContext, finalsOnly, mNow);
+
+        Cursor cursor = mContext.getContentResolver().query(ArchiveEntry.CONTENT_URI,
+                new String[]{ArchiveEntry.COLUMN_REVISION_TIME}, null, null, null);
+        assertNotNull(cursor);
+        try {
+            assertEquals(1, cursor.getCount());
+            cursor.moveToFirst();
+            assertEquals("The last revision is the one to keep", mNow - HOUR, cursor.getLong(0));
+        } finally {
+            cursor.close();
+        }
+    }
+
+    @Test
+    public void testEveningWestOfGreenwichKeepsToday() {
+        /* 8pm in Los Angeles, when it is already tomorrow in UTC */
+        TimeZone losAngeles = TimeZone.getTimeZone("America/Los_Angeles");
+        TimeZone.setDefault(losAngeles);
+        long localEvening = mToday + 20 * HOUR;
+        long now = localEvening - losAngeles.getOffset(localEvening);
+        assertEquals(mToday + DAY, SunshineDateUtils.normalizeDate(now));
+
+        insertWeather(mToday - DAY);
+        insertWeather(mToday);
+
+        /* Exactly as old as the archive retention, so still kept */
+        insertRevision(mToday - 90 * DAY, now - 91 * DAY);
+
+        assertEquals("Only yesterday should be removed",
+                1, ArchiveCompactionTask.compact(mContext, POLICY, now));
+        assertEquals(1, count(WeatherEntry.CONTENT_URI, mToday));
+        assertEquals(1, count(ArchiveEntry.CONTENT_URI, mToday - 90 * DAY));
+    }
+
+    private void insertWeather(long date) {
+        mContext.getContentResolver().bulkInsert(WeatherEntry.CONTENT_URI,
+                new ContentValues[]{WeatherFixtures.createWeatherValues(date, 0)});
+    }
+
+    /* Archives a revision directly, as a sync at revisionTime would have */
+    private void insertRevision(long date, long revisionTime) {
+        ContentValues revision = WeatherFixtures.createWeatherValues(date, 0);
+        revision.put(ArchiveEntry.COLUMN_REVISION_TIME, revisionTime);
+
+        WeatherDbHelper helper = new WeatherDbHelper(mContext);
+        SQLiteDatabase database = helper.getWritableDatabase();
+        assertTrue(database.insert(ArchiveEntry.TABLE_NAME, null, revision) != -1);
+        database.close();
+    }
+
+    private int count(Uri uri, Long date) {
+        String selection = date == null ? null : WeatherEntry.COLUMN_DATE + " = ?";
+        String[] selectionArgs = date == null ? null : new String[]{date.toString()};
+        Cursor cursor = mContext.getContentResolver().query(uri, null, selection, selectionArgs,
+                null);
+        assertNotNull(cursor);
+        try {
+            return cursor.getCount();
+        } finally {
+            cursor.close();
+        }
+    }
+}
@@ -0,0 +1,81 @@
+/*
+ * Copyright (C) 2016 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.example.android.sunshine.utilities;
+
+import android.content.Context;
+import android.content.res.Resources;
+import android.support.test.InstrumentationRegistry;
+import android.support.test.runner.AndroidJUnit4;
+
+import com.example.android.sunshine.R;
+
+import org.junit.Test;
+import org.junit.runner.RunWith;
+
+import java.util.Locale;
+
+import static junit.framework.Assert.assertEquals;
+
+/**
+ * Checks {@link AccuWeatherIcons}' table against the drawables it is meant to mirror: every
+ * icon number with a bundled drawable resolves to the drawable of that name, and the others to
+ * their documented fallbacks.
+ */
+@RunWith(AndroidJUnit4.class)
+public class TestAccuWeatherIcons {
+
+    private final Context mContext = InstrumentationRegistry.getTargetContext();
+
+    @Test
+    public void testEveryBundledIconResolvesToItsDrawable() {
+        Resources res = mContext.getResources();
+        for (int iconNumber = 1; iconNumber <= 44; iconNumber++) {
+            String drawableName = String.format(Locale.US, "aw%02ds", iconNumber);
+            int drawableId = res.getIdentifier(drawableName, "drawable",
+                    mContext.getPackageName());
+            if (drawableId != 0) {
+                assertEquals("Icon " + iconNumber + " should be " + drawableName,
+                        drawableId, AccuWeatherIcons.getIconResourceId(iconNumber));
+            }
+        }
+    }
+
+    @Test
+    public void testFallbacks() {
+        /* AccuWeather doesn't use these numbers, and we have no drawables for them */
+        assertEquals(R.drawable.aw08s, AccuWeatherIcons.getIconResourceId(9));
+        assertEquals(R.drawable.aw08s, AccuWeatherIcons.getIconResourceId(10));
+        assertEquals(R.drawable.aw29s, AccuWeatherIcons.getIconResourceId(27));
+        assertEquals(R.drawable.aw29s, AccuWeatherIcons.getIconResourceId(28));
+
+        /* A weather_id that isn't an AccuWeather icon at all */
+        assertEquals(R.drawable.aw07s, AccuWeatherIcons.getIconResourceId(0));
+        assertEquals(R.drawable.aw07s, AccuWeatherIcons.getIconResourceId(800));
+    }
+
+    @Test
+    public void testSilhouettes() {
+        assertEquals(R.drawable.ic_clear, AccuWeatherIcons.getSilhouetteResourceId(1));
+        assertEquals(R.drawable.ic_fog, AccuWeatherIcons.getSilhouetteResourceId(11));
+        assertEquals(R.drawable.ic_storm, AccuWeatherIcons.getSilhouetteResourceId(15));
+        assertEquals(R.drawable.ic_rain, AccuWeatherIcons.getSilhouetteResourceId(18));
+        assertEquals(R.drawable.ic_snow, AccuWeatherIcons.getSilhouetteResourceId(44));
+
+        /* A weather_id that isn't an AccuWeather icon at all */
+        assertEquals(R.drawable.ic_cloudy, AccuWeatherIcons.getSilhouetteResourceId(0));
+        assertEquals(R.drawable.ic_cloudy, AccuWeatherIcons.getSilhouetteResourceId(800));
+    }
+}
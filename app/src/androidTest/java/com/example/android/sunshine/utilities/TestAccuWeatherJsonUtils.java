@@ -0,0 +1,229 @@
+/*
+ * Copyright (C) 2016 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.example.android.sunshine.utilities;
+
+import android.content.ContentValues;
+import android.content.Context;
+import android.os.Debug;
+import android.support.test.InstrumentationRegistry;
+import android.support.test.runner.AndroidJUnit4;
+import android.util.Log;
+
+import com.example.android.sunshine.data.WeatherContract.WeatherEntry;
+
+import org.json.JSONArray;
+import org.json.JSONException;
+import org.json.JSONObject;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+
+import static junit.framework.Assert.assertEquals;
+import static junit.framework.Assert.assertFalse;
+import static junit.framework.Assert.assertTrue;
+import static junit.framework.Assert.fail;
+
+/**
+ * Tests the streaming AccuWeather parser against responses recorded in
+ * androidTest/assets/accuweather, and benchmarks it against the org.json parser it replaced.
+ */
+@RunWith(AndroidJUnit4.class)
+public class TestAccuWeatherJsonUtils {
+
+    private static final String TAG = TestAccuWeatherJsonUtils.class.getSimpleName();
+
+    private static final String FORECAST_FIXTURE = "accuweather/forecast_5day.json";
+    private static final String LOCATION_FIXTURE = "accuweather/location_search.json";
+
+    private static final int WARM_UP_PARSES = 20;
+    private static final int MEASURED_PARSES = 100;
+
+    private final Context mContext = InstrumentationRegistry.getTargetContext();
+
+    @Test
+    public void testStreamingForecastMatchesDomParser() throws Exception {
+        byte[] forecast = readFixture(FORECAST_FIXTURE);
+
+        ContentValues[] expected = parseForecastWithDom(new String(forecast, "UTF-8"));
+        ContentValues[] actual = AccuWeatherJsonUtils
+                .getWeatherContentValuesFromJson(mContext, ResponseBody.wrap(forecast));
+
+        assertEquals(expected.length, actual.length);
+        for (int i = 0; i < expected.length; i++) {
+            assertEquals("Day " + i + " differs", expected[i], actual[i]);
+        }
+    }
+
+    @Test
+    public void testLocationKeyIsFirstMatch() throws Exception {
+        byte[] location = readFixture(LOCATION_FIXTURE);
+
+        assertEquals("329380",
+                AccuWeatherJsonUtils.getLocationFromJson(mContext, ResponseBody.wrap(location)));
+        assertEquals("329380",
+                AccuWeatherJsonUtils.getLocationFromJson(mContext, new String(location, "UTF-8")));
+        assertEquals(null, AccuWeatherJsonUtils.getLocationFromJson(mContext, "[]"));
+    }
+
+    @Test
+    public void testRejectsErrorPayload() {
+        String error = "{\"Code\":\"Unauthorized\",\"Message\":\"Api Authorization failed\","
+                + "\"Reference\":\"/forecasts/v1/daily/5day/329380\"}";
+
+        try {
+            AccuWeatherJsonUtils.getWeatherContentValuesFromJson(mContext, error);
+            fail("Expected a JSONException for a forecast without DailyForecasts");
+        } catch (JSONException expected) {
+            /* The parser noticed there was no forecast */
+        }
+
+        try {
+            AccuWeatherJsonUtils.getLocationFromJson(mContext, error);
+            fail("Expected a JSONException for a location search that isn't an array");
+        } catch (JSONException expected) {
+            /* The parser noticed there were no locations */
+        }
+    }
+
+    @Test
+    public void testParserReadsAndSkipsEveryKindOfValue() throws JSONException {
+        byte[] json = ("{\"skip\":{\"a\":[1,{\"b\":\"\\\"}\"},null,true]},"
+                + "\"text\":\"caf\\u00e9 \\\"au\\\" lait\",\"number\":-12.5e1,\"flag\":false}")
+                .getBytes(ResponseBody.UTF_8);
+        JsonPullParser parser = new JsonPullParser(json, 0, json.length);
+
+        parser.beginObject();
+        assertEquals("skip", parser.nextName());
+        parser.skipValue();
+        assertEquals("text", parser.nextName());
+        assertEquals("café \"au\" lait", parser.nextString());
+        assertEquals("number", parser.nextName());
+        assertEquals(-125.0, parser.nextDouble());
+        assertEquals("flag", parser.nextName());
+        assertFalse(parser.nextBoolean());
+        assertFalse(parser.hasNext());
+        parser.endObject();
+        assertEquals(JsonPullParser.END_DOCUMENT, parser.peek());
+    }
+
+    /**
+     * Parses the recorded forecast repeatedly with both parsers and compares the time taken and
+     * the bytes allocated per parse. The DOM parser has to decode the whole response to a String
+     * and build an object for every value in it, including the ones we skip.
+     */
+    @Test
+    @SuppressWarnings("deprecation")
+    public void benchmarkParseTimeAndAllocation() throws Exception {
+        byte[] forecast = readFixture(FORECAST_FIXTURE);
+        ResponseBody forecastBody = ResponseBody.wrap(forecast);
+
+        for (int i = 0; i < WARM_UP_PARSES; i++) {
+            parseForecastWithDom(new String(forecast, "UTF-8"));
+            AccuWeatherJsonUtils.getWeatherContentValuesFromJson(mContext, forecastBody);
+        }
+
+        Debug.startAllocCounting();
+        try {
+            Debug.resetThreadAllocSize();
+            long domStart = System.nanoTime();
+            for (int i = 0; i < MEASURED_PARSES; i++) {
+                parseForecastWithDom(new String(forecast, "UTF-8"));
+            }
+            long domMicros = (System.nanoTime() - domStart) / 1000 / MEASURED_PARSES;
+            long domBytes = Debug.getThreadAllocSize() / MEASURED_PARSES;
+
+            Debug.resetThreadAllocSize();
+            long streamingStart = System.nanoTime();
+            for (int i = 0; i < MEASURED_PARSES; i++) {
+                AccuWeatherJsonUtils.getWeatherContentValuesFromJson(mContext, forecastBody);
+            }
+            long streamingMicros = (System.nanoTime() - streamingStart) / 1000 / MEASURED_PARSES;
+            long streamingBytes = Debug.getThreadAllocSize() / MEASURED_PARSES;
+
+            Log.i(TAG, "Per parse of " + forecast.length + " bytes: org.json=" + domMicros
+                    + "us/" + domBytes + "B streaming=" + streamingMicros + "us/"
+                    + streamingBytes + "B");
+
+            assertTrue("Streaming parser allocated " + streamingBytes
+                            + " bytes per parse, org.json allocated " + domBytes,
+                    streamingBytes < domBytes);
+            assertTrue("Streaming parser took " + streamingMicros
+                            + "us per parse, org.json took " + domMicros + "us",
+                    streamingMicros < domMicros);
+        } finally {
+            Debug.stopAllocCounting();
+        }
+    }
+
+    private static byte[] readFixture(String name) throws IOException {
+        InputStream in = InstrumentationRegistry.getContext().getAssets().open(name);
+        try {
+            ByteArrayOutputStream out = new ByteArrayOutputStream();
+            byte[] buffer = new byte[4096];
+            int read;
+            while ((read = in.read(buffer)) != -1) {
+                out.write(buffer, 0, read);
+            }
+            return out.toByteArray();
+        } finally {
+            in.close();
+        }
+    }
+
+    /* The org.json parsing that AccuWeatherJsonUtils used before the streaming parser */
+    private static ContentValues[] parseForecastWithDom(String forecastJsonStr)
+            throws JSONException {
+        JSONObject forecastJson = new JSONObject(forecastJsonStr);
+        JSONArray jsonWeatherArray = forecastJson.getJSONArray("DailyForecasts");
+        ContentValues[] weatherContentValues = new ContentValues[jsonWeatherArray.length()];
+
+        long normalizedUtcStartDay = SunshineDateUtils.getNormalizedUtcDateForToday();
+
+        for (int i = 0; i < jsonWeatherArray.length(); i++) {
+            JSONObject forecast24hr = jsonWeatherArray.getJSONObject(i);
+            JSONObject forecastDaytime = forecast24hr.getJSONObject("Day");
+            JSONObject windForecast = forecastDaytime.getJSONObject("Wind");
+            JSONObject windDirObj = windForecast.getJSONObject("Direction");
+            JSONObject temperature24Hrs = forecast24hr.getJSONObject("Temperature");
+
+            ContentValues weatherValues = new ContentValues();
+            weatherValues.put(WeatherEntry.COLUMN_DATE,
+                    normalizedUtcStartDay + SunshineDateUtils.DAY_IN_MILLIS * i);
+            weatherValues.put(WeatherEntry.COLUMN_WIND_SPEED,
+                    windForecast.getJSONObject("Speed").getDouble("Value"));
+            weatherValues.put(WeatherEntry.COLUMN_DEGREES, windDirObj.getDouble("Degrees"));
+            weatherValues.put(WeatherEntry.COLUMN_DEGREES_DESC, windDirObj.getString("Localized"));
+            weatherValues.put(WeatherEntry.COLUMN_MAX_TEMP,
+                    temperature24Hrs.getJSONObject("Maximum").getDouble("Value"));
+            weatherValues.put(WeatherEntry.COLUMN_MIN_TEMP,
+                    temperature24Hrs.getJSONObject("Minimum").getDouble("Value"));
+            weatherValues.put(WeatherEntry.COLUMN_WEATHER_ID, forecastDaytime.getInt("Icon"));
+            weatherValues.put(WeatherEntry.COLUMN_WEATHER_DESC,
+                    forecastDaytime.getString("IconPhrase"));
+            weatherValues.put(WeatherEntry.COLUMN_PRECIP_PROB,
+                    forecastDaytime.getDouble("PrecipitationProbability"));
+            weatherValues.put(WeatherEntry.COLUMN_PRECIP_HOURS,
+                    forecastDaytime.getDouble("HoursOfPrecipitation"));
+
+            weatherContentValues[i] = weatherValues;
+        }
+
+        return weatherContentValues;
+    }
+}
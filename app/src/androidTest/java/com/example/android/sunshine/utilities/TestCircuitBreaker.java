@@ -0,0 +1,110 @@
+/*
+ * Copyright (C) 2016 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.example.android.sunshine.utilities;
+
+import android.content.Context;
+import android.support.test.InstrumentationRegistry;
+import android.support.test.runner.AndroidJUnit4;
+
+import org.junit.Before;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+
+import java.util.concurrent.TimeUnit;
+
+import static junit.framework.Assert.assertEquals;
+import static junit.framework.Assert.assertFalse;
+import static junit.framework.Assert.assertTrue;
+
+/**
+ * Tests that {@link CircuitBreaker} opens, half-opens and closes as documented, and that its
+ * state survives being re-created, as it is when the process is restarted.
+ */
+@RunWith(AndroidJUnit4.class)
+public class TestCircuitBreaker {
+
+    private static final String HOST = "test.circuit.breaker";
+
+    private Context mContext;
+
+    @Before
+    public void setUp() {
+        mContext = InstrumentationRegistry.getTargetContext();
+        new CircuitBreaker(mContext, HOST).recordSuccess();
+    }
+
+    @Test
+    public void testOpensAfterConsecutiveFailures() {
+        CircuitBreaker breaker = new CircuitBreaker(mContext, HOST);
+        long now = System.currentTimeMillis();
+
+        for (int i = 1; i < CircuitBreaker.FAILURE_THRESHOLD; i++) {
+            assertTrue(breaker.allowRequest(now));
+            breaker.recordFailure(now);
+        }
+        assertTrue("Not enough failures to open yet", breaker.allowRequest(now));
+
+        /* A success in between starts the count over */
+        breaker.recordSuccess();
+        for (int i = 0; i < CircuitBreaker.FAILURE_THRESHOLD; i++) {
+            assertTrue(breaker.allowRequest(now));
+            breaker.recordFailure(now);
+        }
+
+        assertFalse(breaker.allowRequest(now));
+        assertFalse(breaker.allowRequest(now + CircuitBreaker.BASE_OPEN_MILLIS - 1));
+        assertEquals(now + CircuitBreaker.BASE_OPEN_MILLIS, breaker.getOpenUntil());
+    }
+
+    @Test
+    public void testHalfOpenAllowsOneTrialAndBacksOff() {
+        CircuitBreaker breaker = new CircuitBreaker(mContext, HOST);
+        long now = System.currentTimeMillis();
+        for (int i = 0; i < CircuitBreaker.FAILURE_THRESHOLD; i++) {
+            breaker.recordFailure(now);
+        }
+
+        long halfOpen = now + CircuitBreaker.BASE_OPEN_MILLIS;
+        assertTrue("The first request after the open period is a trial",
+                breaker.allowRequest(halfOpen));
+        assertFalse("Only one trial at a time", breaker.allowRequest(halfOpen));
+
+        /* The trial failed, so the breaker opens for twice as long */
+        breaker.recordFailure(halfOpen);
+        assertEquals(halfOpen + 2 * CircuitBreaker.BASE_OPEN_MILLIS, breaker.getOpenUntil());
+
+        long secondHalfOpen = breaker.getOpenUntil();
+        assertTrue(breaker.allowRequest(secondHalfOpen));
+        breaker.recordSuccess();
+        assertEquals(0, breaker.getOpenUntil());
+        assertTrue(breaker.allowRequest(secondHalfOpen));
+        assertTrue("Closed again, so no longer limited to one request",
+                breaker.allowRequest(secondHalfOpen));
+    }
+
+    @Test
+    public void testStateSurvivesRestart() {
+        long now = System.currentTimeMillis();
+        new CircuitBreaker(mContext, HOST).openFor(now, TimeUnit.HOURS.toMillis(1));
+
+        CircuitBreaker restarted = new CircuitBreaker(mContext, HOST);
+        assertFalse(restarted.allowRequest(now + TimeUnit.MINUTES.toMillis(59)));
+        assertTrue(restarted.allowRequest(now + TimeUnit.HOURS.toMillis(1)));
+
+        CircuitBreaker otherHost = new CircuitBreaker(mContext, HOST + ".other");
+        assertTrue("Each host has its own breaker", otherHost.allowRequest(now));
+    }
+}
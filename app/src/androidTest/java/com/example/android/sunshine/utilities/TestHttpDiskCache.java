@@ -0,0 +1,136 @@
+/*
+ * Copyright (C) 2016 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.example.android.sunshine.utilities;
+
+import android.support.test.InstrumentationRegistry;
+import android.support.test.runner.AndroidJUnit4;
+
+import org.junit.Before;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+
+import java.io.File;
+import java.net.URL;
+import java.util.concurrent.TimeUnit;
+
+import static junit.framework.Assert.assertEquals;
+import static junit.framework.Assert.assertNotNull;
+import static junit.framework.Assert.assertNull;
+import static junit.framework.Assert.assertTrue;
+
+/**
+ * Tests the freshness rules, eviction and counters of {@link HttpDiskCache}.
+ */
+@RunWith(AndroidJUnit4.class)
+public class TestHttpDiskCache {
+
+    private static final long ONE_HOUR_MILLIS = TimeUnit.HOURS.toMillis(1);
+
+    private File mDirectory;
+
+    @Before
+    public void setUp() {
+        mDirectory = new File(InstrumentationRegistry.getTargetContext().getCacheDir(),
+                "test_http_cache");
+        new HttpDiskCache(mDirectory, Long.MAX_VALUE).evictAll();
+    }
+
+    @Test
+    public void testFreshnessLifetimeFromHeaders() {
+        long now = System.currentTimeMillis();
+
+        assertEquals(300000, HttpDiskCache.getFreshnessLifetime("public, max-age=300", null, null, now));
+        assertEquals("max-age wins over Expires", 60000, HttpDiskCache.getFreshnessLifetime(
+                "max-age=60", "Thu, 01 Jan 2099 00:00:00 GMT", null, now));
+        assertEquals(HttpDiskCache.NOT_CACHEABLE,
+                HttpDiskCache.getFreshnessLifetime("no-store", null, null, now));
+        assertEquals(HttpDiskCache.NOT_CACHEABLE,
+                HttpDiskCache.getFreshnessLifetime("no-cache, max-age=300", null, null, now));
+        assertEquals("Expires is relative to Date", 3600000, HttpDiskCache.getFreshnessLifetime(
+                null, "Tue, 18 Oct 2016 13:00:00 GMT", "Tue, 18 Oct 2016 12:00:00 GMT", now));
+        assertEquals("An invalid Expires means already expired", 0,
+                HttpDiskCache.getFreshnessLifetime(null, "0", null, now));
+        assertEquals(0, HttpDiskCache.getFreshnessLifetime(null, null, null, now));
+    }
+
+    @Test
+    public void testFreshResponseIsServedUntilItExpires() throws Exception {
+        HttpDiskCache cache = new HttpDiskCache(mDirectory, Long.MAX_VALUE);
+        URL url = new URL("http://dataservice.accuweather.com/forecasts/v1/daily/5day/329380");
+
+        assertNull(cache.get(url));
+
+        cache.put(url, createResponse("{\"DailyForecasts\":[]}", "\"v1\""), ONE_HOUR_MILLIS);
+        WeatherHttpClient.Response cached = cache.get(url);
+        assertNotNull(cached);
+        assertTrue(cached.isFromCache());
+        assertEquals("\"v1\"", cached.getETag());
+        assertEquals("{\"DailyForecasts\":[]}", cached.getBody().string());
+        cached.getBody().release();
+
+        /* A response that is already stale must not be served */
+        cache.put(url, createResponse("{}", null), 1);
+        Thread.sleep(5);
+        assertNull(cache.get(url));
+
+        assertEquals(1, cache.getHitCount());
+        assertEquals(2, cache.getMissCount());
+    }
+
+    @Test
+    public void testMinimumFreshnessAppliesPerHost() throws Exception {
+        HttpDiskCache cache = new HttpDiskCache(mDirectory, Long.MAX_VALUE);
+        cache.setMinimumFreshness("dataservice.accuweather.com", ONE_HOUR_MILLIS);
+        URL accuWeatherUrl = new URL("http://dataservice.accuweather.com/locations/v1/search");
+        URL otherUrl = new URL("https://andfun-weather.udacity.com/staticweather");
+
+        cache.put(accuWeatherUrl, createResponse("[]", null), 0);
+        cache.put(otherUrl, createResponse("[]", null), 0);
+
+        WeatherHttpClient.Response cached = cache.get(accuWeatherUrl);
+        assertNotNull(cached);
+        cached.getBody().release();
+        assertNull(cache.get(otherUrl));
+    }
+
+    @Test
+    public void testLeastRecentlyUsedResponseIsEvicted() throws Exception {
+        String payload = new String(new char[1000]).replace('\0', 'x');
+        URL first = new URL("http://dataservice.accuweather.com/1");
+        URL second = new URL("http://dataservice.accuweather.com/2");
+        URL third = new URL("http://dataservice.accuweather.com/3");
+
+        /* Room for two entries, but not three */
+        HttpDiskCache cache = new HttpDiskCache(mDirectory, 2500);
+        cache.put(first, createResponse(payload, null), ONE_HOUR_MILLIS);
+        cache.put(second, createResponse(payload, null), ONE_HOUR_MILLIS);
+
+        /* Using the first entry makes the second the least recently used */
+        cache.get(first).getBody().release();
+        cache.put(third, createResponse(payload, null), ONE_HOUR_MILLIS);
+
+        assertNull(cache.get(second));
+        assertNotNull(cache.get(first));
+        assertNotNull(cache.get(third));
+        assertTrue(cache.getSizeBytes() <= 2500);
+    }
+
+    private static WeatherHttpClient.Response createResponse(String body, String eTag) {
+        return new WeatherHttpClient.Response(200,
+                ResponseBody.wrap(body.getBytes(ResponseBody.UTF_8)),
+                new WeatherHttpClient.Timing(), eTag, null, false);
+    }
+}
@@ -0,0 +1,156 @@
+/*
+ * Copyright (C) 2016 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.example.android.sunshine.utilities;
+
+import android.os.Debug;
+import android.support.test.runner.AndroidJUnit4;
+import android.util.Log;
+
+import org.junit.Test;
+import org.junit.runner.RunWith;
+
+import java.io.ByteArrayInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.util.Scanner;
+
+import static junit.framework.Assert.assertEquals;
+import static junit.framework.Assert.assertTrue;
+import static junit.framework.Assert.fail;
+
+/**
+ * Tests for {@link ResponseBodyReader}, plus a micro-benchmark that compares the bytes allocated
+ * per sync by the reader against the Scanner("\\A") approach it replaced.
+ */
+@RunWith(AndroidJUnit4.class)
+public class TestResponseBodyReader {
+
+    private static final String TAG = TestResponseBodyReader.class.getSimpleName();
+
+    /* Roughly the size of a location search and a details=true 5 day forecast response */
+    private static final int LOCATION_PAYLOAD_BYTES = 3 * 1024;
+    private static final int FORECAST_PAYLOAD_BYTES = 24 * 1024;
+
+    private static final int WARM_UP_SYNCS = 5;
+    private static final int MEASURED_SYNCS = 20;
+
+    @Test
+    public void testReadsUtf8BodyExactly() throws IOException {
+        byte[] payload = createPayload(FORECAST_PAYLOAD_BYTES);
+
+        ResponseBody body = ResponseBodyReader.read(new ByteArrayInputStream(payload),
+                -1, ResponseBodyReader.DEFAULT_MAX_BODY_BYTES);
+
+        assertEquals(payload.length, body.length());
+        assertEquals(new String(payload, "UTF-8"), body.string());
+        body.release();
+    }
+
+    @Test
+    public void testRejectsBodyLargerThanLimit() throws IOException {
+        byte[] payload = createPayload(FORECAST_PAYLOAD_BYTES);
+
+        try {
+            /* No Content-Length, so the limit has to be enforced while reading */
+            ResponseBodyReader.read(new ByteArrayInputStream(payload), -1, 1024);
+            fail("Expected an IOException for a body over the limit");
+        } catch (IOException expected) {
+            /* The reader refused to buffer the whole body */
+        }
+
+        try {
+            /* An honest Content-Length lets the reader refuse before reading anything */
+            ResponseBodyReader.read(new ByteArrayInputStream(payload), payload.length, 1024);
+            fail("Expected an IOException for a Content-Length over the limit");
+        } catch (IOException expected) {
+            /* The reader refused to buffer the whole body */
+        }
+    }
+
+    /**
+     * Simulates the two response bodies read during one sync and compares how many bytes each
+     * approach allocates. The reader borrows its buffers from a pool and hands the bytes to the
+     * parser without decoding them, so after warming up it should allocate far less than Scanner.
+     */
+    @Test
+    @SuppressWarnings("deprecation")
+    public void benchmarkBytesAllocatedPerSync() throws IOException {
+        byte[] locationPayload = createPayload(LOCATION_PAYLOAD_BYTES);
+        byte[] forecastPayload = createPayload(FORECAST_PAYLOAD_BYTES);
+
+        for (int i = 0; i < WARM_UP_SYNCS; i++) {
+            syncWithScanner(locationPayload, forecastPayload);
+            syncWithReader(locationPayload, forecastPayload);
+        }
+
+        Debug.startAllocCounting();
+        try {
+            Debug.resetThreadAllocSize();
+            for (int i = 0; i < MEASURED_SYNCS; i++) {
+                syncWithScanner(locationPayload, forecastPayload);
+            }
+            long scannerBytesPerSync = Debug.getThreadAllocSize() / MEASURED_SYNCS;
+
+            Debug.resetThreadAllocSize();
+            for (int i = 0; i < MEASURED_SYNCS; i++) {
+                syncWithReader(locationPayload, forecastPayload);
+            }
+            long readerBytesPerSync = Debug.getThreadAllocSize() / MEASURED_SYNCS;
+
+            Log.i(TAG, "Bytes allocated per sync: Scanner=" + scannerBytesPerSync
+                    + " ResponseBodyReader=" + readerBytesPerSync);
+
+            assertTrue("ResponseBodyReader allocated " + readerBytesPerSync
+                            + " bytes per sync, Scanner allocated " + scannerBytesPerSync,
+                    readerBytesPerSync < scannerBytesPerSync);
+        } finally {
+            Debug.stopAllocCounting();
+        }
+    }
+
+    private static void syncWithScanner(byte[] location, byte[] forecast) {
+        readWithScanner(new ByteArrayInputStream(location));
+        readWithScanner(new ByteArrayInputStream(forecast));
+    }
+
+    private static void syncWithReader(byte[] location, byte[] forecast) throws IOException {
+        ResponseBodyReader.read(new ByteArrayInputStream(location), location.length,
+                ResponseBodyReader.DEFAULT_MAX_BODY_BYTES).release();
+        ResponseBodyReader.read(new ByteArrayInputStream(forecast), forecast.length,
+                ResponseBodyReader.DEFAULT_MAX_BODY_BYTES).release();
+    }
+
+    /* The body reading code that NetworkUtils used before ResponseBodyReader */
+    private static String readWithScanner(InputStream in) {
+        Scanner scanner = new Scanner(in);
+        scanner.useDelimiter("\\A");
+        String response = scanner.hasNext() ? scanner.next() : null;
+        scanner.close();
+        return response;
+    }
+
+    /* Builds a JSON-like payload that includes multi-byte UTF-8 characters */
+    private static byte[] createPayload(int approximateSize) throws IOException {
+        StringBuilder builder = new StringBuilder(approximateSize);
+        builder.append('[');
+        while (builder.length() < approximateSize) {
+            builder.append("{\"Temperature\":{\"Value\":21.5,\"Unit\":\"°C\"},")
+                    .append("\"IconPhrase\":\"Partly sunny w/ t-storms\"},");
+        }
+        builder.append("{}]");
+        return builder.toString().getBytes("UTF-8");
+    }
+}
@@ -0,0 +1,123 @@
+/*
+ * Copyright (C) 2016 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.example.android.sunshine.utilities;
+
+import android.support.test.runner.AndroidJUnit4;
+
+import org.junit.Test;
+import org.junit.runner.RunWith;
+
+import java.io.IOException;
+import java.net.SocketTimeoutException;
+import java.net.URL;
+import java.util.Random;
+
+import static junit.framework.Assert.assertEquals;
+import static junit.framework.Assert.assertFalse;
+import static junit.framework.Assert.assertTrue;
+
+/**
+ * Tests how failed requests are classified, and how long {@link RetryPolicy} waits before
+ * retrying the ones that are worth retrying.
+ */
+@RunWith(AndroidJUnit4.class)
+public class TestWeatherApiException {
+
+    private static final String QUOTA_EXCEEDED = "{\"Code\":\"ServiceUnavailable\","
+            + "\"Message\":\"The allowed number of requests has been exceeded.\","
+            + "\"Reference\":\"/forecasts/v1/daily/5day/329380\"}";
+
+    private static final String UNAUTHORIZED = "{\"Code\":\"Unauthorized\","
+            + "\"Message\":\"Api Authorization failed\","
+            + "\"Reference\":\"/forecasts/v1/daily/5day/329380\"}";
+
+    @Test
+    public void testClassifiesResponses() throws Exception {
+        assertKind(WeatherApiException.ERROR_QUOTA_EXCEEDED, 503, QUOTA_EXCEEDED);
+        assertKind(WeatherApiException.ERROR_QUOTA_EXCEEDED, 429, null);
+        assertKind(WeatherApiException.ERROR_UNAUTHORIZED, 401, UNAUTHORIZED);
+        assertKind(WeatherApiException.ERROR_LOCATION_NOT_FOUND, 404, null);
+        assertKind(WeatherApiException.ERROR_BAD_REQUEST, 400, "{\"Code\":\"400\"}");
+        assertKind("A 503 that isn't about the quota is an outage",
+                WeatherApiException.ERROR_SERVER, 503, "<html>Service Unavailable</html>");
+        assertKind(WeatherApiException.ERROR_SERVER, 500, null);
+    }
+
+    @Test
+    public void testOnlyTransientErrorsAreRetried() throws Exception {
+        URL url = new URL("http://dataservice.accuweather.com/forecasts/v1/daily/5day/329380");
+
+        WeatherApiException timeout =
+                WeatherApiException.fromNetworkError(url, new SocketTimeoutException());
+        assertEquals(WeatherApiException.ERROR_NETWORK, timeout.getKind());
+        assertTrue(timeout.isRetryable());
+        assertTrue(timeout.isEndpointFailure());
+
+        WeatherApiException quota = classify(503, QUOTA_EXCEEDED);
+        assertFalse("The quota won't be back in seconds", quota.isRetryable());
+        assertTrue(quota.isEndpointFailure());
+
+        WeatherApiException notFound = classify(404, null);
+        assertFalse(notFound.isRetryable());
+        assertFalse("A missing location says nothing about the host",
+                notFound.isEndpointFailure());
+
+        RetryPolicy policy = new RetryPolicy(3, 1000, 8000, new Random(42));
+        assertTrue(policy.shouldRetry(1, timeout));
+        assertTrue(policy.shouldRetry(2, timeout));
+        assertFalse("Only 3 attempts in all", policy.shouldRetry(3, timeout));
+        assertFalse(policy.shouldRetry(1, quota));
+    }
+
+    @Test
+    public void testBackoffIsExponentialWithFullJitter() {
+        RetryPolicy policy = new RetryPolicy(10, 1000, 8000, new Random(42));
+        long[] ceilings = {1000, 2000, 4000, 8000, 8000};
+
+        for (int attempt = 1; attempt <= ceilings.length; attempt++) {
+            long min = Long.MAX_VALUE;
+            long max = 0;
+            for (int i = 0; i < 1000; i++) {
+                long delay = policy.getDelayMillis(attempt);
+                assertTrue(delay >= 0 && delay <= ceilings[attempt - 1]);
+                min = Math.min(min, delay);
+                max = Math.max(max, delay);
+            }
+            /* The delays are spread over the whole range, not bunched at the ceiling */
+            assertTrue(min < ceilings[attempt - 1] / 10);
+            assertTrue(max > ceilings[attempt - 1] * 9 / 10);
+        }
+    }
+
+    private static void assertKind(int kind, int code, String body) throws IOException {
+        assertKind(null, kind, code, body);
+    }
+
+    private static void assertKind(String message, int kind, int code, String body)
+            throws IOException {
+        assertEquals(message, kind, classify(code, body).getKind());
+    }
+
+    private static WeatherApiException classify(int code, String body) throws IOException {
+        URL url = new URL("http://dataservice.accuweather.com/forecasts/v1/daily/5day/329380");
+        ResponseBody responseBody = body != null
+                ? ResponseBody.wrap(body.getBytes(ResponseBody.UTF_8))
+                : null;
+        WeatherHttpClient.Response response = new WeatherHttpClient.Response(code, responseBody,
+                new WeatherHttpClient.Timing(), null, null, false);
+        return WeatherApiException.fromResponse(url, response);
+    }
+}
@@ -16,7 +16,6 @@
 package com.example.android.sunshine;
 
 import android.content.Intent;
-import android.content.res.Resources;
 import android.database.Cursor;
 import android.databinding.DataBindingUtil;
 import android.net.Uri;
@@ -26,21 +25,19 @@ import android.support.v4.app.ShareCompat;
 import android.support.v4.content.CursorLoader;
 import android.support.v4.content.Loader;
 import android.support.v7.app.AppCompatActivity;
-import android.util.Log;
 import android.view.Menu;
 import android.view.MenuInflater;
 import android.view.MenuItem;
 
 import com.example.android.sunshine.data.WeatherContract;
 import com.example.android.sunshine.databinding.ActivityDetailBinding;
+import com.example.android.sunshine.utilities.AccuWeatherIcons;
 import com.example.android.sunshine.utilities.SunshineDateUtils;
 import com.example.android.sunshine.utilities.SunshineWeatherUtils;
 
 public class DetailActivity extends AppCompatActivity implements
         LoaderManager.LoaderCallbacks<Cursor> {
 
-    private static final String TAG = DetailActivity.class.getSimpleName();
-
     /*
      * In this Activity, you can share the selected day's forecast. No social sharing is complete
      * without using a hashtag. #BeTogetherNotTheSame
@@ -256,19 +253,10 @@ public class DetailActivity extends AppCompatActivity implements
         /****************
          * Weather Icon *
          ****************/
-        /* Read weather condition ID from the cursor (ID provided by Open Weather Map) */
+        /* Read weather condition ID from the cursor (the icon number provided by AccuWeather) */
         int weatherId = data.getInt(INDEX_WEATHER_CONDITION_ID);
         /* Use our utility method to determine the resource ID for the proper art */
-//DHW        int weatherImageId = SunshineWeatherUtils.getLargeArtResourceIdForWeatherCondition(weatherId);
-
-        Resources res = getResources();
-        String numberAsString = String.format ("%02d", weatherId);
-        String mDrawableName = "aw-" + numberAsString + "-s";
-        Log.v(TAG, "AccuWeather weatherId: " + weatherId);
-        Log.v(TAG, "AccuWeather mDrawableName: " + mDrawableName);
-//        String mDrawableName = "myimageName"; //use your image name like if your    image name is myimagename.png then use my imagename
-        int weatherImageId = res.getIdentifier(mDrawableName , "drawable", getPackageName());
-        Log.v(TAG, "AccuWeather weatherImageId: " + weatherImageId);
+        int weatherImageId = AccuWeatherIcons.getIconResourceId(weatherId);
 
         /* Set the resource ID on the icon to display the art */
         mDetailBinding.primaryInfo.weatherIcon.setImageResource(weatherImageId);
@@ -16,28 +16,24 @@
 package com.example.android.sunshine;
 
 import android.content.Context;
-import android.content.res.Resources;
-import android.database.Cursor;
 import android.support.annotation.NonNull;
 import android.support.v7.widget.RecyclerView;
-import android.util.Log;
 import android.view.LayoutInflater;
 import android.view.View;
 import android.view.ViewGroup;
 import android.widget.ImageView;
 import android.widget.TextView;
 
-import com.example.android.sunshine.utilities.SunshineDateUtils;
-import com.example.android.sunshine.utilities.SunshineWeatherUtils;
+import com.example.android.sunshine.utilities.SunshineTrace;
+
+import java.util.List;
 
 /**
- * {@link ForecastAdapter} exposes a list of weather forecasts
- * from a {@link android.database.Cursor} to a {@link android.support.v7.widget.RecyclerView}.
+ * {@link ForecastAdapter} exposes a list of weather forecasts, as {@link ForecastItem}s,
+ * to a {@link android.support.v7.widget.RecyclerView}.
  */
 class ForecastAdapter extends RecyclerView.Adapter<ForecastAdapter.ForecastAdapterViewHolder> {
 
-    private static final String TAG = ForecastAdapter.class.getSimpleName();
-
     private static final int VIEW_TYPE_TODAY = 0;
     private static final int VIEW_TYPE_FUTURE_DAY = 1;
 
@@ -67,7 +63,8 @@ class ForecastAdapter extends RecyclerView.Adapter<ForecastAdapter.ForecastAdapt
      */
     private boolean mUseTodayLayout;
 
-    private Cursor mCursor;
+    /* The days to show, as built by ForecastLoader. Never modified. */
+    private List<ForecastItem> mForecast;
 
     /**
      * Creates a ForecastAdapter.
@@ -80,6 +77,8 @@ class ForecastAdapter extends RecyclerView.Adapter<ForecastAdapter.ForecastAdapt
         mContext = context;
         mClickHandler = clickHandler;
         mUseTodayLayout = mContext.getResources().getBoolean(R.bool.use_today_layout);
+        /* Each day's row keeps its date as its id, however the forecast around it changes */
+        setHasStableIds(true);
     }
 
     /**
@@ -126,6 +125,9 @@ class ForecastAdapter extends RecyclerView.Adapter<ForecastAdapter.ForecastAdapt
      * position. In this method, we update the contents of the ViewHolder to display the weather
      * details for this particular position, using the "position" argument that is conveniently
      * passed into us.
+     * <p>
+     * Everything a row shows was worked out by {@link ForecastLoader} when it built the
+     * {@link ForecastItem}, so this only hands the values to the views and allocates nothing.
      *
      * @param forecastAdapterViewHolder The ViewHolder which should be updated to represent the
      *                                  contents of the item at the given position in the data set.
@@ -133,99 +135,33 @@ class ForecastAdapter extends RecyclerView.Adapter<ForecastAdapter.ForecastAdapt
      */
     @Override
     public void onBindViewHolder(ForecastAdapterViewHolder forecastAdapterViewHolder, int position) {
-        mCursor.moveToPosition(position);
-
-        /****************
-         * Weather Icon *
-         ****************/
-        int weatherId = mCursor.getInt(MainActivity.INDEX_WEATHER_CONDITION_ID);
-//        int weatherImageId;
-//
-//        int viewType = getItemViewType(position);
-//
-//        switch (viewType) {
-//
-//            case VIEW_TYPE_TODAY:
-//                weatherImageId = SunshineWeatherUtils
-//                        .getLargeArtResourceIdForWeatherCondition(weatherId);
-//                break;
-//
-//            case VIEW_TYPE_FUTURE_DAY:
-//                weatherImageId = SunshineWeatherUtils
-//                        .getSmallArtResourceIdForWeatherCondition(weatherId);
-//                break;
-//
-//            default:
-//                throw new IllegalArgumentException("Invalid view type, value of " + viewType);
-//        }
-        Resources res = mContext.getResources();
-        String numberAsString = String.format ("%02d", weatherId);
-        String mDrawableName = "aw" + numberAsString + "s";
-        Log.v(TAG, "AccuWeather weatherId: " + weatherId);
-        Log.v(TAG, "AccuWeather mDrawableName: " + mDrawableName);
-//        String mDrawableName = "myimageName"; //use your image name like if your    image name is myimagename.png then use my imagename
-        int weatherImageId = res.getIdentifier(mDrawableName , "drawable", mContext.getPackageName());
-        Log.v(TAG, "AccuWeather weatherImageId: " + weatherImageId);
-
-        forecastAdapterViewHolder.iconView.setImageResource(weatherImageId);
-
-        /****************
-         * Weather Date *
-         ****************/
-         /* Read date from the cursor */
-        long dateInMillis = mCursor.getLong(MainActivity.INDEX_WEATHER_DATE);
-         /* Get human readable string using our utility method */
-        String dateString = SunshineDateUtils.getFriendlyDateString(mContext, dateInMillis, false);
-
-         /* Display friendly date string */
-        forecastAdapterViewHolder.dateView.setText(dateString);
-
-        /***********************
-         * Weather Description *
-         ***********************/
-//DHW        String description = SunshineWeatherUtils.getStringForWeatherCondition(mContext, weatherId);
-        String description = mCursor.getString(MainActivity.INDEX_WEATHER_CONDITION_DESC);
-         /* Create the accessibility (a11y) String from the weather description */
-        String descriptionA11y = mContext.getString(R.string.a11y_forecast, description);
-
-         /* Set the text and content description (for accessibility purposes) */
-        forecastAdapterViewHolder.descriptionView.setText(description);
-        forecastAdapterViewHolder.descriptionView.setContentDescription(descriptionA11y);
-
-        /**************************
-         * High (max) temperature *
-         **************************/
-         /* Read high temperature from the cursor (in degrees celsius) */
-        double highInCelsius = mCursor.getDouble(MainActivity.INDEX_WEATHER_MAX_TEMP);
-         /*
-          * If the user's preference for weather is fahrenheit, formatTemperature will convert
-          * the temperature. This method will also append either °C or °F to the temperature
-          * String.
-          */
-        String highString = SunshineWeatherUtils.formatTemperature(mContext, highInCelsius);
-         /* Create the accessibility (a11y) String from the weather description */
-        String highA11y = mContext.getString(R.string.a11y_high_temp, highString);
-
-         /* Set the text and content description (for accessibility purposes) */
-        forecastAdapterViewHolder.highTempView.setText(highString);
-        forecastAdapterViewHolder.highTempView.setContentDescription(highA11y);
-
-        /*************************
-         * Low (min) temperature *
-         *************************/
-         /* Read low temperature from the cursor (in degrees celsius) */
-        double lowInCelsius = mCursor.getDouble(MainActivity.INDEX_WEATHER_MIN_TEMP);
-         /*
-          * If the user's preference for weather is fahrenheit, formatTemperature will convert
-          * the temperature. This method will also append either °C or °F to the temperature
-          * String.
-          */
-        String lowString = SunshineWeatherUtils.formatTemperature(mContext, lowInCelsius);
-        String lowA11y = mContext.getString(R.string.a11y_low_temp, lowString);
-
-         /* Set the text and content description (for accessibility purposes) */
-        forecastAdapterViewHolder.lowTempView.setText(lowString);
-        forecastAdapterViewHolder.lowTempView.setContentDescription(lowA11y);
+        /* Binding runs for every row scrolled in, so only a sample of binds is traced */
+        boolean traced = SunshineTrace.TRACING
+                && SunshineTrace.beginSampledSection(SunshineTrace.SECTION_BIND);
+        try {
+            bindItem(forecastAdapterViewHolder, mForecast.get(position));
+        } finally {
+            if (traced) {
+                SunshineTrace.endSection();
+            }
+        }
+    }
+
+    private static void bindItem(ForecastAdapterViewHolder forecastAdapterViewHolder,
+            ForecastItem item) {
+        forecastAdapterViewHolder.iconView.setImageResource(item.iconResId);
+
+        forecastAdapterViewHolder.dateView.setText(item.dateText);
+
+        /* Set the text and content description (for accessibility purposes) */
+        forecastAdapterViewHolder.descriptionView.setText(item.description);
+        forecastAdapterViewHolder.descriptionView.setContentDescription(item.descriptionA11y);
+
+        forecastAdapterViewHolder.highTempView.setText(item.highText);
+        forecastAdapterViewHolder.highTempView.setContentDescription(item.highA11y);
+
+        forecastAdapterViewHolder.lowTempView.setText(item.lowText);
+        forecastAdapterViewHolder.lowTempView.setContentDescription(item.lowA11y);
     }
 
     /**
@@ -236,8 +172,19 @@ class ForecastAdapter extends RecyclerView.Adapter<ForecastAdapter.ForecastAdapt
      */
     @Override
     public int getItemCount() {
-        if (null == mCursor) return 0;
-        return mCursor.getCount();
+        if (null == mForecast) return 0;
+        return mForecast.size();
+    }
+
+    /**
+     * Returns the stable id of a row: the normalized date of its day.
+     *
+     * @param position index within our RecyclerView
+     * @return the day's date
+     */
+    @Override
+    public long getItemId(int position) {
+        return mForecast.get(position).date;
     }
 
     /**
@@ -260,18 +207,39 @@ class ForecastAdapter extends RecyclerView.Adapter<ForecastAdapter.ForecastAdapt
     }
 
     /**
-     * Swaps the cursor used by the ForecastAdapter for its weather data. This method is called by
-     * MainActivity after a load has finished, as well as when the Loader responsible for loading
-     * the weather data is reset. When this method is called, we assume we have a completely new
-     * set of data, so we call notifyDataSetChanged to tell the RecyclerView to update.
+     * Swaps the forecast shown by the ForecastAdapter. This method is called by MainActivity
+     * after a load has finished, as well as when the Loader responsible for loading the weather
+     * data is reset. When this method is called, we assume we have a completely new set of data,
+     * so we call notifyDataSetChanged to tell the RecyclerView to update.
      *
-     * @param newCursor the new cursor to use as ForecastAdapter's data source
+     * @param newForecast the new days to show, or null to show none
      */
-    void swapCursor(Cursor newCursor) {
-        mCursor = newCursor;
+    void swapForecast(List<ForecastItem> newForecast) {
+        mForecast = newForecast;
         notifyDataSetChanged();
     }
 
+    /**
+     * Shows a newly loaded forecast. If it was diffed against the forecast this adapter shows,
+     * only the rows that were inserted, removed or changed are updated; a load that changed
+     * nothing rebinds nothing. Otherwise, such as for the first load or after the activity was
+     * recreated, every row is.
+     *
+     * @param result the forecast delivered by ForecastLoader
+     */
+    void updateForecast(ForecastLoader.Result result) {
+        if (result.items == mForecast) {
+            /* Delivered again, as when the activity is started again */
+            return;
+        }
+        if (result.diff == null || result.previousItems != mForecast) {
+            swapForecast(result.items);
+            return;
+        }
+        mForecast = result.items;
+        result.diff.dispatchUpdatesTo(this);
+    }
+
     /**
      * A ViewHolder is a required part of the pattern for RecyclerViews. It mostly behaves as
      * a cache of the child views for a forecast item. It's also a convenient place to set an
@@ -307,8 +275,7 @@ class ForecastAdapter extends RecyclerView.Adapter<ForecastAdapter.ForecastAdapt
         @Override
         public void onClick(View v) {
             int adapterPosition = getAdapterPosition();
-            mCursor.moveToPosition(adapterPosition);
-            long dateInMillis = mCursor.getLong(MainActivity.INDEX_WEATHER_DATE);
+            long dateInMillis = mForecast.get(adapterPosition).date;
             mClickHandler.onClick(dateInMillis);
         }
     }
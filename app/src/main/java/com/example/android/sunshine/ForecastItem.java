@@ -0,0 +1,117 @@
+/*
+ * Copyright (C) 2016 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.example.android.sunshine;
+
+import android.content.Context;
+import android.database.Cursor;
+
+import com.example.android.sunshine.utilities.AccuWeatherIcons;
+import com.example.android.sunshine.utilities.SunshineDateUtils;
+import com.example.android.sunshine.utilities.SunshineWeatherUtils;
+
+/**
+ * One day of the forecast list, with everything {@link ForecastAdapter} shows for it already
+ * worked out: the icon to draw, and every String it sets, content descriptions included.
+ * <p>
+ * {@link ForecastLoader} builds these on a background thread, so that binding a row on the main
+ * thread only has to hand the values to its views. Once built, an item never changes. A day is
+ * identified by its date, which is also its row's stable id.
+ */
+final class ForecastItem {
+
+    /* Normalized UTC date of the day, what the detail screen is opened with */
+    final long date;
+
+    /* AccuWeather's icon number for the day's weather */
+    final int weatherId;
+
+    final int iconResId;
+
+    final String dateText;
+    final String description;
+    final String descriptionA11y;
+    final String highText;
+    final String highA11y;
+    final String lowText;
+    final String lowA11y;
+
+    ForecastItem(long date, int weatherId, int iconResId, String dateText, String description,
+            String descriptionA11y, String highText, String highA11y, String lowText,
+            String lowA11y) {
+        this.date = date;
+        this.weatherId = weatherId;
+        this.iconResId = iconResId;
+        this.dateText = dateText;
+        this.description = description;
+        this.descriptionA11y = descriptionA11y;
+        this.highText = highText;
+        this.highA11y = highA11y;
+        this.lowText = lowText;
+        this.lowA11y = lowA11y;
+    }
+
+    /**
+     * Builds the item for the cursor's current row.
+     *
+     * @param context Used to format the date and temperatures, and to look up resources
+     * @param cursor  A cursor over {@link MainActivity#MAIN_FORECAST_PROJECTION}
+     * @return The day's item
+     */
+    static ForecastItem fromCursor(Context context, Cursor cursor) {
+        long date = cursor.getLong(MainActivity.INDEX_WEATHER_DATE);
+        int weatherId = cursor.getInt(MainActivity.INDEX_WEATHER_CONDITION_ID);
+
+        String dateText = SunshineDateUtils.getFriendlyDateString(context, date, false);
+
+        String description = cursor.getString(MainActivity.INDEX_WEATHER_CONDITION_DESC);
+        String descriptionA11y = context.getString(R.string.a11y_forecast, description);
+
+        /*
+         * If the user's preference for weather is fahrenheit, formatTemperature will convert
+         * the temperature. This method will also append either °C or °F to the temperature
+         * String.
+         */
+        String highText = SunshineWeatherUtils.formatTemperature(context,
+                cursor.getDouble(MainActivity.INDEX_WEATHER_MAX_TEMP));
+        String highA11y = context.getString(R.string.a11y_high_temp, highText);
+
+        String lowText = SunshineWeatherUtils.formatTemperature(context,
+                cursor.getDouble(MainActivity.INDEX_WEATHER_MIN_TEMP));
+        String lowA11y = context.getString(R.string.a11y_low_temp, lowText);
+
+        return new ForecastItem(date, weatherId, AccuWeatherIcons.getIconResourceId(weatherId),
+                dateText, description, descriptionA11y, highText, highA11y, lowText, lowA11y);
+    }
+
+    /**
+     * Whether this item shows exactly what another one does, so that a row bound to one needn't
+     * be bound again to show the other.
+     */
+    boolean hasSameContents(ForecastItem other) {
+        return iconResId == other.iconResId
+                && equals(dateText, other.dateText)
+                && equals(description, other.description)
+                && equals(descriptionA11y, other.descriptionA11y)
+                && equals(highText, other.highText)
+                && equals(highA11y, other.highA11y)
+                && equals(lowText, other.lowText)
+                && equals(lowA11y, other.lowA11y);
+    }
+
+    private static boolean equals(String a, String b) {
+        return a == null ? b == null : a.equals(b);
+    }
+}
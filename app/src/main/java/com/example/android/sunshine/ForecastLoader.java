@@ -0,0 +1,257 @@
+/*
+ * Copyright (C) 2016 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.example.android.sunshine;
+
+import android.content.BroadcastReceiver;
+import android.content.Context;
+import android.content.Intent;
+import android.content.IntentFilter;
+import android.database.Cursor;
+import android.support.v4.content.AsyncTaskLoader;
+import android.support.v7.util.DiffUtil;
+
+import com.example.android.sunshine.data.WeatherContract;
+import com.example.android.sunshine.utilities.SunshineDateUtils;
+import com.example.android.sunshine.utilities.SunshineTrace;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.Locale;
+
+/**
+ * Loads the forecast from today onwards and turns every day into a {@link ForecastItem}, all on
+ * a background thread, for MainActivity's list.
+ * <p>
+ * Like a CursorLoader, it loads again whenever the weather table changes, and when the units
+ * preference changes, as SettingsFragment then notifies the weather table's URI. Unlike one, it
+ * closes its cursor as soon as the items are built, and the list it delivers is never modified.
+ * <p>
+ * Each load also works out, still in the background, how the new forecast differs from the one
+ * delivered before it, so that {@link ForecastAdapter} only rebinds the rows that changed.
+ * <p>
+ * The items' Strings depend on the locale and on which day is today ("Today", "Tomorrow", day
+ * names), not just on the weather table. So the loader also loads again when the locale, the
+ * date or the time zone changes, and a result built under another locale or day is never
+ * handed out again.
+ */
+class ForecastLoader extends AsyncTaskLoader<ForecastLoader.Result> {
+
+    /**
+     * A loaded forecast, and how it differs from the previous one.
+     */
+    static final class Result {
+
+        /* The days to show. Never modified. */
+        final List<ForecastItem> items;
+
+        /* The forecast the diff was worked out from, or null for the first load */
+        final List<ForecastItem> previousItems;
+
+        /* How to get from previousItems to items, or null for the first load */
+        final DiffUtil.DiffResult diff;
+
+        /* The locale and the day the items' Strings were built under, see isCurrent */
+        private final Locale mLocale;
+        private final long mNormalizedUtcToday;
+
+        private Result(List<ForecastItem> items, List<ForecastItem> previousItems,
+                DiffUtil.DiffResult diff, Locale locale, long normalizedUtcToday) {
+            this.items = items;
+            this.previousItems = previousItems;
+            this.diff = diff;
+            mLocale = locale;
+            mNormalizedUtcToday = normalizedUtcToday;
+        }
+
+        /* Whether the items still read as they would if they were built now */
+        boolean isCurrent() {
+            return mLocale.equals(Locale.getDefault())
+                    && mNormalizedUtcToday == SunshineDateUtils.getNormalizedUtcDateForToday();
+        }
+
+        /**
+         * Works out how a forecast built under the current locale and day differs from the
+         * previous one.
+         *
+         * @see #diff(List, List, Locale, long)
+         */
+        static Result diff(List<ForecastItem> previousItems, List<ForecastItem> items) {
+            return diff(previousItems, items, Locale.getDefault(),
+                    SunshineDateUtils.getNormalizedUtcDateForToday());
+        }
+
+        /**
+         * Works out how a forecast differs from the previous one. Rows are matched by date, and
+         * only count as changed if something they show is different.
+         *
+         * @param previousItems      The forecast shown so far, or null if there is none
+         * @param items              The new forecast
+         * @param locale             The default locale when the items were built
+         * @param normalizedUtcToday Today's normalized UTC date when the items were built
+         * @return The new forecast, with the diff from the previous one
+         */
+        static Result diff(List<ForecastItem> previousItems, List<ForecastItem> items,
+                Locale locale, long normalizedUtcToday) {
+            if (previousItems == null) {
+                return new Result(items, null, null, locale, normalizedUtcToday);
+            }
+            /* Both lists are sorted by date, so days never move */
+            DiffUtil.DiffResult diff = DiffUtil.calculateDiff(
+                    new ForecastDiffCallback(previousItems, items), false);
+            return new Result(items, previousItems, diff, locale, normalizedUtcToday);
+        }
+    }
+
+    private final ForceLoadContentObserver mObserver = new ForceLoadContentObserver();
+    private boolean mObserving;
+
+    /* Reloads when the locale, the date or the time zone changes the items' Strings */
+    private final BroadcastReceiver mReceiver = new BroadcastReceiver() {
+        @Override
+        public void onReceive(Context context, Intent intent) {
+            onContentChanged();
+        }
+    };
+
+    /* The last result delivered, handed out again when the loader is restarted */
+    private volatile Result mResult;
+
+    ForecastLoader(Context context) {
+        super(context);
+    }
+
+    @Override
+    public Result loadInBackground() {
+        Result previous = mResult;
+        /* Read before building the items, so that a change while they're built makes them stale */
+        Locale locale = Locale.getDefault();
+        long normalizedUtcToday = SunshineDateUtils.getNormalizedUtcDateForToday();
+        return Result.diff(previous == null ? null : previous.items, loadForecast(),
+                locale, normalizedUtcToday);
+    }
+
+    private List<ForecastItem> loadForecast() {
+        SunshineTrace.beginSection(SunshineTrace.SECTION_QUERY);
+        Cursor cursor = null;
+        try {
+            cursor = getContext().getContentResolver().query(
+                    WeatherContract.WeatherEntry.UPCOMING_URI,
+                    MainActivity.MAIN_FORECAST_PROJECTION,
+                    null,
+                    null,
+                    WeatherContract.WeatherEntry.COLUMN_DATE + " ASC");
+            if (cursor == null) {
+                return Collections.emptyList();
+            }
+
+            List<ForecastItem> forecast = new ArrayList<ForecastItem>(cursor.getCount());
+            while (cursor.moveToNext()) {
+                forecast.add(ForecastItem.fromCursor(getContext(), cursor));
+            }
+            return Collections.unmodifiableList(forecast);
+        } finally {
+            if (cursor != null) {
+                cursor.close();
+            }
+            SunshineTrace.endSection();
+        }
+    }
+
+    @Override
+    public void deliverResult(Result result) {
+        if (isReset()) {
+            return;
+        }
+        mResult = result;
+        if (isStarted()) {
+            super.deliverResult(result);
+        }
+    }
+
+    @Override
+    protected void onStartLoading() {
+        if (!mObserving) {
+            getContext().getContentResolver().registerContentObserver(
+                    WeatherContract.WeatherEntry.CONTENT_URI, true, mObserver);
+
+            IntentFilter filter = new IntentFilter(Intent.ACTION_LOCALE_CHANGED);
+            filter.addAction(Intent.ACTION_DATE_CHANGED);
+            filter.addAction(Intent.ACTION_TIMEZONE_CHANGED);
+            getContext().registerReceiver(mReceiver, filter);
+            mObserving = true;
+        }
+
+        /* A result built under another locale or day would show stale labels, so don't reuse it */
+        boolean current = mResult != null && mResult.isCurrent();
+        if (current) {
+            deliverResult(mResult);
+        }
+        if (takeContentChanged() || !current) {
+            forceLoad();
+        }
+    }
+
+    @Override
+    protected void onStopLoading() {
+        cancelLoad();
+    }
+
+    @Override
+    protected void onReset() {
+        super.onReset();
+        onStopLoading();
+        mResult = null;
+
+        if (mObserving) {
+            getContext().getContentResolver().unregisterContentObserver(mObserver);
+            getContext().unregisterReceiver(mReceiver);
+            mObserving = false;
+        }
+    }
+
+    /* Matches days by date, the rows' stable ids */
+    private static final class ForecastDiffCallback extends DiffUtil.Callback {
+
+        private final List<ForecastItem> mOldItems;
+        private final List<ForecastItem> mNewItems;
+
+        ForecastDiffCallback(List<ForecastItem> oldItems, List<ForecastItem> newItems) {
+            mOldItems = oldItems;
+            mNewItems = newItems;
+        }
+
+        @Override
+        public int getOldListSize() {
+            return mOldItems.size();
+        }
+
+        @Override
+        public int getNewListSize() {
+            return mNewItems.size();
+        }
+
+        @Override
+        public boolean areItemsTheSame(int oldItemPosition, int newItemPosition) {
+            return mOldItems.get(oldItemPosition).date == mNewItems.get(newItemPosition).date;
+        }
+
+        @Override
+        public boolean areContentsTheSame(int oldItemPosition, int newItemPosition) {
+            return mOldItems.get(oldItemPosition).hasSameContents(mNewItems.get(newItemPosition));
+        }
+    }
+}
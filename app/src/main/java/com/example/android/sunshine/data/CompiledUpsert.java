@@ -0,0 +1,222 @@
+/*
+ * Copyright (C) 2016 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.example.android.sunshine.data;
+
+import android.annotation.TargetApi;
+import android.content.ContentValues;
+import android.database.SQLException;
+import android.database.sqlite.SQLiteDatabase;
+import android.database.sqlite.SQLiteStatement;
+import android.os.Build;
+import android.util.Log;
+
+import java.util.Map;
+
+/**
+ * Writes many rows into one table through statements that are compiled once and reused for
+ * every row, instead of going through {@link SQLiteDatabase#insert} per row.
+ * <p>
+ * SQLiteDatabase.insert builds a new INSERT statement for each row, has SQLite compile it, and
+ * binds the values through a HashMap of column names. Here the INSERT (and UPDATE) is compiled
+ * for the columns of the first row, and each row only binds its values and runs.
+ * <p>
+ * Given key columns, each row is an upsert: the row with the same key is updated in place, and
+ * the row is only inserted if there is none. With our UNIQUE ... ON CONFLICT REPLACE tables, a
+ * plain insert of an existing key makes SQLite delete the old row and insert a new one, which
+ * also touches every index twice and gives the row a new _ID.
+ * <p>
+ * Call it inside a transaction, and {@link #close()} it when done.
+ */
+final class CompiledUpsert {
+
+    private static final String TAG = CompiledUpsert.class.getSimpleName();
+
+    private final SQLiteDatabase mDb;
+    private final String mTable;
+    private final String[] mKeyColumns;
+
+    /* The columns the statements were compiled for, taken from the first row */
+    private String[] mColumns;
+
+    private SQLiteStatement mInsert;
+    /* null when there are no key columns, in which case rows are only inserted */
+    private SQLiteStatement mUpdate;
+    /* SELECT changes(), to count updated rows before executeUpdateDelete (API 11) */
+    private SQLiteStatement mChanges;
+
+    /**
+     * @param db         The database to write to
+     * @param table      The table to write to
+     * @param keyColumns The columns that identify a row, such as the date; none to only insert
+     */
+    CompiledUpsert(SQLiteDatabase db, String table, String... keyColumns) {
+        mDb = db;
+        mTable = table;
+        mKeyColumns = keyColumns;
+    }
+
+    /**
+     * Updates the row with the same key as values, or inserts values if there is no such row.
+     * Like SQLiteDatabase.insert, a row that breaks a constraint is logged and skipped.
+     *
+     * @param values The row; every row should have the same columns as the first
+     * @return true if a row was updated or inserted
+     */
+    boolean upsert(ContentValues values) {
+        if (mColumns == null) {
+            compile(values);
+        }
+
+        try {
+            if (!hasCompiledColumns(values)) {
+                /* A row with other columns than the first can't use the compiled statements */
+                return upsertUncompiled(values);
+            }
+
+            if (mUpdate != null) {
+                /* SET every column, WHERE every key column */
+                for (int i = 0; i < mColumns.length; i++) {
+                    bind(mUpdate, i + 1, values.get(mColumns[i]));
+                }
+                for (int i = 0; i < mKeyColumns.length; i++) {
+                    bind(mUpdate, mColumns.length + i + 1, values.get(mKeyColumns[i]));
+                }
+                if (executeUpdate() > 0) {
+                    return true;
+                }
+            }
+
+            for (int i = 0; i < mColumns.length; i++) {
+                bind(mInsert, i + 1, values.get(mColumns[i]));
+            }
+            return mInsert.executeInsert() != -1;
+        } catch (SQLException e) {
+            Log.e(TAG, "Error writing " + values + " to " + mTable, e);
+            return false;
+        }
+    }
+
+    /* Releases the compiled statements */
+    void close() {
+        if (mInsert != null) {
+            mInsert.close();
+        }
+        if (mUpdate != null) {
+            mUpdate.close();
+        }
+        if (mChanges != null) {
+            mChanges.close();
+        }
+    }
+
+    private void compile(ContentValues firstRow) {
+        mColumns = new String[firstRow.size()];
+        int column = 0;
+        for (Map.Entry<String, Object> entry : firstRow.valueSet()) {
+            mColumns[column++] = entry.getKey();
+        }
+
+        StringBuilder insert = new StringBuilder("INSERT INTO ").append(mTable).append(" (");
+        StringBuilder placeholders = new StringBuilder();
+        for (int i = 0; i < mColumns.length; i++) {
+            if (i > 0) {
+                insert.append(", ");
+                placeholders.append(", ");
+            }
+            insert.append(mColumns[i]);
+            placeholders.append('?');
+        }
+        insert.append(") VALUES (").append(placeholders).append(')');
+        mInsert = mDb.compileStatement(insert.toString());
+
+        if (mKeyColumns.length > 0) {
+            StringBuilder update = new StringBuilder("UPDATE ").append(mTable).append(" SET ");
+            for (int i = 0; i < mColumns.length; i++) {
+                update.append(i > 0 ? ", " : "").append(mColumns[i]).append(" = ?");
+            }
+            update.append(" WHERE ").append(getKeySelection());
+            mUpdate = mDb.compileStatement(update.toString());
+
+            if (Build.VERSION.SDK_INT < Build.VERSION_CODES.HONEYCOMB) {
+                mChanges = mDb.compileStatement("SELECT changes()");
+            }
+        }
+    }
+
+    private boolean hasCompiledColumns(ContentValues values) {
+        if (values.size() != mColumns.length) {
+            return false;
+        }
+        for (String column : mColumns) {
+            if (!values.containsKey(column)) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    /* The number of rows the UPDATE just changed */
+    private long executeUpdate() {
+        if (Build.VERSION.SDK_INT >= Build.VERSION_CODES.HONEYCOMB) {
+            return executeUpdateDelete(mUpdate);
+        }
+        mUpdate.execute();
+        return mChanges.simpleQueryForLong();
+    }
+
+    @TargetApi(Build.VERSION_CODES.HONEYCOMB)
+    private static long executeUpdateDelete(SQLiteStatement statement) {
+        return statement.executeUpdateDelete();
+    }
+
+    /* The slow path, for a row whose columns differ from the first row's */
+    private boolean upsertUncompiled(ContentValues values) {
+        if (mKeyColumns.length > 0) {
+            String[] keyValues = new String[mKeyColumns.length];
+            for (int i = 0; i < mKeyColumns.length; i++) {
+                keyValues[i] = values.getAsString(mKeyColumns[i]);
+            }
+            if (mDb.update(mTable, values, getKeySelection(), keyValues) > 0) {
+                return true;
+            }
+        }
+        return mDb.insert(mTable, null, values) != -1;
+    }
+
+    private String getKeySelection() {
+        StringBuilder selection = new StringBuilder();
+        for (int i = 0; i < mKeyColumns.length; i++) {
+            selection.append(i > 0 ? " AND " : "").append(mKeyColumns[i]).append(" = ?");
+        }
+        return selection.toString();
+    }
+
+    private static void bind(SQLiteStatement statement, int index, Object value) {
+        if (value == null) {
+            statement.bindNull(index);
+        } else if (value instanceof Double || value instanceof Float) {
+            statement.bindDouble(index, ((Number) value).doubleValue());
+        } else if (value instanceof Number) {
+            statement.bindLong(index, ((Number) value).longValue());
+        } else if (value instanceof Boolean) {
+            statement.bindLong(index, (Boolean) value ? 1 : 0);
+        } else if (value instanceof byte[]) {
+            statement.bindBlob(index, (byte[]) value);
+        } else {
+            statement.bindString(index, value.toString());
+        }
+    }
+}
@@ -0,0 +1,284 @@
+/*
+ * Copyright (C) 2016 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.example.android.sunshine.data;
+
+import android.annotation.TargetApi;
+import android.database.AbstractCursor;
+import android.database.Cursor;
+import android.database.sqlite.SQLiteDatabase;
+import android.os.Build;
+
+import java.util.Arrays;
+
+/**
+ * A read-through cache of the queries on {@link WeatherContract.WeatherEntry#UPCOMING_URI}: every
+ * day from today onwards.
+ * <p>
+ * The forecast list makes that query every time its loader restarts, the app comes back to the
+ * foreground or the units preference changes, and its result only changes when a sync writes. So
+ * the result is kept in memory as an immutable snapshot, and matching queries are answered with a
+ * cursor over it instead of going to SQLite. {@link WeatherProvider} invalidates the snapshot
+ * whenever something is written, before it notifies observers, so a requery never sees the old
+ * forecast.
+ */
+final class ForecastSnapshotCache {
+
+    /*
+     * Today's date is bound as an argument rather than written into the SQL, so that the text of
+     * the query is the same every day, for every caller, and SQLite's compiled statement for it
+     * stays in the connection's statement cache.
+     */
+    static final String SQL_SELECT_UPCOMING = WeatherContract.WeatherEntry.COLUMN_DATE + " >= ?";
+
+    /* The forecast as of the last miss, or null once a write has invalidated it */
+    private Snapshot mSnapshot;
+
+    /* Incremented by every invalidation, so that a query that raced a write isn't cached */
+    private long mGeneration;
+
+    private int mHitCount;
+    private int mMissCount;
+
+    /**
+     * Answers a query for the days from today onwards from the snapshot, or from the database if
+     * there is no snapshot for this day, projection and sort order yet, in which case the result
+     * becomes the new snapshot. A query made after midnight no longer matches the snapshot
+     * taken the day before.
+     *
+     * @param db         The database to read on a miss
+     * @param projection The columns to return, or null for all of them
+     * @param today      Today's normalized date
+     * @param sortOrder  How to sort the days
+     * @return A cursor over the snapshot; closing it releases nothing
+     */
+    Cursor query(SQLiteDatabase db, String[] projection, long today, String sortOrder) {
+        long generation;
+        synchronized (this) {
+            if (mSnapshot != null && mSnapshot.matches(projection, today, sortOrder)) {
+                mHitCount++;
+                return new SnapshotCursor(mSnapshot);
+            }
+            mMissCount++;
+            generation = mGeneration;
+        }
+
+        Snapshot snapshot;
+        Cursor cursor = db.query(WeatherContract.WeatherEntry.TABLE_NAME, projection,
+                SQL_SELECT_UPCOMING, new String[]{Long.toString(today)}, null, null, sortOrder);
+        try {
+            snapshot = new Snapshot(projection, today, sortOrder, cursor);
+        } finally {
+            cursor.close();
+        }
+
+        synchronized (this) {
+            if (generation == mGeneration) {
+                mSnapshot = snapshot;
+            }
+        }
+        return new SnapshotCursor(snapshot);
+    }
+
+    /* Drops the snapshot. Called after every write, once its transaction has committed. */
+    synchronized void invalidate() {
+        mSnapshot = null;
+        mGeneration++;
+    }
+
+    /* The number of queries answered from the snapshot */
+    synchronized int getHitCount() {
+        return mHitCount;
+    }
+
+    /* The number of queries that had to go to the database */
+    synchronized int getMissCount() {
+        return mMissCount;
+    }
+
+    /**
+     * The result of one query, copied out of its cursor. Never modified once built, so any
+     * number of cursors can read it at once.
+     */
+    private static final class Snapshot {
+
+        final String[] mProjection;
+        final long mToday;
+        final String mSortOrder;
+        final String[] mColumnNames;
+        final Object[][] mRows;
+
+        Snapshot(String[] projection, long today, String sortOrder, Cursor cursor) {
+            mProjection = projection == null ? null : projection.clone();
+            mToday = today;
+            mSortOrder = sortOrder;
+            mColumnNames = cursor.getColumnNames();
+            mRows = new Object[cursor.getCount()][];
+
+            int columnCount = mColumnNames.length;
+            for (int row = 0; cursor.moveToNext(); row++) {
+                Object[] values = new Object[columnCount];
+                for (int column = 0; column < columnCount; column++) {
+                    values[column] = readValue(cursor, column);
+                }
+                mRows[row] = values;
+            }
+        }
+
+        boolean matches(String[] projection, long today, String sortOrder) {
+            return mToday == today
+                    && (mSortOrder == null ? sortOrder == null : mSortOrder.equals(sortOrder))
+                    && Arrays.equals(mProjection, projection);
+        }
+
+        /*
+         * Reads a value as the type SQLite stored it as. Before Honeycomb a cursor can't tell,
+         * so values are kept as Strings, which SnapshotCursor parses back like SQLite would.
+         */
+        private static Object readValue(Cursor cursor, int column) {
+            if (Build.VERSION.SDK_INT >= Build.VERSION_CODES.HONEYCOMB) {
+                return readTypedValue(cursor, column);
+            }
+            return cursor.getString(column);
+        }
+
+        @TargetApi(Build.VERSION_CODES.HONEYCOMB)
+        private static Object readTypedValue(Cursor cursor, int column) {
+            switch (cursor.getType(column)) {
+                case Cursor.FIELD_TYPE_INTEGER:
+                    return cursor.getLong(column);
+                case Cursor.FIELD_TYPE_FLOAT:
+                    return cursor.getDouble(column);
+                case Cursor.FIELD_TYPE_BLOB:
+                    return cursor.getBlob(column);
+                case Cursor.FIELD_TYPE_NULL:
+                    return null;
+                default:
+                    return cursor.getString(column);
+            }
+        }
+    }
+
+    /**
+     * A cursor over a {@link Snapshot}. It holds no database resources, and the data it reads
+     * is never modified.
+     */
+    private static final class SnapshotCursor extends AbstractCursor {
+
+        private final Snapshot mSnapshot;
+
+        SnapshotCursor(Snapshot snapshot) {
+            mSnapshot = snapshot;
+        }
+
+        @Override
+        public int getCount() {
+            return mSnapshot.mRows.length;
+        }
+
+        @Override
+        public String[] getColumnNames() {
+            return mSnapshot.mColumnNames;
+        }
+
+        private Object get(int column) {
+            if (column < 0 || column >= mSnapshot.mColumnNames.length) {
+                throw new IndexOutOfBoundsException("Requested column: " + column
+                        + ", # of columns: " + mSnapshot.mColumnNames.length);
+            }
+            if (mPos < 0 || mPos >= mSnapshot.mRows.length) {
+                throw new IndexOutOfBoundsException("Position " + mPos + " is out of bounds");
+            }
+            return mSnapshot.mRows[mPos][column];
+        }
+
+        @Override
+        public String getString(int column) {
+            Object value = get(column);
+            return value == null ? null : value.toString();
+        }
+
+        @Override
+        public short getShort(int column) {
+            return (short) getLong(column);
+        }
+
+        @Override
+        public int getInt(int column) {
+            return (int) getLong(column);
+        }
+
+        @Override
+        public long getLong(int column) {
+            Object value = get(column);
+            if (value == null) {
+                return 0;
+            }
+            if (value instanceof Number) {
+                return ((Number) value).longValue();
+            }
+            String string = value.toString();
+            try {
+                return Long.parseLong(string);
+            } catch (NumberFormatException e) {
+                /* A REAL read as a String, which SQLite would truncate */
+                return (long) Double.parseDouble(string);
+            }
+        }
+
+        @Override
+        public float getFloat(int column) {
+            return (float) getDouble(column);
+        }
+
+        @Override
+        public double getDouble(int column) {
+            Object value = get(column);
+            if (value == null) {
+                return 0.0;
+            }
+            if (value instanceof Number) {
+                return ((Number) value).doubleValue();
+            }
+            return Double.parseDouble(value.toString());
+        }
+
+        @Override
+        public byte[] getBlob(int column) {
+            Object value = get(column);
+            return value instanceof byte[] ? (byte[]) value : null;
+        }
+
+        @Override
+        public boolean isNull(int column) {
+            return get(column) == null;
+        }
+
+        @Override
+        public int getType(int column) {
+            Object value = get(column);
+            if (value == null) {
+                return FIELD_TYPE_NULL;
+            } else if (value instanceof Long) {
+                return FIELD_TYPE_INTEGER;
+            } else if (value instanceof Double) {
+                return FIELD_TYPE_FLOAT;
+            } else if (value instanceof byte[]) {
+                return FIELD_TYPE_BLOB;
+            }
+            return FIELD_TYPE_STRING;
+        }
+    }
+}
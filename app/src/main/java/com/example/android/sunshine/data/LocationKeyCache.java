@@ -0,0 +1,166 @@
+/*
+ * Copyright (C) 2016 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.example.android.sunshine.data;
+
+import android.content.ContentValues;
+import android.content.Context;
+import android.database.Cursor;
+import android.database.sqlite.SQLiteDatabase;
+
+import com.example.android.sunshine.data.WeatherContract.LocationEntry;
+
+import java.util.Locale;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * A persistent cache from location queries (such as "Ypsilanti,MI,48198") to AccuWeather
+ * location Keys, stored in the location table of weather.db.
+ * <p>
+ * Without it, every sync has to call AccuWeather's location search just to get back the same Key
+ * as last time, which doubles the latency of a sync and uses up our API quota. Entries expire
+ * after {@link #TTL_MILLIS} in case AccuWeather ever reassigns a Key, and once more than
+ * {@link #MAX_ENTRIES} locations are cached, the least recently used ones are evicted.
+ */
+public final class LocationKeyCache {
+
+    /* How long a cached Key is trusted before we look it up again */
+    static final long TTL_MILLIS = TimeUnit.DAYS.toMillis(30);
+
+    /* The most locations we keep Keys for */
+    static final int MAX_ENTRIES = 50;
+
+    /*
+     * WeatherProvider's helper, so that the cache's writes go through the same connection pool
+     * as the provider's instead of competing with them for weather.db's write lock.
+     */
+    private final WeatherDbHelper mOpenHelper;
+
+    public LocationKeyCache(Context context) {
+        mOpenHelper = WeatherDbHelper.getInstance(context);
+    }
+
+    /**
+     * Looks up the cached Key for a location query. A hit also marks the entry as recently used.
+     *
+     * @param locationQuery The location as entered by the user
+     * @return The AccuWeather location Key, or null if it isn't cached or has expired
+     */
+    public String get(String locationQuery) {
+        String normalizedQuery = normalizeQuery(locationQuery);
+        SQLiteDatabase db = mOpenHelper.getWritableDatabase();
+
+        String locationKey = null;
+        long fetchedAt = 0;
+
+        Cursor cursor = db.query(
+                LocationEntry.TABLE_NAME,
+                new String[]{LocationEntry.COLUMN_LOCATION_KEY, LocationEntry.COLUMN_FETCHED_AT},
+                LocationEntry.COLUMN_LOCATION_QUERY + " = ?",
+                new String[]{normalizedQuery},
+                null,
+                null,
+                null);
+        try {
+            if (cursor.moveToFirst()) {
+                locationKey = cursor.getString(0);
+                fetchedAt = cursor.getLong(1);
+            }
+        } finally {
+            cursor.close();
+        }
+
+        if (locationKey == null) {
+            return null;
+        }
+
+        long now = System.currentTimeMillis();
+        if (now - fetchedAt > TTL_MILLIS) {
+            remove(locationQuery);
+            return null;
+        }
+
+        ContentValues lastUsed = new ContentValues();
+        lastUsed.put(LocationEntry.COLUMN_LAST_USED, now);
+        db.update(LocationEntry.TABLE_NAME,
+                lastUsed,
+                LocationEntry.COLUMN_LOCATION_QUERY + " = ?",
+                new String[]{normalizedQuery});
+
+        return locationKey;
+    }
+
+    /**
+     * Caches the Key for a location query, evicting the least recently used entries if the cache
+     * has grown past {@link #MAX_ENTRIES}.
+     *
+     * @param locationQuery The location as entered by the user
+     * @param locationKey   The AccuWeather location Key for that location
+     */
+    public void put(String locationQuery, String locationKey) {
+        long now = System.currentTimeMillis();
+
+        ContentValues values = new ContentValues();
+        values.put(LocationEntry.COLUMN_LOCATION_QUERY, normalizeQuery(locationQuery));
+        values.put(LocationEntry.COLUMN_LOCATION_KEY, locationKey);
+        values.put(LocationEntry.COLUMN_FETCHED_AT, now);
+        values.put(LocationEntry.COLUMN_LAST_USED, now);
+
+        SQLiteDatabase db = mOpenHelper.getWritableDatabase();
+        db.beginTransaction();
+        try {
+            db.insert(LocationEntry.TABLE_NAME, null, values);
+
+            /* Keep only the MAX_ENTRIES most recently used locations */
+            db.delete(LocationEntry.TABLE_NAME,
+                    LocationEntry._ID + " NOT IN (SELECT " + LocationEntry._ID
+                            + " FROM " + LocationEntry.TABLE_NAME
+                            + " ORDER BY " + LocationEntry.COLUMN_LAST_USED + " DESC"
+                            + " LIMIT " + MAX_ENTRIES + ")",
+                    null);
+
+            db.setTransactionSuccessful();
+        } finally {
+            db.endTransaction();
+        }
+    }
+
+    /**
+     * Drops the cached Key for a location query, for example because AccuWeather no longer
+     * recognizes it.
+     *
+     * @param locationQuery The location as entered by the user
+     */
+    public void remove(String locationQuery) {
+        mOpenHelper.getWritableDatabase().delete(LocationEntry.TABLE_NAME,
+                LocationEntry.COLUMN_LOCATION_QUERY + " = ?",
+                new String[]{normalizeQuery(locationQuery)});
+    }
+
+    /**
+     * Normalizes a location query so that "Ypsilanti, MI, 48198" and "ypsilanti,mi,48198" share
+     * one cache entry: surrounding whitespace is trimmed, runs of whitespace are collapsed, the
+     * whitespace around commas is dropped and everything is lower-cased.
+     *
+     * @param locationQuery The location as entered by the user
+     * @return The normalized query used as the cache key
+     */
+    public static String normalizeQuery(String locationQuery) {
+        return locationQuery.trim()
+                .replaceAll("\\s+", " ")
+                .replaceAll(" ?, ?", ",")
+                .toLowerCase(Locale.US);
+    }
+}
@@ -18,9 +18,14 @@ package com.example.android.sunshine.data;
 import android.content.Context;
 import android.content.SharedPreferences;
 import android.preference.PreferenceManager;
+import android.text.TextUtils;
 
 import com.example.android.sunshine.R;
 
+import java.util.ArrayList;
+import java.util.List;
+import java.util.regex.Pattern;
+
 public final class SunshinePreferences {
 
     /*
@@ -31,6 +36,13 @@ public final class SunshinePreferences {
     public static final String PREF_COORD_LAT = "coord_lat";
     public static final String PREF_COORD_LONG = "coord_long";
 
+    /*
+     * The locations the user follows besides their preferred location. minSdk 10 predates
+     * SharedPreferences#getStringSet, so they are stored as one String, separated by "|".
+     */
+    public static final String PREF_FOLLOWED_LOCATIONS = "followed_locations";
+    private static final String FOLLOWED_LOCATIONS_SEPARATOR = "|";
+
     /**
      * Helper method to handle setting location details in Preferences (city name, latitude,
      * longitude)
@@ -82,6 +94,53 @@ public final class SunshinePreferences {
         return sp.getString(keyForLocation, defaultLocation);
     }
 
+    /**
+     * Returns the locations the user follows in addition to their preferred location, in the
+     * order they were added.
+     *
+     * @param context Context used to access SharedPreferences
+     * @return The followed locations, empty if the user doesn't follow any
+     */
+    public static List<String> getFollowedLocations(Context context) {
+        SharedPreferences sp = PreferenceManager.getDefaultSharedPreferences(context);
+        String followedLocations = sp.getString(PREF_FOLLOWED_LOCATIONS, "");
+
+        List<String> locations = new ArrayList<String>();
+        for (String location : TextUtils.split(followedLocations,
+                Pattern.quote(FOLLOWED_LOCATIONS_SEPARATOR))) {
+            if (location.trim().length() > 0) {
+                locations.add(location);
+            }
+        }
+        return locations;
+    }
+
+    /**
+     * Replaces the locations the user follows in addition to their preferred location.
+     *
+     * @param context   Context used to get the SharedPreferences
+     * @param locations The followed locations. A "|" within a location is dropped, since it
+     *                  separates the stored locations.
+     */
+    public static void setFollowedLocations(Context context, List<String> locations) {
+        StringBuilder followedLocations = new StringBuilder();
+        for (String location : locations) {
+            String storedLocation = location.replace(FOLLOWED_LOCATIONS_SEPARATOR, "").trim();
+            if (storedLocation.length() == 0) {
+                continue;
+            }
+            if (followedLocations.length() > 0) {
+                followedLocations.append(FOLLOWED_LOCATIONS_SEPARATOR);
+            }
+            followedLocations.append(storedLocation);
+        }
+
+        SharedPreferences sp = PreferenceManager.getDefaultSharedPreferences(context);
+        SharedPreferences.Editor editor = sp.edit();
+        editor.putString(PREF_FOLLOWED_LOCATIONS, followedLocations.toString());
+        editor.apply();
+    }
+
     /**
      * Returns true if the user has selected metric temperature display.
      *
@@ -56,6 +56,18 @@ public class WeatherContract {
      */
     public static final String PATH_WEATHER = "weather";
 
+    /* The path for the forecasts of every location the user follows, see LocationWeatherEntry */
+    public static final String PATH_LOCATION_WEATHER = "location_weather";
+
+    /* The path of the forecast archive, see ArchiveEntry */
+    public static final String PATH_WEATHER_ARCHIVE = "weather_archive";
+
+    /* Appended to PATH_WEATHER to merge a new forecast into the stored one, see MERGE_URI */
+    public static final String PATH_MERGE = "merge";
+
+    /* Appended to PATH_WEATHER to query the days from today onwards, see UPCOMING_URI */
+    public static final String PATH_UPCOMING = "upcoming";
+
     /* Inner class that defines the table contents of the weather table */
     public static final class WeatherEntry implements BaseColumns {
 
@@ -64,6 +76,26 @@ public class WeatherContract {
                 .appendPath(PATH_WEATHER)
                 .build();
 
+        /*
+         * bulkInsert a whole forecast at this URI to merge it into the weather table: days whose
+         * weather changed are updated, new days are inserted, and days the forecast no longer
+         * covers are deleted. Unchanged rows aren't touched, and CONTENT_URI is only notified if
+         * something changed.
+         */
+        public static final Uri MERGE_URI = CONTENT_URI.buildUpon()
+                .appendPath(PATH_MERGE)
+                .build();
+
+        /*
+         * Query this URI for every day from today onwards, sorted by date unless a sort order is
+         * given. The provider works out today's date itself, so no selection is needed (or
+         * allowed), and the SQL it runs is the same every day. Cursors from it are notified of
+         * changes to CONTENT_URI.
+         */
+        public static final Uri UPCOMING_URI = CONTENT_URI.buildUpon()
+                .appendPath(PATH_UPCOMING)
+                .build();
+
         /* Used internally as the name of our weather table. */
         public static final String TABLE_NAME = "weather";
 
@@ -133,6 +165,9 @@ public class WeatherContract {
          * Returns just the selection part of the weather query from a normalized today value.
          * This is used to get a weather forecast from today's date. To make this easy to use
          * in compound selection, we embed today's date as an argument in the query.
+         * <p>
+         * Its SQL changes every day, so reads of the weather table itself should query
+         * {@link #UPCOMING_URI} instead.
          *
          * @return The selection part of the weather query for today onwards
          */
@@ -141,4 +176,124 @@ public class WeatherContract {
             return WeatherContract.WeatherEntry.COLUMN_DATE + " >= " + normalizedUtcNow;
         }
     }
-}
\ No newline at end of file
+
+    /*
+     * Inner class that defines the table contents of the location table. AccuWeather identifies
+     * locations by a "Key" that we have to look up from the location String the user entered.
+     * That Key practically never changes, so we cache it here rather than asking AccuWeather for
+     * it on every sync.
+     */
+    public static final class LocationEntry implements BaseColumns {
+
+        /* Used internally as the name of our location table. */
+        public static final String TABLE_NAME = "location";
+
+        /*
+         * The location query as entered by the user, normalized so that trivially different
+         * spellings (case, extra whitespace) share one row. See LocationKeyCache#normalizeQuery.
+         */
+        public static final String COLUMN_LOCATION_QUERY = "location_query";
+
+        /* The AccuWeather location Key for the query */
+        public static final String COLUMN_LOCATION_KEY = "location_key";
+
+        /* When the Key was fetched from AccuWeather, in milliseconds since the epoch */
+        public static final String COLUMN_FETCHED_AT = "fetched_at";
+
+        /* When the Key was last used for a sync, in milliseconds since the epoch */
+        public static final String COLUMN_LAST_USED = "last_used";
+    }
+
+    /*
+     * Inner class that defines the table contents of the location_weather table. It holds the
+     * forecast for every location the user follows, one row per location and day. Apart from the
+     * location column, its columns are those of the weather table, so the names in WeatherEntry
+     * (COLUMN_DATE, COLUMN_MAX_TEMP...) apply here as well.
+     *
+     * The weather table keeps holding just the preferred location's forecast, which is what the
+     * main screen shows.
+     */
+    public static final class LocationWeatherEntry implements BaseColumns {
+
+        /* The base CONTENT_URI used to query the location_weather table from the content provider */
+        public static final Uri CONTENT_URI = BASE_CONTENT_URI.buildUpon()
+                .appendPath(PATH_LOCATION_WEATHER)
+                .build();
+
+        /* Used internally as the name of our location_weather table. */
+        public static final String TABLE_NAME = "location_weather";
+
+        /*
+         * The location the forecast is for, as a normalized location query (see
+         * LocationKeyCache#normalizeQuery) so that it matches the location table.
+         */
+        public static final String COLUMN_LOCATION_QUERY = "location_query";
+
+        /* The query parameter that names the preferred location, see buildUriWithPreferredLocation */
+        public static final String PARAM_PREFERRED_LOCATION = "preferred_location";
+
+        /**
+         * Builds the URI a sync bulkInserts every location's new forecast at. Along with the
+         * forecasts, the provider brings the weather table up to date with the preferred
+         * location's, in the same transaction. That forecast comes from the values when they
+         * include it, and otherwise from the location's stored rows, such as when the server
+         * answered that it hasn't changed. The weather table keeps no location of its own, so
+         * this is also how it follows a change of preferred location. bulkInsert returns the
+         * number of rows of the weather table that changed.
+         *
+         * @param normalizedQuery The preferred location, as a normalized location query
+         * @return The URI to bulkInsert the forecasts at
+         */
+        public static Uri buildUriWithPreferredLocation(String normalizedQuery) {
+            return CONTENT_URI.buildUpon()
+                    .appendQueryParameter(PARAM_PREFERRED_LOCATION, normalizedQuery)
+                    .build();
+        }
+
+        /**
+         * Returns the selection for one location's forecast from today onwards. The location is
+         * left as a "?" argument.
+         *
+         * @return The selection part of the location_weather query
+         */
+        public static String getSqlSelectForLocationFromToday() {
+            return COLUMN_LOCATION_QUERY + " = ? AND "
+                    + WeatherEntry.getSqlSelectForTodayOnwards();
+        }
+    }
+
+    /*
+     * Inner class that defines the table contents of the weather_archive table. Every time a
+     * sync writes a day's forecast into the weather table, the new values are also added here as
+     * a revision of that day's forecast, so the forecasts of past days stay queryable after they
+     * leave the weather table. ArchiveCompactionTask keeps the table small, see its
+     * RetentionPolicy. The weather columns are the ones from WeatherEntry.
+     */
+    public static final class ArchiveEntry implements BaseColumns {
+
+        /* The base CONTENT_URI used to query the weather_archive table from the content provider */
+        public static final Uri CONTENT_URI = BASE_CONTENT_URI.buildUpon()
+                .appendPath(PATH_WEATHER_ARCHIVE)
+                .build();
+
+        /* Used internally as the name of our weather_archive table. */
+        public static final String TABLE_NAME = "weather_archive";
+
+        /* When this revision of the day's forecast was synced, in milliseconds since the epoch */
+        public static final String COLUMN_REVISION_TIME = "revision_time";
+
+        /**
+         * Returns the selection for the revisions that a later revision of the same day's
+         * forecast has superseded. A day's last revision is its final forecast.
+         *
+         * @return The selection part of a weather_archive query or delete
+         */
+        public static String getSqlSelectSuperseded() {
+            return "EXISTS (SELECT 1 FROM " + TABLE_NAME + " AS later"
+                    + " WHERE later." + WeatherEntry.COLUMN_DATE + " = "
+                    + TABLE_NAME + "." + WeatherEntry.COLUMN_DATE
+                    + " AND later." + COLUMN_REVISION_TIME + " > "
+                    + TABLE_NAME + "." + COLUMN_REVISION_TIME + ")";
+        }
+    }
+}
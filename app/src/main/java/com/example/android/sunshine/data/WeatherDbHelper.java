@@ -15,10 +15,17 @@
  */
 package com.example.android.sunshine.data;
 
+import android.annotation.TargetApi;
 import android.content.Context;
+import android.database.Cursor;
 import android.database.sqlite.SQLiteDatabase;
 import android.database.sqlite.SQLiteOpenHelper;
+import android.os.Build;
+import android.util.Log;
 
+import com.example.android.sunshine.data.WeatherContract.ArchiveEntry;
+import com.example.android.sunshine.data.WeatherContract.LocationEntry;
+import com.example.android.sunshine.data.WeatherContract.LocationWeatherEntry;
 import com.example.android.sunshine.data.WeatherContract.WeatherEntry;
 
 /**
@@ -26,6 +33,8 @@ import com.example.android.sunshine.data.WeatherContract.WeatherEntry;
  */
 public class WeatherDbHelper extends SQLiteOpenHelper {
 
+    private static final String TAG = WeatherDbHelper.class.getSimpleName();
+
     /*
      * This is the name of our database. Database names should be descriptive and end with the
      * .db extension.
@@ -44,10 +53,106 @@ public class WeatherDbHelper extends SQLiteOpenHelper {
      * version your databases.
      */
 //    private static final int DATABASE_VERSION = 3;
-    private static final int DATABASE_VERSION = 6;
+    private static final int DATABASE_VERSION = 10;
+
+    /*
+     * A write of at least this many rows is followed by a checkpoint of the write-ahead log. See
+     * checkpoint() for why.
+     */
+    static final int CHECKPOINT_ROW_THRESHOLD = 100;
+
+    /* The covering index that answers the forecast list's query, see createWeatherTable */
+    static final String WEATHER_LIST_INDEX = "weather_list_index";
+
+    /* The app's one helper for weather.db, see getInstance */
+    private static WeatherDbHelper sInstance;
+
+    /* Whether the database uses a write-ahead log rather than a rollback journal */
+    private final boolean mWriteAheadLogging;
+
+    /**
+     * Returns the helper that WeatherProvider and LocationKeyCache share. With one helper there
+     * is one SQLiteDatabase, and so one connection pool, writing weather.db. A second helper
+     * would open a second pool whose writes could fail with SQLITE_BUSY while the sync holds
+     * the other's write lock, and each helper would run its own check for a schema upgrade.
+     *
+     * @param context Any context of the app
+     */
+    public static synchronized WeatherDbHelper getInstance(Context context) {
+        if (sInstance == null) {
+            sInstance = new WeatherDbHelper(context.getApplicationContext());
+        }
+        return sInstance;
+    }
 
     public WeatherDbHelper(Context context) {
-        super(context, DATABASE_NAME, null, DATABASE_VERSION);
+        this(context, DATABASE_NAME, true);
+    }
+
+    /**
+     * With a rollback journal, SQLiteDatabase has a single connection, so while the sync holds
+     * the write transaction of a bulkInsert, every query from the forecast and detail screens
+     * waits for the whole transaction to commit. With a write-ahead log (API 11 and up), a
+     * writer no longer blocks readers, and SQLiteDatabase opens a pool of read-only connections
+     * that queries outside a transaction use, so the loaders read the last committed forecast
+     * while the sync writes the next one.
+     *
+     * @param context           Used to open the database
+     * @param name              The database file name; tests use their own
+     * @param writeAheadLogging Whether to use a write-ahead log where the platform supports it
+     */
+    WeatherDbHelper(Context context, String name, boolean writeAheadLogging) {
+        super(context, name, null, DATABASE_VERSION);
+        mWriteAheadLogging = writeAheadLogging
+                && Build.VERSION.SDK_INT >= Build.VERSION_CODES.HONEYCOMB;
+        if (mWriteAheadLogging && Build.VERSION.SDK_INT >= Build.VERSION_CODES.JELLY_BEAN) {
+            enableWriteAheadLogging();
+        }
+    }
+
+    @TargetApi(Build.VERSION_CODES.JELLY_BEAN)
+    private void enableWriteAheadLogging() {
+        /* Takes effect when the database is opened, before any connection is made */
+        setWriteAheadLoggingEnabled(true);
+    }
+
+    @Override
+    public void onOpen(SQLiteDatabase db) {
+        super.onOpen(db);
+        /* Before Jelly Bean the open helper can't do it for us, so switch once the db is open */
+        if (mWriteAheadLogging && Build.VERSION.SDK_INT < Build.VERSION_CODES.JELLY_BEAN
+                && !db.isReadOnly()) {
+            enableWriteAheadLogging(db);
+        }
+    }
+
+    @TargetApi(Build.VERSION_CODES.HONEYCOMB)
+    private static void enableWriteAheadLogging(SQLiteDatabase db) {
+        db.enableWriteAheadLogging();
+    }
+
+    /**
+     * Copies the pages collected in the write-ahead log back into the database file, so the log
+     * can be reused from its start.
+     * <p>
+     * SQLite does this on its own once the log reaches 1000 pages, but on whichever write happens
+     * to cross that line, which may be one the UI is waiting for. Until then every read has to
+     * look through the log as well as the database file, so a large sync left in the log makes
+     * every query of the screens slower. Checkpointing right after a large sync, from the sync's
+     * own thread, keeps the log short. The checkpoint is PASSIVE: it copies what it can without
+     * waiting for, or blocking, any reader.
+     */
+    void checkpoint() {
+        if (!mWriteAheadLogging) {
+            return;
+        }
+        /* A PRAGMA is run on the primary connection; the pooled read-only ones can't checkpoint */
+        Cursor cursor = getWritableDatabase().rawQuery("PRAGMA wal_checkpoint(PASSIVE)", null);
+        try {
+            cursor.moveToFirst();
+        } finally {
+            cursor.close();
+        }
     }
 
     /**
@@ -58,7 +163,14 @@ public class WeatherDbHelper extends SQLiteOpenHelper {
      */
     @Override
     public void onCreate(SQLiteDatabase sqLiteDatabase) {
+        createWeatherTable(sqLiteDatabase);
+        createLocationTable(sqLiteDatabase);
+        createLocationWeatherTable(sqLiteDatabase);
+        createArchiveTable(sqLiteDatabase);
+    }
 
+    /* Changed in version 9: no AUTOINCREMENT, and a covering index for the forecast list */
+    private static void createWeatherTable(SQLiteDatabase sqLiteDatabase) {
         /*
          * This String will contain a simple SQL statement that will create a table that will
          * cache our weather data.
@@ -70,9 +182,12 @@ public class WeatherDbHelper extends SQLiteOpenHelper {
                 /*
                  * WeatherEntry did not explicitly declare a column called "_ID". However,
                  * WeatherEntry implements the interface, "BaseColumns", which does have a field
-                 * named "_ID". We use that here to designate our table's primary key.
+                 * named "_ID". We use that here to designate our table's primary key. It is an
+                 * alias for the rowid rather than AUTOINCREMENT: rows are looked up by date, so
+                 * ids never need to stay unique after a row is deleted, and AUTOINCREMENT would
+                 * make every insert update sqlite_sequence as well.
                  */
-                WeatherEntry._ID                    + " INTEGER PRIMARY KEY AUTOINCREMENT, " +
+                WeatherEntry._ID                    + " INTEGER PRIMARY KEY, "               +
 
                 WeatherEntry.COLUMN_DATE            + " INTEGER NOT NULL, "                 +
 
@@ -106,15 +221,225 @@ public class WeatherDbHelper extends SQLiteOpenHelper {
          * that SQL with the execSQL method of our SQLite database object.
          */
         sqLiteDatabase.execSQL(SQL_CREATE_WEATHER_TABLE);
+
+        /*
+         * The forecast list reads MAIN_FORECAST_PROJECTION from today onwards, ordered by date.
+         * With every one of those columns in this index, after the date it is sorted by, SQLite
+         * answers the list's query from the index alone, without a lookup in the table for each
+         * row. The _ID is the rowid, which every index holds anyway.
+         */
+        final String SQL_CREATE_WEATHER_LIST_INDEX =
+
+                "CREATE INDEX " + WEATHER_LIST_INDEX + " ON " + WeatherEntry.TABLE_NAME + " (" +
+                        WeatherEntry.COLUMN_DATE + ", " +
+                        WeatherEntry.COLUMN_MAX_TEMP + ", " +
+                        WeatherEntry.COLUMN_MIN_TEMP + ", " +
+                        WeatherEntry.COLUMN_WEATHER_ID + ", " +
+                        WeatherEntry.COLUMN_WEATHER_DESC + ");";
+
+        sqLiteDatabase.execSQL(SQL_CREATE_WEATHER_LIST_INDEX);
+    }
+
+    /* Added in version 7 */
+    private static void createLocationTable(SQLiteDatabase sqLiteDatabase) {
+        /*
+         * This table caches the AccuWeather location Key for each location the user has synced,
+         * so that a sync doesn't need to search for the location every time.
+         */
+        final String SQL_CREATE_LOCATION_TABLE =
+
+                "CREATE TABLE " + LocationEntry.TABLE_NAME + " (" +
+
+                LocationEntry._ID                   + " INTEGER PRIMARY KEY AUTOINCREMENT, " +
+
+                LocationEntry.COLUMN_LOCATION_QUERY + " TEXT NOT NULL, "                    +
+                LocationEntry.COLUMN_LOCATION_KEY   + " TEXT NOT NULL, "                    +
+
+                LocationEntry.COLUMN_FETCHED_AT     + " INTEGER NOT NULL, "                 +
+                LocationEntry.COLUMN_LAST_USED      + " INTEGER NOT NULL, "                 +
+
+                /* Looking up the same query again replaces the cached Key */
+                " UNIQUE (" + LocationEntry.COLUMN_LOCATION_QUERY + ") ON CONFLICT REPLACE);";
+
+        sqLiteDatabase.execSQL(SQL_CREATE_LOCATION_TABLE);
+    }
+
+    /* Added in version 8 */
+    private static void createLocationWeatherTable(SQLiteDatabase sqLiteDatabase) {
+        /*
+         * This table holds the forecast of every location the user follows. It has the same
+         * weather columns as the weather table, plus the location each row belongs to.
+         */
+        final String SQL_CREATE_LOCATION_WEATHER_TABLE =
+
+                "CREATE TABLE " + LocationWeatherEntry.TABLE_NAME + " (" +
+
+                LocationWeatherEntry._ID                  + " INTEGER PRIMARY KEY AUTOINCREMENT, " +
+
+                LocationWeatherEntry.COLUMN_LOCATION_QUERY + " TEXT NOT NULL, "                    +
+
+                WeatherEntry.COLUMN_DATE                  + " INTEGER NOT NULL, "                 +
+
+                WeatherEntry.COLUMN_WEATHER_ID            + " INTEGER NOT NULL,"                  +
+                WeatherEntry.COLUMN_WEATHER_DESC          + " TEXT,"                              +
+
+                WeatherEntry.COLUMN_MIN_TEMP              + " REAL NOT NULL, "                    +
+                WeatherEntry.COLUMN_MAX_TEMP              + " REAL NOT NULL, "                    +
+
+                WeatherEntry.COLUMN_WIND_SPEED            + " REAL NOT NULL, "                    +
+                WeatherEntry.COLUMN_DEGREES               + " REAL NOT NULL, "                    +
+                WeatherEntry.COLUMN_DEGREES_DESC          + " TEXT,"                              +
+
+                WeatherEntry.COLUMN_PRECIP_PROB           + " REAL NOT NULL, "                    +
+                WeatherEntry.COLUMN_PRECIP_HOURS          + " REAL NOT NULL, "                    +
+
+                /* One forecast per location and day, the newest one wins */
+                " UNIQUE (" + LocationWeatherEntry.COLUMN_LOCATION_QUERY + ", "
+                        + WeatherEntry.COLUMN_DATE + ") ON CONFLICT REPLACE);";
+
+        sqLiteDatabase.execSQL(SQL_CREATE_LOCATION_WEATHER_TABLE);
+    }
+
+    /* Added in version 10 */
+    private static void createArchiveTable(SQLiteDatabase sqLiteDatabase) {
+        /*
+         * This table keeps every revision of each day's forecast, with the time it was synced,
+         * after the day has left the weather table.
+         */
+        final String SQL_CREATE_ARCHIVE_TABLE =
+
+                "CREATE TABLE " + ArchiveEntry.TABLE_NAME + " (" +
+
+                ArchiveEntry._ID                          + " INTEGER PRIMARY KEY, "              +
+
+                WeatherEntry.COLUMN_DATE                  + " INTEGER NOT NULL, "                 +
+                ArchiveEntry.COLUMN_REVISION_TIME         + " INTEGER NOT NULL, "                 +
+
+                WeatherEntry.COLUMN_WEATHER_ID            + " INTEGER NOT NULL,"                  +
+                WeatherEntry.COLUMN_WEATHER_DESC          + " TEXT,"                              +
+
+                WeatherEntry.COLUMN_MIN_TEMP              + " REAL NOT NULL, "                    +
+                WeatherEntry.COLUMN_MAX_TEMP              + " REAL NOT NULL, "                    +
+
+                WeatherEntry.COLUMN_WIND_SPEED            + " REAL NOT NULL, "                    +
+                WeatherEntry.COLUMN_DEGREES               + " REAL NOT NULL, "                    +
+                WeatherEntry.COLUMN_DEGREES_DESC          + " TEXT,"                              +
+
+                WeatherEntry.COLUMN_PRECIP_PROB           + " REAL NOT NULL, "                    +
+                WeatherEntry.COLUMN_PRECIP_HOURS          + " REAL NOT NULL, "                    +
+
+                /*
+                 * One revision per day and sync. The index behind this constraint, on date and
+                 * then revision time, is what the compaction's purge of expired days and its
+                 * lookup of each day's last revision both go through.
+                 */
+                " UNIQUE (" + WeatherEntry.COLUMN_DATE + ", "
+                        + ArchiveEntry.COLUMN_REVISION_TIME + ") ON CONFLICT REPLACE);";
+
+        sqLiteDatabase.execSQL(SQL_CREATE_ARCHIVE_TABLE);
     }
 
     /**
-     * This database is only a cache for online data, so its upgrade policy is simply to discard
-     * the data and call through to onCreate to recreate the table. Note that this only fires if
-     * you change the version number for your database (in our case, DATABASE_VERSION). It does NOT
-     * depend on the version number for your application found in your app/build.gradle file. If
-     * you want to update the schema without wiping data, commenting out the current body of this
-     * method should be your top priority before modifying this method.
+     * Upgrades the schema from one version to the next, keeping the rows already stored.
+     */
+    interface Migration {
+        void migrate(SQLiteDatabase sqLiteDatabase);
+    }
+
+    /*
+     * The oldest version we can upgrade from without losing data. Databases older than this come
+     * from versions of Sunshine whose schema we no longer know, and are recreated empty.
+     */
+    static final int OLDEST_MIGRATABLE_VERSION = 6;
+
+    /*
+     * MIGRATIONS[i] upgrades version OLDEST_MIGRATABLE_VERSION + i to the next one, so there is
+     * always exactly one migration per version since OLDEST_MIGRATABLE_VERSION. When you change
+     * the schema, change onCreate, increment DATABASE_VERSION and append the migration that
+     * brings the previous version's tables to the new onCreate's.
+     */
+    static final Migration[] MIGRATIONS = {
+
+            /* 6 to 7: the cache of AccuWeather location Keys */
+            new Migration() {
+                @Override
+                public void migrate(SQLiteDatabase sqLiteDatabase) {
+                    createLocationTable(sqLiteDatabase);
+                }
+            },
+
+            /* 7 to 8: the forecasts of every followed location */
+            new Migration() {
+                @Override
+                public void migrate(SQLiteDatabase sqLiteDatabase) {
+                    createLocationWeatherTable(sqLiteDatabase);
+                }
+            },
+
+            /* 8 to 9: the weather table without AUTOINCREMENT, with the list's covering index */
+            new Migration() {
+                @Override
+                public void migrate(SQLiteDatabase sqLiteDatabase) {
+                    /* SQLite can't change a column's constraints, so copy into a new table */
+                    String oldTable = WeatherEntry.TABLE_NAME + "_v8";
+                    String columns = WeatherEntry._ID + ", "
+                            + WeatherEntry.COLUMN_DATE + ", "
+                            + WeatherEntry.COLUMN_WEATHER_ID + ", "
+                            + WeatherEntry.COLUMN_WEATHER_DESC + ", "
+                            + WeatherEntry.COLUMN_MIN_TEMP + ", "
+                            + WeatherEntry.COLUMN_MAX_TEMP + ", "
+                            + WeatherEntry.COLUMN_WIND_SPEED + ", "
+                            + WeatherEntry.COLUMN_DEGREES + ", "
+                            + WeatherEntry.COLUMN_DEGREES_DESC + ", "
+                            + WeatherEntry.COLUMN_PRECIP_PROB + ", "
+                            + WeatherEntry.COLUMN_PRECIP_HOURS;
+
+                    sqLiteDatabase.execSQL("ALTER TABLE " + WeatherEntry.TABLE_NAME
+                            + " RENAME TO " + oldTable);
+                    createWeatherTable(sqLiteDatabase);
+                    sqLiteDatabase.execSQL("INSERT INTO " + WeatherEntry.TABLE_NAME
+                            + " (" + columns + ") SELECT " + columns + " FROM " + oldTable);
+                    /* Dropping the old table also drops its row in sqlite_sequence */
+                    sqLiteDatabase.execSQL("DROP TABLE " + oldTable);
+                }
+            },
+
+            /* 9 to 10: the forecast archive, starting with the forecast stored now */
+            new Migration() {
+                @Override
+                public void migrate(SQLiteDatabase sqLiteDatabase) {
+                    createArchiveTable(sqLiteDatabase);
+
+                    String weatherColumns = WeatherEntry.COLUMN_DATE + ", "
+                            + WeatherEntry.COLUMN_WEATHER_ID + ", "
+                            + WeatherEntry.COLUMN_WEATHER_DESC + ", "
+                            + WeatherEntry.COLUMN_MIN_TEMP + ", "
+                            + WeatherEntry.COLUMN_MAX_TEMP + ", "
+                            + WeatherEntry.COLUMN_WIND_SPEED + ", "
+                            + WeatherEntry.COLUMN_DEGREES + ", "
+                            + WeatherEntry.COLUMN_DEGREES_DESC + ", "
+                            + WeatherEntry.COLUMN_PRECIP_PROB + ", "
+                            + WeatherEntry.COLUMN_PRECIP_HOURS;
+                    /* When the stored forecast was synced isn't known, so date it to the upgrade */
+                    sqLiteDatabase.execSQL("INSERT INTO " + ArchiveEntry.TABLE_NAME
+                            + " (" + ArchiveEntry.COLUMN_REVISION_TIME + ", " + weatherColumns
+                            + ") SELECT " + System.currentTimeMillis() + ", " + weatherColumns
+                            + " FROM " + WeatherEntry.TABLE_NAME);
+                }
+            },
+    };
+
+    /**
+     * Upgrades the database one version at a time, through {@link #MIGRATIONS}, so the forecast
+     * cached before an app update is still there afterwards. The list shows it straight away,
+     * and SunshineSyncUtils doesn't need to start a sync just to fill an empty table. Note that
+     * this only fires if you change the version number for your database (in our case,
+     * DATABASE_VERSION). It does NOT depend on the version number for your application found in
+     * your app/build.gradle file.
+     * <p>
+     * SQLiteOpenHelper calls this inside a transaction, so either every step is applied or the
+     * database is left at its old version. A database too old to migrate is only a cache for
+     * online data, so its tables are dropped and recreated instead.
      *
      * @param sqLiteDatabase Database that is being upgraded
      * @param oldVersion     The old database version
@@ -122,7 +447,25 @@ public class WeatherDbHelper extends SQLiteOpenHelper {
      */
     @Override
     public void onUpgrade(SQLiteDatabase sqLiteDatabase, int oldVersion, int newVersion) {
+        if (oldVersion < OLDEST_MIGRATABLE_VERSION
+                || newVersion > OLDEST_MIGRATABLE_VERSION + MIGRATIONS.length) {
+            Log.w(TAG, "No migration from version " + oldVersion + " to " + newVersion
+                    + ", recreating the database");
+            recreate(sqLiteDatabase);
+            return;
+        }
+
+        for (int version = oldVersion; version < newVersion; version++) {
+            MIGRATIONS[version - OLDEST_MIGRATABLE_VERSION].migrate(sqLiteDatabase);
+        }
+    }
+
+    /* Discards every table and creates the current schema */
+    private void recreate(SQLiteDatabase sqLiteDatabase) {
         sqLiteDatabase.execSQL("DROP TABLE IF EXISTS " + WeatherEntry.TABLE_NAME);
+        sqLiteDatabase.execSQL("DROP TABLE IF EXISTS " + LocationEntry.TABLE_NAME);
+        sqLiteDatabase.execSQL("DROP TABLE IF EXISTS " + LocationWeatherEntry.TABLE_NAME);
+        sqLiteDatabase.execSQL("DROP TABLE IF EXISTS " + ArchiveEntry.TABLE_NAME);
         onCreate(sqLiteDatabase);
     }
-}
\ No newline at end of file
+}
@@ -17,24 +17,36 @@ package com.example.android.sunshine.data;
 
 import android.annotation.TargetApi;
 import android.content.ContentProvider;
+import android.content.ContentProviderOperation;
+import android.content.ContentProviderResult;
+import android.content.ContentResolver;
 import android.content.ContentValues;
+import android.content.OperationApplicationException;
 import android.content.UriMatcher;
 import android.database.Cursor;
+import android.database.DatabaseUtils;
 import android.database.sqlite.SQLiteDatabase;
 import android.net.Uri;
 import android.support.annotation.NonNull;
 
+import com.example.android.sunshine.data.WeatherContract.ArchiveEntry;
 import com.example.android.sunshine.utilities.SunshineDateUtils;
 
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+
 /**
  * This class serves as the ContentProvider for all of Sunshine's data. This class allows us to
  * bulkInsert data, query data, and delete data.
  * <p>
- * Although ContentProvider implementation requires the implementation of additional methods to
- * perform single inserts, updates, and the ability to get the type of the data from a URI.
- * However, here, they are not implemented for the sake of brevity and simplicity. If you would
- * like, you may implement them on your own. However, we are not going to be teaching how to do
- * so in this course.
+ * Single inserts, updates and batches of operations are supported too. Getting the type of the
+ * data from a URI is not implemented, for the sake of brevity and simplicity.
  */
 public class WeatherProvider extends ContentProvider {
 
@@ -45,6 +57,10 @@ public class WeatherProvider extends ContentProvider {
      */
     public static final int CODE_WEATHER = 100;
     public static final int CODE_WEATHER_WITH_DATE = 101;
+    public static final int CODE_WEATHER_MERGE = 102;
+    public static final int CODE_WEATHER_UPCOMING = 103;
+    public static final int CODE_LOCATION_WEATHER = 200;
+    public static final int CODE_WEATHER_ARCHIVE = 300;
 
     /*
      * The URI Matcher used by this content provider. The leading "s" in this variable name
@@ -54,6 +70,23 @@ public class WeatherProvider extends ContentProvider {
     private static final UriMatcher sUriMatcher = buildUriMatcher();
     private WeatherDbHelper mOpenHelper;
 
+    /* Answers the forecast list's query from memory until the next write */
+    private final ForecastSnapshotCache mForecastCache = new ForecastSnapshotCache();
+
+    /* The batch being applied on the calling thread, if any; see applyBatch */
+    private final ThreadLocal<Batch> mBatch = new ThreadLocal<Batch>();
+
+    /**
+     * What the operations of one applyBatch call, or of one bulkInsert of every location's
+     * forecast, leave to do once their transaction has committed.
+     */
+    private static final class Batch {
+        /* The URIs to notify, in the order they were first changed */
+        final Set<Uri> mNotifications = new LinkedHashSet<Uri>();
+        /* Rows written by all operations, for checkpointAfterLargeWrite */
+        int mRowsWritten;
+    }
+
     /**
      * Creates the UriMatcher that will match each URI to the CODE_WEATHER and
      * CODE_WEATHER_WITH_DATE constants defined above.
@@ -96,6 +129,22 @@ public class WeatherProvider extends ContentProvider {
          */
         matcher.addURI(authority, WeatherContract.PATH_WEATHER + "/#", CODE_WEATHER_WITH_DATE);
 
+        /* This URI is content://com.example.android.sunshine/weather/merge */
+        matcher.addURI(authority,
+                WeatherContract.PATH_WEATHER + "/" + WeatherContract.PATH_MERGE,
+                CODE_WEATHER_MERGE);
+
+        /* This URI is content://com.example.android.sunshine/weather/upcoming */
+        matcher.addURI(authority,
+                WeatherContract.PATH_WEATHER + "/" + WeatherContract.PATH_UPCOMING,
+                CODE_WEATHER_UPCOMING);
+
+        /* This URI is content://com.example.android.sunshine/location_weather/ */
+        matcher.addURI(authority, WeatherContract.PATH_LOCATION_WEATHER, CODE_LOCATION_WEATHER);
+
+        /* This URI is content://com.example.android.sunshine/weather_archive/ */
+        matcher.addURI(authority, WeatherContract.PATH_WEATHER_ARCHIVE, CODE_WEATHER_ARCHIVE);
+
         return matcher;
     }
 
@@ -119,9 +168,10 @@ public class WeatherProvider extends ContentProvider {
         /*
          * As noted in the comment above, onCreate is run on the main thread, so performing any
          * lengthy operations will cause lag in your app. Since WeatherDbHelper's constructor is
-         * very lightweight, we are safe to perform that initialization here.
+         * very lightweight, we are safe to perform that initialization here. The helper is
+         * shared with LocationKeyCache, so that only one connection pool writes weather.db.
          */
-        mOpenHelper = new WeatherDbHelper(getContext());
+        mOpenHelper = WeatherDbHelper.getInstance(getContext());
         return true;
     }
 
@@ -147,7 +197,15 @@ public class WeatherProvider extends ContentProvider {
             case CODE_WEATHER:
                 db.beginTransaction();
                 int rowsInserted = 0;
+                List<Long> writtenDates = new ArrayList<Long>(values.length);
+                boolean datesAdded;
+                /* A day that is already stored is updated in place rather than replaced */
+                CompiledUpsert upsert = new CompiledUpsert(db,
+                        WeatherContract.WeatherEntry.TABLE_NAME,
+                        WeatherContract.WeatherEntry.COLUMN_DATE);
                 try {
+                    long storedDays = DatabaseUtils.queryNumEntries(db,
+                            WeatherContract.WeatherEntry.TABLE_NAME);
                     for (ContentValues value : values) {
                         long weatherDate =
                                 value.getAsLong(WeatherContract.WeatherEntry.COLUMN_DATE);
@@ -155,27 +213,454 @@ public class WeatherProvider extends ContentProvider {
                             throw new IllegalArgumentException("Date must be normalized to insert");
                         }
 
-                        long _id = db.insert(WeatherContract.WeatherEntry.TABLE_NAME, null, value);
-                        if (_id != -1) {
+                        if (upsert.upsert(value)) {
                             rowsInserted++;
+                            writtenDates.add(weatherDate);
                         }
                     }
+                    /* Days are unique, so the table only grows if a new day was inserted */
+                    datesAdded = DatabaseUtils.queryNumEntries(db,
+                            WeatherContract.WeatherEntry.TABLE_NAME) != storedDays;
                     db.setTransactionSuccessful();
                 } finally {
+                    upsert.close();
                     db.endTransaction();
                 }
 
-                if (rowsInserted > 0) {
-                    getContext().getContentResolver().notifyChange(uri, null);
-                }
+                notifyWeatherChanged(writtenDates, datesAdded);
+                checkpointAfterLargeWrite(rowsInserted);
 
                 return rowsInserted;
 
+            case CODE_WEATHER_MERGE:
+                return mergeWeather(db, values);
+
+            case CODE_LOCATION_WEATHER:
+                String preferredLocation = uri.getQueryParameter(
+                        WeatherContract.LocationWeatherEntry.PARAM_PREFERRED_LOCATION);
+                if (preferredLocation != null) {
+                    return bulkInsertForecasts(db, values, preferredLocation);
+                }
+                return bulkInsertLocationWeather(db, uri, values);
+
             default:
                 return super.bulkInsert(uri, values);
         }
     }
 
+    /**
+     * Merges a new forecast into the weather table, comparing it with the stored rows by date.
+     * <p>
+     * Replacing the whole table, with a delete followed by a bulkInsert, notifies observers
+     * twice: the CursorLoader behind the forecast list reloads once with an empty table, then
+     * again with the new one. It also rewrites every row, even when most days' forecast hasn't
+     * changed since the last sync. Merging does it all in one transaction, writes only the rows
+     * that changed and notifies only the days that changed, see {@link #notifyWeatherChanged}.
+     * <p>
+     * Every day that is written is also added to the forecast archive, as a revision of that
+     * day's forecast, see {@link ArchiveEntry}.
+     *
+     * @param db     The database to merge into
+     * @param values The whole new forecast, one row per day
+     * @return The number of rows inserted, updated or deleted; 0 if the forecast was unchanged
+     */
+    private int mergeWeather(SQLiteDatabase db, ContentValues[] values) {
+        for (ContentValues value : values) {
+            long weatherDate = value.getAsLong(WeatherContract.WeatherEntry.COLUMN_DATE);
+            if (!SunshineDateUtils.isDateNormalized(weatherDate)) {
+                throw new IllegalArgumentException("Date must be normalized to insert");
+            }
+        }
+
+        int rowsChanged = 0;
+        int rowsArchived = 0;
+        List<Long> writtenDates = new ArrayList<Long>(values.length);
+        boolean datesAddedOrRemoved = false;
+        long revisionTime = System.currentTimeMillis();
+        db.beginTransaction();
+        CompiledUpsert archive = new CompiledUpsert(db, ArchiveEntry.TABLE_NAME);
+        try {
+            Cursor stored = db.query(WeatherContract.WeatherEntry.TABLE_NAME,
+                    null, null, null, null, null, null);
+            try {
+                /* The position of each stored day in the cursor, by date */
+                int dateIndex =
+                        stored.getColumnIndexOrThrow(WeatherContract.WeatherEntry.COLUMN_DATE);
+                HashMap<Long, Integer> storedPositions = new HashMap<Long, Integer>();
+                while (stored.moveToNext()) {
+                    storedPositions.put(stored.getLong(dateIndex), stored.getPosition());
+                }
+
+                for (ContentValues value : values) {
+                    Long weatherDate = value.getAsLong(WeatherContract.WeatherEntry.COLUMN_DATE);
+                    Integer position = storedPositions.remove(weatherDate);
+
+                    boolean written = false;
+                    if (position == null) {
+                        long _id = db.insert(WeatherContract.WeatherEntry.TABLE_NAME, null, value);
+                        written = _id != -1;
+                        datesAddedOrRemoved |= written;
+                    } else {
+                        stored.moveToPosition(position);
+                        if (!matchesRow(value, stored)) {
+                            written = db.update(WeatherContract.WeatherEntry.TABLE_NAME,
+                                    value,
+                                    WeatherContract.WeatherEntry.COLUMN_DATE + " = ?",
+                                    new String[]{weatherDate.toString()}) > 0;
+                        }
+                    }
+
+                    if (written) {
+                        rowsChanged++;
+                        writtenDates.add(weatherDate);
+                        if (archiveRevision(archive, value, revisionTime)) {
+                            rowsArchived++;
+                        }
+                    }
+                }
+
+                /* Whatever is left are days the new forecast no longer covers, such as yesterday */
+                for (Long oldDate : storedPositions.keySet()) {
+                    int rowsDeleted = db.delete(WeatherContract.WeatherEntry.TABLE_NAME,
+                            WeatherContract.WeatherEntry.COLUMN_DATE + " = ?",
+                            new String[]{oldDate.toString()});
+                    rowsChanged += rowsDeleted;
+                    datesAddedOrRemoved |= rowsDeleted > 0;
+                }
+            } finally {
+                stored.close();
+            }
+            db.setTransactionSuccessful();
+        } finally {
+            archive.close();
+            db.endTransaction();
+        }
+
+        notifyWeatherChanged(writtenDates, datesAddedOrRemoved);
+        if (rowsArchived > 0) {
+            notifyChange(ArchiveEntry.CONTENT_URI);
+        }
+        checkpointAfterLargeWrite(rowsChanged);
+
+        return rowsChanged;
+    }
+
+    /*
+     * Adds a day's newly stored forecast to the archive as its revision at revisionTime. Days
+     * that a sync leaves unchanged are not archived again, so each revision is a real change.
+     */
+    private static boolean archiveRevision(CompiledUpsert archive, ContentValues value,
+            long revisionTime) {
+        ContentValues revision = new ContentValues(value);
+        revision.remove(ArchiveEntry._ID);
+        revision.put(ArchiveEntry.COLUMN_REVISION_TIME, revisionTime);
+        return archive.upsert(revision);
+    }
+
+    /**
+     * Checks whether every value in a new row equals the stored row's. Each value is read from
+     * the cursor as the type it was given in, so 20.0 matches a stored REAL of 20.
+     */
+    private static boolean matchesRow(ContentValues value, Cursor stored) {
+        for (Map.Entry<String, Object> entry : value.valueSet()) {
+            int index = stored.getColumnIndex(entry.getKey());
+            if (index == -1) {
+                return false;
+            }
+
+            Object newValue = entry.getValue();
+            if (newValue == null) {
+                if (!stored.isNull(index)) {
+                    return false;
+                }
+            } else if (stored.isNull(index)) {
+                return false;
+            } else if (newValue instanceof Double || newValue instanceof Float) {
+                if (((Number) newValue).doubleValue() != stored.getDouble(index)) {
+                    return false;
+                }
+            } else if (newValue instanceof Number) {
+                if (((Number) newValue).longValue() != stored.getLong(index)) {
+                    return false;
+                }
+            } else if (newValue instanceof Boolean) {
+                if (((Boolean) newValue ? 1 : 0) != stored.getInt(index)) {
+                    return false;
+                }
+            } else if (!newValue.toString().equals(stored.getString(index))) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    /**
+     * Stores the forecasts of several locations at once. Every location that appears in values
+     * has its old forecast replaced by the new one, and all of it happens in one transaction, so
+     * the forecasts of all locations are committed (and observers notified) together.
+     *
+     * @param db     The database to insert into
+     * @param uri    The location_weather URI, used for the change notification
+     * @param values The rows for every location, each with its COLUMN_LOCATION_QUERY set
+     * @return The number of values that were inserted
+     */
+    private int bulkInsertLocationWeather(SQLiteDatabase db, Uri uri, ContentValues[] values) {
+        HashSet<String> locations = new HashSet<String>();
+        for (ContentValues value : values) {
+            long weatherDate = value.getAsLong(WeatherContract.WeatherEntry.COLUMN_DATE);
+            if (!SunshineDateUtils.isDateNormalized(weatherDate)) {
+                throw new IllegalArgumentException("Date must be normalized to insert");
+            }
+            String location =
+                    value.getAsString(WeatherContract.LocationWeatherEntry.COLUMN_LOCATION_QUERY);
+            if (location == null) {
+                throw new IllegalArgumentException("Location must be set to insert");
+            }
+            locations.add(location);
+        }
+
+        int rowsInserted = 0;
+        db.beginTransaction();
+        /* No key columns: the old rows are deleted first, so every row is a plain insert */
+        CompiledUpsert insert =
+                new CompiledUpsert(db, WeatherContract.LocationWeatherEntry.TABLE_NAME);
+        try {
+            /* A new forecast replaces the old one, including days it no longer covers */
+            for (String location : locations) {
+                db.delete(WeatherContract.LocationWeatherEntry.TABLE_NAME,
+                        WeatherContract.LocationWeatherEntry.COLUMN_LOCATION_QUERY + " = ?",
+                        new String[]{location});
+            }
+
+            for (ContentValues value : values) {
+                if (insert.upsert(value)) {
+                    rowsInserted++;
+                }
+            }
+            db.setTransactionSuccessful();
+        } finally {
+            insert.close();
+            db.endTransaction();
+        }
+
+        if (rowsInserted > 0) {
+            notifyChange(uri);
+        }
+        checkpointAfterLargeWrite(rowsInserted);
+
+        return rowsInserted;
+    }
+
+    /**
+     * Stores the forecasts of several locations, then merges the preferred location's forecast
+     * into the weather table, all in one transaction. Observers hear about both once it has
+     * committed, as they would after applyBatch.
+     * <p>
+     * When values don't include the preferred location, such as when the server answered that
+     * its forecast hasn't changed, the forecast stored for it by an earlier sync is merged
+     * instead. The weather table doesn't know which location it holds, so after the preferred
+     * location changes to one that was already followed, this is what replaces the old
+     * location's forecast. When nothing is stored for it either, the weather table is left as
+     * it is.
+     *
+     * @param db                The database to write to
+     * @param values            The rows for every location, each with its COLUMN_LOCATION_QUERY set
+     * @param preferredLocation The preferred location, as a normalized location query
+     * @return The number of rows of the weather table inserted, updated or deleted
+     */
+    private int bulkInsertForecasts(SQLiteDatabase db, ContentValues[] values,
+            String preferredLocation) {
+        List<ContentValues> preferredForecast = new ArrayList<ContentValues>();
+        for (ContentValues value : values) {
+            if (preferredLocation.equals(value.getAsString(
+                    WeatherContract.LocationWeatherEntry.COLUMN_LOCATION_QUERY))) {
+                ContentValues weatherValues = new ContentValues(value);
+                weatherValues.remove(WeatherContract.LocationWeatherEntry.COLUMN_LOCATION_QUERY);
+                preferredForecast.add(weatherValues);
+            }
+        }
+
+        /* Within applyBatch, the batch's own transaction and notifications cover this one */
+        Batch outerBatch = mBatch.get();
+        Batch batch = outerBatch != null ? outerBatch : new Batch();
+        mBatch.set(batch);
+        int rowsChanged = 0;
+        db.beginTransaction();
+        try {
+            bulkInsertLocationWeather(db, WeatherContract.LocationWeatherEntry.CONTENT_URI,
+                    values);
+            if (preferredForecast.isEmpty()) {
+                preferredForecast = queryLocationForecast(db, preferredLocation);
+            }
+            if (!preferredForecast.isEmpty()) {
+                rowsChanged = mergeWeather(db,
+                        preferredForecast.toArray(new ContentValues[preferredForecast.size()]));
+            }
+            db.setTransactionSuccessful();
+        } finally {
+            db.endTransaction();
+            if (outerBatch == null) {
+                mBatch.remove();
+                mForecastCache.invalidate();
+            }
+        }
+
+        if (outerBatch == null) {
+            finishBatch(batch);
+        }
+        return rowsChanged;
+    }
+
+    /*
+     * Reads the forecast stored for a location as rows of the weather table. The values come
+     * back as Strings, which the weather table's column affinities turn back into numbers when
+     * they are written, just as they compare equal to the stored numbers in matchesRow.
+     */
+    private static List<ContentValues> queryLocationForecast(SQLiteDatabase db,
+            String location) {
+        List<ContentValues> forecast = new ArrayList<ContentValues>();
+        Cursor cursor = db.query(WeatherContract.LocationWeatherEntry.TABLE_NAME,
+                null,
+                WeatherContract.LocationWeatherEntry.COLUMN_LOCATION_QUERY + " = ?",
+                new String[]{location},
+                null, null,
+                WeatherContract.WeatherEntry.COLUMN_DATE + " ASC");
+        try {
+            while (cursor.moveToNext()) {
+                ContentValues value = new ContentValues();
+                DatabaseUtils.cursorRowToContentValues(cursor, value);
+                value.remove(WeatherContract.LocationWeatherEntry._ID);
+                value.remove(WeatherContract.LocationWeatherEntry.COLUMN_LOCATION_QUERY);
+                forecast.add(value);
+            }
+        } finally {
+            cursor.close();
+        }
+        return forecast;
+    }
+
+    /*
+     * Checkpoints the write-ahead log after a write large enough to slow down later reads, once
+     * its transaction has committed and observers have been told
+     */
+    private void checkpointAfterLargeWrite(int rowsWritten) {
+        Batch batch = mBatch.get();
+        if (batch != null) {
+            /* The batch's transaction is still open; count the rows towards the whole batch */
+            batch.mRowsWritten += rowsWritten;
+        } else if (rowsWritten >= WeatherDbHelper.CHECKPOINT_ROW_THRESHOLD) {
+            mOpenHelper.checkpoint();
+        }
+    }
+
+    /**
+     * Tells observers which days of the weather table a write changed.
+     * <p>
+     * Notifying {@link WeatherContract.WeatherEntry#CONTENT_URI} also reaches every observer of
+     * a single day, such as the detail screen, which would then requery after every sync even
+     * when its day didn't change. So each changed day's own URI is notified instead; the forecast
+     * list observes CONTENT_URI together with its descendants, and hears about each of them. Only
+     * when days were added or removed is CONTENT_URI itself notified, once, as that already
+     * covers every day.
+     *
+     * @param changedDates         The days that were written
+     * @param datesAddedOrRemoved  Whether the write changed which days are stored
+     */
+    private void notifyWeatherChanged(Collection<Long> changedDates,
+            boolean datesAddedOrRemoved) {
+        if (datesAddedOrRemoved) {
+            notifyChange(WeatherContract.WeatherEntry.CONTENT_URI);
+            return;
+        }
+        for (Long date : changedDates) {
+            notifyChange(WeatherContract.WeatherEntry.buildWeatherUriWithDate(date));
+        }
+    }
+
+    /*
+     * Tells observers of uri about a change, straight away or, while a batch is being applied on
+     * this thread, once the batch has committed
+     */
+    private void notifyChange(Uri uri) {
+        Batch batch = mBatch.get();
+        if (batch != null) {
+            batch.mNotifications.add(uri);
+        } else {
+            /* Before observers are told, so that their requery doesn't get the old forecast */
+            mForecastCache.invalidate();
+            getContext().getContentResolver().notifyChange(uri, null);
+        }
+    }
+
+    /**
+     * Applies every operation in one transaction: either all of them are written or, if one
+     * fails, none are. Observers are told once the transaction has committed, and only once per
+     * URI however many operations changed it. A URI is left out when one of its ancestors is
+     * notified, as that already tells the observers of every descendant.
+     * <p>
+     * Without this, each operation is its own transaction, and every one of them sends a change
+     * notification that makes the open screens requery.
+     *
+     * @param operations The operations to apply
+     * @return The result of each operation
+     * @throws OperationApplicationException If an operation failed, in which case nothing was
+     *                                       written
+     */
+    @NonNull
+    @Override
+    public ContentProviderResult[] applyBatch(
+            @NonNull ArrayList<ContentProviderOperation> operations)
+            throws OperationApplicationException {
+        Batch batch = new Batch();
+        ContentProviderResult[] results;
+        final SQLiteDatabase db = mOpenHelper.getWritableDatabase();
+        mBatch.set(batch);
+        db.beginTransaction();
+        try {
+            results = super.applyBatch(operations);
+            db.setTransactionSuccessful();
+        } finally {
+            db.endTransaction();
+            mBatch.remove();
+            /* Queries within the batch may have cached what it wrote, committed or not */
+            mForecastCache.invalidate();
+        }
+
+        finishBatch(batch);
+        return results;
+    }
+
+    /*
+     * Once a batch has committed, tells observers about every URI it changed, leaving out those
+     * whose ancestor is notified too, and checkpoints if it wrote enough rows
+     */
+    private void finishBatch(Batch batch) {
+        ContentResolver resolver = getContext().getContentResolver();
+        for (Uri uri : batch.mNotifications) {
+            if (!hasNotifiedAncestor(uri, batch.mNotifications)) {
+                resolver.notifyChange(uri, null);
+            }
+        }
+        checkpointAfterLargeWrite(batch.mRowsWritten);
+    }
+
+    /* Whether a proper ancestor of uri, such as /weather for /weather/<date>, is in uris */
+    private static boolean hasNotifiedAncestor(Uri uri, Set<Uri> uris) {
+        List<String> segments = uri.getPathSegments();
+        for (int length = segments.size() - 1; length >= 0; length--) {
+            Uri.Builder ancestor = new Uri.Builder()
+                    .scheme(uri.getScheme())
+                    .encodedAuthority(uri.getEncodedAuthority());
+            for (int i = 0; i < length; i++) {
+                ancestor.appendPath(segments.get(i));
+            }
+            if (uris.contains(ancestor.build())) {
+                return true;
+            }
+        }
+        return false;
+    }
+
     /**
      * Handles query requests from clients. We will use this method in Sunshine to query for all
      * of our weather data as well as to query for the weather on a particular day.
@@ -196,6 +681,7 @@ public class WeatherProvider extends ContentProvider {
                         String[] selectionArgs, String sortOrder) {
 
         Cursor cursor;
+        Uri notificationUri = uri;
 
         /*
          * Here's the switch statement that, given a URI, will determine what kind of request is
@@ -285,11 +771,60 @@ public class WeatherProvider extends ContentProvider {
                 break;
             }
 
+            /*
+             * Every day from today onwards, by date unless the caller sorts them otherwise. Today
+             * is worked out here, and the result is answered from memory whenever possible.
+             */
+            case CODE_WEATHER_UPCOMING: {
+                if (selection != null) {
+                    throw new IllegalArgumentException("Today is the only selection for " + uri);
+                }
+                if (sortOrder == null) {
+                    sortOrder = WeatherContract.WeatherEntry.COLUMN_DATE + " ASC";
+                }
+
+                long today = SunshineDateUtils.normalizeDate(System.currentTimeMillis());
+                cursor = mForecastCache.query(mOpenHelper.getReadableDatabase(),
+                        projection, today, sortOrder);
+
+                /* Writes notify CONTENT_URI or a single day's URI, never this one */
+                notificationUri = WeatherContract.WeatherEntry.CONTENT_URI;
+                break;
+            }
+
+            /* The forecasts of all followed locations, restricted by the caller's selection */
+            case CODE_LOCATION_WEATHER: {
+                cursor = mOpenHelper.getReadableDatabase().query(
+                        WeatherContract.LocationWeatherEntry.TABLE_NAME,
+                        projection,
+                        selection,
+                        selectionArgs,
+                        null,
+                        null,
+                        sortOrder);
+
+                break;
+            }
+
+            /* Every archived revision, restricted by the caller's selection */
+            case CODE_WEATHER_ARCHIVE: {
+                cursor = mOpenHelper.getReadableDatabase().query(
+                        ArchiveEntry.TABLE_NAME,
+                        projection,
+                        selection,
+                        selectionArgs,
+                        null,
+                        null,
+                        sortOrder);
+
+                break;
+            }
+
             default:
                 throw new UnsupportedOperationException("Unknown uri: " + uri);
         }
 
-        cursor.setNotificationUri(getContext().getContentResolver(), uri);
+        cursor.setNotificationUri(getContext().getContentResolver(), notificationUri);
         return cursor;
     }
 
@@ -326,13 +861,29 @@ public class WeatherProvider extends ContentProvider {
 
                 break;
 
+            case CODE_LOCATION_WEATHER:
+                numRowsDeleted = mOpenHelper.getWritableDatabase().delete(
+                        WeatherContract.LocationWeatherEntry.TABLE_NAME,
+                        selection,
+                        selectionArgs);
+
+                break;
+
+            case CODE_WEATHER_ARCHIVE:
+                numRowsDeleted = mOpenHelper.getWritableDatabase().delete(
+                        ArchiveEntry.TABLE_NAME,
+                        selection,
+                        selectionArgs);
+
+                break;
+
             default:
                 throw new UnsupportedOperationException("Unknown uri: " + uri);
         }
 
         /* If we actually deleted any rows, notify that a change has occurred to this URI */
         if (numRowsDeleted != 0) {
-            getContext().getContentResolver().notifyChange(uri, null);
+            notifyChange(uri);
         }
 
         return numRowsDeleted;
@@ -354,25 +905,130 @@ public class WeatherProvider extends ContentProvider {
     }
 
     /**
-     * In Sunshine, we aren't going to do anything with this method. However, we are required to
-     * override it as WeatherProvider extends ContentProvider and insert is an abstract method in
-     * ContentProvider. Rather than the single insert method, we are only going to implement
-     * {@link WeatherProvider#bulkInsert}.
+     * Inserts a single day's forecast into the weather table. A day that is already stored is
+     * replaced. Syncs write many days at once, and should use
+     * {@link WeatherProvider#bulkInsert} instead.
      *
      * @param uri    The URI of the insertion request. This must not be null.
      * @param values A set of column_name/value pairs to add to the database.
      *               This must not be null
-     * @return nothing in Sunshine, but normally the URI for the newly inserted item.
+     * @return The URI of the inserted day, or null if it couldn't be inserted
      */
     @Override
     public Uri insert(@NonNull Uri uri, ContentValues values) {
-        throw new RuntimeException(
-                "We are not implementing insert in Sunshine. Use bulkInsert instead");
+        switch (sUriMatcher.match(uri)) {
+
+            case CODE_WEATHER: {
+                Long weatherDate = values.getAsLong(WeatherContract.WeatherEntry.COLUMN_DATE);
+                if (weatherDate == null || !SunshineDateUtils.isDateNormalized(weatherDate)) {
+                    throw new IllegalArgumentException("Date must be normalized to insert");
+                }
+
+                long _id = mOpenHelper.getWritableDatabase().insert(
+                        WeatherContract.WeatherEntry.TABLE_NAME, null, values);
+                if (_id == -1) {
+                    return null;
+                }
+
+                notifyChange(uri);
+                return WeatherContract.WeatherEntry.buildWeatherUriWithDate(weatherDate);
+            }
+
+            default:
+                throw new UnsupportedOperationException("Unknown uri: " + uri);
+        }
     }
 
+    /**
+     * Updates the rows at a given URI: the days of the weather table that match selection, one
+     * day of it, or the location_weather rows that match selection.
+     *
+     * @param uri           The URI of the rows to update
+     * @param values        The columns to change, and their new values
+     * @param selection     An optional restriction to apply to rows when updating
+     * @param selectionArgs Used in conjunction with the selection statement
+     * @return The number of rows updated
+     */
     @Override
-    public int update(@NonNull Uri uri, ContentValues values, String selection, String[] selectionArgs) {
-        throw new RuntimeException("We are not implementing update in Sunshine");
+    public int update(@NonNull Uri uri, ContentValues values, String selection,
+            String[] selectionArgs) {
+        final SQLiteDatabase db = mOpenHelper.getWritableDatabase();
+        int numRowsUpdated;
+
+        switch (sUriMatcher.match(uri)) {
+
+            case CODE_WEATHER:
+                if (values.containsKey(WeatherContract.WeatherEntry.COLUMN_DATE)) {
+                    /* Moving days around changes which days are stored */
+                    numRowsUpdated = db.update(WeatherContract.WeatherEntry.TABLE_NAME,
+                            values,
+                            selection,
+                            selectionArgs);
+                    if (numRowsUpdated != 0) {
+                        notifyChange(uri);
+                    }
+                    return numRowsUpdated;
+                }
+
+                /* Find the days the update is about to change, in the same transaction */
+                List<Long> updatedDates = new ArrayList<Long>();
+                db.beginTransaction();
+                try {
+                    Cursor dates = db.query(WeatherContract.WeatherEntry.TABLE_NAME,
+                            new String[]{WeatherContract.WeatherEntry.COLUMN_DATE},
+                            selection, selectionArgs, null, null, null);
+                    try {
+                        while (dates.moveToNext()) {
+                            updatedDates.add(dates.getLong(0));
+                        }
+                    } finally {
+                        dates.close();
+                    }
+                    numRowsUpdated = db.update(WeatherContract.WeatherEntry.TABLE_NAME,
+                            values,
+                            selection,
+                            selectionArgs);
+                    db.setTransactionSuccessful();
+                } finally {
+                    db.endTransaction();
+                }
+
+                notifyWeatherChanged(updatedDates, false);
+                return numRowsUpdated;
+
+            case CODE_WEATHER_WITH_DATE:
+                if (selection != null) {
+                    throw new IllegalArgumentException("The date is the only selection for " + uri);
+                }
+                numRowsUpdated = db.update(WeatherContract.WeatherEntry.TABLE_NAME,
+                        values,
+                        WeatherContract.WeatherEntry.COLUMN_DATE + " = ? ",
+                        new String[]{uri.getLastPathSegment()});
+
+                break;
+
+            case CODE_LOCATION_WEATHER:
+                numRowsUpdated = db.update(WeatherContract.LocationWeatherEntry.TABLE_NAME,
+                        values,
+                        selection,
+                        selectionArgs);
+
+                break;
+
+            default:
+                throw new UnsupportedOperationException("Unknown uri: " + uri);
+        }
+
+        if (numRowsUpdated != 0) {
+            notifyChange(uri);
+        }
+
+        return numRowsUpdated;
+    }
+
+    /* The forecast list's cache, whose hit and miss counts tell how often it saved a query */
+    ForecastSnapshotCache getForecastCache() {
+        return mForecastCache;
     }
 
     /**
@@ -0,0 +1,62 @@
+/*
+ * Copyright (C) 2016 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.example.android.sunshine.sync;
+
+import android.os.AsyncTask;
+
+import com.firebase.jobdispatcher.JobParameters;
+import com.firebase.jobdispatcher.JobService;
+
+/**
+ * Runs {@link ArchiveCompactionTask} off the main thread, for the daily job scheduled by
+ * {@link SunshineSyncUtils}.
+ */
+public class ArchiveCompactionJobService extends JobService {
+
+    private AsyncTask<Void, Void, Void> mCompactionTask;
+
+    @Override
+    public boolean onStartJob(final JobParameters jobParameters) {
+
+        mCompactionTask = new AsyncTask<Void, Void, Void>() {
+            @Override
+            protected Void doInBackground(Void... voids) {
+                ArchiveCompactionTask.compact(getApplicationContext());
+                return null;
+            }
+
+            @Override
+            protected void onPostExecute(Void result) {
+                jobFinished(jobParameters, false);
+            }
+        };
+
+        mCompactionTask.execute();
+        return true;
+    }
+
+    /*
+     * Each step of the compaction is a single DELETE, so whatever was done stays done; the next
+     * day's run picks up the rest.
+     */
+    @Override
+    public boolean onStopJob(JobParameters jobParameters) {
+        if (mCompactionTask != null) {
+            mCompactionTask.cancel(true);
+        }
+        return false;
+    }
+}
@@ -0,0 +1,122 @@
+/*
+ * Copyright (C) 2016 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.example.android.sunshine.sync;
+
+import android.content.ContentResolver;
+import android.content.Context;
+import android.util.Log;
+
+import com.example.android.sunshine.data.WeatherContract.ArchiveEntry;
+import com.example.android.sunshine.data.WeatherContract.WeatherEntry;
+import com.example.android.sunshine.utilities.SunshineDateUtils;
+
+import java.util.TimeZone;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Keeps the weather table to today onwards, and the forecast archive within its
+ * {@link RetentionPolicy}. Run once a day by {@link ArchiveCompactionJobService}.
+ */
+public class ArchiveCompactionTask {
+
+    private static final String TAG = ArchiveCompactionTask.class.getSimpleName();
+
+    /* Every revision is kept for two days, each day's final forecast for three months */
+    static final RetentionPolicy DEFAULT_POLICY = new RetentionPolicy(
+            TimeUnit.DAYS.toMillis(2), TimeUnit.DAYS.toMillis(90));
+
+    /**
+     * How long the forecast archive keeps what.
+     */
+    public static final class RetentionPolicy {
+
+        final long revisionRetentionMillis;
+        final long archiveRetentionMillis;
+
+        /**
+         * @param revisionRetentionMillis How long every revision of a forecast is kept after it
+         *                                was synced. After that, only the day's final forecast,
+         *                                its last revision, is kept. 0 keeps final forecasts only.
+         * @param archiveRetentionMillis  How long after a day has passed its forecast is kept
+         */
+        public RetentionPolicy(long revisionRetentionMillis, long archiveRetentionMillis) {
+            this.revisionRetentionMillis = revisionRetentionMillis;
+            this.archiveRetentionMillis = archiveRetentionMillis;
+        }
+
+        public long getRevisionRetentionMillis() {
+            return revisionRetentionMillis;
+        }
+
+        public long getArchiveRetentionMillis() {
+            return archiveRetentionMillis;
+        }
+    }
+
+    /**
+     * Compacts the weather data with the default retention policy.
+     *
+     * @param context Used to access the ContentResolver
+     * @return The number of rows removed
+     */
+    public static int compact(Context context) {
+        return compact(context, DEFAULT_POLICY, System.currentTimeMillis());
+    }
+
+    /**
+     * Compacts the weather data in three steps:
+     * <ol>
+     * <li>Days before today leave the weather table. Every forecast a sync stores is archived,
+     * so their final forecast is already in the archive.</li>
+     * <li>Revisions older than the policy's revision retention are downsampled to each day's
+     * final forecast.</li>
+     * <li>Days older than the policy's archive retention are purged from the archive.</li>
+     * </ol>
+     * Each step is a single DELETE, and the archive's steps go through its index on date.
+     *
+     * @param context Used to access the ContentResolver
+     * @param policy  How long to keep revisions and days
+     * @param now     The current wall clock time
+     * @return The number of rows removed
+     */
+    static int compact(Context context, RetentionPolicy policy, long now) {
+        ContentResolver resolver = context.getContentResolver();
+
+        /*
+         * Dates are stored as the UTC midnight of the local day, as getNormalizedUtcDateForToday
+         * returns it. Normalizing now itself would give the UTC day, which west of Greenwich is
+         * already tomorrow by the evening, and would throw away the rest of today.
+         */
+        long today = SunshineDateUtils.normalizeDate(now + TimeZone.getDefault().getOffset(now));
+
+        int pastDays = resolver.delete(WeatherEntry.CONTENT_URI,
+                WeatherEntry.COLUMN_DATE + " < ?",
+                new String[]{Long.toString(today)});
+
+        int supersededRevisions = resolver.delete(ArchiveEntry.CONTENT_URI,
+                ArchiveEntry.COLUMN_REVISION_TIME + " < ? AND "
+                        + ArchiveEntry.getSqlSelectSuperseded(),
+                new String[]{Long.toString(now - policy.revisionRetentionMillis)});
+
+        int expiredDays = resolver.delete(ArchiveEntry.CONTENT_URI,
+                WeatherEntry.COLUMN_DATE + " < ?",
+                new String[]{Long.toString(today - policy.archiveRetentionMillis)});
+
+        Log.d(TAG, "Compacted " + pastDays + " past days, " + supersededRevisions
+                + " superseded revisions and " + expiredDays + " expired days");
+        return pastDays + supersededRevisions + expiredDays;
+    }
+}
@@ -0,0 +1,440 @@
+/*
+ * Copyright (C) 2016 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.example.android.sunshine.sync;
+
+import android.content.ContentValues;
+import android.content.Context;
+import android.database.Cursor;
+import android.os.Process;
+import android.util.Log;
+
+import com.example.android.sunshine.data.LocationKeyCache;
+import com.example.android.sunshine.data.WeatherContract;
+import com.example.android.sunshine.utilities.AccuWeatherJsonUtils;
+import com.example.android.sunshine.utilities.HttpValidatorStore;
+import com.example.android.sunshine.utilities.NetworkUtils;
+import com.example.android.sunshine.utilities.ResponseBody;
+import com.example.android.sunshine.utilities.SunshineTrace;
+import com.example.android.sunshine.utilities.WeatherApiException;
+import com.example.android.sunshine.utilities.WeatherHttpClient;
+
+import org.json.JSONException;
+
+import java.io.IOException;
+import java.net.URL;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.List;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.Future;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.Semaphore;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * Fetches and parses the forecasts of several locations at the same time.
+ * <p>
+ * Each location is looked up, downloaded and parsed on its own worker thread, so a sync of N
+ * locations takes about as long as the slowest one rather than the sum of all of them. The
+ * number of workers is bounded, and so is the number of requests in flight to any one host, so
+ * that following many cities doesn't flood AccuWeather (or the radio) with parallel requests.
+ * <p>
+ * The engine only produces ContentValues; storing them is up to the caller, which can then
+ * commit every location in a single transaction.
+ */
+public final class LocationSyncEngine {
+
+    private static final String TAG = LocationSyncEngine.class.getSimpleName();
+
+    /* The most locations that are fetched or parsed at the same time */
+    private static final int MAX_THREADS = 4;
+
+    /* The most requests that may be in flight to one host at the same time */
+    private static final int MAX_REQUESTS_PER_HOST = 2;
+
+    /* Idle workers are let go after this long, so the pool costs nothing between syncs */
+    private static final long KEEP_ALIVE_SECONDS = 30;
+
+    /* How long a sync waits for all of its locations before giving up on the stragglers */
+    private static final long SYNC_TIMEOUT_MILLIS = TimeUnit.MINUTES.toMillis(2);
+
+    private static final ThreadPoolExecutor sExecutor = createExecutor();
+
+    /* One Semaphore per host, holding MAX_REQUESTS_PER_HOST permits */
+    private static final HashMap<String, Semaphore> sHostPermits = new HashMap<String, Semaphore>();
+
+    private final Context mContext;
+    private final LocationKeyCache mLocationKeyCache;
+    private final HttpValidatorStore mValidators;
+
+    /* Why each location that failed in the last call to fetchForecasts failed */
+    private final List<Exception> mErrors = new ArrayList<Exception>();
+
+    public LocationSyncEngine(Context context) {
+        mContext = context.getApplicationContext();
+        mLocationKeyCache = new LocationKeyCache(mContext);
+        mValidators = new HttpValidatorStore(mContext);
+    }
+
+    private static ThreadPoolExecutor createExecutor() {
+        ThreadFactory threadFactory = new ThreadFactory() {
+            private final AtomicInteger mCount = new AtomicInteger(1);
+
+            @Override
+            public Thread newThread(final Runnable runnable) {
+                return new Thread(new Runnable() {
+                    @Override
+                    public void run() {
+                        /* Keep sync work from competing with the UI thread */
+                        Process.setThreadPriority(Process.THREAD_PRIORITY_BACKGROUND);
+                        runnable.run();
+                    }
+                }, "LocationSync #" + mCount.getAndIncrement());
+            }
+        };
+
+        ThreadPoolExecutor executor = new ThreadPoolExecutor(
+                MAX_THREADS,
+                MAX_THREADS,
+                KEEP_ALIVE_SECONDS,
+                TimeUnit.SECONDS,
+                new LinkedBlockingQueue<Runnable>(),
+                threadFactory);
+        executor.allowCoreThreadTimeOut(true);
+        return executor;
+    }
+
+    /**
+     * Fetches and parses the forecasts of all the given locations concurrently, and waits for
+     * them to finish. A location that fails is logged and left out of the result; it doesn't
+     * stop the other locations from syncing.
+     *
+     * @param locationQueries The locations to sync, as entered by the user
+     * @return One LocationForecast for every location that synced, in the order given
+     * @throws InterruptedException If the sync was interrupted while waiting
+     * @see #getErrors()
+     */
+    public List<LocationForecast> fetchForecasts(List<String> locationQueries)
+            throws InterruptedException {
+        mErrors.clear();
+        List<Future<LocationForecast>> futures =
+                new ArrayList<Future<LocationForecast>>(locationQueries.size());
+        for (final String locationQuery : locationQueries) {
+            futures.add(sExecutor.submit(new Callable<LocationForecast>() {
+                @Override
+                public LocationForecast call() throws Exception {
+                    return fetchForecast(locationQuery);
+                }
+            }));
+        }
+
+        List<LocationForecast> forecasts = new ArrayList<LocationForecast>(futures.size());
+        long deadline = System.nanoTime() + TimeUnit.MILLISECONDS.toNanos(SYNC_TIMEOUT_MILLIS);
+        for (int i = 0; i < futures.size(); i++) {
+            Future<LocationForecast> future = futures.get(i);
+            String locationQuery = locationQueries.get(i);
+            try {
+                LocationForecast forecast =
+                        future.get(deadline - System.nanoTime(), TimeUnit.NANOSECONDS);
+                if (forecast != null) {
+                    forecasts.add(forecast);
+                }
+            } catch (ExecutionException e) {
+                Throwable cause = e.getCause();
+                Log.e(TAG, "Sync failed for " + locationQuery, cause);
+                mErrors.add(cause instanceof Exception
+                        ? (Exception) cause
+                        : new RuntimeException(cause));
+            } catch (TimeoutException e) {
+                future.cancel(true);
+                Log.e(TAG, "Sync timed out for " + locationQuery);
+                mErrors.add(new WeatherApiException(WeatherApiException.ERROR_NETWORK, 0,
+                        "Sync timed out for " + locationQuery, e));
+            } catch (InterruptedException e) {
+                for (Future<LocationForecast> pending : futures) {
+                    pending.cancel(true);
+                }
+                throw e;
+            }
+        }
+        return forecasts;
+    }
+
+    /**
+     * Returns why each location that was left out of the last call to
+     * {@link #fetchForecasts(List)} failed, so that the caller can decide whether to retry.
+     *
+     * @return The errors, in the order of the locations; empty if every location synced
+     */
+    public List<Exception> getErrors() {
+        return Collections.unmodifiableList(mErrors);
+    }
+
+    /**
+     * Fetches and parses the forecast of one location. Runs on a worker thread.
+     *
+     * @param locationQuery The location as entered by the user
+     * @return The forecast, or null if AccuWeather doesn't know the location
+     */
+    LocationForecast fetchForecast(String locationQuery)
+            throws IOException, JSONException {
+        long fetchStart = System.nanoTime();
+
+        /* The location Key rarely changes, so look in the cache before asking AccuWeather */
+        String locationKey = mLocationKeyCache.get(locationQuery);
+        boolean keyWasCached = locationKey != null;
+        if (!keyWasCached) {
+            locationKey = searchLocationKey(locationQuery);
+            if (locationKey == null) {
+                return null;
+            }
+        }
+
+        /*
+         * The forecast only changes a few times a day, so we ask the server to send it only if
+         * it changed since our last download. We can only rely on a 304 if we still have that
+         * download in the database, though, so without it we forget the validators and download
+         * the forecast in full.
+         */
+        boolean hasStoredForecast = hasForecastFromToday(locationQuery);
+
+        URL forecastUrl = NetworkUtils.getAccuWeatherForecastUrl(mContext, locationKey);
+        WeatherHttpClient.Response forecastResponse;
+        try {
+            forecastResponse = downloadForecast(forecastUrl, hasStoredForecast);
+        } catch (WeatherApiException e) {
+            if (!keyWasCached || e.getKind() != WeatherApiException.ERROR_LOCATION_NOT_FOUND) {
+                throw e;
+            }
+
+            /*
+             * AccuWeather no longer knows the cached Key, so it must have reassigned the
+             * location. Look it up again, once; a Key we just searched for is trusted as is.
+             */
+            Log.w(TAG, "AccuWeather no longer knows location Key " + locationKey
+                    + " for " + locationQuery + ", searching again");
+            mLocationKeyCache.remove(locationQuery);
+            mValidators.clear(forecastUrl);
+            locationKey = searchLocationKey(locationQuery);
+            if (locationKey == null) {
+                return null;
+            }
+            forecastUrl = NetworkUtils.getAccuWeatherForecastUrl(mContext, locationKey);
+            forecastResponse = downloadForecast(forecastUrl, hasStoredForecast);
+        }
+        long fetchMillis = elapsedMillisSince(fetchStart);
+
+        ResponseBody forecastBody = forecastResponse.getBody();
+        if (forecastResponse.isNotModified()) {
+            /*
+             * Nothing changed, so there is nothing to parse and nothing to store; the sync
+             * merges the stored forecast into the weather table if this is the preferred
+             * location. A response from the HTTP cache is parsed and stored like any other:
+             * the download is what the cache saves, and whether the stored forecast already
+             * matches it is for the provider's merge to find out.
+             */
+            if (SunshineTrace.VERBOSE) {
+                Log.v(TAG, "AccuWeather Forecast not modified since last sync: " + locationQuery);
+            }
+            if (forecastBody != null) {
+                forecastBody.release();
+            }
+            return new LocationForecast(locationQuery, null, forecastUrl, forecastResponse,
+                    fetchMillis, 0);
+        }
+
+        /* Parsing happens outside the host permit, so it overlaps with other downloads */
+        long parseStart = System.nanoTime();
+        ContentValues[] weatherValues = null;
+        if (forecastBody != null) {
+            SunshineTrace.beginSection(SunshineTrace.SECTION_PARSE);
+            try {
+                weatherValues = AccuWeatherJsonUtils
+                        .getWeatherContentValuesFromJson(mContext, forecastBody);
+            } finally {
+                SunshineTrace.endSection();
+                forecastBody.release();
+            }
+        }
+        return new LocationForecast(locationQuery, weatherValues, forecastUrl, forecastResponse,
+                fetchMillis, elapsedMillisSince(parseStart));
+    }
+
+    /**
+     * Asks AccuWeather for a location's Key, and caches it.
+     *
+     * @param locationQuery The location as entered by the user
+     * @return The AccuWeather location Key, or null if AccuWeather doesn't know the location
+     */
+    private String searchLocationKey(String locationQuery)
+            throws IOException, JSONException {
+        URL locationUrl = NetworkUtils.getAccuWeatherLocationUrl(locationQuery);
+        ResponseBody locationBody;
+        SunshineTrace.beginSection(SunshineTrace.SECTION_FETCH);
+        try {
+            locationBody = NetworkUtils.getResponseBodyFromHttpUrl(mContext, locationUrl,
+                    getHostPermits(locationUrl));
+        } finally {
+            SunshineTrace.endSection();
+        }
+
+        String locationKey = null;
+        if (locationBody != null) {
+            SunshineTrace.beginSection(SunshineTrace.SECTION_PARSE);
+            try {
+                locationKey = AccuWeatherJsonUtils.getLocationFromJson(mContext, locationBody);
+            } finally {
+                SunshineTrace.endSection();
+                locationBody.release();
+            }
+        }
+        if (locationKey == null || locationKey.length() == 0) {
+            Log.w(TAG, "No AccuWeather location found for " + locationQuery);
+            return null;
+        }
+        mLocationKeyCache.put(locationQuery, locationKey);
+        return locationKey;
+    }
+
+    /**
+     * Downloads a location's forecast, conditionally if the database still holds the download
+     * the server's validators describe.
+     *
+     * @param forecastUrl       The location's forecast URL
+     * @param hasStoredForecast Whether the database holds the location's forecast from today
+     * @return The response, which may be a 304
+     */
+    private WeatherHttpClient.Response downloadForecast(URL forecastUrl,
+            boolean hasStoredForecast) throws IOException {
+        if (!hasStoredForecast) {
+            mValidators.clear(forecastUrl);
+        }
+
+        SunshineTrace.beginSection(SunshineTrace.SECTION_FETCH);
+        try {
+            return NetworkUtils.getConditionalResponseFromHttpUrl(mContext, forecastUrl,
+                    getHostPermits(forecastUrl));
+        } finally {
+            SunshineTrace.endSection();
+        }
+    }
+
+    /**
+     * Checks whether the database still holds this location's forecast from today onwards. If
+     * it doesn't, a 304 from the server would leave us with nothing to show.
+     */
+    private boolean hasForecastFromToday(String locationQuery) {
+        Cursor cursor = mContext.getContentResolver().query(
+                WeatherContract.LocationWeatherEntry.CONTENT_URI,
+                new String[]{WeatherContract.LocationWeatherEntry._ID},
+                WeatherContract.LocationWeatherEntry.getSqlSelectForLocationFromToday(),
+                new String[]{LocationKeyCache.normalizeQuery(locationQuery)},
+                null);
+
+        if (cursor == null) {
+            return false;
+        }
+
+        try {
+            return cursor.getCount() > 0;
+        } finally {
+            cursor.close();
+        }
+    }
+
+    private static long elapsedMillisSince(long startNanos) {
+        return TimeUnit.NANOSECONDS.toMillis(System.nanoTime() - startNanos);
+    }
+
+    /* The permits every request to the URL's host holds while it is in flight */
+    private static Semaphore getHostPermits(URL url) {
+        synchronized (sHostPermits) {
+            Semaphore permits = sHostPermits.get(url.getHost());
+            if (permits == null) {
+                permits = new Semaphore(MAX_REQUESTS_PER_HOST);
+                sHostPermits.put(url.getHost(), permits);
+            }
+            return permits;
+        }
+    }
+
+    /**
+     * The outcome of syncing one location.
+     */
+    public static final class LocationForecast {
+
+        private final String mLocationQuery;
+        private final ContentValues[] mWeatherValues;
+        private final URL mForecastUrl;
+        private final WeatherHttpClient.Response mForecastResponse;
+        private final long mFetchMillis;
+        private final long mParseMillis;
+
+        LocationForecast(String locationQuery, ContentValues[] weatherValues, URL forecastUrl,
+                WeatherHttpClient.Response forecastResponse, long fetchMillis,
+                long parseMillis) {
+            mLocationQuery = locationQuery;
+            mWeatherValues = weatherValues;
+            mForecastUrl = forecastUrl;
+            mForecastResponse = forecastResponse;
+            mFetchMillis = fetchMillis;
+            mParseMillis = parseMillis;
+        }
+
+        /* The location as entered by the user */
+        public String getLocationQuery() {
+            return mLocationQuery;
+        }
+
+        /* The parsed forecast, or null if it hasn't changed since the last sync */
+        public ContentValues[] getWeatherValues() {
+            return mWeatherValues;
+        }
+
+        /* How long looking up the location and downloading its forecast took, waits included */
+        public long getFetchMillis() {
+            return mFetchMillis;
+        }
+
+        /* How long parsing the forecast took; 0 if it hadn't changed */
+        public long getParseMillis() {
+            return mParseMillis;
+        }
+
+        /* True if the stored forecast is still current, so there is nothing new to store */
+        public boolean isNotModified() {
+            return mWeatherValues == null;
+        }
+
+        /**
+         * Remembers the forecast's validators so that the next sync can be conditional. Only
+         * call this once the forecast has been stored.
+         *
+         * @param validators Where validators are kept
+         */
+        public void saveValidators(HttpValidatorStore validators) {
+            if (mWeatherValues != null) {
+                validators.save(mForecastUrl, mForecastResponse);
+            }
+        }
+    }
+}
@@ -26,7 +26,7 @@ import com.firebase.jobdispatcher.RetryStrategy;
 
 public class SunshineFirebaseJobService extends JobService {
 
-    private AsyncTask<Void, Void, Void> mFetchWeatherTask;
+    private AsyncTask<Void, Void, SyncResult> mFetchWeatherTask;
 
     /**
      * The entry point to your Job. Implementations should offload work to another thread of
@@ -41,18 +41,21 @@ public class SunshineFirebaseJobService extends JobService {
     @Override
     public boolean onStartJob(final JobParameters jobParameters) {
 
-        mFetchWeatherTask = new AsyncTask<Void, Void, Void>(){
+        mFetchWeatherTask = new AsyncTask<Void, Void, SyncResult>(){
             @Override
-            protected Void doInBackground(Void... voids) {
+            protected SyncResult doInBackground(Void... voids) {
                 Context context = getApplicationContext();
-                SunshineSyncTask.syncWeather(context);
-                jobFinished(jobParameters, false);
-                return null;
+                return SunshineSyncTask.syncWeather(context);
             }
 
+            /*
+             * The job is finished exactly once, here. If the sync failed for a reason that is
+             * likely to pass, such as a dropped connection, the dispatcher retries it using the
+             * job's RetryStrategy rather than waiting for the next periodic run.
+             */
             @Override
-            protected void onPostExecute(Void aVoid) {
-                jobFinished(jobParameters, false);
+            protected void onPostExecute(SyncResult result) {
+                jobFinished(jobParameters, result.needsReschedule());
             }
         };
 
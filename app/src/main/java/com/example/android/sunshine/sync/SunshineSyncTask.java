@@ -15,21 +15,26 @@
  */
 package com.example.android.sunshine.sync;
 
-import android.content.ContentResolver;
 import android.content.ContentValues;
 import android.content.Context;
 import android.databinding.tool.util.StringUtils;
 import android.text.format.DateUtils;
 import android.util.Log;
 
+import com.example.android.sunshine.data.LocationKeyCache;
 import com.example.android.sunshine.data.SunshinePreferences;
 import com.example.android.sunshine.data.WeatherContract;
-import com.example.android.sunshine.utilities.AccuWeatherJsonUtils;
+import com.example.android.sunshine.utilities.HttpValidatorStore;
 import com.example.android.sunshine.utilities.NetworkUtils;
 import com.example.android.sunshine.utilities.NotificationUtils;
 import com.example.android.sunshine.utilities.OpenWeatherJsonUtils;
+import com.example.android.sunshine.utilities.SunshineTrace;
 
-import java.net.URL;
+import java.util.ArrayList;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Set;
+import java.util.concurrent.TimeUnit;
 
 public class SunshineSyncTask {
 
@@ -41,9 +46,27 @@ public class SunshineSyncTask {
      * weather has been loaded if the user hasn't been notified of the weather within the last day
      * AND they haven't disabled notifications in the preferences screen.
      *
+     * <p>
+     * Requests that arrive while a sync is already running are merged by the
+     * {@link SyncCoordinator}, so this may wait for another caller's sync rather than run its own.
+     *
+     * @param context Used to access utility methods and the ContentResolver
+     * @return The result of the sync this request was merged into
+     */
+    public static SyncResult syncWeather(Context context) {
+        return SyncCoordinator.getInstance().sync(context);
+    }
+
+    /**
+     * Does the actual work of {@link #syncWeather(Context)}. Only the {@link SyncCoordinator}
+     * calls this, and never from two threads at once.
+     *
      * @param context Used to access utility methods and the ContentResolver
+     * @return How the sync went
      */
-    synchronized public static void syncWeather(Context context) {
+    static SyncResult performSync(Context context) {
+        long syncStart = System.nanoTime();
+        SyncResult.Timing timing = new SyncResult.Timing();
 
         try {
             /*
@@ -59,52 +82,63 @@ public class SunshineSyncTask {
 //            Log.v(TAG, "OpenWeather Weather Response: " + jsonWeatherResponse);
 //            ContentValues[] weatherValues = OpenWeatherJsonUtils.getWeatherContentValuesFromJson(context, jsonWeatherResponse);
 
-            ContentValues[] weatherValues = null;
-
             // ACCUWEATHER.COM
-            // First need to get the location info
-            //      Build the URL to get the location info
-            //      Query the URL for the location info
-            /* Use the URL to retrieve the JSON */
-            /* Use the URL to retrieve the JSON */
-            URL locationUrl = NetworkUtils.getAccuWeatherLocationUrl(context);
-            Log.v(TAG, "AccuWeather Location URL: " + locationUrl);
-            String jsonLocationResponse = NetworkUtils.getResponseFromHttpUrl(locationUrl);
-            Log.v(TAG, "AccuWeather Location Response: " + jsonLocationResponse);
-
-            if (jsonLocationResponse != null && jsonLocationResponse.length() != 0) {
-                String locationKey = AccuWeatherJsonUtils.getLocationFromJson(context, jsonLocationResponse);
-                if (locationKey != null && locationKey.length() > 0) {
-                    URL forecastUrl = NetworkUtils.getAccuWeatherForecastUrl(context, locationKey);
-                    Log.v(TAG, "AccuWeather Forecast URL: " + forecastUrl);
-                    String jsonForecastResponse = NetworkUtils.getResponseFromHttpUrl(forecastUrl);
-                    Log.v(TAG, "AccuWeather Forecast Response: " + jsonForecastResponse);
-
-                    // Replace fake weather demo data with actual weather data from AccuWeather
-                    weatherValues = AccuWeatherJsonUtils.getWeatherContentValuesFromJson(context, jsonForecastResponse);
+            // Sync the preferred location along with every location the user follows. The
+            // engine fetches and parses them concurrently, so this takes about as long as the
+            // slowest location.
+            String primaryLocationQuery = NetworkUtils.getAccuWeatherLocationQuery(context);
+            LocationSyncEngine engine = new LocationSyncEngine(context);
+            List<LocationSyncEngine.LocationForecast> forecasts =
+                    engine.fetchForecasts(getSyncLocationQueries(context, primaryLocationQuery));
+
+            /* The locations ran in parallel, so the sync waited as long as the slowest one */
+            for (LocationSyncEngine.LocationForecast forecast : forecasts) {
+                timing.fetchMillis = Math.max(timing.fetchMillis, forecast.getFetchMillis());
+                timing.parseMillis = Math.max(timing.parseMillis, forecast.getParseMillis());
+            }
+
+            long persistStart = System.nanoTime();
+            long notifyNanos = 0;
+
+            List<ContentValues> locationWeatherValues = new ArrayList<ContentValues>();
+            for (LocationSyncEngine.LocationForecast forecast : forecasts) {
+                ContentValues[] forecastValues = forecast.getWeatherValues();
+                if (forecastValues == null || forecastValues.length == 0) {
+                    continue;
+                }
+
+                String normalizedQuery = LocationKeyCache.normalizeQuery(forecast.getLocationQuery());
+                for (ContentValues values : forecastValues) {
+                    ContentValues locationValues = new ContentValues(values);
+                    locationValues.put(WeatherContract.LocationWeatherEntry.COLUMN_LOCATION_QUERY,
+                            normalizedQuery);
+                    locationWeatherValues.add(locationValues);
                 }
             }
 
             /*
-             * In cases where our JSON contained an error code, getWeatherContentValuesFromJson
-             * would have returned null. We need to check for those cases here to prevent any
-             * NullPointerExceptions being thrown. We also have no reason to insert fresh data if
-             * there isn't any to insert.
+             * Commit the new forecast of every location, and bring the weather table up to date
+             * with the preferred location's, in a single transaction. The provider does this
+             * even when nothing new was fetched: if the preferred location's forecast hasn't
+             * changed on the server, its stored one is merged, which is what switches the
+             * weather table over when the preferred location changes to a followed one. Only
+             * the days that changed are written, days that have passed are dropped, and the
+             * forecast list is notified once, or not at all if nothing changed.
              */
-            if (weatherValues != null && weatherValues.length != 0) {
-                /* Get a handle on the ContentResolver to delete and insert data */
-                ContentResolver sunshineContentResolver = context.getContentResolver();
-
-                /* Delete old weather data because we don't need to keep multiple days' data */
-                sunshineContentResolver.delete(
-                        WeatherContract.WeatherEntry.CONTENT_URI,
-                        null,
-                        null);
+            int rowsChanged;
+            SunshineTrace.beginSection(SunshineTrace.SECTION_PERSIST);
+            try {
+                rowsChanged = context.getContentResolver().bulkInsert(
+                        WeatherContract.LocationWeatherEntry.buildUriWithPreferredLocation(
+                                LocationKeyCache.normalizeQuery(primaryLocationQuery)),
+                        locationWeatherValues.toArray(
+                                new ContentValues[locationWeatherValues.size()]));
+            } finally {
+                SunshineTrace.endSection();
+            }
 
-                /* Insert our new weather data into Sunshine's ContentProvider */
-                sunshineContentResolver.bulkInsert(
-                        WeatherContract.WeatherEntry.CONTENT_URI,
-                        weatherValues);
+            if (rowsChanged > 0) {
+                long notifyStart = System.nanoTime();
 
                 /*
                  * Finally, after we insert data into the ContentProvider, determine whether or not
@@ -128,19 +162,89 @@ public class SunshineSyncTask {
 
                 /*
                  * We only want to show the notification if the user wants them shown and we
-                 * haven't shown a notification in the past day.
+                 * haven't shown a notification in the past day. We only get here if the forecast
+                 * actually changed.
                  */
                 if (notificationsEnabled && oneDayPassedSinceLastNotification) {
                     NotificationUtils.notifyUserOfNewWeather(context);
                 }
+                notifyNanos = System.nanoTime() - notifyStart;
+            }
+
+            /*
+             * Only now that the forecasts are safely stored do we remember their validators. If
+             * we stored them earlier and the insert failed, the next sync could get a 304 for
+             * data we never saved.
+             */
+            HttpValidatorStore validators = new HttpValidatorStore(context);
+            int locationsUpdated = 0;
+            for (LocationSyncEngine.LocationForecast forecast : forecasts) {
+                forecast.saveValidators(validators);
+                if (!forecast.isNotModified()) {
+                    locationsUpdated++;
+                }
+            }
 
-            /* If the code reaches this point, we have successfully performed our sync */
+            /* Everything since the forecasts were parsed is persisting, except notifying */
+            timing.notifyMillis = TimeUnit.NANOSECONDS.toMillis(notifyNanos);
+            timing.persistMillis = TimeUnit.NANOSECONDS.toMillis(
+                    System.nanoTime() - persistStart - notifyNanos);
+            timing.totalMillis = elapsedMillisSince(syncStart);
 
+            /* The locations that did sync are stored, but the ones that failed need another go */
+            List<Exception> errors = engine.getErrors();
+            if (!errors.isEmpty()) {
+                return SyncResult.failure(locationsUpdated, getMostTransientError(errors), timing);
             }
+            return SyncResult.success(locationsUpdated, timing);
 
         } catch (Exception e) {
-            /* Server probably invalid */
-            e.printStackTrace();
+            Log.e(TAG, "Sync failed", e);
+            timing.totalMillis = elapsedMillisSince(syncStart);
+            return SyncResult.failure(0, e, timing);
+        }
+    }
+
+    private static long elapsedMillisSince(long startNanos) {
+        return TimeUnit.NANOSECONDS.toMillis(System.nanoTime() - startNanos);
+    }
+
+    /**
+     * Picks the error to report for a sync in which several locations failed. An error worth
+     * retrying soon wins, so that one location with a bad Key can't stop the job from being
+     * rescheduled when the others only hit a dropped connection.
+     */
+    private static Exception getMostTransientError(List<Exception> errors) {
+        for (Exception error : errors) {
+            if (SyncResult.isTransient(error)) {
+                return error;
+            }
+        }
+        return errors.get(0);
+    }
+
+    /**
+     * Returns the locations to sync: the preferred location first, followed by every location
+     * the user follows. Spellings of the same location ("Ypsilanti, MI" and "ypsilanti,mi") are
+     * only synced once.
+     *
+     * @param context              Used to access the followed locations
+     * @param primaryLocationQuery The preferred location
+     * @return The locations to sync, as entered by the user
+     */
+    private static List<String> getSyncLocationQueries(Context context,
+            String primaryLocationQuery) {
+        List<String> locationQueries = new ArrayList<String>();
+        Set<String> normalizedQueries = new HashSet<String>();
+
+        locationQueries.add(primaryLocationQuery);
+        normalizedQueries.add(LocationKeyCache.normalizeQuery(primaryLocationQuery));
+
+        for (String locationQuery : SunshinePreferences.getFollowedLocations(context)) {
+            if (normalizedQueries.add(LocationKeyCache.normalizeQuery(locationQuery))) {
+                locationQueries.add(locationQuery);
+            }
         }
+        return locationQueries;
     }
 }
\ No newline at end of file
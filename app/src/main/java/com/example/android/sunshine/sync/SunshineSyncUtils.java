@@ -46,6 +46,12 @@ public class SunshineSyncUtils {
 
     private static final String SUNSHINE_SYNC_TAG = "sunshine-sync";
 
+    /* The archive is compacted once a day, while the device is charging */
+    private static final int COMPACTION_INTERVAL_SECONDS = (int) TimeUnit.DAYS.toSeconds(1);
+    private static final int COMPACTION_FLEXTIME_SECONDS = (int) TimeUnit.HOURS.toSeconds(6);
+
+    private static final String ARCHIVE_COMPACTION_TAG = "sunshine-archive-compaction";
+
     /**
      * Schedules a repeating sync of Sunshine's weather data using FirebaseJobDispatcher.
      * @param context Context used to create the GooglePlayDriver that powers the
@@ -99,6 +105,34 @@ public class SunshineSyncUtils {
         /* Schedule the Job with the dispatcher */
         dispatcher.schedule(syncSunshineJob);
     }
+
+    /**
+     * Schedules a daily {@link ArchiveCompactionJobService} run, which keeps the weather table to
+     * today onwards and the forecast archive within its retention policy.
+     *
+     * @param context Context used to create the GooglePlayDriver that powers the
+     *                FirebaseJobDispatcher
+     */
+    static void scheduleArchiveCompaction(@NonNull final Context context) {
+
+        Driver driver = new GooglePlayDriver(context);
+        FirebaseJobDispatcher dispatcher = new FirebaseJobDispatcher(driver);
+
+        Job compactionJob = dispatcher.newJobBuilder()
+                .setService(ArchiveCompactionJobService.class)
+                .setTag(ARCHIVE_COMPACTION_TAG)
+                /* Nothing is downloaded; wait for the charger so the deletes cost no battery */
+                .setConstraints(Constraint.DEVICE_CHARGING)
+                .setLifetime(Lifetime.FOREVER)
+                .setRecurring(true)
+                .setTrigger(Trigger.executionWindow(
+                        COMPACTION_INTERVAL_SECONDS,
+                        COMPACTION_INTERVAL_SECONDS + COMPACTION_FLEXTIME_SECONDS))
+                .setReplaceCurrent(true)
+                .build();
+
+        dispatcher.schedule(compactionJob);
+    }
     /**
      * Creates periodic sync tasks and checks to see if an immediate sync is required. If an
      * immediate sync is required, this method will take care of making sure that sync occurs.
@@ -122,6 +156,9 @@ public class SunshineSyncUtils {
          */
         scheduleFirebaseJobDispatcherSync(context);
 
+        /* And to keep the weather table and its archive small */
+        scheduleArchiveCompaction(context);
+
         /*
          * We need to check to see if our ContentProvider has data to display in our forecast
          * list. However, performing a query on the main thread is a bad idea as this may
@@ -132,8 +169,8 @@ public class SunshineSyncUtils {
             @Override
             public void run() {
 
-                /* URI for every row of weather data in our weather table*/
-                Uri forecastQueryUri = WeatherContract.WeatherEntry.CONTENT_URI;
+                /* URI for every row of weather data from today onwards in our weather table */
+                Uri forecastQueryUri = WeatherContract.WeatherEntry.UPCOMING_URI;
 
                 /*
                  * Since this query is going to be used only as a check to see if we have any
@@ -142,14 +179,12 @@ public class SunshineSyncUtils {
                  * to determine what weather details need to be displayed.
                  */
                 String[] projectionColumns = {WeatherContract.WeatherEntry._ID};
-                String selectionStatement = WeatherContract.WeatherEntry
-                        .getSqlSelectForTodayOnwards();
 
                 /* Here, we perform the query to check to see if we have any weather data */
                 Cursor cursor = context.getContentResolver().query(
                         forecastQueryUri,
                         projectionColumns,
-                        selectionStatement,
+                        null,
                         null,
                         null);
                 /*
@@ -0,0 +1,179 @@
+/*
+ * Copyright (C) 2016 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.example.android.sunshine.sync;
+
+import android.content.Context;
+
+import java.util.concurrent.CountDownLatch;
+
+/**
+ * Merges concurrent sync requests so that no two syncs ever run at the same time, and no sync
+ * runs twice in a row for nothing.
+ * <p>
+ * The periodic job, the IntentService started by startImmediateSync and a location change in
+ * the settings can all ask for a sync at about the same moment. Rather than queueing them up
+ * behind each other to each run a full sync, the coordinator works like this:
+ * <ul>
+ * <li>If no sync is running, the caller runs one.</li>
+ * <li>If a sync is running, the caller can't share its result: the request may have been made
+ * because something changed (such as the location) after that sync read its input. So one
+ * follow-up sync is scheduled to run once the current one ends.</li>
+ * <li>Every other request that arrives before the follow-up starts joins the follow-up, so
+ * however many requests pile up, at most one extra sync runs.</li>
+ * </ul>
+ * All callers merged into one run share its {@link SyncResult}.
+ */
+public final class SyncCoordinator {
+
+    /**
+     * Runs one sync. Only ever called by one thread at a time.
+     */
+    interface SyncRunner {
+        SyncResult runSync(Context context);
+    }
+
+    private static SyncCoordinator sInstance;
+
+    private final SyncRunner mRunner;
+
+    private final Object mLock = new Object();
+
+    /* The sync that is currently running, or about to run; null when idle */
+    private SyncFlight mCurrentFlight;
+
+    /* The follow-up that will run after mCurrentFlight, or null if none was requested */
+    private SyncFlight mNextFlight;
+
+    /**
+     * Returns the coordinator that every sync in the app goes through.
+     *
+     * @return The process-wide SyncCoordinator
+     */
+    public static synchronized SyncCoordinator getInstance() {
+        if (sInstance == null) {
+            sInstance = new SyncCoordinator(new SyncRunner() {
+                @Override
+                public SyncResult runSync(Context context) {
+                    return SunshineSyncTask.performSync(context);
+                }
+            });
+        }
+        return sInstance;
+    }
+
+    SyncCoordinator(SyncRunner runner) {
+        mRunner = runner;
+    }
+
+    /**
+     * Requests a sync and waits for it to finish. The sync might run on this thread, or this
+     * call might wait for (and share the result of) a sync run by another caller.
+     *
+     * @param context Used by the sync to access the ContentResolver and preferences
+     * @return The result of the sync this request was merged into
+     */
+    public SyncResult sync(Context context) {
+        SyncFlight flight;
+        SyncFlight previousFlight = null;
+        boolean runOnThisThread = false;
+
+        synchronized (mLock) {
+            if (mCurrentFlight == null) {
+                flight = mCurrentFlight = new SyncFlight();
+                flight.mStarted = true;
+                runOnThisThread = true;
+            } else if (!mCurrentFlight.mStarted) {
+                /*
+                 * A follow-up that was promoted when the previous sync ended, but whose thread
+                 * hasn't woken up yet: it will still read everything this request could have
+                 * changed, so join it rather than scheduling another one behind it.
+                 */
+                flight = mCurrentFlight;
+            } else if (mNextFlight == null) {
+                previousFlight = mCurrentFlight;
+                flight = mNextFlight = new SyncFlight();
+                runOnThisThread = true;
+            } else {
+                flight = mNextFlight;
+            }
+        }
+
+        if (!runOnThisThread) {
+            return flight.await();
+        }
+
+        if (previousFlight != null) {
+            /* This is the follow-up: it may only start once the running sync has ended */
+            previousFlight.await();
+            synchronized (mLock) {
+                flight.mStarted = true;
+            }
+        }
+
+        SyncResult result = null;
+        try {
+            result = mRunner.runSync(context);
+        } catch (RuntimeException e) {
+            result = SyncResult.failure(e);
+        } finally {
+            synchronized (mLock) {
+                /* Promote the follow-up, if any, so new requests queue up behind it */
+                mCurrentFlight = mNextFlight;
+                mNextFlight = null;
+            }
+            flight.finish(result != null ? result : SyncResult.failure(null));
+        }
+        return result;
+    }
+
+    /**
+     * One run of the sync, shared by every request merged into it. A minimal future: minSdk 10
+     * has FutureTask, but a flight isn't a task we hand to an executor; it runs on the thread
+     * of whichever caller started it.
+     */
+    private static final class SyncFlight {
+
+        private final CountDownLatch mDone = new CountDownLatch(1);
+        private volatile SyncResult mResult;
+
+        /* Whether the sync has begun, so that requests can no longer join it; guarded by mLock */
+        boolean mStarted;
+
+        void finish(SyncResult result) {
+            mResult = result;
+            mDone.countDown();
+        }
+
+        SyncResult await() {
+            boolean interrupted = false;
+            try {
+                while (true) {
+                    try {
+                        mDone.await();
+                        return mResult;
+                    } catch (InterruptedException e) {
+                        /* The sync keeps running for the other callers, so keep waiting */
+                        interrupted = true;
+                    }
+                }
+            } finally {
+                if (interrupted) {
+                    Thread.currentThread().interrupt();
+                }
+            }
+        }
+    }
+}
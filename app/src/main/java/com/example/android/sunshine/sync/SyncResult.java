@@ -0,0 +1,179 @@
+/*
+ * Copyright (C) 2016 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.example.android.sunshine.sync;
+
+import com.example.android.sunshine.utilities.WeatherApiException;
+
+import java.io.IOException;
+
+/**
+ * The outcome of one run of {@link SunshineSyncTask}. Every caller whose request was merged
+ * into that run by the {@link SyncCoordinator} receives the same SyncResult.
+ */
+public final class SyncResult {
+
+    private final boolean mSuccessful;
+    private final int mLocationsUpdated;
+    private final Exception mError;
+    private final Timing mTiming;
+
+    private SyncResult(boolean successful, int locationsUpdated, Exception error, Timing timing) {
+        mSuccessful = successful;
+        mLocationsUpdated = locationsUpdated;
+        mError = error;
+        mTiming = timing != null ? timing : new Timing();
+    }
+
+    /**
+     * @param locationsUpdated The number of locations whose forecast changed and was stored
+     * @return The result of a sync that ran to the end
+     */
+    static SyncResult success(int locationsUpdated) {
+        return success(locationsUpdated, null);
+    }
+
+    /**
+     * @param locationsUpdated The number of locations whose forecast changed and was stored
+     * @param timing           How long each phase of the sync took
+     * @return The result of a sync that ran to the end
+     */
+    static SyncResult success(int locationsUpdated, Timing timing) {
+        return new SyncResult(true, locationsUpdated, null, timing);
+    }
+
+    /**
+     * @param error Why the sync failed
+     * @return The result of a sync that failed
+     */
+    static SyncResult failure(Exception error) {
+        return failure(0, error);
+    }
+
+    /**
+     * @param locationsUpdated The number of locations that were stored before, or despite, the
+     *                         failure
+     * @param error            Why the sync failed
+     * @return The result of a sync that failed for at least one location
+     */
+    static SyncResult failure(int locationsUpdated, Exception error) {
+        return failure(locationsUpdated, error, null);
+    }
+
+    /**
+     * @param locationsUpdated The number of locations that were stored before, or despite, the
+     *                         failure
+     * @param error            Why the sync failed
+     * @param timing           How long each phase of the sync took
+     * @return The result of a sync that failed for at least one location
+     */
+    static SyncResult failure(int locationsUpdated, Exception error, Timing timing) {
+        return new SyncResult(false, locationsUpdated, error, timing);
+    }
+
+    /* True if the sync ran to the end, even if nothing had changed */
+    public boolean isSuccessful() {
+        return mSuccessful;
+    }
+
+    /* The number of locations whose forecast changed and was stored */
+    public int getLocationsUpdated() {
+        return mLocationsUpdated;
+    }
+
+    /* Why the sync failed, or null if it succeeded */
+    public Exception getError() {
+        return mError;
+    }
+
+    /* How long each phase of the sync took; all zero if it failed before it got going */
+    public Timing getTiming() {
+        return mTiming;
+    }
+
+    /**
+     * Whether the sync failed for a reason that may well have gone away in a few minutes, such
+     * as a dropped connection or a server error, so that the job should be retried rather than
+     * waiting for the next periodic sync.
+     * <p>
+     * A used-up quota, a rejected API key or an open circuit breaker won't go away that soon;
+     * retrying those early would only wake the device up for nothing.
+     */
+    public boolean needsReschedule() {
+        return !mSuccessful && isTransient(mError);
+    }
+
+    /* Whether a sync that failed with this error is worth retrying within minutes */
+    static boolean isTransient(Exception error) {
+        if (error instanceof WeatherApiException) {
+            return ((WeatherApiException) error).isRetryable();
+        }
+        /* Any other IOException never got an answer from the server */
+        return error instanceof IOException;
+    }
+
+    @Override
+    public String toString() {
+        return mSuccessful
+                ? "SyncResult{updated " + mLocationsUpdated + " locations}"
+                : "SyncResult{failed: " + mError + "}";
+    }
+
+    /**
+     * How long each phase of a sync took, in milliseconds. Locations are fetched and parsed in
+     * parallel, so the fetch and parse times are those of the slowest location, which is what
+     * the sync waits for.
+     */
+    public static final class Timing {
+
+        long fetchMillis;
+        long parseMillis;
+        long persistMillis;
+        long notifyMillis;
+        long totalMillis;
+
+        /* Looking up the location Key and downloading the forecast, retries included */
+        public long getFetchMillis() {
+            return fetchMillis;
+        }
+
+        /* Turning the forecast into ContentValues */
+        public long getParseMillis() {
+            return parseMillis;
+        }
+
+        /* Writing the forecasts to the ContentProvider */
+        public long getPersistMillis() {
+            return persistMillis;
+        }
+
+        /* Deciding whether to notify the user, and doing so */
+        public long getNotifyMillis() {
+            return notifyMillis;
+        }
+
+        /* The whole sync, from start to finish */
+        public long getTotalMillis() {
+            return totalMillis;
+        }
+
+        @Override
+        public String toString() {
+            return "[fetch " + fetchMillis + "ms, parse " + parseMillis + "ms, persist "
+                    + persistMillis + "ms, notify " + notifyMillis + "ms, total "
+                    + totalMillis + "ms]";
+        }
+    }
+}
@@ -0,0 +1,240 @@
+/*
+ * Copyright (C) 2016 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.example.android.sunshine.utilities;
+
+import android.util.Log;
+
+import com.example.android.sunshine.R;
+
+/**
+ * Resolves AccuWeather's icon numbers, the weather_id of every stored day, to the bundled
+ * drawables named after them (aw01s to aw44s). The forecast list, the detail screen and the
+ * notification all show their icons through here.
+ * <p>
+ * The table is built from R.drawable ids when the class is loaded, so resolving an icon is an
+ * array lookup rather than a Resources.getIdentifier name search, and a drawable that is renamed
+ * or removed fails the build instead of showing nothing. AccuWeather doesn't use the numbers 9,
+ * 10, 27 and 28, and we have no drawables for them; they, and numbers outside 1 to 44, are given
+ * the icon of a neighbouring condition.
+ * <p>
+ * The AccuWeather icons are full colour, which a notification's small icon can't be: from
+ * Lollipop on, the status bar draws only its alpha channel, so a picture with an opaque
+ * background shows as a white square. Each icon number therefore also has one of the
+ * monochrome ic_ silhouettes, see {@link #getSilhouetteResourceId(int)}.
+ *
+ * @see "https://developer.accuweather.com/weather-icons"
+ */
+public final class AccuWeatherIcons {
+
+    private static final String TAG = AccuWeatherIcons.class.getSimpleName();
+
+    /* Shown for icon numbers AccuWeather doesn't document, such as 0 for a missing value */
+    private static final int UNKNOWN_ICON = R.drawable.aw07s;
+
+    /* The drawable for each icon number, indexed by the number minus one */
+    private static final int[] ICONS = {
+            /*  1: Sunny */
+            R.drawable.aw01s,
+            /*  2: Mostly sunny */
+            R.drawable.aw02s,
+            /*  3: Partly sunny */
+            R.drawable.aw03s,
+            /*  4: Intermittent clouds */
+            R.drawable.aw04s,
+            /*  5: Hazy sunshine */
+            R.drawable.aw05s,
+            /*  6: Mostly cloudy */
+            R.drawable.aw06s,
+            /*  7: Cloudy */
+            R.drawable.aw07s,
+            /*  8: Dreary (overcast) */
+            R.drawable.aw08s,
+            /*  9: not used by AccuWeather, shown as dreary */
+            R.drawable.aw08s,
+            /* 10: not used by AccuWeather, shown as dreary */
+            R.drawable.aw08s,
+            /* 11: Fog */
+            R.drawable.aw11s,
+            /* 12: Showers */
+            R.drawable.aw12s,
+            /* 13: Mostly cloudy with showers */
+            R.drawable.aw13s,
+            /* 14: Partly sunny with showers */
+            R.drawable.aw14s,
+            /* 15: Thunderstorms */
+            R.drawable.aw15s,
+            /* 16: Mostly cloudy with thunderstorms */
+            R.drawable.aw16s,
+            /* 17: Partly sunny with thunderstorms */
+            R.drawable.aw17s,
+            /* 18: Rain */
+            R.drawable.aw18s,
+            /* 19: Flurries */
+            R.drawable.aw19s,
+            /* 20: Mostly cloudy with flurries */
+            R.drawable.aw20s,
+            /* 21: Partly sunny with flurries */
+            R.drawable.aw21s,
+            /* 22: Snow */
+            R.drawable.aw22s,
+            /* 23: Mostly cloudy with snow */
+            R.drawable.aw23s,
+            /* 24: Ice */
+            R.drawable.aw24s,
+            /* 25: Sleet */
+            R.drawable.aw25s,
+            /* 26: Freezing rain */
+            R.drawable.aw26s,
+            /* 27: not used by AccuWeather, shown as rain and snow */
+            R.drawable.aw29s,
+            /* 28: not used by AccuWeather, shown as rain and snow */
+            R.drawable.aw29s,
+            /* 29: Rain and snow */
+            R.drawable.aw29s,
+            /* 30: Hot */
+            R.drawable.aw30s,
+            /* 31: Cold */
+            R.drawable.aw31s,
+            /* 32: Windy */
+            R.drawable.aw32s,
+            /* 33: Clear */
+            R.drawable.aw33s,
+            /* 34: Mostly clear */
+            R.drawable.aw34s,
+            /* 35: Partly cloudy */
+            R.drawable.aw35s,
+            /* 36: Intermittent clouds */
+            R.drawable.aw36s,
+            /* 37: Hazy moonlight */
+            R.drawable.aw37s,
+            /* 38: Mostly cloudy */
+            R.drawable.aw38s,
+            /* 39: Partly cloudy with showers */
+            R.drawable.aw39s,
+            /* 40: Mostly cloudy with showers */
+            R.drawable.aw40s,
+            /* 41: Partly cloudy with thunderstorms */
+            R.drawable.aw41s,
+            /* 42: Mostly cloudy with thunderstorms */
+            R.drawable.aw42s,
+            /* 43: Mostly cloudy with flurries */
+            R.drawable.aw43s,
+            /* 44: Mostly cloudy with snow */
+            R.drawable.aw44s
+    };
+
+    /* The silhouette for icon numbers AccuWeather doesn't document */
+    private static final int UNKNOWN_SILHOUETTE = R.drawable.ic_cloudy;
+
+    /* The silhouette closest to each icon number's condition, indexed by the number minus one */
+    private static final int[] SILHOUETTES = {
+            /*  1 to 2: Sunny, mostly sunny */
+            R.drawable.ic_clear,
+            R.drawable.ic_clear,
+            /*  3 to 4: Partly sunny, intermittent clouds */
+            R.drawable.ic_light_clouds,
+            R.drawable.ic_light_clouds,
+            /*  5: Hazy sunshine */
+            R.drawable.ic_fog,
+            /*  6 to 10: Mostly cloudy, cloudy, dreary and the two unused numbers */
+            R.drawable.ic_cloudy,
+            R.drawable.ic_cloudy,
+            R.drawable.ic_cloudy,
+            R.drawable.ic_cloudy,
+            R.drawable.ic_cloudy,
+            /* 11: Fog */
+            R.drawable.ic_fog,
+            /* 12 to 14: Showers */
+            R.drawable.ic_light_rain,
+            R.drawable.ic_light_rain,
+            R.drawable.ic_light_rain,
+            /* 15 to 17: Thunderstorms */
+            R.drawable.ic_storm,
+            R.drawable.ic_storm,
+            R.drawable.ic_storm,
+            /* 18: Rain */
+            R.drawable.ic_rain,
+            /* 19 to 25: Flurries, snow, ice and sleet */
+            R.drawable.ic_snow,
+            R.drawable.ic_snow,
+            R.drawable.ic_snow,
+            R.drawable.ic_snow,
+            R.drawable.ic_snow,
+            R.drawable.ic_snow,
+            R.drawable.ic_snow,
+            /* 26: Freezing rain */
+            R.drawable.ic_rain,
+            /* 27 to 29: Rain and snow, and the two unused numbers */
+            R.drawable.ic_snow,
+            R.drawable.ic_snow,
+            R.drawable.ic_snow,
+            /* 30 to 31: Hot, cold */
+            R.drawable.ic_clear,
+            R.drawable.ic_clear,
+            /* 32: Windy */
+            R.drawable.ic_light_clouds,
+            /* 33 to 34: Clear, mostly clear */
+            R.drawable.ic_clear,
+            R.drawable.ic_clear,
+            /* 35 to 36: Partly cloudy, intermittent clouds */
+            R.drawable.ic_light_clouds,
+            R.drawable.ic_light_clouds,
+            /* 37: Hazy moonlight */
+            R.drawable.ic_fog,
+            /* 38: Mostly cloudy */
+            R.drawable.ic_cloudy,
+            /* 39 to 40: Showers */
+            R.drawable.ic_light_rain,
+            R.drawable.ic_light_rain,
+            /* 41 to 42: Thunderstorms */
+            R.drawable.ic_storm,
+            R.drawable.ic_storm,
+            /* 43 to 44: Flurries, snow */
+            R.drawable.ic_snow,
+            R.drawable.ic_snow
+    };
+
+    private AccuWeatherIcons() {
+    }
+
+    /**
+     * Returns the drawable for an AccuWeather icon number.
+     *
+     * @param iconNumber The icon number, as stored in the weather_id column
+     * @return The drawable's resource id, never 0
+     */
+    public static int getIconResourceId(int iconNumber) {
+        if (iconNumber < 1 || iconNumber > ICONS.length) {
+            Log.w(TAG, "Unknown AccuWeather icon: " + iconNumber);
+            return UNKNOWN_ICON;
+        }
+        return ICONS[iconNumber - 1];
+    }
+
+    /**
+     * Returns a monochrome silhouette of an AccuWeather icon number's condition, for use where
+     * only the alpha channel is drawn, such as a notification's small icon.
+     *
+     * @param iconNumber The icon number, as stored in the weather_id column
+     * @return The drawable's resource id, never 0
+     */
+    public static int getSilhouetteResourceId(int iconNumber) {
+        if (iconNumber < 1 || iconNumber > SILHOUETTES.length) {
+            return UNKNOWN_SILHOUETTE;
+        }
+        return SILHOUETTES[iconNumber - 1];
+    }
+}
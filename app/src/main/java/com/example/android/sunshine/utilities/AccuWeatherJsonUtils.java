@@ -22,9 +22,9 @@ import android.util.Log;
 import com.example.android.sunshine.data.SunshinePreferences;
 import com.example.android.sunshine.data.WeatherContract;
 
-import org.json.JSONArray;
 import org.json.JSONException;
-import org.json.JSONObject;
+
+import java.util.ArrayList;
 
 /**
  * Utility functions to handle AccuWeather.com JSON data.
@@ -69,6 +69,10 @@ public final class AccuWeatherJsonUtils {
     private static final String AW_PRECIP_PROB = "PrecipitationProbability";
     private static final String AW_PRECIP_HOURS = "HoursOfPrecipitation";
 
+    // ACCUWEATHER ERROR PAYLOAD JSON KEYS, e.g. {"Code":"Unauthorized","Message":"..."}
+    private static final String AW_ERROR_CODE = "Code";
+    private static final String AW_ERROR_MESSAGE = "Message";
+
     /* Location information */
     private static final String OWM_CITY = "city";
     private static final String OWM_COORD = "coord";
@@ -97,211 +101,357 @@ public final class AccuWeatherJsonUtils {
 
     private static final String OWM_MESSAGE_CODE = "cod";
 
+    /* The columns every daily forecast must provide, just as the org.json parser required */
+    private static final String[] REQUIRED_FORECAST_COLUMNS = {
+            WeatherContract.WeatherEntry.COLUMN_WIND_SPEED,
+            WeatherContract.WeatherEntry.COLUMN_DEGREES,
+            WeatherContract.WeatherEntry.COLUMN_DEGREES_DESC,
+            WeatherContract.WeatherEntry.COLUMN_MAX_TEMP,
+            WeatherContract.WeatherEntry.COLUMN_MIN_TEMP,
+            WeatherContract.WeatherEntry.COLUMN_WEATHER_ID,
+            WeatherContract.WeatherEntry.COLUMN_WEATHER_DESC,
+            WeatherContract.WeatherEntry.COLUMN_PRECIP_PROB,
+            WeatherContract.WeatherEntry.COLUMN_PRECIP_HOURS
+    };
+
     // This method parses JSON from a web response and returns the location info that will be used
     // to query for the weather at that location.
     public static String getLocationFromJson(Context context, String locationJsonStr) throws JSONException {
+        if (locationJsonStr == null || locationJsonStr.length() == 0) {
+            return null;
+        }
+        return getLocationFromJson(context,
+                ResponseBody.wrap(locationJsonStr.getBytes(ResponseBody.UTF_8)));
+    }
+
+    /**
+     * Parses AccuWeather's location search response straight from the response bytes and
+     * returns the Key of the best match.
+     * <p>
+     * AccuWeather returns the matches as a JSON array. Only the first match is read; the parser
+     * stops there rather than reading the remaining matches.
+     *
+     * @param context      Used to access utility methods
+     * @param locationJson The location search response, as read from the server
+     * @return The AccuWeather location Key, or null if no location was found
+     * @throws JSONException If the response is not a JSON array of locations
+     */
+    public static String getLocationFromJson(Context context, ResponseBody locationJson)
+            throws JSONException {
 
         // Default to null, location not found
         String locationKey = null;
 
         // If the web service returned location data...
-        if (locationJsonStr != null && locationJsonStr.length() > 0) {
-            Log.v(TAG, "AccuWeather locationJson: " + locationJsonStr);
-
-            // AccuWeather returns location as a JSON array.
-            // Need to wrap it in JSON with a root key so we can parse it
-            String jsonWrapper = "{\"root\":" + locationJsonStr + "}";
-            Log.v(TAG, "AccuWeather jsonWrapper: " + jsonWrapper);
-
-            // Now get the array of locations from the root node in the JSON
-            JSONObject wrapperJson = new JSONObject(jsonWrapper);
-            JSONArray jsonRootArray = wrapperJson.getJSONArray("root");
-
-            if (jsonRootArray.length() > 0) {
-                JSONObject locationJson = jsonRootArray.getJSONObject(0);
+        if (locationJson != null && locationJson.length() > 0) {
+            JsonPullParser parser =
+                    new JsonPullParser(locationJson.getBytes(), 0, locationJson.length());
+
+            String locationKeyType = null;
+            String englishName = null;
+
+            /* Is there an error? A search result is an array; an error is an object */
+            if (parser.peek() == JsonPullParser.BEGIN_OBJECT) {
+                String[] error = readErrorPayload(parser);
+                if (error[0] != null) {
+                    throw new JSONException(describeError(error[0], error[1]));
+                }
+                throw new JSONException("Expected an array of locations");
+            }
 
-                locationKey = locationJson.getString(AW_LOCATION_KEY);
-                String locationKeyType = locationJson.getString(AW_LOCATION_KEY_TYPE);
-                String englishName = locationJson.getString(AW_ENGLISH_NAME);
-                String datasets = locationJson.getString(AW_DATASETS);
+            parser.beginArray();
+            if (parser.hasNext()) {
+                parser.beginObject();
+                while (parser.hasNext()) {
+                    String name = parser.nextName();
+                    if (AW_LOCATION_KEY.equals(name)) {
+                        locationKey = parser.nextString();
+                    } else if (AW_LOCATION_KEY_TYPE.equals(name)) {
+                        locationKeyType = parser.nextString();
+                    } else if (AW_ENGLISH_NAME.equals(name)) {
+                        englishName = parser.nextString();
+                    } else {
+                        /* DataSets, GeoPosition, TimeZone and the rest aren't needed */
+                        parser.skipValue();
+                    }
+                }
+                parser.endObject();
+            }
 
+            if (SunshineTrace.VERBOSE) {
                 Log.v(TAG, "AccuWeather locationKey: " + locationKey);
                 Log.v(TAG, "AccuWeather locationKeyType: " + locationKeyType);
                 Log.v(TAG, "AccuWeather englishName: " + englishName);
-                Log.v(TAG, "AccuWeather datasets: " + datasets);
             }
         }
 
-
-//        /* Is there an error? */
-//        if (locationJson.has(OWM_MESSAGE_CODE)) {
-//            int errorCode = locationJson.getInt(OWM_MESSAGE_CODE);
-//
-//            switch (errorCode) {
-//                case HttpURLConnection.HTTP_OK:
-//                    break;
-//                case HttpURLConnection.HTTP_NOT_FOUND:
-//                    /* Location invalid */
-//                    return null;
-//                default:
-//                    /* Server probably down */
-//                    return null;
-//            }
-//        }
-
-
         return locationKey;
     }
 
     /**
-     * This method parses JSON from a web response and returns an array of Strings
-     * describing the weather over various days from the forecast.
-     * <p/>
-     * Later on, we'll be parsing the JSON into structured data within the
-     * getFullWeatherDataFromJson function, leveraging the data we have stored in the JSON. For
-     * now, we just convert the JSON into human-readable strings.
+     * This method parses JSON from a web response and returns the ContentValues for each day of
+     * the forecast, ready to be inserted into the weather table.
      *
      * @param forecastJsonStr JSON response from server
      *
-     * @return Array of Strings describing weather data
+     * @return ContentValues for each day of the forecast
      *
      * @throws JSONException If JSON data cannot be properly parsed
      */
     public static ContentValues[] getWeatherContentValuesFromJson(Context context, String forecastJsonStr)
             throws JSONException {
+        if (forecastJsonStr == null || forecastJsonStr.length() == 0) {
+            return null;
+        }
+        return getWeatherContentValuesFromJson(context,
+                ResponseBody.wrap(forecastJsonStr.getBytes(ResponseBody.UTF_8)));
+    }
 
-        ContentValues[] weatherContentValues = null;
+    /**
+     * Parses AccuWeather's daily forecast response straight from the response bytes.
+     * <p>
+     * The bytes are read once, front to back. Only the values we store are decoded; everything
+     * else (the Headline, each day's Night forecast, Sun, Moon, AirAndPollen and so on) is
+     * skipped over without being turned into Strings or objects.
+     *
+     * @param context      Used to access utility methods
+     * @param forecastJson The forecast response, as read from the server
+     * @return ContentValues for each day of the forecast, or null if the response was empty
+     * @throws JSONException If the response is not a daily forecast, or a day is missing a value
+     */
+    public static ContentValues[] getWeatherContentValuesFromJson(Context context,
+            ResponseBody forecastJson) throws JSONException {
 
-        // If the web service returned location data...
-        if (forecastJsonStr != null && forecastJsonStr.length() > 0) {
-            Log.v(TAG, "AccuWeather forecastJson: " + forecastJsonStr);
-
-            JSONObject forecastJson = new JSONObject(forecastJsonStr);
-
-//            /* Is there an error? */
-//            if (forecastJson.has(OWM_MESSAGE_CODE)) {
-//                int errorCode = forecastJson.getInt(OWM_MESSAGE_CODE);
-//
-//                switch (errorCode) {
-//                    case HttpURLConnection.HTTP_OK:
-//                        break;
-//                    case HttpURLConnection.HTTP_NOT_FOUND:
-//                        /* Location invalid */
-//                        return null;
-//                    default:
-//                        /* Server probably down */
-//                        return null;
-//                }
-//            }
-
-            JSONArray jsonWeatherArray = forecastJson.getJSONArray(AW_FORECASTS_DAILY);
-
-//            JSONObject cityJson = forecastJson.getJSONObject(OWM_CITY);
-//
-//            JSONObject cityCoord = cityJson.getJSONObject(OWM_COORD);
-//            double cityLatitude = cityCoord.getDouble(OWM_LATITUDE);
-//            double cityLongitude = cityCoord.getDouble(OWM_LONGITUDE);
-//
-//            SunshinePreferences.setLocationDetails(context, cityLatitude, cityLongitude);
-
-            weatherContentValues = new ContentValues[jsonWeatherArray.length()];
-
-            /*
-             * OWM returns daily forecasts based upon the local time of the city that is being asked
-             * for, which means that we need to know the GMT offset to translate this data properly.
-             * Since this data is also sent in-order and the first day is always the current day, we're
-             * going to take advantage of that to get a nice normalized UTC date for all of our weather.
-             */
-            //        long now = System.currentTimeMillis();
-            //        long normalizedUtcStartDay = SunshineDateUtils.normalizeDate(now);
-
-            long normalizedUtcStartDay = SunshineDateUtils.getNormalizedUtcDateForToday();
-
-            for (int i = 0; i < jsonWeatherArray.length(); i++) {
-
-                long dateTimeMillis;
-                double pressure;
-                int humidity;
-                double windSpeed;
-                double windDirection;
-                String winDirDesc;
-
-                double high;
-                double low;
-
-                int weatherId;
-                String weatherDesc;
-
-                double precipProb;
-                double precipHours;
-
-                /* Get the JSON object representing the 24 hour forecast */
-                JSONObject forecast24hr = jsonWeatherArray.getJSONObject(i);
-
-                // Get the day and night forecasts from the 24 hour forecast
-                JSONObject forecastDaytime = forecast24hr.getJSONObject(AW_DAYTIME);
-                JSONObject forecastNighttime = forecast24hr.getJSONObject(AW_NIGHTTIME);
-
-                /*
-                 * We ignore all the datetime values embedded in the JSON and assume that
-                 * the values are returned in-order by day (which is not guaranteed to be correct).
-                 */
-                dateTimeMillis = normalizedUtcStartDay + SunshineDateUtils.DAY_IN_MILLIS * i;
-
-                //DHW - Fake data until I figure out how to get it from AccuWeather's JSON
-//                pressure = 0; // forecast24hr.getDouble(OWM_PRESSURE);
-//                humidity = 0; // forecast24hr.getInt(OWM_HUMIDITY);
-
-                /*
-                 * Description is in a child array called "weather", which is 1 element long.
-                 * That element also contains a weather code.
-                 */
-//                JSONObject weatherObject =
-//                        forecast24hr.getJSONArray(OWM_WEATHER).getJSONObject(0);
-//
-//                weatherId = weatherObject.getInt(OWM_WEATHER_ID);
-
-                // Overall type of weather for the day/night.
-                weatherId = forecastDaytime.getInt(AW_ICON_NUM);
-                weatherDesc = forecastDaytime.getString(AW_ICON_PHRASE);
-
-                // Wind
-                JSONObject windForecast = forecastDaytime.getJSONObject(AW_WIND_FORECAST);
-                JSONObject windSpeedObj = windForecast.getJSONObject(AW_WIND_SPEED);
-                windSpeed = windSpeedObj.getDouble(AW_VALUE);
-                JSONObject windDirObj = windForecast.getJSONObject(AW_WIND_DIRECTION);
-                windDirection = windDirObj.getDouble(AW_WIND_DIR_DEGREES);
-                winDirDesc = windDirObj.getString(AW_LOCALIZED_DESC);
+        // If the web service returned forecast data...
+        if (forecastJson == null || forecastJson.length() == 0) {
+            return null;
+        }
+
+        JsonPullParser parser =
+                new JsonPullParser(forecastJson.getBytes(), 0, forecastJson.length());
+
+        /*
+         * We ignore all the datetime values embedded in the JSON and assume that the values are
+         * returned in-order by day (which is not guaranteed to be correct), starting today.
+         */
+        long normalizedUtcStartDay = SunshineDateUtils.getNormalizedUtcDateForToday();
+
+        ArrayList<ContentValues> dailyForecasts = null;
+        String errorCode = null;
+        String errorMessage = null;
+
+        parser.beginObject();
+        while (parser.hasNext()) {
+            String name = parser.nextName();
+            if (AW_FORECASTS_DAILY.equals(name)) {
+                dailyForecasts = new ArrayList<ContentValues>();
+                parser.beginArray();
+                while (parser.hasNext()) {
+                    long dateTimeMillis = normalizedUtcStartDay
+                            + SunshineDateUtils.DAY_IN_MILLIS * dailyForecasts.size();
+                    dailyForecasts.add(readDailyForecast(parser, dateTimeMillis));
+                }
+                parser.endArray();
+            } else if (AW_ERROR_CODE.equals(name)) {
+                errorCode = parser.nextString();
+            } else if (AW_ERROR_MESSAGE.equals(name)) {
+                errorMessage = parser.nextString();
+            } else {
+                parser.skipValue();
+            }
+        }
+        parser.endObject();
+
+        /* Is there an error? */
+        if (dailyForecasts == null) {
+            if (errorCode != null) {
+                throw new JSONException(describeError(errorCode, errorMessage));
+            }
+            throw new JSONException("No value for " + AW_FORECASTS_DAILY);
+        }
+
+        if (SunshineTrace.VERBOSE) {
+            Log.v(TAG, "AccuWeather forecast: " + dailyForecasts.size() + " days from "
+                    + forecastJson.length() + " bytes");
+        }
+
+        return dailyForecasts.toArray(new ContentValues[dailyForecasts.size()]);
+    }
+
+    /**
+     * Reads the error AccuWeather sends instead of the data it was asked for, such as when the
+     * API key is rejected or the daily request quota has been used up. These usually come with
+     * an HTTP error code, but that code alone doesn't tell a used-up quota from an outage.
+     *
+     * @param errorJson The body of the response
+     * @return The error's Code and Message, either of which may be null, or null if the body is
+     * not an AccuWeather error
+     */
+    static String[] getErrorFromJson(ResponseBody errorJson) {
+        if (errorJson == null || errorJson.length() == 0) {
+            return null;
+        }
+
+        JsonPullParser parser =
+                new JsonPullParser(errorJson.getBytes(), 0, errorJson.length());
+        try {
+            if (parser.peek() != JsonPullParser.BEGIN_OBJECT) {
+                return null;
+            }
+            String[] error = readErrorPayload(parser);
+            return error[0] != null ? error : null;
+        } catch (JSONException e) {
+            /* Not JSON at all, such as an HTML error page from a proxy */
+            return null;
+        }
+    }
+
+    /* Reads {"Code":..., "Message":...}, returning {Code, Message} */
+    private static String[] readErrorPayload(JsonPullParser parser) throws JSONException {
+        String[] error = new String[2];
+        parser.beginObject();
+        while (parser.hasNext()) {
+            String name = parser.nextName();
+            if (AW_ERROR_CODE.equals(name)) {
+                error[0] = parser.nextString();
+            } else if (AW_ERROR_MESSAGE.equals(name)) {
+                error[1] = parser.nextString();
+            } else {
+                parser.skipValue();
+            }
+        }
+        parser.endObject();
+        return error;
+    }
 
+    private static String describeError(String errorCode, String errorMessage) {
+        return "AccuWeather error " + errorCode + ": " + errorMessage;
+    }
+
+    /* Reads one element of DailyForecasts */
+    private static ContentValues readDailyForecast(JsonPullParser parser, long dateTimeMillis)
+            throws JSONException {
+        ContentValues weatherValues = new ContentValues();
+        weatherValues.put(WeatherContract.WeatherEntry.COLUMN_DATE, dateTimeMillis);
+
+        parser.beginObject();
+        while (parser.hasNext()) {
+            String name = parser.nextName();
+            if (AW_TEMPERATURE.equals(name)) {
                 // High and Low temperatures for the entire 24 hour day are in "Temperature"
-                JSONObject temperature24Hrs = forecast24hr.getJSONObject(AW_TEMPERATURE);
-                JSONObject temperature24HrsMin = temperature24Hrs.getJSONObject(AW_MINIMUM);
-                JSONObject temperature24HrsMax = temperature24Hrs.getJSONObject(AW_MAXIMUM);
-                high = temperature24HrsMax.getDouble(AW_VALUE);
-                low = temperature24HrsMin.getDouble(AW_VALUE);
-
-                // Overall chance of precipitation
-                precipProb = forecastDaytime.getDouble(AW_PRECIP_PROB);
-                precipHours = forecastDaytime.getDouble(AW_PRECIP_HOURS);
-
-                ContentValues weatherValues = new ContentValues();
-                weatherValues.put(WeatherContract.WeatherEntry.COLUMN_DATE, dateTimeMillis);
-//                weatherValues.put(WeatherContract.WeatherEntry.COLUMN_HUMIDITY, humidity);
-//                weatherValues.put(WeatherContract.WeatherEntry.COLUMN_PRESSURE, pressure);
-                weatherValues.put(WeatherContract.WeatherEntry.COLUMN_WIND_SPEED, windSpeed);
-                weatherValues.put(WeatherContract.WeatherEntry.COLUMN_DEGREES, windDirection);
-                weatherValues.put(WeatherContract.WeatherEntry.COLUMN_DEGREES_DESC, winDirDesc);
-                weatherValues.put(WeatherContract.WeatherEntry.COLUMN_MAX_TEMP, high);
-                weatherValues.put(WeatherContract.WeatherEntry.COLUMN_MIN_TEMP, low);
-                weatherValues.put(WeatherContract.WeatherEntry.COLUMN_WEATHER_ID, weatherId);
-                weatherValues.put(WeatherContract.WeatherEntry.COLUMN_WEATHER_DESC, weatherDesc);
-                weatherValues.put(WeatherContract.WeatherEntry.COLUMN_PRECIP_PROB, precipProb);
-                weatherValues.put(WeatherContract.WeatherEntry.COLUMN_PRECIP_HOURS, precipHours);
-
-                weatherContentValues[i] = weatherValues;
+                readTemperature(parser, weatherValues);
+            } else if (AW_DAYTIME.equals(name)) {
+                readDaytime(parser, weatherValues);
+            } else {
+                /* Night, Sun, Moon, RealFeelTemperature... are never stored */
+                parser.skipValue();
+            }
+        }
+        parser.endObject();
+
+        for (String column : REQUIRED_FORECAST_COLUMNS) {
+            if (!weatherValues.containsKey(column)) {
+                throw new JSONException("No value for " + column + " in daily forecast");
+            }
+        }
+
+        return weatherValues;
+    }
+
+    private static void readTemperature(JsonPullParser parser, ContentValues weatherValues)
+            throws JSONException {
+        parser.beginObject();
+        while (parser.hasNext()) {
+            String name = parser.nextName();
+            if (AW_MINIMUM.equals(name)) {
+                weatherValues.put(WeatherContract.WeatherEntry.COLUMN_MIN_TEMP,
+                        readValue(parser));
+            } else if (AW_MAXIMUM.equals(name)) {
+                weatherValues.put(WeatherContract.WeatherEntry.COLUMN_MAX_TEMP,
+                        readValue(parser));
+            } else {
+                parser.skipValue();
+            }
+        }
+        parser.endObject();
+    }
+
+    /* The daytime forecast holds the overall weather, wind and precipitation for the day */
+    private static void readDaytime(JsonPullParser parser, ContentValues weatherValues)
+            throws JSONException {
+        parser.beginObject();
+        while (parser.hasNext()) {
+            String name = parser.nextName();
+            if (AW_ICON_NUM.equals(name)) {
+                weatherValues.put(WeatherContract.WeatherEntry.COLUMN_WEATHER_ID,
+                        parser.nextInt());
+            } else if (AW_ICON_PHRASE.equals(name)) {
+                weatherValues.put(WeatherContract.WeatherEntry.COLUMN_WEATHER_DESC,
+                        parser.nextString());
+            } else if (AW_WIND_FORECAST.equals(name)) {
+                readWind(parser, weatherValues);
+            } else if (AW_PRECIP_PROB.equals(name)) {
+                weatherValues.put(WeatherContract.WeatherEntry.COLUMN_PRECIP_PROB,
+                        parser.nextDouble());
+            } else if (AW_PRECIP_HOURS.equals(name)) {
+                weatherValues.put(WeatherContract.WeatherEntry.COLUMN_PRECIP_HOURS,
+                        parser.nextDouble());
+            } else {
+                parser.skipValue();
             }
         }
+        parser.endObject();
+    }
 
-        return weatherContentValues;
+    private static void readWind(JsonPullParser parser, ContentValues weatherValues)
+            throws JSONException {
+        parser.beginObject();
+        while (parser.hasNext()) {
+            String name = parser.nextName();
+            if (AW_WIND_SPEED.equals(name)) {
+                weatherValues.put(WeatherContract.WeatherEntry.COLUMN_WIND_SPEED,
+                        readValue(parser));
+            } else if (AW_WIND_DIRECTION.equals(name)) {
+                parser.beginObject();
+                while (parser.hasNext()) {
+                    String directionName = parser.nextName();
+                    if (AW_WIND_DIR_DEGREES.equals(directionName)) {
+                        weatherValues.put(WeatherContract.WeatherEntry.COLUMN_DEGREES,
+                                parser.nextDouble());
+                    } else if (AW_LOCALIZED_DESC.equals(directionName)) {
+                        weatherValues.put(WeatherContract.WeatherEntry.COLUMN_DEGREES_DESC,
+                                parser.nextString());
+                    } else {
+                        parser.skipValue();
+                    }
+                }
+                parser.endObject();
+            } else {
+                parser.skipValue();
+            }
+        }
+        parser.endObject();
+    }
+
+    /* Reads the "Value" of a measurement such as {"Value":21.5,"Unit":"C","UnitType":17} */
+    private static double readValue(JsonPullParser parser) throws JSONException {
+        boolean hasValue = false;
+        double value = 0;
+
+        parser.beginObject();
+        while (parser.hasNext()) {
+            if (AW_VALUE.equals(parser.nextName())) {
+                value = parser.nextDouble();
+                hasValue = true;
+            } else {
+                parser.skipValue();
+            }
+        }
+        parser.endObject();
+
+        if (!hasValue) {
+            throw new JSONException("No value for " + AW_VALUE);
+        }
+        return value;
     }
 }
\ No newline at end of file
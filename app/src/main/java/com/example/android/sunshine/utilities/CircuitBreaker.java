@@ -0,0 +1,192 @@
+/*
+ * Copyright (C) 2016 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.example.android.sunshine.utilities;
+
+import android.content.Context;
+import android.content.SharedPreferences;
+import android.util.Log;
+
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Stops requests to an endpoint that keeps failing, so that we don't drain the battery (and
+ * AccuWeather's daily quota) on requests that are bound to fail.
+ * <p>
+ * The breaker starts out closed, letting every request through. After
+ * {@link #FAILURE_THRESHOLD} failed requests in a row it opens, and requests fail straight away
+ * without touching the network. Once the open period is over, one trial request is let through
+ * (the breaker is half-open): if it succeeds the breaker closes again, and if it fails the
+ * breaker opens again for twice as long as before.
+ * <p>
+ * The state is kept in SharedPreferences, so it survives the process being killed between two
+ * runs of the periodic sync job, which would otherwise find a fresh, closed breaker every time.
+ */
+public final class CircuitBreaker {
+
+    private static final String TAG = CircuitBreaker.class.getSimpleName();
+
+    /* The breaker state is kept apart from the user's preferences in its own file */
+    private static final String PREFS_NAME = "circuit_breakers";
+
+    private static final String SUFFIX_FAILURES = "|failures";
+    private static final String SUFFIX_TRIPS = "|trips";
+    private static final String SUFFIX_OPEN_UNTIL = "|open_until";
+
+    /* The number of failed requests in a row that opens the breaker */
+    static final int FAILURE_THRESHOLD = 3;
+
+    /* How long the breaker stays open the first time; each trip in a row doubles this */
+    static final long BASE_OPEN_MILLIS = TimeUnit.MINUTES.toMillis(5);
+
+    /* The longest the breaker stays open, however many times in a row it trips */
+    static final long MAX_OPEN_MILLIS = TimeUnit.HOURS.toMillis(6);
+
+    private final SharedPreferences mPreferences;
+    private final String mHost;
+
+    /* Failed requests in a row while closed */
+    private int mFailures;
+    /* Times in a row the breaker has opened; 0 while closed */
+    private int mTrips;
+    /* Wall clock time until which requests are refused */
+    private long mOpenUntil;
+    /* Whether the one request allowed while half-open is still in flight */
+    private boolean mTrialInFlight;
+
+    /**
+     * @param context Used to access the stored state
+     * @param host    The host whose requests this breaker guards
+     */
+    public CircuitBreaker(Context context, String host) {
+        mPreferences = context.getApplicationContext()
+                .getSharedPreferences(PREFS_NAME, Context.MODE_PRIVATE);
+        mHost = host;
+        mFailures = mPreferences.getInt(host + SUFFIX_FAILURES, 0);
+        mTrips = mPreferences.getInt(host + SUFFIX_TRIPS, 0);
+        mOpenUntil = mPreferences.getLong(host + SUFFIX_OPEN_UNTIL, 0);
+    }
+
+    /**
+     * Asks whether a request may be made now. If this returns true, the caller must report
+     * how the request went with {@link #recordSuccess()}, {@link #recordFailure()} or
+     * {@link #recordCancelled()}.
+     *
+     * @return Whether the request may be made
+     */
+    public boolean allowRequest() {
+        return allowRequest(System.currentTimeMillis());
+    }
+
+    synchronized boolean allowRequest(long now) {
+        if (mOpenUntil - now > MAX_OPEN_MILLIS) {
+            /* The clock was set back; don't stay open longer than we ever would have */
+            mOpenUntil = now + MAX_OPEN_MILLIS;
+        }
+        if (now < mOpenUntil) {
+            return false;
+        }
+        if (mTrips > 0) {
+            /* Half-open: let a single trial request through */
+            if (mTrialInFlight) {
+                return false;
+            }
+            mTrialInFlight = true;
+        }
+        return true;
+    }
+
+    /* Closes the breaker, as the endpoint is working */
+    public synchronized void recordSuccess() {
+        mTrialInFlight = false;
+        if (mFailures != 0 || mTrips != 0 || mOpenUntil != 0) {
+            if (mTrips > 0) {
+                Log.i(TAG, "Circuit closed for " + mHost);
+            }
+            mFailures = 0;
+            mTrips = 0;
+            mOpenUntil = 0;
+            save();
+        }
+    }
+
+    /* Counts a failed request, opening the breaker if there have been too many */
+    public void recordFailure() {
+        recordFailure(System.currentTimeMillis());
+    }
+
+    synchronized void recordFailure(long now) {
+        mTrialInFlight = false;
+        if (now < mOpenUntil) {
+            /* A request made before the breaker opened; it has already been counted as open */
+            return;
+        }
+        if (mTrips > 0 || ++mFailures >= FAILURE_THRESHOLD) {
+            /* Too many failures while closed, or the half-open trial failed */
+            mTrips++;
+            mFailures = 0;
+            mOpenUntil = now + getOpenMillis(mTrips);
+            Log.w(TAG, "Circuit opened for " + mHost + " for "
+                    + TimeUnit.MILLISECONDS.toSeconds(mOpenUntil - now) + "s");
+        }
+        save();
+    }
+
+    /* Reports that an allowed request was abandoned before it got an answer */
+    public synchronized void recordCancelled() {
+        mTrialInFlight = false;
+    }
+
+    /**
+     * Opens the breaker for at least the given time, however many failures there have been.
+     * Used when the server tells us outright that further requests will fail, such as when the
+     * daily quota has been used up.
+     *
+     * @param millis How long to refuse requests for
+     */
+    public void openFor(long millis) {
+        openFor(System.currentTimeMillis(), millis);
+    }
+
+    synchronized void openFor(long now, long millis) {
+        mTrialInFlight = false;
+        mTrips = Math.max(mTrips, 1);
+        mFailures = 0;
+        mOpenUntil = Math.max(mOpenUntil, now + Math.min(millis, MAX_OPEN_MILLIS));
+        Log.w(TAG, "Circuit opened for " + mHost + " until " + mOpenUntil);
+        save();
+    }
+
+    /* The wall clock time until which requests are refused, or 0 if the breaker is closed */
+    public synchronized long getOpenUntil() {
+        return mOpenUntil;
+    }
+
+    private static long getOpenMillis(int trips) {
+        long openMillis = BASE_OPEN_MILLIS;
+        for (int i = 1; i < trips && openMillis < MAX_OPEN_MILLIS; i++) {
+            openMillis *= 2;
+        }
+        return Math.min(openMillis, MAX_OPEN_MILLIS);
+    }
+
+    private void save() {
+        mPreferences.edit()
+                .putInt(mHost + SUFFIX_FAILURES, mFailures)
+                .putInt(mHost + SUFFIX_TRIPS, mTrips)
+                .putLong(mHost + SUFFIX_OPEN_UNTIL, mOpenUntil)
+                .apply();
+    }
+}
@@ -0,0 +1,217 @@
+/*
+ * Copyright (C) 2016 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.example.android.sunshine.utilities;
+
+import android.content.BroadcastReceiver;
+import android.content.Context;
+import android.content.Intent;
+import android.content.IntentFilter;
+import android.support.v4.util.LongSparseArray;
+
+import java.text.SimpleDateFormat;
+import java.util.Locale;
+import java.util.TimeZone;
+
+/**
+ * Remembers the Strings {@link SunshineDateUtils#getFriendlyDateString} has built, so that a
+ * day's date is only formatted once for as long as it reads the same.
+ * <p>
+ * What a date reads as depends on the day it is today, the locale and the time zone. Rather than
+ * keying every entry on all three, the cache keeps the ones it was filled under and starts over
+ * when any of them changes: at local midnight, when Locale.getDefault() changes, and when the
+ * system broadcasts a time zone change. Checking for the first two costs a clock read and a
+ * Locale comparison per call. Looking up the time zone would clone it every time, which is why
+ * the cache keeps its own copy and waits for the broadcast instead.
+ * <p>
+ * Misses are formatted outside the lock, with a SimpleDateFormat kept per thread.
+ */
+final class FriendlyDateCache {
+
+    /* Plenty for the forecast and the few archived days the detail screen can show */
+    private static final int MAX_ENTRIES = 64;
+
+    private static final long DAY_IN_MILLIS = SunshineDateUtils.DAY_IN_MILLIS;
+
+    private static FriendlyDateCache sInstance;
+
+    /* Each thread's day name format, rebuilt when the locale or time zone changes */
+    private final ThreadLocal<DayFormat> mDayFormat = new ThreadLocal<DayFormat>();
+
+    private final LongSparseArray<String> mDates = new LongSparseArray<String>();
+    private final LongSparseArray<String> mFullDates = new LongSparseArray<String>();
+
+    /* Bumped whenever the entries are dropped, so that late misses aren't stored */
+    private int mGeneration;
+
+    /* What the entries were formatted under */
+    private Locale mLocale;
+    private TimeZone mTimeZone;
+    private long mNormalizedUtcToday;
+
+    /* The instants today starts and ends at, in the cached time zone */
+    private long mTodayStartMillis;
+    private long mTomorrowStartMillis;
+
+    private int mHitCount;
+    private int mMissCount;
+
+    /**
+     * Returns the app's cache, creating it the first time. The cache listens for time zone
+     * changes for as long as the application runs.
+     *
+     * @param context Any context of the app
+     */
+    static synchronized FriendlyDateCache getInstance(Context context) {
+        if (sInstance == null) {
+            final FriendlyDateCache cache = new FriendlyDateCache();
+            context.getApplicationContext().registerReceiver(new BroadcastReceiver() {
+                @Override
+                public void onReceive(Context context, Intent intent) {
+                    cache.invalidate();
+                }
+            }, new IntentFilter(Intent.ACTION_TIMEZONE_CHANGED));
+            sInstance = cache;
+        }
+        return sInstance;
+    }
+
+    /**
+     * Returns a friendly date String, formatting it only if it isn't cached yet.
+     *
+     * @see SunshineDateUtils#getFriendlyDateString(Context, long, boolean)
+     */
+    String getFriendlyDateString(Context context, long normalizedUtcMidnight,
+            boolean showFullDate) {
+        int generation;
+        long normalizedUtcToday;
+        TimeZone timeZone;
+        Locale locale;
+        synchronized (this) {
+            long now = System.currentTimeMillis();
+            Locale defaultLocale = Locale.getDefault();
+            if (mTimeZone == null
+                    || now < mTodayStartMillis
+                    || now >= mTomorrowStartMillis
+                    || !defaultLocale.equals(mLocale)) {
+                reset(now, defaultLocale);
+            }
+
+            String friendlyDate = entries(showFullDate).get(normalizedUtcMidnight);
+            if (friendlyDate != null) {
+                mHitCount++;
+                return friendlyDate;
+            }
+            mMissCount++;
+
+            generation = mGeneration;
+            normalizedUtcToday = mNormalizedUtcToday;
+            timeZone = mTimeZone;
+            locale = mLocale;
+        }
+
+        String friendlyDate = SunshineDateUtils.formatFriendlyDate(context,
+                normalizedUtcMidnight, normalizedUtcToday,
+                timeZone.getOffset(normalizedUtcMidnight), getDayFormat(generation, locale),
+                showFullDate);
+
+        synchronized (this) {
+            /* Don't keep a String formatted for a day, locale or zone that has passed since */
+            if (generation == mGeneration) {
+                LongSparseArray<String> entries = entries(showFullDate);
+                if (entries.size() >= MAX_ENTRIES) {
+                    entries.clear();
+                }
+                entries.put(normalizedUtcMidnight, friendlyDate);
+            }
+        }
+        return friendlyDate;
+    }
+
+    /**
+     * Drops every cached String. The next call looks up the time zone and locale again.
+     */
+    synchronized void invalidate() {
+        mTimeZone = null;
+        mDates.clear();
+        mFullDates.clear();
+        mGeneration++;
+    }
+
+    synchronized int getHitCount() {
+        return mHitCount;
+    }
+
+    synchronized int getMissCount() {
+        return mMissCount;
+    }
+
+    private LongSparseArray<String> entries(boolean showFullDate) {
+        return showFullDate ? mFullDates : mDates;
+    }
+
+    /* Starts over for the day that contains now, in the current time zone and locale */
+    private void reset(long now, Locale locale) {
+        invalidate();
+
+        TimeZone timeZone = TimeZone.getDefault();
+        long nowOffset = timeZone.getOffset(now);
+        long normalizedUtcToday = (now + nowOffset) / DAY_IN_MILLIS * DAY_IN_MILLIS;
+
+        /*
+         * Local midnight is the normalized date minus the offset in effect at midnight, which
+         * differs from the current offset on days that daylight saving time starts or ends. The
+         * offset at the current offset's guess for midnight is the one in effect then, unless
+         * the switch is within an hour of midnight. Even then, the cache only starts over up to
+         * an hour late.
+         */
+        long todayStart = normalizedUtcToday
+                - timeZone.getOffset(normalizedUtcToday - nowOffset);
+        long tomorrowStart = normalizedUtcToday + DAY_IN_MILLIS
+                - timeZone.getOffset(normalizedUtcToday + DAY_IN_MILLIS - nowOffset);
+
+        mTimeZone = timeZone;
+        mLocale = locale;
+        mNormalizedUtcToday = normalizedUtcToday;
+        /* However the offsets turn out, now stays within today */
+        mTodayStartMillis = Math.min(todayStart, now);
+        mTomorrowStartMillis = Math.max(tomorrowStart, now + 1);
+    }
+
+    /* The calling thread's "EEEE" format, for the given locale and the current time zone */
+    private SimpleDateFormat getDayFormat(int generation, Locale locale) {
+        DayFormat dayFormat = mDayFormat.get();
+        if (dayFormat == null || dayFormat.generation != generation
+                || !dayFormat.locale.equals(locale)) {
+            dayFormat = new DayFormat(generation, locale);
+            mDayFormat.set(dayFormat);
+        }
+        return dayFormat.format;
+    }
+
+    private static final class DayFormat {
+        final int generation;
+        final Locale locale;
+
+        /* Takes the default time zone when created, hence the generation */
+        final SimpleDateFormat format;
+
+        DayFormat(int generation, Locale locale) {
+            this.generation = generation;
+            this.locale = locale;
+            this.format = new SimpleDateFormat("EEEE", locale);
+        }
+    }
+}
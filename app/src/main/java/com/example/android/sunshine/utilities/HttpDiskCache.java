@@ -0,0 +1,408 @@
+/*
+ * Copyright (C) 2016 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.example.android.sunshine.utilities;
+
+import android.util.Log;
+
+import java.io.BufferedOutputStream;
+import java.io.Closeable;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.net.URL;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.text.ParseException;
+import java.text.SimpleDateFormat;
+import java.util.Arrays;
+import java.util.Comparator;
+import java.util.HashMap;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.Locale;
+import java.util.Map;
+import java.util.TimeZone;
+
+/**
+ * A size-bounded cache of HTTP responses, stored as one file per URL in a directory of the app's
+ * cache dir.
+ * <p>
+ * A sync triggered by a location change, the startup check in SunshineSyncUtils and the periodic
+ * job can all ask for the same forecast within minutes of each other. While a cached response is
+ * still fresh, {@link WeatherHttpClient} answers from this cache without touching the network.
+ * <p>
+ * How long a response stays fresh comes from its Cache-Control max-age or Expires header. Some
+ * servers (AccuWeather included) send very short lifetimes for data that only changes a few
+ * times a day, so a minimum freshness can be configured per host with
+ * {@link #setMinimumFreshness(String, long)}. Once the cache grows past its size limit, the
+ * least recently used responses are evicted.
+ */
+public final class HttpDiskCache {
+
+    private static final String TAG = HttpDiskCache.class.getSimpleName();
+
+    /* Returned by getFreshnessLifetime for responses that must not be cached */
+    static final long NOT_CACHEABLE = -1;
+
+    /* Identifies the layout of an entry file, so that a layout change invalidates old entries */
+    private static final int ENTRY_FORMAT_VERSION = 1;
+
+    private static final String TEMP_FILE_SUFFIX = ".tmp";
+
+    private final File mDirectory;
+    private final long mMaxSizeBytes;
+
+    /* Per host, the least time a response is considered fresh regardless of its headers */
+    private final HashMap<String, Long> mMinimumFreshness = new HashMap<String, Long>();
+
+    /* Entry file name to file size, least recently used first. Loaded from disk on first use. */
+    private LinkedHashMap<String, Long> mEntries;
+    private long mSizeBytes;
+
+    private int mHitCount;
+    private int mMissCount;
+
+    /**
+     * @param directory    The directory to keep the responses in, created if needed
+     * @param maxSizeBytes The most bytes the cached responses may take up on disk
+     */
+    public HttpDiskCache(File directory, long maxSizeBytes) {
+        mDirectory = directory;
+        mMaxSizeBytes = maxSizeBytes;
+    }
+
+    /**
+     * Makes responses from a host stay fresh for at least the given time, even if the server
+     * says they expire sooner. Responses marked no-store or no-cache are still never cached.
+     *
+     * @param host         The host, such as "dataservice.accuweather.com"
+     * @param minimumMillis The least time its responses are considered fresh
+     */
+    public synchronized void setMinimumFreshness(String host, long minimumMillis) {
+        mMinimumFreshness.put(host, minimumMillis);
+    }
+
+    /**
+     * Returns the cached response for a URL if it is still fresh. The response's body is read
+     * into a pooled buffer, which the caller must release as usual.
+     *
+     * @param url The URL that is about to be requested
+     * @return The cached response, or null if there is no fresh response for the URL
+     */
+    public synchronized WeatherHttpClient.Response get(URL url) {
+        ensureEntriesLoaded();
+
+        String key = keyFor(url);
+        File file = new File(mDirectory, key);
+        if (!mEntries.containsKey(key)) {
+            mMissCount++;
+            return null;
+        }
+
+        long readStart = System.nanoTime();
+        DataInputStream in = null;
+        try {
+            in = new DataInputStream(new FileInputStream(file));
+            if (in.readInt() != ENTRY_FORMAT_VERSION || !url.toString().equals(in.readUTF())) {
+                /* Written by an older version of the app, or a hash collision */
+                removeEntry(key);
+                mMissCount++;
+                return null;
+            }
+
+            long expiresAt = in.readLong();
+            if (System.currentTimeMillis() >= expiresAt) {
+                /* Leave the stale entry in place; a fresh response will overwrite it */
+                mMissCount++;
+                return null;
+            }
+
+            String eTag = readOptionalString(in);
+            String lastModified = readOptionalString(in);
+            int length = in.readInt();
+            ResponseBody body = ResponseBodyReader.read(in, length, Math.max(length, 1));
+
+            /* Touch the entry so that it counts as recently used, in memory and on disk */
+            mEntries.get(key);
+            file.setLastModified(System.currentTimeMillis());
+
+            WeatherHttpClient.Timing timing = new WeatherHttpClient.Timing();
+            timing.bodyMillis = (System.nanoTime() - readStart) / 1000000;
+
+            mHitCount++;
+            return new WeatherHttpClient.Response(200, body, timing, eTag, lastModified, true);
+        } catch (IOException e) {
+            Log.w(TAG, "Couldn't read cached response for " + url.getHost() + url.getPath(), e);
+            removeEntry(key);
+            mMissCount++;
+            return null;
+        } finally {
+            closeQuietly(in);
+        }
+    }
+
+    /**
+     * Stores a successful response so that later requests for the same URL can be answered
+     * without the network, for as long as it stays fresh.
+     *
+     * @param url              The URL that was requested
+     * @param response         The 200 response for that URL, whose body has not been released
+     * @param lifetimeMillis   How long the server says the response is fresh for, as returned
+     *                         by {@link #getFreshnessLifetime(String, String, String, long)}
+     */
+    public synchronized void put(URL url, WeatherHttpClient.Response response, long lifetimeMillis) {
+        if (lifetimeMillis == NOT_CACHEABLE || response.getCode() != 200
+                || response.getBody() == null) {
+            return;
+        }
+
+        Long minimumMillis = mMinimumFreshness.get(url.getHost());
+        if (minimumMillis != null && lifetimeMillis < minimumMillis) {
+            lifetimeMillis = minimumMillis;
+        }
+        if (lifetimeMillis <= 0) {
+            return;
+        }
+
+        ensureEntriesLoaded();
+
+        String key = keyFor(url);
+        File file = new File(mDirectory, key);
+        File tempFile = new File(mDirectory, key + TEMP_FILE_SUFFIX);
+        ResponseBody body = response.getBody();
+
+        DataOutputStream out = null;
+        try {
+            out = new DataOutputStream(new BufferedOutputStream(new FileOutputStream(tempFile)));
+            out.writeInt(ENTRY_FORMAT_VERSION);
+            out.writeUTF(url.toString());
+            out.writeLong(System.currentTimeMillis() + lifetimeMillis);
+            writeOptionalString(out, response.getETag());
+            writeOptionalString(out, response.getLastModified());
+            out.writeInt(body.length());
+            out.write(body.getBytes(), 0, body.length());
+            out.close();
+            out = null;
+
+            /* Renaming makes the new entry appear all at once, never half written */
+            if (!tempFile.renameTo(file)) {
+                throw new IOException("Couldn't rename " + tempFile);
+            }
+        } catch (IOException e) {
+            Log.w(TAG, "Couldn't cache response for " + url.getHost() + url.getPath(), e);
+            closeQuietly(out);
+            tempFile.delete();
+            removeEntry(key);
+            return;
+        }
+
+        Long oldSize = mEntries.remove(key);
+        if (oldSize != null) {
+            mSizeBytes -= oldSize;
+        }
+        mEntries.put(key, file.length());
+        mSizeBytes += file.length();
+
+        trimToSize();
+    }
+
+    /* The number of requests answered from the cache */
+    public synchronized int getHitCount() {
+        return mHitCount;
+    }
+
+    /* The number of requests the cache couldn't answer, because it had no fresh response */
+    public synchronized int getMissCount() {
+        return mMissCount;
+    }
+
+    /* The bytes currently taken up by cached responses */
+    public synchronized long getSizeBytes() {
+        ensureEntriesLoaded();
+        return mSizeBytes;
+    }
+
+    /* Deletes every cached response */
+    public synchronized void evictAll() {
+        ensureEntriesLoaded();
+        for (String key : mEntries.keySet()) {
+            new File(mDirectory, key).delete();
+        }
+        mEntries.clear();
+        mSizeBytes = 0;
+    }
+
+    /**
+     * Works out how long a response is fresh for from its headers. Cache-Control max-age takes
+     * precedence over Expires, which is relative to the response's Date (or now, without one).
+     *
+     * @param cacheControl The Cache-Control header, or null
+     * @param expires      The Expires header, or null
+     * @param date         The Date header, or null
+     * @param nowMillis    The current time, used when there is no Date header
+     * @return The freshness lifetime in milliseconds, 0 if the headers don't give one, or
+     * {@link #NOT_CACHEABLE} if the response must not be cached
+     */
+    static long getFreshnessLifetime(String cacheControl, String expires, String date,
+            long nowMillis) {
+        if (cacheControl != null) {
+            for (String directive : cacheControl.split(",")) {
+                directive = directive.trim().toLowerCase(Locale.US);
+                if (directive.equals("no-store") || directive.equals("no-cache")) {
+                    return NOT_CACHEABLE;
+                }
+            }
+            for (String directive : cacheControl.split(",")) {
+                directive = directive.trim().toLowerCase(Locale.US);
+                if (directive.startsWith("max-age=")) {
+                    try {
+                        long maxAgeSeconds = Long.parseLong(
+                                directive.substring("max-age=".length()).replace("\"", ""));
+                        return Math.max(0, maxAgeSeconds * 1000);
+                    } catch (NumberFormatException e) {
+                        /* Ignore a malformed max-age and fall back to Expires */
+                    }
+                }
+            }
+        }
+
+        if (expires != null) {
+            long expiresMillis = parseHttpDate(expires);
+            if (expiresMillis < 0) {
+                /* An invalid Expires, such as "0", means already expired */
+                return 0;
+            }
+            long dateMillis = date != null ? parseHttpDate(date) : -1;
+            long baseMillis = dateMillis >= 0 ? dateMillis : nowMillis;
+            return Math.max(0, expiresMillis - baseMillis);
+        }
+
+        return 0;
+    }
+
+    /* Parses an RFC 1123 date, as used in HTTP headers; returns -1 if it can't be parsed */
+    private static long parseHttpDate(String value) {
+        /* SimpleDateFormat isn't thread-safe, so every call gets its own */
+        SimpleDateFormat format = new SimpleDateFormat("EEE, dd MMM yyyy HH:mm:ss zzz", Locale.US);
+        format.setTimeZone(TimeZone.getTimeZone("GMT"));
+        try {
+            return format.parse(value.trim()).getTime();
+        } catch (ParseException e) {
+            return -1;
+        }
+    }
+
+    private void ensureEntriesLoaded() {
+        if (mEntries != null) {
+            return;
+        }
+
+        /* Access order makes iteration run from least to most recently used */
+        mEntries = new LinkedHashMap<String, Long>(16, 0.75f, true);
+        mSizeBytes = 0;
+
+        if (!mDirectory.isDirectory() && !mDirectory.mkdirs()) {
+            Log.w(TAG, "Couldn't create cache directory " + mDirectory);
+            return;
+        }
+
+        File[] files = mDirectory.listFiles();
+        if (files == null) {
+            return;
+        }
+
+        /* The file modification time records when each entry was last used */
+        Arrays.sort(files, new Comparator<File>() {
+            @Override
+            public int compare(File first, File second) {
+                long difference = first.lastModified() - second.lastModified();
+                return difference < 0 ? -1 : (difference > 0 ? 1 : 0);
+            }
+        });
+
+        for (File file : files) {
+            if (file.getName().endsWith(TEMP_FILE_SUFFIX)) {
+                /* Left behind by a write that never finished */
+                file.delete();
+                continue;
+            }
+            mEntries.put(file.getName(), file.length());
+            mSizeBytes += file.length();
+        }
+
+        trimToSize();
+    }
+
+    private void trimToSize() {
+        Iterator<Map.Entry<String, Long>> iterator = mEntries.entrySet().iterator();
+        while (mSizeBytes > mMaxSizeBytes && iterator.hasNext()) {
+            Map.Entry<String, Long> eldest = iterator.next();
+            new File(mDirectory, eldest.getKey()).delete();
+            mSizeBytes -= eldest.getValue();
+            iterator.remove();
+        }
+    }
+
+    private void removeEntry(String key) {
+        new File(mDirectory, key).delete();
+        Long size = mEntries.remove(key);
+        if (size != null) {
+            mSizeBytes -= size;
+        }
+    }
+
+    /* URLs can be long and full of characters a file name can't have, so entries use a hash */
+    private static String keyFor(URL url) {
+        try {
+            MessageDigest digest = MessageDigest.getInstance("MD5");
+            byte[] hash = digest.digest(url.toString().getBytes(ResponseBody.UTF_8));
+            StringBuilder key = new StringBuilder(hash.length * 2);
+            for (byte b : hash) {
+                key.append(Character.forDigit((b >> 4) & 0xf, 16));
+                key.append(Character.forDigit(b & 0xf, 16));
+            }
+            return key.toString();
+        } catch (NoSuchAlgorithmException e) {
+            /* Every Android device provides MD5 */
+            throw new AssertionError(e);
+        }
+    }
+
+    private static void writeOptionalString(DataOutputStream out, String value)
+            throws IOException {
+        out.writeBoolean(value != null);
+        if (value != null) {
+            out.writeUTF(value);
+        }
+    }
+
+    private static String readOptionalString(DataInputStream in) throws IOException {
+        return in.readBoolean() ? in.readUTF() : null;
+    }
+
+    private static void closeQuietly(Closeable closeable) {
+        if (closeable != null) {
+            try {
+                closeable.close();
+            } catch (IOException ignored) {
+                /* Nothing more we can do */
+            }
+        }
+    }
+}
@@ -0,0 +1,88 @@
+/*
+ * Copyright (C) 2016 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.example.android.sunshine.utilities;
+
+import android.content.Context;
+import android.content.SharedPreferences;
+
+import java.net.URL;
+
+/**
+ * Remembers the cache validators (ETag and Last-Modified) that the server sent for each request
+ * URL, so that the next request for the same URL can be made conditional. If nothing changed,
+ * the server answers with a bodiless 304 Not Modified instead of the full payload.
+ */
+public final class HttpValidatorStore {
+
+    /* The validators are kept apart from the user's preferences in their own file */
+    private static final String PREFS_NAME = "http_validators";
+
+    private static final String SUFFIX_ETAG = "|etag";
+    private static final String SUFFIX_LAST_MODIFIED = "|last_modified";
+
+    private final SharedPreferences mPreferences;
+
+    public HttpValidatorStore(Context context) {
+        mPreferences = context.getApplicationContext()
+                .getSharedPreferences(PREFS_NAME, Context.MODE_PRIVATE);
+    }
+
+    /* The ETag last returned for this URL, or null if we don't have one */
+    public String getETag(URL url) {
+        return mPreferences.getString(url.toString() + SUFFIX_ETAG, null);
+    }
+
+    /* The Last-Modified date last returned for this URL, or null if we don't have one */
+    public String getLastModified(URL url) {
+        return mPreferences.getString(url.toString() + SUFFIX_LAST_MODIFIED, null);
+    }
+
+    /**
+     * Stores the validators from a successful response. Callers should only do this once the
+     * response has been fully processed; otherwise a later 304 could leave us with data we never
+     * managed to store.
+     *
+     * @param url      The URL that was requested
+     * @param response The successful response for that URL
+     */
+    public void save(URL url, WeatherHttpClient.Response response) {
+        String key = url.toString();
+        String eTag = response.getETag();
+        String lastModified = response.getLastModified();
+
+        SharedPreferences.Editor editor = mPreferences.edit();
+        if (eTag != null) {
+            editor.putString(key + SUFFIX_ETAG, eTag);
+        } else {
+            editor.remove(key + SUFFIX_ETAG);
+        }
+        if (lastModified != null) {
+            editor.putString(key + SUFFIX_LAST_MODIFIED, lastModified);
+        } else {
+            editor.remove(key + SUFFIX_LAST_MODIFIED);
+        }
+        editor.apply();
+    }
+
+    /* Forgets the validators for this URL, forcing the next request to download in full */
+    public void clear(URL url) {
+        String key = url.toString();
+        mPreferences.edit()
+                .remove(key + SUFFIX_ETAG)
+                .remove(key + SUFFIX_LAST_MODIFIED)
+                .apply();
+    }
+}
@@ -0,0 +1,633 @@
+/*
+ * Copyright (C) 2016 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.example.android.sunshine.utilities;
+
+import org.json.JSONException;
+
+/**
+ * A small pull parser that reads JSON straight from UTF-8 bytes, one token at a time.
+ * <p>
+ * Unlike org.json, nothing is built up front: the caller walks the document with
+ * {@link #beginObject()}, {@link #nextName()} and friends, keeps the values it wants and calls
+ * {@link #skipValue()} for the rest. Skipped values (such as a forecast's "Night" object) are
+ * stepped over byte by byte without creating any Strings or objects. The API mirrors
+ * android.util.JsonReader, which we can't use because it only arrived in API 11.
+ */
+final class JsonPullParser {
+
+    /* The kinds of token returned by peek() */
+    static final int BEGIN_OBJECT = 1;
+    static final int END_OBJECT = 2;
+    static final int BEGIN_ARRAY = 3;
+    static final int END_ARRAY = 4;
+    static final int NAME = 5;
+    static final int STRING = 6;
+    static final int NUMBER = 7;
+    static final int BOOLEAN = 8;
+    static final int NULL = 9;
+    static final int END_DOCUMENT = 10;
+
+    private static final int PEEKED_NONE = 0;
+
+    /* Where we are in the enclosing object, array or document */
+    private static final int EMPTY_ARRAY = 1;
+    private static final int NONEMPTY_ARRAY = 2;
+    private static final int EMPTY_OBJECT = 3;
+    private static final int DANGLING_NAME = 4;
+    private static final int NONEMPTY_OBJECT = 5;
+    private static final int EMPTY_DOCUMENT = 6;
+    private static final int NONEMPTY_DOCUMENT = 7;
+
+    /*
+     * Every 10^n that a double holds exactly. A decimal with at most 15 significant digits and
+     * no exponent is then mantissa / 10^n, which is exactly what Double.parseDouble returns.
+     */
+    private static final double[] POWERS_OF_TEN = {
+            1e0, 1e1, 1e2, 1e3, 1e4, 1e5, 1e6, 1e7, 1e8, 1e9, 1e10, 1e11,
+            1e12, 1e13, 1e14, 1e15, 1e16, 1e17, 1e18, 1e19, 1e20, 1e21, 1e22
+    };
+    private static final int MAX_FAST_PATH_DIGITS = 15;
+
+    /*
+     * AccuWeather repeats the same few dozen member names for every day of the forecast. Keeping
+     * the Strings for recently seen names means each one is decoded once per parse, not per day.
+     */
+    private static final int NAME_CACHE_SIZE = 64;
+
+    private final byte[] mBytes;
+    private final int mLimit;
+    private int mPos;
+
+    private int mPeeked = PEEKED_NONE;
+
+    private int[] mStack = new int[16];
+    private int mStackSize = 0;
+
+    private final String[] mNameCache = new String[NAME_CACHE_SIZE];
+    private final int[] mNameCacheStarts = new int[NAME_CACHE_SIZE];
+    private final int[] mNameCacheLengths = new int[NAME_CACHE_SIZE];
+
+    /**
+     * @param bytes  The UTF-8 encoded document
+     * @param offset Where the document starts in bytes
+     * @param length The length of the document in bytes
+     */
+    JsonPullParser(byte[] bytes, int offset, int length) {
+        mBytes = bytes;
+        mPos = offset;
+        mLimit = offset + length;
+
+        /* Skip a UTF-8 byte order mark, which some servers send */
+        if (length >= 3 && (bytes[offset] & 0xff) == 0xef
+                && (bytes[offset + 1] & 0xff) == 0xbb && (bytes[offset + 2] & 0xff) == 0xbf) {
+            mPos += 3;
+        }
+
+        push(EMPTY_DOCUMENT);
+    }
+
+    void beginObject() throws JSONException {
+        expect(BEGIN_OBJECT);
+        push(EMPTY_OBJECT);
+        mPeeked = PEEKED_NONE;
+    }
+
+    void endObject() throws JSONException {
+        expect(END_OBJECT);
+        mStackSize--;
+        mPeeked = PEEKED_NONE;
+    }
+
+    void beginArray() throws JSONException {
+        expect(BEGIN_ARRAY);
+        push(EMPTY_ARRAY);
+        mPeeked = PEEKED_NONE;
+    }
+
+    void endArray() throws JSONException {
+        expect(END_ARRAY);
+        mStackSize--;
+        mPeeked = PEEKED_NONE;
+    }
+
+    /* True if the current object or array has another member or element */
+    boolean hasNext() throws JSONException {
+        int peeked = peek();
+        return peeked != END_OBJECT && peeked != END_ARRAY && peeked != END_DOCUMENT;
+    }
+
+    /**
+     * Reads the name of the next member of the current object. Names are only decoded the first
+     * time they are seen, so comparing them to constants with equals() is cheap.
+     */
+    String nextName() throws JSONException {
+        expect(NAME);
+        mPeeked = PEEKED_NONE;
+        return readName();
+    }
+
+    /**
+     * Reads a string value. Numbers are returned as their literal text, and null as null.
+     */
+    String nextString() throws JSONException {
+        int peeked = peek();
+        mPeeked = PEEKED_NONE;
+        switch (peeked) {
+            case STRING:
+                return readString();
+            case NUMBER:
+                int start = mPos;
+                skipNumber();
+                return new String(mBytes, start, mPos - start, ResponseBody.UTF_8);
+            case NULL:
+                skipLiteral("null");
+                return null;
+            default:
+                mPeeked = peeked;
+                throw syntaxError("Expected a string but was " + tokenName(peeked));
+        }
+    }
+
+    /**
+     * Reads a number value. Like org.json, a string holding a number is accepted too.
+     */
+    double nextDouble() throws JSONException {
+        int peeked = peek();
+        if (peeked == STRING) {
+            mPeeked = PEEKED_NONE;
+            String value = readString();
+            try {
+                return Double.parseDouble(value);
+            } catch (NumberFormatException e) {
+                throw syntaxError("Expected a number but was \"" + value + "\"");
+            }
+        }
+        expect(NUMBER);
+        mPeeked = PEEKED_NONE;
+        return readNumber();
+    }
+
+    /* Reads a number value, truncating any fraction just as JSONObject.getInt does */
+    int nextInt() throws JSONException {
+        return (int) nextDouble();
+    }
+
+    boolean nextBoolean() throws JSONException {
+        expect(BOOLEAN);
+        mPeeked = PEEKED_NONE;
+        if (mBytes[mPos] == 't') {
+            skipLiteral("true");
+            return true;
+        }
+        skipLiteral("false");
+        return false;
+    }
+
+    void nextNull() throws JSONException {
+        expect(NULL);
+        mPeeked = PEEKED_NONE;
+        skipLiteral("null");
+    }
+
+    /**
+     * Skips the next value, including everything nested inside it, without decoding any of it.
+     */
+    void skipValue() throws JSONException {
+        int depth = 0;
+        do {
+            int peeked = peek();
+            switch (peeked) {
+                case BEGIN_OBJECT:
+                    beginObject();
+                    depth++;
+                    break;
+                case BEGIN_ARRAY:
+                    beginArray();
+                    depth++;
+                    break;
+                case END_OBJECT:
+                    endObject();
+                    depth--;
+                    break;
+                case END_ARRAY:
+                    endArray();
+                    depth--;
+                    break;
+                case NAME:
+                case STRING:
+                    mPeeked = PEEKED_NONE;
+                    skipString();
+                    break;
+                case NUMBER:
+                    mPeeked = PEEKED_NONE;
+                    skipNumber();
+                    break;
+                case BOOLEAN:
+                    nextBoolean();
+                    break;
+                case NULL:
+                    nextNull();
+                    break;
+                default:
+                    throw syntaxError("Expected a value but was " + tokenName(peeked));
+            }
+        } while (depth > 0);
+    }
+
+    /**
+     * Returns the kind of the next token without consuming it.
+     */
+    int peek() throws JSONException {
+        if (mPeeked != PEEKED_NONE) {
+            return mPeeked;
+        }
+
+        int scope = mStack[mStackSize - 1];
+        switch (scope) {
+            case EMPTY_ARRAY:
+                mStack[mStackSize - 1] = NONEMPTY_ARRAY;
+                if (nextNonWhitespace() == ']') {
+                    mPos++;
+                    return mPeeked = END_ARRAY;
+                }
+                break;
+
+            case NONEMPTY_ARRAY:
+                int arrayByte = nextNonWhitespace();
+                if (arrayByte == ']') {
+                    mPos++;
+                    return mPeeked = END_ARRAY;
+                } else if (arrayByte == ',') {
+                    mPos++;
+                } else {
+                    throw syntaxError("Unterminated array");
+                }
+                break;
+
+            case EMPTY_OBJECT:
+            case NONEMPTY_OBJECT:
+                mStack[mStackSize - 1] = DANGLING_NAME;
+                if (scope == NONEMPTY_OBJECT) {
+                    int objectByte = nextNonWhitespace();
+                    if (objectByte == '}') {
+                        mPos++;
+                        return mPeeked = END_OBJECT;
+                    } else if (objectByte == ',') {
+                        mPos++;
+                    } else {
+                        throw syntaxError("Unterminated object");
+                    }
+                }
+                int nameByte = nextNonWhitespace();
+                if (nameByte == '}' && scope == EMPTY_OBJECT) {
+                    mPos++;
+                    return mPeeked = END_OBJECT;
+                } else if (nameByte == '"') {
+                    return mPeeked = NAME;
+                }
+                throw syntaxError("Expected a name");
+
+            case DANGLING_NAME:
+                mStack[mStackSize - 1] = NONEMPTY_OBJECT;
+                if (nextNonWhitespace() != ':') {
+                    throw syntaxError("Expected ':'");
+                }
+                mPos++;
+                break;
+
+            case EMPTY_DOCUMENT:
+                mStack[mStackSize - 1] = NONEMPTY_DOCUMENT;
+                break;
+
+            case NONEMPTY_DOCUMENT:
+                skipWhitespace();
+                if (mPos == mLimit) {
+                    return mPeeked = END_DOCUMENT;
+                }
+                throw syntaxError("Unexpected content after the document");
+        }
+
+        int valueByte = nextNonWhitespace();
+        switch (valueByte) {
+            case '{':
+                mPos++;
+                return mPeeked = BEGIN_OBJECT;
+            case '[':
+                mPos++;
+                return mPeeked = BEGIN_ARRAY;
+            case '"':
+                return mPeeked = STRING;
+            case 't':
+            case 'f':
+                return mPeeked = BOOLEAN;
+            case 'n':
+                return mPeeked = NULL;
+            default:
+                if (valueByte == '-' || (valueByte >= '0' && valueByte <= '9')) {
+                    return mPeeked = NUMBER;
+                }
+                throw syntaxError("Unexpected character '" + (char) valueByte + "'");
+        }
+    }
+
+    private void expect(int token) throws JSONException {
+        int peeked = peek();
+        if (peeked != token) {
+            throw syntaxError("Expected " + tokenName(token) + " but was " + tokenName(peeked));
+        }
+    }
+
+    private void push(int scope) {
+        if (mStackSize == mStack.length) {
+            int[] newStack = new int[mStackSize * 2];
+            System.arraycopy(mStack, 0, newStack, 0, mStackSize);
+            mStack = newStack;
+        }
+        mStack[mStackSize++] = scope;
+    }
+
+    private void skipWhitespace() {
+        while (mPos < mLimit) {
+            byte b = mBytes[mPos];
+            if (b != ' ' && b != '\n' && b != '\r' && b != '\t') {
+                return;
+            }
+            mPos++;
+        }
+    }
+
+    /* Skips whitespace and returns the next byte without consuming it */
+    private int nextNonWhitespace() throws JSONException {
+        skipWhitespace();
+        if (mPos == mLimit) {
+            throw syntaxError("Unexpected end of input");
+        }
+        return mBytes[mPos];
+    }
+
+    /* Reads a member name, reusing the String from the cache if we've seen the name before */
+    private String readName() throws JSONException {
+        int start = mPos + 1;
+        int hash = 0;
+        for (int i = start; i < mLimit; i++) {
+            byte b = mBytes[i];
+            if (b == '\\') {
+                /* Names with escapes are rare enough not to bother caching */
+                return readString();
+            }
+            if (b == '"') {
+                int length = i - start;
+                int slot = (hash ^ (hash >>> 16)) & (NAME_CACHE_SIZE - 1);
+                mPos = i + 1;
+
+                String cached = mNameCache[slot];
+                if (cached != null && mNameCacheLengths[slot] == length
+                        && regionMatches(mNameCacheStarts[slot], start, length)) {
+                    /* Point the cache at the latest copy of the name; either one matches */
+                    mNameCacheStarts[slot] = start;
+                    return cached;
+                }
+
+                String name = new String(mBytes, start, length, ResponseBody.UTF_8);
+                mNameCache[slot] = name;
+                mNameCacheStarts[slot] = start;
+                mNameCacheLengths[slot] = length;
+                return name;
+            }
+            hash = 31 * hash + b;
+        }
+        throw syntaxError("Unterminated string");
+    }
+
+    private boolean regionMatches(int first, int second, int length) {
+        for (int i = 0; i < length; i++) {
+            if (mBytes[first + i] != mBytes[second + i]) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    /* Reads a quoted string, starting at its opening quote */
+    private String readString() throws JSONException {
+        mPos++;
+        int start = mPos;
+
+        /* Most strings have no escapes, and can be decoded in one go */
+        while (mPos < mLimit) {
+            byte b = mBytes[mPos];
+            if (b == '"') {
+                String value = new String(mBytes, start, mPos - start, ResponseBody.UTF_8);
+                mPos++;
+                return value;
+            }
+            if (b == '\\') {
+                break;
+            }
+            mPos++;
+        }
+
+        StringBuilder builder = new StringBuilder();
+        int segmentStart = start;
+        while (mPos < mLimit) {
+            byte b = mBytes[mPos];
+            if (b == '"') {
+                builder.append(new String(mBytes, segmentStart, mPos - segmentStart,
+                        ResponseBody.UTF_8));
+                mPos++;
+                return builder.toString();
+            }
+            if (b == '\\') {
+                builder.append(new String(mBytes, segmentStart, mPos - segmentStart,
+                        ResponseBody.UTF_8));
+                mPos++;
+                builder.append(readEscapeCharacter());
+                segmentStart = mPos;
+            } else {
+                mPos++;
+            }
+        }
+        throw syntaxError("Unterminated string");
+    }
+
+    private char readEscapeCharacter() throws JSONException {
+        if (mPos == mLimit) {
+            throw syntaxError("Unterminated escape sequence");
+        }
+        byte escaped = mBytes[mPos++];
+        switch (escaped) {
+            case 'u':
+                if (mPos + 4 > mLimit) {
+                    throw syntaxError("Unterminated escape sequence");
+                }
+                int value = 0;
+                for (int i = 0; i < 4; i++) {
+                    int digit = Character.digit(mBytes[mPos++], 16);
+                    if (digit < 0) {
+                        throw syntaxError("Invalid \\u escape sequence");
+                    }
+                    value = (value << 4) | digit;
+                }
+                return (char) value;
+            case 't':
+                return '\t';
+            case 'b':
+                return '\b';
+            case 'n':
+                return '\n';
+            case 'r':
+                return '\r';
+            case 'f':
+                return '\f';
+            case '"':
+            case '\\':
+            case '/':
+                return (char) escaped;
+            default:
+                throw syntaxError("Invalid escape sequence");
+        }
+    }
+
+    /* Steps over a quoted string, starting at its opening quote, without decoding it */
+    private void skipString() throws JSONException {
+        mPos++;
+        while (mPos < mLimit) {
+            byte b = mBytes[mPos++];
+            if (b == '"') {
+                return;
+            }
+            if (b == '\\') {
+                mPos++;
+            }
+        }
+        throw syntaxError("Unterminated string");
+    }
+
+    private void skipNumber() {
+        while (mPos < mLimit) {
+            byte b = mBytes[mPos];
+            if ((b >= '0' && b <= '9') || b == '-' || b == '+' || b == '.' || b == 'e' || b == 'E') {
+                mPos++;
+            } else {
+                return;
+            }
+        }
+    }
+
+    /**
+     * Reads a number. The values in a forecast (21.5, 310, 0.25...) take the fast path, which
+     * computes the double directly from the bytes. Anything longer or with an exponent falls
+     * back to Double.parseDouble.
+     */
+    private double readNumber() throws JSONException {
+        int start = mPos;
+        boolean negative = false;
+        if (mBytes[mPos] == '-') {
+            negative = true;
+            mPos++;
+        }
+
+        long mantissa = 0;
+        int digits = 0;
+        int fractionDigits = 0;
+        boolean inFraction = false;
+        boolean fastPath = true;
+
+        while (mPos < mLimit) {
+            byte b = mBytes[mPos];
+            if (b >= '0' && b <= '9') {
+                if (digits < MAX_FAST_PATH_DIGITS) {
+                    mantissa = mantissa * 10 + (b - '0');
+                    if (mantissa != 0) {
+                        digits++;
+                    }
+                    if (inFraction) {
+                        fractionDigits++;
+                    }
+                } else {
+                    fastPath = false;
+                }
+            } else if (b == '.' && !inFraction) {
+                inFraction = true;
+            } else if (b == 'e' || b == 'E' || b == '+' || b == '-' || b == '.') {
+                fastPath = false;
+            } else {
+                break;
+            }
+            mPos++;
+        }
+
+        int length = mPos - start;
+        if (length == (negative ? 1 : 0)) {
+            throw syntaxError("Expected a number");
+        }
+
+        if (fastPath && fractionDigits < POWERS_OF_TEN.length) {
+            double value = mantissa / POWERS_OF_TEN[fractionDigits];
+            return negative ? -value : value;
+        }
+
+        try {
+            return Double.parseDouble(new String(mBytes, start, length, ResponseBody.UTF_8));
+        } catch (NumberFormatException e) {
+            throw syntaxError("Malformed number");
+        }
+    }
+
+    private void skipLiteral(String literal) throws JSONException {
+        int length = literal.length();
+        if (mPos + length > mLimit) {
+            throw syntaxError("Expected " + literal);
+        }
+        for (int i = 0; i < length; i++) {
+            if (mBytes[mPos + i] != literal.charAt(i)) {
+                throw syntaxError("Expected " + literal);
+            }
+        }
+        mPos += length;
+    }
+
+    private JSONException syntaxError(String message) {
+        return new JSONException(message + " at byte " + mPos);
+    }
+
+    private static String tokenName(int token) {
+        switch (token) {
+            case BEGIN_OBJECT:
+                return "BEGIN_OBJECT";
+            case END_OBJECT:
+                return "END_OBJECT";
+            case BEGIN_ARRAY:
+                return "BEGIN_ARRAY";
+            case END_ARRAY:
+                return "END_ARRAY";
+            case NAME:
+                return "NAME";
+            case STRING:
+                return "STRING";
+            case NUMBER:
+                return "NUMBER";
+            case BOOLEAN:
+                return "BOOLEAN";
+            case NULL:
+                return "NULL";
+            case END_DOCUMENT:
+                return "END_DOCUMENT";
+            default:
+                return "UNKNOWN";
+        }
+    }
+}
@@ -21,12 +21,15 @@ import android.util.Log;
 
 import com.example.android.sunshine.data.SunshinePreferences;
 
+import java.io.File;
 import java.io.IOException;
-import java.io.InputStream;
-import java.net.HttpURLConnection;
+import java.io.InterruptedIOException;
 import java.net.MalformedURLException;
 import java.net.URL;
-import java.util.Scanner;
+import java.util.HashMap;
+import java.util.Random;
+import java.util.concurrent.Semaphore;
+import java.util.concurrent.TimeUnit;
 
 /**
  * These utilities will be used to communicate with the weather servers.
@@ -61,6 +64,41 @@ public final class NetworkUtils {
     private static final String AW_LOCATION_SEARCH = "locations/v1/search";
     private static final String AW_FORECAST_5_DAY = "forecasts/v1/daily/5day/";
     private static final String AW_API_KEY_PARAM = "apikey";
+
+    /*
+     * Where AccuWeather requests are sent. Tests and the load harness point this at a local
+     * stand-in server, as the real service has a daily quota and needs the real API key.
+     */
+    private static volatile String sAccuWeatherBaseUrl = AW_WEATHER_URL_BASE;
+
+    /*
+     * AccuWeather marks its forecasts as fresh for only a few minutes, although they change only a
+     * few times a day. We keep them for at least this long before asking again.
+     */
+    private static final long AW_MIN_FRESHNESS_MILLIS = TimeUnit.MINUTES.toMillis(30);
+
+    /* The most space the HTTP response cache may use in the app's cache dir */
+    private static final String HTTP_CACHE_DIR = "http";
+    private static final long HTTP_CACHE_MAX_BYTES = 2 * 1024 * 1024;
+
+    /*
+     * A request that fails with a network or server error is made up to 3 times, waiting up to
+     * 1s before the first retry and up to 2s before the second. Sync runs in the background, so
+     * a few seconds' wait costs nothing, while giving up costs a whole sync interval.
+     */
+    private static final RetryPolicy RETRY_POLICY =
+            new RetryPolicy(3, TimeUnit.SECONDS.toMillis(1), TimeUnit.SECONDS.toMillis(8),
+                    new Random());
+
+    /*
+     * AccuWeather's quota is per day, so once it is used up there is no point in asking again
+     * for a while. The circuit breaker refuses requests to the host for this long.
+     */
+    private static final long QUOTA_EXCEEDED_OPEN_MILLIS = TimeUnit.HOURS.toMillis(1);
+
+    /* One CircuitBreaker per host, shared by every thread that makes requests */
+    private static final HashMap<String, CircuitBreaker> sCircuitBreakers =
+            new HashMap<String, CircuitBreaker>();
     private static final String AW_API_KEY_VALUE = "4J2A69OP6AwgfXAhVfHSRLQ2DAxhuqxf";
     private static final String AW_API_DETAILS_PARAM = "details";
     private static final String AW_API_DETAILS_VALUE = "true";
@@ -125,11 +163,34 @@ public final class NetworkUtils {
 //            double longitude = preferredCoordinates[1];
 //            return buildUrlWithLatitudeLongitude(latitude, longitude);
 //        } else {
-            String locationQuery = SunshinePreferences.getPreferredWeatherLocation(context);
-            locationQuery = "Ypsilanti,MI,48198";
-            return buildAccuWeatherLocationQuery(locationQuery);
+            return getAccuWeatherLocationUrl(getAccuWeatherLocationQuery(context));
 //        }
     }
+
+    /**
+     * Returns the location String to search AccuWeather for. This is also the key under which
+     * the resulting location Key is cached.
+     *
+     * @param context used to access the user's preferred location
+     * @return The location query for AccuWeather's location search
+     */
+    public static String getAccuWeatherLocationQuery(Context context) {
+        return SunshinePreferences.getPreferredWeatherLocation(context);
+    }
+
+    /**
+     * Sends all AccuWeather requests to another server, such as a local stand-in that serves
+     * recorded responses. Only meant for tests.
+     *
+     * @param baseUrl The server's base URL, ending in a slash; null restores the real service
+     */
+    public static void setAccuWeatherBaseUrl(String baseUrl) {
+        sAccuWeatherBaseUrl = baseUrl != null ? baseUrl : AW_WEATHER_URL_BASE;
+    }
+
+    public static URL getAccuWeatherLocationUrl(String locationQuery) {
+        return buildAccuWeatherLocationQuery(locationQuery);
+    }
     public static URL getAccuWeatherForecastUrl(Context context, String locationKey) {
         return buildAccuWeatherForecastQuery(locationKey);
     }
@@ -153,7 +214,9 @@ public final class NetworkUtils {
 
         try {
             URL weatherQueryUrl = new URL(weatherQueryUri.toString());
-            Log.v(TAG, "URL: " + weatherQueryUrl);
+            if (SunshineTrace.VERBOSE) {
+                Log.v(TAG, "URL: " + weatherQueryUrl);
+            }
             return weatherQueryUrl;
         } catch (MalformedURLException e) {
             e.printStackTrace();
@@ -178,7 +241,9 @@ public final class NetworkUtils {
 
         try {
             URL weatherQueryUrl = new URL(weatherQueryUri.toString());
-            Log.v(TAG, "URL: " + weatherQueryUrl);
+            if (SunshineTrace.VERBOSE) {
+                Log.v(TAG, "URL: " + weatherQueryUrl);
+            }
             return weatherQueryUrl;
         } catch (MalformedURLException e) {
             e.printStackTrace();
@@ -187,7 +252,7 @@ public final class NetworkUtils {
     }
 
     private static URL buildAccuWeatherLocationQuery(String locationQuery) {
-        Uri weatherQueryUri = Uri.parse(AW_WEATHER_URL_BASE + AW_LOCATION_SEARCH).buildUpon()
+        Uri weatherQueryUri = Uri.parse(sAccuWeatherBaseUrl + AW_LOCATION_SEARCH).buildUpon()
                 .appendQueryParameter(QUERY_PARAM, locationQuery)
                 .appendQueryParameter(AW_API_KEY_PARAM, AW_API_KEY_VALUE)
 //                .appendQueryParameter(FORMAT_PARAM, format)
@@ -197,7 +262,9 @@ public final class NetworkUtils {
 
         try {
             URL weatherQueryUrl = new URL(weatherQueryUri.toString());
-            Log.v(TAG, "AccuWeather Location URL: " + weatherQueryUrl);
+            if (SunshineTrace.VERBOSE) {
+                Log.v(TAG, "AccuWeather Location URL: " + weatherQueryUrl);
+            }
             return weatherQueryUrl;
         } catch (MalformedURLException e) {
             e.printStackTrace();
@@ -206,14 +273,16 @@ public final class NetworkUtils {
     }
 
     private static URL buildAccuWeatherForecastQuery(String locationKey) {
-        Uri weatherQueryUri = Uri.parse(AW_WEATHER_URL_BASE + AW_FORECAST_5_DAY + locationKey).buildUpon()
+        Uri weatherQueryUri = Uri.parse(sAccuWeatherBaseUrl + AW_FORECAST_5_DAY + locationKey).buildUpon()
                 .appendQueryParameter(AW_API_KEY_PARAM, AW_API_KEY_VALUE)
                 .appendQueryParameter(AW_API_DETAILS_PARAM, AW_API_DETAILS_VALUE)
                 .build();
 
         try {
             URL weatherQueryUrl = new URL(weatherQueryUri.toString());
-            Log.v(TAG, "AccuWeather Forecast URL: " + weatherQueryUrl);
+            if (SunshineTrace.VERBOSE) {
+                Log.v(TAG, "AccuWeather Forecast URL: " + weatherQueryUrl);
+            }
             return weatherQueryUrl;
         } catch (MalformedURLException e) {
             e.printStackTrace();
@@ -222,29 +291,230 @@ public final class NetworkUtils {
     }
 
     /**
-     * This method returns the entire result from the HTTP response.
+     * This method returns the entire result from the HTTP response. The request is made through
+     * the shared {@link WeatherHttpClient}, so consecutive requests to the same host reuse a
+     * keep-alive connection rather than opening a new one each time.
      *
      * @param url The URL to fetch the HTTP response from.
      * @return The contents of the HTTP response, null if no response
-     * @throws IOException Related to network and stream reading
+     * @throws IOException Related to network and stream reading, or a non-2xx response
      */
     public static String getResponseFromHttpUrl(URL url) throws IOException {
-        HttpURLConnection urlConnection = (HttpURLConnection) url.openConnection();
+        ResponseBody body = getResponseBodyFromHttpUrl(url);
+        if (body == null) {
+            return null;
+        }
+
         try {
-            InputStream in = urlConnection.getInputStream();
+            return body.length() > 0 ? body.string() : null;
+        } finally {
+            body.release();
+        }
+    }
 
-            Scanner scanner = new Scanner(in);
-            scanner.useDelimiter("\\A");
+    /**
+     * Like {@link #getResponseFromHttpUrl(URL)}, but returns the raw bytes of the response so
+     * that a parser can consume them without building a String first.
+     *
+     * @param url The URL to fetch the HTTP response from.
+     * @return The body of the HTTP response, null if no response. The caller must call
+     * {@link ResponseBody#release()} once it is done with the body.
+     * @throws IOException Related to network and stream reading, or a non-2xx response
+     */
+    public static ResponseBody getResponseBodyFromHttpUrl(URL url) throws IOException {
+        WeatherHttpClient.Response response = WeatherHttpClient.getInstance().execute(url);
+        if (!response.isSuccessful()) {
+            throw releaseAndClassify(url, response);
+        }
+        return response.getBody();
+    }
 
-            boolean hasInput = scanner.hasNext();
-            String response = null;
-            if (hasInput) {
-                response = scanner.next();
+    /**
+     * Like {@link #getResponseBodyFromHttpUrl(URL)}, but answers from the HTTP response cache
+     * while it holds a fresh response for the URL, and caches the new response otherwise.
+     * Network and server errors are retried with backoff, and the request is refused outright
+     * while the host's {@link CircuitBreaker} is open.
+     *
+     * @param context     Used to access the HTTP response cache
+     * @param url         The URL to fetch the HTTP response from.
+     * @param hostPermits If not null, each attempt holds one of these while it runs
+     * @return The body of the HTTP response, null if no response. The caller must call
+     * {@link ResponseBody#release()} once it is done with the body.
+     * @throws WeatherApiException If the request failed, classified by why
+     * @throws IOException         If interrupted while waiting for a permit or to retry
+     */
+    public static ResponseBody getResponseBodyFromHttpUrl(Context context, URL url,
+            Semaphore hostPermits) throws IOException {
+        WeatherHttpClient.Response response =
+                executeWithRetries(context, url, null, hostPermits);
+        if (!response.isSuccessful()) {
+            /* Only a conditional request can get a 304, but don't hand out an empty body */
+            throw releaseAndClassify(url, response);
+        }
+        return response.getBody();
+    }
+
+    /**
+     * Fetches a URL conditionally, using the ETag and Last-Modified validators stored from the
+     * previous successful response for the same URL. If the data hasn't changed on the server,
+     * the returned response will report {@link WeatherHttpClient.Response#isNotModified()} and
+     * have no body.
+     * <p>
+     * Once a 2xx response has been processed, the caller should store its validators with
+     * {@link HttpValidatorStore#save(URL, WeatherHttpClient.Response)} and release its body.
+     *
+     * @param context     Used to access the stored validators
+     * @param url         The URL to fetch the HTTP response from.
+     * @param hostPermits If not null, each attempt holds one of these while it runs
+     * @return The 2xx or 304 response
+     * @throws WeatherApiException If the request failed, classified by why
+     * @throws IOException         If interrupted while waiting for a permit or to retry
+     */
+    public static WeatherHttpClient.Response getConditionalResponseFromHttpUrl(
+            Context context, URL url, Semaphore hostPermits) throws IOException {
+        return executeWithRetries(context, url, new HttpValidatorStore(context), hostPermits);
+    }
+
+    /**
+     * Makes a request through the shared client, retrying network and server errors as set out
+     * by {@link #RETRY_POLICY}, and reporting every attempt to the host's circuit breaker.
+     * <p>
+     * A host permit is only held while an attempt runs, not while waiting to retry, so that a
+     * failing request doesn't keep other requests to the host waiting through its backoff.
+     *
+     * @param context     Used to access the HTTP response cache and the circuit breaker
+     * @param url         The URL to fetch the HTTP response from.
+     * @param validators  If not null, makes the request conditional
+     * @param hostPermits If not null, each attempt holds one of these while it runs
+     * @return The 2xx or 304 response
+     * @throws WeatherApiException If the last attempt failed, or the circuit breaker is open
+     * @throws IOException         If interrupted while waiting for a permit or to retry
+     */
+    private static WeatherHttpClient.Response executeWithRetries(Context context, URL url,
+            HttpValidatorStore validators, Semaphore hostPermits) throws IOException {
+        WeatherHttpClient client = getHttpClient(context);
+        CircuitBreaker circuitBreaker = getCircuitBreaker(context, url.getHost());
+
+        for (int attempt = 1; ; attempt++) {
+            if (!circuitBreaker.allowRequest()) {
+                /* A fresh response we already have is still good while the host is down */
+                HttpDiskCache cache = client.getCache();
+                WeatherHttpClient.Response cached = cache != null ? cache.get(url) : null;
+                if (cached != null) {
+                    return cached;
+                }
+                throw new WeatherApiException(WeatherApiException.ERROR_CIRCUIT_OPEN, 0,
+                        "Not calling " + url.getHost() + " until "
+                                + circuitBreaker.getOpenUntil(), null);
             }
-            scanner.close();
-            return response;
-        } finally {
-            urlConnection.disconnect();
+
+            if (hostPermits != null) {
+                try {
+                    hostPermits.acquire();
+                } catch (InterruptedException e) {
+                    Thread.currentThread().interrupt();
+                    throw new InterruptedIOException("Interrupted while waiting for a permit");
+                }
+            }
+
+            WeatherApiException error;
+            try {
+                WeatherHttpClient.Response response = validators != null
+                        ? client.execute(url, validators)
+                        : client.execute(url);
+                if (response.isSuccessful() || response.isNotModified()) {
+                    circuitBreaker.recordSuccess();
+                    return response;
+                }
+                error = releaseAndClassify(url, response);
+            } catch (IOException e) {
+                if (Thread.currentThread().isInterrupted()) {
+                    /* The sync was cancelled; that says nothing about the host */
+                    circuitBreaker.recordCancelled();
+                    throw e;
+                }
+                error = WeatherApiException.fromNetworkError(url, e);
+            } catch (RuntimeException e) {
+                circuitBreaker.recordFailure();
+                throw e;
+            } finally {
+                if (hostPermits != null) {
+                    hostPermits.release();
+                }
+            }
+
+            if (error.getKind() == WeatherApiException.ERROR_QUOTA_EXCEEDED) {
+                circuitBreaker.openFor(QUOTA_EXCEEDED_OPEN_MILLIS);
+            } else if (error.isEndpointFailure()) {
+                circuitBreaker.recordFailure();
+            } else {
+                /* The server answered, so it is working; it's the request that was wrong */
+                circuitBreaker.recordSuccess();
+            }
+
+            if (!RETRY_POLICY.shouldRetry(attempt, error)) {
+                throw error;
+            }
+
+            long delayMillis = RETRY_POLICY.getDelayMillis(attempt);
+            Log.w(TAG, error.getMessage() + "; retrying in " + delayMillis + "ms");
+            try {
+                Thread.sleep(delayMillis);
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+                InterruptedIOException interrupted =
+                        new InterruptedIOException("Interrupted while waiting to retry");
+                interrupted.initCause(error);
+                throw interrupted;
+            }
+        }
+    }
+
+    /* Classifies an unsuccessful response, then releases its body */
+    private static WeatherApiException releaseAndClassify(URL url,
+            WeatherHttpClient.Response response) {
+        WeatherApiException error = WeatherApiException.fromResponse(url, response);
+        if (response.getBody() != null) {
+            response.getBody().release();
+        }
+        return error;
+    }
+
+    /**
+     * Returns the circuit breaker that guards requests to a host. Every request to the host
+     * goes through the same breaker, whichever thread makes it.
+     *
+     * @param context Used to access the breaker's stored state
+     * @param host    The host requests are made to
+     * @return The host's CircuitBreaker
+     */
+    public static CircuitBreaker getCircuitBreaker(Context context, String host) {
+        synchronized (sCircuitBreakers) {
+            CircuitBreaker circuitBreaker = sCircuitBreakers.get(host);
+            if (circuitBreaker == null) {
+                circuitBreaker = new CircuitBreaker(context, host);
+                sCircuitBreakers.put(host, circuitBreaker);
+            }
+            return circuitBreaker;
+        }
+    }
+
+    /**
+     * Returns the shared {@link WeatherHttpClient}, with the HTTP response cache installed the
+     * first time this is called.
+     *
+     * @param context Used to find the app's cache dir
+     * @return The shared client
+     */
+    public static synchronized WeatherHttpClient getHttpClient(Context context) {
+        WeatherHttpClient client = WeatherHttpClient.getInstance();
+        if (client.getCache() == null) {
+            HttpDiskCache cache = new HttpDiskCache(
+                    new File(context.getCacheDir(), HTTP_CACHE_DIR), HTTP_CACHE_MAX_BYTES);
+            cache.setMinimumFreshness(Uri.parse(AW_WEATHER_URL_BASE).getHost(),
+                    AW_MIN_FRESHNESS_MILLIS);
+            client.setCache(cache);
         }
+        return client;
     }
 }
\ No newline at end of file
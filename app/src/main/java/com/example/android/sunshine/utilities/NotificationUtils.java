@@ -80,8 +80,7 @@ public class NotificationUtils {
             double low = todayWeatherCursor.getDouble(INDEX_MIN_TEMP);
 
             Resources resources = context.getResources();
-            int largeArtResourceId = SunshineWeatherUtils
-                    .getLargeArtResourceIdForWeatherCondition(weatherId);
+            int largeArtResourceId = AccuWeatherIcons.getIconResourceId(weatherId);
 
             Bitmap largeIcon = BitmapFactory.decodeResource(
                     resources,
@@ -91,9 +90,11 @@ public class NotificationUtils {
 
             String notificationText = getNotificationText(context, weatherId, high, low);
 
-            /* getSmallArtResourceIdForWeatherCondition returns the proper art to show given an ID */
-            int smallArtResourceId = SunshineWeatherUtils
-                    .getSmallArtResourceIdForWeatherCondition(weatherId);
+            /*
+             * The status bar only draws the small icon's alpha channel, so it gets a monochrome
+             * silhouette; the AccuWeather art is only used for the large icon.
+             */
+            int smallArtResourceId = AccuWeatherIcons.getSilhouetteResourceId(weatherId);
 
             /*
              * NotificationCompat Builder is a very convenient way to build backward-compatible
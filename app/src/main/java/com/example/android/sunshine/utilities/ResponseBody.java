@@ -0,0 +1,105 @@
+/*
+ * Copyright (C) 2016 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.example.android.sunshine.utilities;
+
+import java.io.ByteArrayInputStream;
+import java.io.InputStream;
+import java.nio.charset.Charset;
+
+/**
+ * The raw bytes of an HTTP response body, as read by {@link ResponseBodyReader}.
+ * <p>
+ * The bytes live in a buffer borrowed from a pool. Parsers can read them directly through
+ * {@link #getBytes()} or {@link #openStream()} without building a String first. Once the body is
+ * no longer needed, call {@link #release()} so the buffer can be reused by the next request.
+ */
+public final class ResponseBody {
+
+    /* Every weather server we talk to sends JSON, which is always UTF-8 */
+    static final Charset UTF_8 = Charset.forName("UTF-8");
+
+    private byte[] mBytes;
+    private final int mLength;
+
+    /* Only buffers that were borrowed from the pool are handed back to it */
+    private final boolean mPooled;
+
+    ResponseBody(byte[] bytes, int length) {
+        this(bytes, length, true);
+    }
+
+    private ResponseBody(byte[] bytes, int length, boolean pooled) {
+        mBytes = bytes;
+        mLength = length;
+        mPooled = pooled;
+    }
+
+    /**
+     * Wraps bytes that did not come from the pool, such as a payload that is already in memory.
+     * Releasing such a body simply drops the reference.
+     *
+     * @param bytes The complete body
+     * @return A ResponseBody over the given bytes
+     */
+    public static ResponseBody wrap(byte[] bytes) {
+        return new ResponseBody(bytes, bytes.length, false);
+    }
+
+    /**
+     * The backing array. Only the first {@link #length()} bytes are part of the body; the array
+     * may be larger because it was borrowed from the pool.
+     */
+    public byte[] getBytes() {
+        checkNotReleased();
+        return mBytes;
+    }
+
+    /* The number of valid bytes in the body */
+    public int length() {
+        return mLength;
+    }
+
+    /* Returns a stream over the body without copying it */
+    public InputStream openStream() {
+        checkNotReleased();
+        return new ByteArrayInputStream(mBytes, 0, mLength);
+    }
+
+    /* Decodes the body as UTF-8 */
+    public String string() {
+        checkNotReleased();
+        return new String(mBytes, 0, mLength, UTF_8);
+    }
+
+    /**
+     * Hands the backing buffer back to the pool. The body must not be used afterwards. Calling
+     * this more than once is harmless.
+     */
+    public void release() {
+        if (mBytes != null) {
+            if (mPooled) {
+                ResponseBodyReader.releaseBuffer(mBytes);
+            }
+            mBytes = null;
+        }
+    }
+
+    private void checkNotReleased() {
+        if (mBytes == null) {
+            throw new IllegalStateException("ResponseBody has already been released");
+        }
+    }
+}
@@ -0,0 +1,153 @@
+/*
+ * Copyright (C) 2016 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.example.android.sunshine.utilities;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.util.ArrayList;
+
+/**
+ * Reads HTTP response bodies into reusable byte buffers.
+ * <p>
+ * The previous approach, Scanner with a "\\A" delimiter, ran the regex engine over the whole
+ * response, decoded it with the platform charset and built several intermediate char buffers
+ * and Strings along the way. Here we copy the bytes straight from the socket into a pooled
+ * buffer and leave decoding (always UTF-8) to whoever consumes the body.
+ */
+public final class ResponseBodyReader {
+
+    /* Bodies larger than this are rejected rather than read into memory */
+    public static final int DEFAULT_MAX_BODY_BYTES = 1024 * 1024;
+
+    /* Starting buffer size when the server doesn't tell us the Content-Length */
+    private static final int DEFAULT_BUFFER_BYTES = 16 * 1024;
+
+    /*
+     * A sync makes at most a couple of requests at a time, so a handful of pooled buffers is
+     * enough for every body to be read without allocating a new array.
+     */
+    private static final int MAX_POOLED_BUFFERS = 4;
+
+    private static final ArrayList<byte[]> sBufferPool = new ArrayList<byte[]>(MAX_POOLED_BUFFERS);
+
+    private ResponseBodyReader() {
+    }
+
+    /**
+     * Reads the stream to the end and closes it.
+     *
+     * @param in            The stream to read. May be null, in which case null is returned.
+     * @param contentLength The expected length if the server sent one, -1 otherwise
+     * @param maxBytes      The largest body we're willing to read
+     * @return The body, or null if there was no stream to read. The caller must release it.
+     * @throws IOException If reading fails or the body is larger than maxBytes
+     */
+    public static ResponseBody read(InputStream in, int contentLength, int maxBytes)
+            throws IOException {
+        if (in == null) {
+            return null;
+        }
+
+        if (contentLength > maxBytes) {
+            in.close();
+            throw new IOException("Response body of " + contentLength
+                    + " bytes exceeds the limit of " + maxBytes + " bytes");
+        }
+
+        /*
+         * When the length is known we ask for one extra byte so that the read hitting the end
+         * of the stream doesn't force the buffer to grow.
+         */
+        int initialSize = contentLength >= 0 ? contentLength + 1 : DEFAULT_BUFFER_BYTES;
+        byte[] buffer = acquireBuffer(Math.min(initialSize, maxBytes + 1));
+        int length = 0;
+
+        try {
+            while (true) {
+                if (length == buffer.length) {
+                    if (length > maxBytes) {
+                        throw new IOException("Response body exceeds the limit of "
+                                + maxBytes + " bytes");
+                    }
+                    byte[] larger = acquireBuffer(Math.min(buffer.length * 2, maxBytes + 1));
+                    System.arraycopy(buffer, 0, larger, 0, length);
+                    releaseBuffer(buffer);
+                    buffer = larger;
+                }
+
+                int read = in.read(buffer, length, buffer.length - length);
+                if (read == -1) {
+                    break;
+                }
+                length += read;
+            }
+
+            if (length > maxBytes) {
+                throw new IOException("Response body exceeds the limit of " + maxBytes + " bytes");
+            }
+        } catch (IOException e) {
+            releaseBuffer(buffer);
+            throw e;
+        } finally {
+            in.close();
+        }
+
+        return new ResponseBody(buffer, length);
+    }
+
+    /**
+     * Returns the smallest pooled buffer that can hold minSize bytes, or a new one if none fits.
+     */
+    static byte[] acquireBuffer(int minSize) {
+        synchronized (sBufferPool) {
+            int bestIndex = -1;
+            for (int i = 0; i < sBufferPool.size(); i++) {
+                int size = sBufferPool.get(i).length;
+                if (size >= minSize
+                        && (bestIndex == -1 || size < sBufferPool.get(bestIndex).length)) {
+                    bestIndex = i;
+                }
+            }
+            if (bestIndex != -1) {
+                return sBufferPool.remove(bestIndex);
+            }
+        }
+        return new byte[Math.max(minSize, DEFAULT_BUFFER_BYTES)];
+    }
+
+    /**
+     * Returns a buffer to the pool. If the pool is full, the smallest buffer is dropped so that
+     * the pool converges on sizes that fit our typical responses.
+     */
+    static void releaseBuffer(byte[] buffer) {
+        synchronized (sBufferPool) {
+            if (sBufferPool.size() < MAX_POOLED_BUFFERS) {
+                sBufferPool.add(buffer);
+                return;
+            }
+
+            int smallestIndex = 0;
+            for (int i = 1; i < sBufferPool.size(); i++) {
+                if (sBufferPool.get(i).length < sBufferPool.get(smallestIndex).length) {
+                    smallestIndex = i;
+                }
+            }
+            if (sBufferPool.get(smallestIndex).length < buffer.length) {
+                sBufferPool.set(smallestIndex, buffer);
+            }
+        }
+    }
+}
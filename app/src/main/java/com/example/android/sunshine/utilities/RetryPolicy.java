@@ -0,0 +1,73 @@
+/*
+ * Copyright (C) 2016 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.example.android.sunshine.utilities;
+
+import java.util.Random;
+
+/**
+ * How often, and after how long, a failed request is retried.
+ * <p>
+ * The wait before each retry grows exponentially, and is then spread at random over the whole
+ * range from zero to that value ("full jitter"). Without the jitter, every device that failed
+ * at the same moment, say because the server restarted, would retry at the same moment too.
+ */
+public final class RetryPolicy {
+
+    private final int mMaxAttempts;
+    private final long mBaseDelayMillis;
+    private final long mMaxDelayMillis;
+    private final Random mRandom;
+
+    /**
+     * @param maxAttempts     The most times a request is made, including the first
+     * @param baseDelayMillis The longest wait before the first retry
+     * @param maxDelayMillis  The longest wait before any retry
+     * @param random          Where the jitter comes from
+     */
+    public RetryPolicy(int maxAttempts, long baseDelayMillis, long maxDelayMillis, Random random) {
+        mMaxAttempts = maxAttempts;
+        mBaseDelayMillis = baseDelayMillis;
+        mMaxDelayMillis = maxDelayMillis;
+        mRandom = random;
+    }
+
+    /* The most times a request is made, including the first */
+    public int getMaxAttempts() {
+        return mMaxAttempts;
+    }
+
+    /**
+     * @param attempt The attempt that just failed, starting at 1
+     * @return Whether another attempt should be made after this error
+     */
+    public boolean shouldRetry(int attempt, WeatherApiException error) {
+        return attempt < mMaxAttempts && error.isRetryable();
+    }
+
+    /**
+     * @param attempt The attempt that just failed, starting at 1
+     * @return How long to wait before the next attempt
+     */
+    public long getDelayMillis(int attempt) {
+        long ceiling = mBaseDelayMillis;
+        for (int i = 1; i < attempt && ceiling < mMaxDelayMillis; i++) {
+            ceiling *= 2;
+        }
+        ceiling = Math.min(ceiling, mMaxDelayMillis);
+
+        return (long) (mRandom.nextDouble() * (ceiling + 1));
+    }
+}
@@ -159,26 +159,6 @@ public final class SunshineDateUtils {
         return isDateNormalized;
     }
 
-    /**
-     * This method will return the local time midnight for the provided normalized UTC date.
-     *
-     * @param normalizedUtcDate UTC time at midnight for a given date. This number comes from the
-     *                          database
-     *
-     * @return The local date corresponding to the given normalized UTC date
-     */
-    private static long getLocalMidnightFromNormalizedUtcDate(long normalizedUtcDate) {
-        /* The timeZone object will provide us the current user's time zone offset */
-        TimeZone timeZone = TimeZone.getDefault();
-        /*
-         * This offset, in milliseconds, when added to a UTC date time, will produce the local
-         * time.
-         */
-        long gmtOffset = timeZone.getOffset(normalizedUtcDate);
-        long localMidnightMillis = normalizedUtcDate - gmtOffset;
-        return localMidnightMillis;
-    }
-
     /**
      * Helper method to convert the database representation of the date into something to display
      * to users. As classy and polished a user experience as "1474061664" is, we can do better.
@@ -188,6 +168,9 @@ public final class SunshineDateUtils {
      * For tomorrow:  "Tomorrow
      * For the next 5 days: "Wednesday" (just the day name)
      * For all days after that: "Mon, Jun 8" (Mon, 8 Jun in UK, for example)
+     * <p/>
+     * Every forecast row asks for its date again whenever the forecast is reloaded, so the
+     * Strings are cached until the day, locale or time zone changes. See {@link FriendlyDateCache}.
      *
      * @param context               Context to use for resource localization
      * @param normalizedUtcMidnight The date in milliseconds (UTC midnight)
@@ -199,38 +182,49 @@ public final class SunshineDateUtils {
      * or "Friday"
      */
     public static String getFriendlyDateString(Context context, long normalizedUtcMidnight, boolean showFullDate) {
+        return FriendlyDateCache.getInstance(context)
+                .getFriendlyDateString(context, normalizedUtcMidnight, showFullDate);
+    }
+
+    /**
+     * Formats a date as {@link #getFriendlyDateString} describes, without caching it.
+     *
+     * @param context               Context to use for resource localization
+     * @param normalizedUtcMidnight The date in milliseconds (UTC midnight)
+     * @param normalizedUtcToday    Today's date in the local time zone, normalized the same way
+     * @param gmtOffset             The local time zone's offset at normalizedUtcMidnight
+     * @param dayFormat             An "EEEE" format for the current locale and time zone
+     * @param showFullDate          Whether to show a fuller-version of the date
+     *
+     * @return A user-friendly representation of the date
+     */
+    static String formatFriendlyDate(Context context, long normalizedUtcMidnight,
+            long normalizedUtcToday, long gmtOffset, SimpleDateFormat dayFormat,
+            boolean showFullDate) {
 
         /*
-         * NOTE: localDate should be localDateMidnightMillis and should be straight from the
-         * database
-         *
          * Since we normalized the date when we inserted it into the database, we need to take
          * that normalized date and produce a date (in UTC time) that represents the local time
-         * zone at midnight.
+         * zone at midnight. This offset, in milliseconds, when added to a UTC date time, will
+         * produce the local time.
          */
-        long localDate = getLocalMidnightFromNormalizedUtcDate(normalizedUtcMidnight);
+        long localDate = normalizedUtcMidnight - gmtOffset;
 
         /*
-         * In order to determine which day of the week we are creating a date string for, we need
-         * to compare the number of days that have passed since the epoch (January 1, 1970 at
-         * 00:00 GMT)
+         * Both dates are normalized, so their difference in days says which day of the week,
+         * relative to today, we are creating a date string for.
          */
-        long daysFromEpochToProvidedDate = elapsedDaysSinceEpoch(localDate);
+        int daysAfterToday = (int) (elapsedDaysSinceEpoch(normalizedUtcMidnight)
+                - elapsedDaysSinceEpoch(normalizedUtcToday));
 
-        /*
-         * As a basis for comparison, we use the number of days that have passed from the epoch
-         * until today.
-         */
-        long daysFromEpochToToday = elapsedDaysSinceEpoch(System.currentTimeMillis());
-
-        if (daysFromEpochToProvidedDate == daysFromEpochToToday || showFullDate) {
+        if (daysAfterToday == 0 || showFullDate) {
             /*
              * If the date we're building the String for is today's date, the format
              * is "Today, June 24"
              */
-            String dayName = getDayName(context, localDate);
+            String dayName = getDayName(context, daysAfterToday, localDate, dayFormat);
             String readableDate = getReadableDateString(context, localDate);
-            if (daysFromEpochToProvidedDate - daysFromEpochToToday < 2) {
+            if (daysAfterToday < 2) {
                 /*
                  * Since there is no localized format that returns "Today" or "Tomorrow" in the API
                  * levels we have to support, we take the name of the day (from SimpleDateFormat)
@@ -241,14 +235,14 @@ public final class SunshineDateUtils {
                  * documentation on DateFormat#getBestDateTimePattern(Locale, String)
                  * https://developer.android.com/reference/android/text/format/DateFormat.html#getBestDateTimePattern
                  */
-                String localizedDayName = new SimpleDateFormat("EEEE").format(localDate);
+                String localizedDayName = dayFormat.format(localDate);
                 return readableDate.replace(localizedDayName, dayName);
             } else {
                 return readableDate;
             }
-        } else if (daysFromEpochToProvidedDate < daysFromEpochToToday + 7) {
+        } else if (daysAfterToday < 7) {
             /* If the input date is less than a week in the future, just return the day name. */
-            return getDayName(context, localDate);
+            return getDayName(context, daysAfterToday, localDate, dayFormat);
         } else {
             int flags = DateUtils.FORMAT_SHOW_DATE
                     | DateUtils.FORMAT_NO_YEAR
@@ -280,21 +274,19 @@ public final class SunshineDateUtils {
      * Given a day, returns just the name to use for that day.
      *   E.g "today", "tomorrow", "Wednesday".
      *
-     * @param context      Context to use for resource localization
-     * @param dateInMillis The date in milliseconds (UTC time)
+     * @param context        Context to use for resource localization
+     * @param daysAfterToday How many days after today the date is
+     * @param localDate      Local midnight of the date, in milliseconds (UTC time)
+     * @param dayFormat      An "EEEE" format for the current locale and time zone
      *
      * @return the string day of the week
      */
-    private static String getDayName(Context context, long dateInMillis) {
+    private static String getDayName(Context context, int daysAfterToday, long localDate,
+            SimpleDateFormat dayFormat) {
         /*
          * If the date is today, return the localized version of "Today" instead of the actual
          * day name.
          */
-        long daysFromEpochToProvidedDate = elapsedDaysSinceEpoch(dateInMillis);
-        long daysFromEpochToToday = elapsedDaysSinceEpoch(System.currentTimeMillis());
-
-        int daysAfterToday = (int) (daysFromEpochToProvidedDate - daysFromEpochToToday);
-
         switch (daysAfterToday) {
             case 0:
                 return context.getString(R.string.today);
@@ -302,8 +294,7 @@ public final class SunshineDateUtils {
                 return context.getString(R.string.tomorrow);
 
             default:
-                SimpleDateFormat dayFormat = new SimpleDateFormat("EEEE");
-                return dayFormat.format(dateInMillis);
+                return dayFormat.format(localDate);
         }
     }
-}
\ No newline at end of file
+}
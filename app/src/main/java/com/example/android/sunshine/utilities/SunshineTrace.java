@@ -0,0 +1,111 @@
+/*
+ * Copyright (C) 2016 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.example.android.sunshine.utilities;
+
+import android.annotation.TargetApi;
+import android.os.Build;
+import android.os.Trace;
+
+import com.example.android.sunshine.BuildConfig;
+
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * Debug logging and systrace sections for Sunshine's hot paths, both of which a release build
+ * compiles out.
+ * <p>
+ * Both switches are constants set per build type in app/build.gradle, so javac drops any code
+ * they guard. For that reason, verbose logging goes inside a check of {@link #VERBOSE}, which
+ * keeps the message's concatenation out of release builds along with the call:
+ * <pre>
+ *     if (SunshineTrace.VERBOSE) {
+ *         Log.v(TAG, "Forecast URL: " + url);
+ *     }
+ * </pre>
+ * Sections show up in systrace under the names below, on API 18 and up. Paths that run once per
+ * sync can call {@link #beginSection(String)} and {@link #endSection()} as they are. A path that
+ * runs for every row, like binding, samples with {@link #beginSampledSection(String)} behind a
+ * check of {@link #TRACING}, so that a release build doesn't even make the call.
+ */
+public final class SunshineTrace {
+
+    /* Section names, as shown in systrace */
+    public static final String SECTION_FETCH = "Sunshine fetch";
+    public static final String SECTION_PARSE = "Sunshine parse";
+    public static final String SECTION_PERSIST = "Sunshine persist";
+    public static final String SECTION_QUERY = "Sunshine query";
+    public static final String SECTION_BIND = "Sunshine bind";
+
+    /** Whether Log.v calls are compiled in */
+    public static final boolean VERBOSE = BuildConfig.VERBOSE_LOGGING;
+
+    /** Whether trace sections are compiled in */
+    public static final boolean TRACING = BuildConfig.TRACE_SAMPLE_INTERVAL > 0;
+
+    /* Every sampled section after this many calls is traced */
+    private static final int SAMPLE_INTERVAL = Math.max(1, BuildConfig.TRACE_SAMPLE_INTERVAL);
+
+    private static final AtomicInteger sSampledCalls = new AtomicInteger();
+
+    private SunshineTrace() {
+    }
+
+    /**
+     * Begins a section on the calling thread. Must be followed by {@link #endSection()} on the
+     * same thread, usually in a finally block.
+     *
+     * @param name One of the SECTION_ names
+     */
+    public static void beginSection(String name) {
+        if (TRACING && Build.VERSION.SDK_INT >= Build.VERSION_CODES.JELLY_BEAN_MR2) {
+            beginTraceSection(name);
+        }
+    }
+
+    /**
+     * Ends the calling thread's innermost section.
+     */
+    public static void endSection() {
+        if (TRACING && Build.VERSION.SDK_INT >= Build.VERSION_CODES.JELLY_BEAN_MR2) {
+            endTraceSection();
+        }
+    }
+
+    /**
+     * Begins a section for one in every TRACE_SAMPLE_INTERVAL calls. Only if it returns true
+     * must the caller end the section.
+     *
+     * @param name One of the SECTION_ names
+     * @return Whether a section was begun
+     */
+    public static boolean beginSampledSection(String name) {
+        if (!TRACING || sSampledCalls.getAndIncrement() % SAMPLE_INTERVAL != 0) {
+            return false;
+        }
+        beginSection(name);
+        return true;
+    }
+
+    @TargetApi(Build.VERSION_CODES.JELLY_BEAN_MR2)
+    private static void beginTraceSection(String name) {
+        Trace.beginSection(name);
+    }
+
+    @TargetApi(Build.VERSION_CODES.JELLY_BEAN_MR2)
+    private static void endTraceSection() {
+        Trace.endSection();
+    }
+}
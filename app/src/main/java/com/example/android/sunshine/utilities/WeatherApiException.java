@@ -0,0 +1,151 @@
+/*
+ * Copyright (C) 2016 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.example.android.sunshine.utilities;
+
+import java.io.IOException;
+import java.net.HttpURLConnection;
+import java.net.URL;
+
+/**
+ * A failed request to a weather API, classified by what went wrong. The kind of error decides
+ * what happens next: whether the request is retried, whether it counts against the endpoint's
+ * {@link CircuitBreaker}, and whether the sync is rescheduled.
+ */
+public class WeatherApiException extends IOException {
+
+    /* The request never got an answer: no connection, a timeout, a dropped connection */
+    public static final int ERROR_NETWORK = 1;
+    /* The server failed to answer the request (5xx) */
+    public static final int ERROR_SERVER = 2;
+    /* The API key has used up its requests for the day */
+    public static final int ERROR_QUOTA_EXCEEDED = 3;
+    /* The API key was rejected (401 or 403) */
+    public static final int ERROR_UNAUTHORIZED = 4;
+    /* The location, or the location Key, doesn't exist (404) */
+    public static final int ERROR_LOCATION_NOT_FOUND = 5;
+    /* Any other 4xx: the request itself is wrong, so repeating it won't help */
+    public static final int ERROR_BAD_REQUEST = 6;
+    /* The request wasn't made, because the endpoint's circuit breaker is open */
+    public static final int ERROR_CIRCUIT_OPEN = 7;
+
+    /* HTTP 429 Too Many Requests, which HttpURLConnection has no constant for */
+    private static final int HTTP_TOO_MANY_REQUESTS = 429;
+
+    /* AccuWeather answers a used-up quota with a 503 and this Code and Message */
+    private static final String AW_CODE_SERVICE_UNAVAILABLE = "ServiceUnavailable";
+    private static final String AW_MESSAGE_QUOTA = "allowed number of requests";
+
+    private final int mKind;
+    private final int mHttpCode;
+
+    public WeatherApiException(int kind, int httpCode, String message, Throwable cause) {
+        super(message);
+        mKind = kind;
+        mHttpCode = httpCode;
+        if (cause != null) {
+            /* IOException(String, Throwable) is API 9, but initCause works everywhere */
+            initCause(cause);
+        }
+    }
+
+    /**
+     * Classifies an unsuccessful response by its status code and, if there is one, the error
+     * AccuWeather sent in the body. Does not release the body.
+     *
+     * @param url      The URL that was requested
+     * @param response The response, which was neither a 2xx nor a 304
+     * @return The classified error
+     */
+    public static WeatherApiException fromResponse(URL url, WeatherHttpClient.Response response) {
+        int code = response.getCode();
+        String[] error = AccuWeatherJsonUtils.getErrorFromJson(response.getBody());
+
+        StringBuilder message = new StringBuilder()
+                .append("Unexpected HTTP response ").append(code)
+                .append(" from ").append(url.getHost()).append(url.getPath());
+        if (error != null) {
+            message.append(" (").append(error[0]).append(": ").append(error[1]).append(')');
+        }
+
+        return new WeatherApiException(classify(code, error), code, message.toString(), null);
+    }
+
+    /**
+     * Wraps an IOException thrown while making the request, such as a refused connection or a
+     * read timeout.
+     *
+     * @param url   The URL that was requested
+     * @param cause What went wrong
+     * @return The classified error
+     */
+    public static WeatherApiException fromNetworkError(URL url, IOException cause) {
+        if (cause instanceof WeatherApiException) {
+            return (WeatherApiException) cause;
+        }
+        return new WeatherApiException(ERROR_NETWORK, 0,
+                "Request to " + url.getHost() + url.getPath() + " failed: " + cause, cause);
+    }
+
+    private static int classify(int code, String[] error) {
+        if (code == HTTP_TOO_MANY_REQUESTS) {
+            return ERROR_QUOTA_EXCEEDED;
+        }
+        if (code == HttpURLConnection.HTTP_UNAVAILABLE && error != null
+                && AW_CODE_SERVICE_UNAVAILABLE.equals(error[0])
+                && error[1] != null && error[1].contains(AW_MESSAGE_QUOTA)) {
+            return ERROR_QUOTA_EXCEEDED;
+        }
+        if (code == HttpURLConnection.HTTP_UNAUTHORIZED
+                || code == HttpURLConnection.HTTP_FORBIDDEN) {
+            return ERROR_UNAUTHORIZED;
+        }
+        if (code == HttpURLConnection.HTTP_NOT_FOUND) {
+            return ERROR_LOCATION_NOT_FOUND;
+        }
+        if (code >= 500) {
+            return ERROR_SERVER;
+        }
+        return ERROR_BAD_REQUEST;
+    }
+
+    /* One of the ERROR_ constants */
+    public int getKind() {
+        return mKind;
+    }
+
+    /* The HTTP status code, or 0 if the server never answered */
+    public int getHttpCode() {
+        return mHttpCode;
+    }
+
+    /**
+     * Whether the same request is worth repeating in a few seconds. Only network and server
+     * errors are: a used-up quota lasts until the next day, and the others won't change at all.
+     */
+    public boolean isRetryable() {
+        return mKind == ERROR_NETWORK || mKind == ERROR_SERVER;
+    }
+
+    /**
+     * Whether the error says something about the health of the endpoint, and so counts towards
+     * opening its circuit breaker. A location that doesn't exist is a problem with the request,
+     * not the endpoint.
+     */
+    public boolean isEndpointFailure() {
+        return mKind == ERROR_NETWORK || mKind == ERROR_SERVER
+                || mKind == ERROR_QUOTA_EXCEEDED || mKind == ERROR_UNAUTHORIZED;
+    }
+}
@@ -0,0 +1,307 @@
+/*
+ * Copyright (C) 2016 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.example.android.sunshine.utilities;
+
+import android.util.Log;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.net.HttpURLConnection;
+import java.net.InetAddress;
+import java.net.URL;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * The single HTTP client that Sunshine uses to talk to the weather servers.
+ * <p>
+ * HttpURLConnection already keeps a pool of keep-alive sockets, but only if the caller reads the
+ * response to the end, closes the stream and does NOT call disconnect(). Every request made
+ * through this class follows those rules, so back-to-back requests to the same host (such as the
+ * AccuWeather location search followed by the forecast request) reuse one TCP/TLS connection
+ * instead of paying for a new handshake each time.
+ */
+public final class WeatherHttpClient {
+
+    private static final String TAG = WeatherHttpClient.class.getSimpleName();
+
+    /*
+     * The maximum number of idle keep-alive connections the platform will hold on to. We only
+     * ever talk to one or two hosts, so a small bound is plenty and keeps idle sockets cheap.
+     */
+    private static final int MAX_IDLE_CONNECTIONS = 4;
+
+    /* How long to wait for the TCP (and TLS) connection to be established */
+    private static final int CONNECT_TIMEOUT_MILLIS = (int) TimeUnit.SECONDS.toMillis(15);
+
+    /* How long to wait between bytes once the connection has been established */
+    private static final int READ_TIMEOUT_MILLIS = (int) TimeUnit.SECONDS.toMillis(20);
+
+    private static WeatherHttpClient sInstance;
+
+    /* Where fresh responses are kept, or null to always use the network */
+    private HttpDiskCache mCache;
+
+    /**
+     * Returns the shared client. Sharing one instance is what lets every caller benefit from the
+     * same pool of keep-alive connections.
+     *
+     * @return The process-wide WeatherHttpClient
+     */
+    public static synchronized WeatherHttpClient getInstance() {
+        if (sInstance == null) {
+            sInstance = new WeatherHttpClient();
+        }
+        return sInstance;
+    }
+
+    private WeatherHttpClient() {
+        /*
+         * These system properties configure the connection pool that backs HttpURLConnection.
+         * They must be set before the first connection is opened to take effect.
+         */
+        System.setProperty("http.keepAlive", "true");
+        System.setProperty("http.maxConnections", Integer.toString(MAX_IDLE_CONNECTIONS));
+    }
+
+    /**
+     * Installs a cache that answers requests for which it holds a fresh response, and stores
+     * new responses for as long as the server allows. Requests bypass it until one is set.
+     *
+     * @param cache The cache to use, or null to always use the network
+     */
+    public synchronized void setCache(HttpDiskCache cache) {
+        mCache = cache;
+    }
+
+    public synchronized HttpDiskCache getCache() {
+        return mCache;
+    }
+
+    /**
+     * Performs a GET request and reads the entire response. The body is read to the end and the
+     * stream closed, which is what hands the connection back to the keep-alive pool.
+     *
+     * @param url The URL to fetch
+     * @return The status code, body and timings of the response
+     * @throws IOException Related to network and stream reading
+     */
+    public Response execute(URL url) throws IOException {
+        return execute(url, null);
+    }
+
+    /**
+     * Performs a conditional GET request. If we have validators stored for this URL they are
+     * sent as If-None-Match and If-Modified-Since, and the server may answer with a bodiless
+     * 304 (see {@link Response#isNotModified()}). The new validators are NOT stored here; call
+     * {@link HttpValidatorStore#save(URL, Response)} once the response has been processed.
+     *
+     * @param url        The URL to fetch
+     * @param validators Where validators for this URL are kept, or null for a plain request
+     * @return The status code, body and timings of the response
+     * @throws IOException Related to network and stream reading
+     */
+    public Response execute(URL url, HttpValidatorStore validators) throws IOException {
+        HttpDiskCache cache = getCache();
+        if (cache != null) {
+            Response cachedResponse = cache.get(url);
+            if (cachedResponse != null) {
+                if (SunshineTrace.VERBOSE) {
+                    Log.v(TAG, url.getHost() + url.getPath() + " from cache "
+                            + cachedResponse.getTiming());
+                }
+                return cachedResponse;
+            }
+        }
+
+        Timing timing = new Timing();
+
+        /*
+         * Resolving the host ourselves lets us time DNS on its own. The result lands in the
+         * platform's address cache, so the connection below doesn't resolve the host again.
+         */
+        long dnsStart = System.nanoTime();
+        InetAddress.getAllByName(url.getHost());
+        timing.dnsMillis = elapsedMillisSince(dnsStart);
+
+        HttpURLConnection urlConnection = (HttpURLConnection) url.openConnection();
+        urlConnection.setConnectTimeout(CONNECT_TIMEOUT_MILLIS);
+        urlConnection.setReadTimeout(READ_TIMEOUT_MILLIS);
+
+        if (validators != null) {
+            String eTag = validators.getETag(url);
+            if (eTag != null) {
+                urlConnection.setRequestProperty("If-None-Match", eTag);
+            }
+            String lastModified = validators.getLastModified(url);
+            if (lastModified != null) {
+                urlConnection.setRequestProperty("If-Modified-Since", lastModified);
+            }
+        }
+
+        boolean reusable = false;
+        try {
+            long connectStart = System.nanoTime();
+            urlConnection.connect();
+            timing.connectMillis = elapsedMillisSince(connectStart);
+
+            long firstByteStart = System.nanoTime();
+            int responseCode = urlConnection.getResponseCode();
+            timing.firstByteMillis = elapsedMillisSince(firstByteStart);
+
+            long bodyStart = System.nanoTime();
+            InputStream in = responseCode < HttpURLConnection.HTTP_BAD_REQUEST
+                    ? urlConnection.getInputStream()
+                    : urlConnection.getErrorStream();
+            ResponseBody body = ResponseBodyReader.read(in,
+                    urlConnection.getContentLength(), ResponseBodyReader.DEFAULT_MAX_BODY_BYTES);
+            timing.bodyMillis = elapsedMillisSince(bodyStart);
+
+            reusable = true;
+            if (SunshineTrace.VERBOSE) {
+                Log.v(TAG, url.getHost() + url.getPath() + " " + responseCode + " " + timing);
+            }
+            Response response = new Response(responseCode, body, timing,
+                    urlConnection.getHeaderField("ETag"),
+                    urlConnection.getHeaderField("Last-Modified"),
+                    false);
+
+            if (cache != null && response.getCode() == HttpURLConnection.HTTP_OK) {
+                cache.put(url, response, HttpDiskCache.getFreshnessLifetime(
+                        urlConnection.getHeaderField("Cache-Control"),
+                        urlConnection.getHeaderField("Expires"),
+                        urlConnection.getHeaderField("Date"),
+                        System.currentTimeMillis()));
+            }
+            return response;
+        } finally {
+            /*
+             * Only tear down the socket if something went wrong. A connection whose response
+             * has been read to the end and closed goes back into the keep-alive pool.
+             */
+            if (!reusable) {
+                urlConnection.disconnect();
+            }
+        }
+    }
+
+    private static long elapsedMillisSince(long startNanos) {
+        return TimeUnit.NANOSECONDS.toMillis(System.nanoTime() - startNanos);
+    }
+
+    /**
+     * The result of a single request made with {@link WeatherHttpClient#execute(URL)}.
+     */
+    public static final class Response {
+
+        private final int mCode;
+        private final ResponseBody mBody;
+        private final Timing mTiming;
+        private final String mETag;
+        private final String mLastModified;
+        private final boolean mFromCache;
+
+        Response(int code, ResponseBody body, Timing timing, String eTag, String lastModified,
+                boolean fromCache) {
+            mCode = code;
+            mBody = body;
+            mTiming = timing;
+            mETag = eTag;
+            mLastModified = lastModified;
+            mFromCache = fromCache;
+        }
+
+        /* The HTTP status code returned by the server */
+        public int getCode() {
+            return mCode;
+        }
+
+        /* True for any 2xx status code */
+        public boolean isSuccessful() {
+            return mCode >= 200 && mCode < 300;
+        }
+
+        /* True if a conditional request found that our copy is still current */
+        public boolean isNotModified() {
+            return mCode == HttpURLConnection.HTTP_NOT_MODIFIED;
+        }
+
+        /*
+         * The response body (or error body for 4xx/5xx), null if the server sent none. The body
+         * holds a pooled buffer, so the caller must release it once it's done with it.
+         */
+        public ResponseBody getBody() {
+            return mBody;
+        }
+
+        public Timing getTiming() {
+            return mTiming;
+        }
+
+        /* True if the response was answered from the HttpDiskCache, without the network */
+        public boolean isFromCache() {
+            return mFromCache;
+        }
+
+        /* The ETag header of the response, null if the server didn't send one */
+        public String getETag() {
+            return mETag;
+        }
+
+        /* The Last-Modified header of the response, null if the server didn't send one */
+        public String getLastModified() {
+            return mLastModified;
+        }
+    }
+
+    /**
+     * How long each phase of a request took, in milliseconds. A connection reused from the
+     * keep-alive pool will report a connect time close to zero.
+     */
+    public static final class Timing {
+
+        long dnsMillis;
+        long connectMillis;
+        long firstByteMillis;
+        long bodyMillis;
+
+        public long getDnsMillis() {
+            return dnsMillis;
+        }
+
+        public long getConnectMillis() {
+            return connectMillis;
+        }
+
+        public long getFirstByteMillis() {
+            return firstByteMillis;
+        }
+
+        public long getBodyMillis() {
+            return bodyMillis;
+        }
+
+        public long getTotalMillis() {
+            return dnsMillis + connectMillis + firstByteMillis + bodyMillis;
+        }
+
+        @Override
+        public String toString() {
+            return "dns=" + dnsMillis + "ms connect=" + connectMillis + "ms firstByte="
+                    + firstByteMillis + "ms body=" + bodyMillis + "ms total="
+                    + getTotalMillis() + "ms";
+        }
+    }
+}
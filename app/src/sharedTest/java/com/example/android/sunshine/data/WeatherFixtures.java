@@ -0,0 +1,57 @@
+/*
+ * Copyright (C) 2016 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.example.android.sunshine.data;
+
+import android.content.ContentValues;
+
+import com.example.android.sunshine.data.WeatherContract.WeatherEntry;
+
+/**
+ * Builds rows of the weather table for tests, in both the JVM and the instrumented tests.
+ * <p>
+ * Unlike the instrumented tests' TestUtilities, which follow the original OpenWeatherMap
+ * columns, these fill in every column an AccuWeather sync writes.
+ */
+public final class WeatherFixtures {
+
+    private WeatherFixtures() {
+    }
+
+    /**
+     * Returns a day's forecast. Rows built with different variants differ in their weather id
+     * and temperatures, so that a merge or an upsert has something to change; the other columns
+     * are the same in every row.
+     *
+     * @param date    The normalized UTC date of the day
+     * @param variant Any number; only its absolute value is used
+     * @return The values of one row of the weather table
+     */
+    public static ContentValues createWeatherValues(long date, int variant) {
+        int n = Math.abs(variant);
+        ContentValues values = new ContentValues();
+        values.put(WeatherEntry.COLUMN_DATE, date);
+        values.put(WeatherEntry.COLUMN_WEATHER_ID, 1 + n % 44);
+        values.put(WeatherEntry.COLUMN_WEATHER_DESC, "Sunny");
+        values.put(WeatherEntry.COLUMN_MIN_TEMP, 10.0 + n % 7);
+        values.put(WeatherEntry.COLUMN_MAX_TEMP, 20.0 + n % 9);
+        values.put(WeatherEntry.COLUMN_WIND_SPEED, 4.5);
+        values.put(WeatherEntry.COLUMN_DEGREES, 315.0);
+        values.put(WeatherEntry.COLUMN_DEGREES_DESC, "NW");
+        values.put(WeatherEntry.COLUMN_PRECIP_PROB, 20.0);
+        values.put(WeatherEntry.COLUMN_PRECIP_HOURS, 0.5);
+        return values;
+    }
+}
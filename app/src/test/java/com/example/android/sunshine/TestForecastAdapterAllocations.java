@@ -0,0 +1,154 @@
+/*
+ * Copyright (C) 2016 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.example.android.sunshine;
+
+import android.content.Context;
+import android.view.View;
+import android.widget.FrameLayout;
+import android.widget.ImageView;
+import android.widget.TextView;
+
+import org.junit.Before;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.robolectric.RobolectricTestRunner;
+import org.robolectric.RuntimeEnvironment;
+import org.robolectric.annotation.Config;
+
+import java.util.ArrayList;
+import java.util.List;
+
+import static junit.framework.Assert.assertEquals;
+import static junit.framework.Assert.assertTrue;
+
+/**
+ * Binds {@link ForecastAdapter} rows many times over and counts the bytes the binding thread
+ * allocates, which should be none: every String a row shows was built by {@link ForecastLoader}.
+ * <p>
+ * The rows' views only record what they are given, so that what is measured is the adapter's
+ * own work rather than TextView's layout. Allocations are counted by the JVM, and only
+ * HotSpot-based JVMs count them, so the test is skipped on any other:
+ * <pre>
+ *     ./gradlew testDebugUnitTest --tests '*TestForecastAdapterAllocations'
+ * </pre>
+ */
+@RunWith(RobolectricTestRunner.class)
+@Config(constants = BuildConfig.class, sdk = 23)
+public class TestForecastAdapterAllocations {
+
+    private static final int DAYS = 14;
+    private static final int BINDS = 10000;
+
+    /* Leaves room for the measurement itself, far less than one allocation per bind */
+    private static final long MAX_ALLOCATED_BYTES = 1024;
+
+    private ForecastAdapter mAdapter;
+    private ForecastAdapter.ForecastAdapterViewHolder mViewHolder;
+    private RecordingTextView mDateView;
+    private RecordingTextView mHighTempView;
+
+    @Before
+    public void setUp() {
+        Context context = RuntimeEnvironment.application;
+        mAdapter = new ForecastAdapter(context, null);
+
+        List<ForecastItem> forecast = new ArrayList<ForecastItem>();
+        for (int day = 0; day < DAYS; day++) {
+            forecast.add(new ForecastItem(day, 1 + day, R.drawable.aw01s, "Day " + day,
+                    "Sunny", "Forecast: Sunny", day + "°", "High: " + day + "°",
+                    -day + "°", "Low: " + -day + "°"));
+        }
+        mAdapter.swapForecast(forecast);
+
+        FrameLayout row = new FrameLayout(context);
+        mDateView = addView(row, new RecordingTextView(context), R.id.date);
+        addView(row, new RecordingTextView(context), R.id.weather_description);
+        mHighTempView = addView(row, new RecordingTextView(context), R.id.high_temperature);
+        addView(row, new RecordingTextView(context), R.id.low_temperature);
+        addView(row, new RecordingImageView(context), R.id.weather_icon);
+        mViewHolder = mAdapter.new ForecastAdapterViewHolder(row);
+    }
+
+    @Test
+    public void testBindAllocatesNothing() {
+        ThreadAllocations.assumeSupported();
+
+        /* Warm up, so that the measured binds don't include class loading */
+        bindAll(DAYS);
+        ThreadAllocations.allocatedBytes();
+
+        long before = ThreadAllocations.allocatedBytes();
+        bindAll(BINDS);
+        long allocated = ThreadAllocations.allocatedBytes() - before;
+
+        System.out.println();
+        System.out.println(BINDS + " binds allocated " + allocated + " bytes");
+        assertTrue("Binding a row should not allocate, but " + BINDS + " binds allocated "
+                + allocated + " bytes", allocated <= MAX_ALLOCATED_BYTES);
+
+        /* The last bind was of day (BINDS - 1) % DAYS */
+        int lastDay = (BINDS - 1) % DAYS;
+        assertEquals("Day " + lastDay, mDateView.mText);
+        assertEquals("High: " + lastDay + "°", mHighTempView.mContentDescription);
+    }
+
+    private void bindAll(int binds) {
+        for (int i = 0; i < binds; i++) {
+            mAdapter.onBindViewHolder(mViewHolder, i % DAYS);
+        }
+    }
+
+    private static <T extends View> T addView(FrameLayout parent, T view, int id) {
+        view.setId(id);
+        parent.addView(view);
+        return view;
+    }
+
+
+    /* A TextView that only records its text and content description */
+    private static class RecordingTextView extends TextView {
+        CharSequence mText;
+        CharSequence mContentDescription;
+
+        RecordingTextView(Context context) {
+            super(context);
+        }
+
+        @Override
+        public void setText(CharSequence text, BufferType type) {
+            mText = text;
+        }
+
+        @Override
+        public void setContentDescription(CharSequence contentDescription) {
+            mContentDescription = contentDescription;
+        }
+    }
+
+    /* An ImageView that only records its resource */
+    private static class RecordingImageView extends ImageView {
+        int mResId;
+
+        RecordingImageView(Context context) {
+            super(context);
+        }
+
+        @Override
+        public void setImageResource(int resId) {
+            mResId = resId;
+        }
+    }
+}
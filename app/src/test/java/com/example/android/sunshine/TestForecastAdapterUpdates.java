@@ -0,0 +1,148 @@
+/*
+ * Copyright (C) 2016 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.example.android.sunshine;
+
+import android.support.v7.widget.RecyclerView;
+
+import org.junit.Before;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.robolectric.RobolectricTestRunner;
+import org.robolectric.RuntimeEnvironment;
+import org.robolectric.annotation.Config;
+
+import java.util.ArrayList;
+import java.util.List;
+
+import static junit.framework.Assert.assertEquals;
+import static junit.framework.Assert.assertTrue;
+
+/**
+ * Feeds {@link ForecastAdapter} forecasts the way {@link ForecastLoader} delivers them, diffed
+ * against the one before, and records which updates the adapter sends its RecyclerView.
+ */
+@RunWith(RobolectricTestRunner.class)
+@Config(constants = BuildConfig.class, sdk = 23)
+public class TestForecastAdapterUpdates {
+
+    private static final long DAY = 86400000L;
+
+    private ForecastAdapter mAdapter;
+    private RecordingObserver mObserver;
+
+    @Before
+    public void setUp() {
+        mAdapter = new ForecastAdapter(RuntimeEnvironment.application, null);
+        mObserver = new RecordingObserver();
+        mAdapter.registerAdapterDataObserver(mObserver);
+    }
+
+    @Test
+    public void testStableIdsAreDates() {
+        List<ForecastItem> forecast = createForecast(0, 5, -1);
+        mAdapter.updateForecast(ForecastLoader.Result.diff(null, forecast));
+
+        assertTrue(mAdapter.hasStableIds());
+        for (int position = 0; position < forecast.size(); position++) {
+            assertEquals(forecast.get(position).date, mAdapter.getItemId(position));
+        }
+    }
+
+    @Test
+    public void testUnchangedForecastRebindsNothing() {
+        List<ForecastItem> forecast = createForecast(0, 5, -1);
+        mAdapter.updateForecast(ForecastLoader.Result.diff(null, forecast));
+        assertEquals("The first load shows every row", 1, mObserver.mDataSetChanges);
+
+        /* The same forecast, built again by a sync that didn't change anything */
+        mObserver.reset();
+        mAdapter.updateForecast(ForecastLoader.Result.diff(forecast, createForecast(0, 5, -1)));
+        assertEquals("[]", mObserver.mEvents.toString());
+        assertEquals(0, mObserver.mDataSetChanges);
+    }
+
+    @Test
+    public void testOnlyChangedRowsAreUpdated() {
+        List<ForecastItem> forecast = createForecast(0, 5, -1);
+        mAdapter.updateForecast(ForecastLoader.Result.diff(null, forecast));
+
+        /* A day later: day 0 has passed, day 2 changed and day 5 is new */
+        mObserver.reset();
+        mAdapter.updateForecast(ForecastLoader.Result.diff(forecast, createForecast(1, 5, 2)));
+
+        /* DiffUtil dispatches from the end of the list, so each position is the old one */
+        assertEquals(0, mObserver.mDataSetChanges);
+        assertEquals("[insert 5+1, change 2+1, remove 0+1]", mObserver.mEvents.toString());
+        assertEquals(5, mAdapter.getItemCount());
+    }
+
+    @Test
+    public void testResultFromAnotherForecastRebindsEverything() {
+        List<ForecastItem> forecast = createForecast(0, 5, -1);
+
+        /* As after the activity is recreated: the adapter is new, the loader's result isn't */
+        mAdapter.updateForecast(ForecastLoader.Result.diff(forecast, createForecast(0, 5, 2)));
+        assertEquals(1, mObserver.mDataSetChanges);
+        assertEquals(5, mAdapter.getItemCount());
+    }
+
+    /* Days firstDay to firstDay + days - 1, with changedDay's high temperature different */
+    private static List<ForecastItem> createForecast(int firstDay, int days, int changedDay) {
+        List<ForecastItem> forecast = new ArrayList<ForecastItem>();
+        for (int day = firstDay; day < firstDay + days; day++) {
+            int high = day == changedDay ? 30 : 20 + day;
+            forecast.add(new ForecastItem(day * DAY, 1, R.drawable.aw01s, "Day " + day,
+                    "Sunny", "Forecast: Sunny", high + "°", "High: " + high + "°",
+                    "10°", "Low: 10°"));
+        }
+        return forecast;
+    }
+
+    private static class RecordingObserver extends RecyclerView.AdapterDataObserver {
+        final List<String> mEvents = new ArrayList<String>();
+        int mDataSetChanges;
+
+        void reset() {
+            mEvents.clear();
+            mDataSetChanges = 0;
+        }
+
+        @Override
+        public void onChanged() {
+            mDataSetChanges++;
+        }
+
+        @Override
+        public void onItemRangeChanged(int positionStart, int itemCount, Object payload) {
+            mEvents.add("change " + positionStart + "+" + itemCount);
+        }
+
+        @Override
+        public void onItemRangeInserted(int positionStart, int itemCount) {
+            mEvents.add("insert " + positionStart + "+" + itemCount);
+        }
+
+        @Override
+        public void onItemRangeRemoved(int positionStart, int itemCount) {
+            mEvents.add("remove " + positionStart + "+" + itemCount);
+        }
+
+        @Override
+        public void onItemRangeMoved(int fromPosition, int toPosition, int itemCount) {
+            mEvents.add("move " + fromPosition + "->" + toPosition);
+        }
+    }
+}
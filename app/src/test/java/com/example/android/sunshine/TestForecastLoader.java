@@ -0,0 +1,164 @@
+/*
+ * Copyright (C) 2016 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.example.android.sunshine;
+
+import android.content.ContentValues;
+import android.content.Context;
+import android.content.Intent;
+import android.support.v4.content.Loader;
+
+import com.example.android.sunshine.data.WeatherContract;
+import com.example.android.sunshine.data.WeatherFixtures;
+import com.example.android.sunshine.data.WeatherProvider;
+import com.example.android.sunshine.utilities.SunshineDateUtils;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.robolectric.Robolectric;
+import org.robolectric.RobolectricTestRunner;
+import org.robolectric.RuntimeEnvironment;
+import org.robolectric.annotation.Config;
+import org.robolectric.shadows.ShadowLooper;
+
+import java.text.SimpleDateFormat;
+import java.util.Locale;
+import java.util.TimeZone;
+
+import static junit.framework.Assert.assertEquals;
+import static junit.framework.Assert.assertNotSame;
+import static junit.framework.Assert.fail;
+
+/**
+ * Checks that {@link ForecastLoader} rebuilds its rows when the locale changes, rather than
+ * handing out day names built under the old one, both when it is restarted and while it runs.
+ */
+@RunWith(RobolectricTestRunner.class)
+@Config(constants = BuildConfig.class, sdk = 23)
+public class TestForecastLoader {
+
+    private static final long DAY = SunshineDateUtils.DAY_IN_MILLIS;
+
+    /* Far enough from today to show a day name rather than "Today" or "Tomorrow" */
+    private static final int DAYS_AFTER_TODAY = 3;
+
+    private static final long TIMEOUT_MILLIS = 10000;
+
+    private final Context mContext = RuntimeEnvironment.application;
+
+    private Locale mDefaultLocale;
+    private ForecastLoader mLoader;
+    private volatile ForecastLoader.Result mDelivered;
+
+    @Before
+    public void setUp() {
+        mDefaultLocale = Locale.getDefault();
+        Locale.setDefault(Locale.US);
+
+        Robolectric.setupContentProvider(WeatherProvider.class,
+                WeatherContract.CONTENT_AUTHORITY);
+        long today = SunshineDateUtils.getNormalizedUtcDateForToday();
+        ContentValues[] forecast = new ContentValues[7];
+        for (int i = 0; i < forecast.length; i++) {
+            forecast[i] = WeatherFixtures.createWeatherValues(today + i * DAY, i);
+        }
+        mContext.getContentResolver().bulkInsert(WeatherContract.WeatherEntry.CONTENT_URI,
+                forecast);
+
+        mLoader = new ForecastLoader(mContext);
+        mLoader.registerListener(0, new Loader.OnLoadCompleteListener<ForecastLoader.Result>() {
+            @Override
+            public void onLoadComplete(Loader<ForecastLoader.Result> loader,
+                    ForecastLoader.Result data) {
+                mDelivered = data;
+            }
+        });
+    }
+
+    @After
+    public void tearDown() {
+        mLoader.reset();
+        Locale.setDefault(mDefaultLocale);
+    }
+
+    @Test
+    public void testRestartAfterLocaleChangeRebuildsRows() {
+        mLoader.startLoading();
+        ForecastLoader.Result english = awaitDeliveryAfter(null);
+        assertEquals(expectedDayName(Locale.US), findDateText(english));
+
+        mLoader.stopLoading();
+        Locale.setDefault(Locale.FRANCE);
+        mDelivered = null;
+        mLoader.startLoading();
+
+        /* The English result must not be handed out again, not even before the reload */
+        ForecastLoader.Result french = awaitDeliveryAfter(null);
+        assertNotSame(english, french);
+        assertEquals(expectedDayName(Locale.FRANCE), findDateText(french));
+    }
+
+    @Test
+    public void testLocaleChangedBroadcastRebuildsRows() {
+        mLoader.startLoading();
+        ForecastLoader.Result english = awaitDeliveryAfter(null);
+
+        Locale.setDefault(Locale.FRANCE);
+        mContext.sendBroadcast(new Intent(Intent.ACTION_LOCALE_CHANGED));
+
+        ForecastLoader.Result french = awaitDeliveryAfter(english);
+        assertEquals(expectedDayName(Locale.FRANCE), findDateText(french));
+    }
+
+    /* Runs the main looper until the loader delivers something other than previous */
+    private ForecastLoader.Result awaitDeliveryAfter(ForecastLoader.Result previous) {
+        long deadline = System.currentTimeMillis() + TIMEOUT_MILLIS;
+        while (System.currentTimeMillis() < deadline) {
+            ShadowLooper.runUiThreadTasksIncludingDelayedTasks();
+            ForecastLoader.Result delivered = mDelivered;
+            if (delivered != null && delivered != previous) {
+                return delivered;
+            }
+            try {
+                Thread.sleep(10);
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+                break;
+            }
+        }
+        fail("The loader never delivered a new result");
+        return null;
+    }
+
+    private static String findDateText(ForecastLoader.Result result) {
+        long date = SunshineDateUtils.getNormalizedUtcDateForToday() + DAYS_AFTER_TODAY * DAY;
+        for (ForecastItem item : result.items) {
+            if (item.date == date) {
+                return item.dateText;
+            }
+        }
+        fail("No row for " + date);
+        return null;
+    }
+
+    /* The name of the day DAYS_AFTER_TODAY from now, as SunshineDateUtils shows it */
+    private static String expectedDayName(Locale locale) {
+        long date = SunshineDateUtils.getNormalizedUtcDateForToday() + DAYS_AFTER_TODAY * DAY;
+        long localDate = date - TimeZone.getDefault().getOffset(date);
+        return new SimpleDateFormat("EEEE", locale).format(localDate);
+    }
+}
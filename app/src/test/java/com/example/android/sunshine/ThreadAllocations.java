@@ -0,0 +1,66 @@
+/*
+ * Copyright (C) 2016 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.example.android.sunshine;
+
+import org.junit.Assume;
+
+import java.lang.management.ManagementFactory;
+import java.lang.management.ThreadMXBean;
+
+/**
+ * Counts the bytes the calling thread allocates, for tests that check a path doesn't allocate.
+ * Only HotSpot-based JVMs count them, through com.sun.management, so such tests call
+ * {@link #assumeSupported()} first and are skipped on any other JVM.
+ */
+public final class ThreadAllocations {
+
+    private ThreadAllocations() {
+    }
+
+    /**
+     * Skips the calling test unless this JVM counts the bytes each thread allocates, turning
+     * the counting on if it is off.
+     */
+    public static void assumeSupported() {
+        com.sun.management.ThreadMXBean threadMXBean = getThreadMXBean();
+        Assume.assumeTrue("This JVM doesn't count the bytes each thread allocates",
+                threadMXBean != null && threadMXBean.isThreadAllocatedMemorySupported());
+        if (!threadMXBean.isThreadAllocatedMemoryEnabled()) {
+            threadMXBean.setThreadAllocatedMemoryEnabled(true);
+        }
+    }
+
+    /**
+     * Returns the bytes the calling thread has allocated so far. Only call this once
+     * {@link #assumeSupported()} has returned.
+     */
+    public static long allocatedBytes() {
+        return getThreadMXBean().getThreadAllocatedBytes(Thread.currentThread().getId());
+    }
+
+    /* The JVM's ThreadMXBean, or null if it isn't HotSpot's */
+    private static com.sun.management.ThreadMXBean getThreadMXBean() {
+        try {
+            ThreadMXBean threadMXBean = ManagementFactory.getThreadMXBean();
+            if (threadMXBean instanceof com.sun.management.ThreadMXBean) {
+                return (com.sun.management.ThreadMXBean) threadMXBean;
+            }
+        } catch (NoClassDefFoundError e) {
+            /* No com.sun.management on this JVM */
+        }
+        return null;
+    }
+}
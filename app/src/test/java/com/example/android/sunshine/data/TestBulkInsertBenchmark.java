@@ -0,0 +1,174 @@
+/*
+ * Copyright (C) 2016 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.example.android.sunshine.data;
+
+import android.content.ContentValues;
+import android.database.DatabaseUtils;
+import android.database.sqlite.SQLiteDatabase;
+
+import com.example.android.sunshine.BuildConfig;
+import com.example.android.sunshine.data.WeatherContract.WeatherEntry;
+import com.example.android.sunshine.utilities.SunshineDateUtils;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.robolectric.RobolectricTestRunner;
+import org.robolectric.RuntimeEnvironment;
+import org.robolectric.annotation.Config;
+
+import java.util.Locale;
+import java.util.concurrent.TimeUnit;
+
+import static junit.framework.Assert.assertEquals;
+
+/**
+ * Compares the rows per second of the weather table's bulk insert before and after
+ * {@link CompiledUpsert}: one SQLiteDatabase.insert per row, against one compiled statement
+ * reused for every row.
+ * <p>
+ * Each size is written twice, once into an empty table (a first sync) and once more over the
+ * same dates (every later sync), where the old loop made SQLite replace every row.
+ * This runs on the JVM's SQLite, so compare the two paths rather than reading the absolute
+ * numbers as a phone's:
+ * <pre>
+ *     ./gradlew testDebugUnitTest --tests '*TestBulkInsertBenchmark'
+ * </pre>
+ */
+@RunWith(RobolectricTestRunner.class)
+@Config(constants = BuildConfig.class, sdk = 23)
+public class TestBulkInsertBenchmark {
+
+    private static final int[] ROW_COUNTS = {10, 1000, 100000};
+
+    private WeatherDbHelper mDbHelper;
+    private SQLiteDatabase mDb;
+
+    @Before
+    public void setUp() {
+        RuntimeEnvironment.application.deleteDatabase(WeatherDbHelper.DATABASE_NAME);
+        mDbHelper = new WeatherDbHelper(RuntimeEnvironment.application);
+        mDb = mDbHelper.getWritableDatabase();
+    }
+
+    @After
+    public void tearDown() {
+        mDbHelper.close();
+    }
+
+    @Test
+    public void testRowsPerSecond() {
+        System.out.println();
+        System.out.println("Weather bulk insert, rows per second");
+        System.out.println(String.format(Locale.US, "  %8s %-8s %12s %12s %8s",
+                "rows", "table", "insert loop", "compiled", "speedup"));
+
+        for (int rowCount : ROW_COUNTS) {
+            ContentValues[] rows = createRows(rowCount);
+
+            /* Warm up both paths, so the first size doesn't pay for class loading */
+            clearTable();
+            insertLoop(createRows(10));
+            clearTable();
+            compiledUpsert(createRows(10));
+
+            clearTable();
+            long loopEmptyNanos = insertLoop(rows);
+            long loopFullNanos = insertLoop(rows);
+            assertEquals(rowCount, countRows());
+
+            clearTable();
+            long compiledEmptyNanos = compiledUpsert(rows);
+            long compiledFullNanos = compiledUpsert(rows);
+            assertEquals(rowCount, countRows());
+
+            printRow(rowCount, "empty", loopEmptyNanos, compiledEmptyNanos);
+            printRow(rowCount, "full", loopFullNanos, compiledFullNanos);
+        }
+    }
+
+    /* The bulk insert as it was: SQLiteDatabase.insert, and ON CONFLICT REPLACE, per row */
+    private long insertLoop(ContentValues[] rows) {
+        long start = System.nanoTime();
+        int rowsInserted = 0;
+        mDb.beginTransaction();
+        try {
+            for (ContentValues row : rows) {
+                if (mDb.insert(WeatherEntry.TABLE_NAME, null, row) != -1) {
+                    rowsInserted++;
+                }
+            }
+            mDb.setTransactionSuccessful();
+        } finally {
+            mDb.endTransaction();
+        }
+        long elapsed = System.nanoTime() - start;
+        assertEquals(rows.length, rowsInserted);
+        return elapsed;
+    }
+
+    /* The bulk insert as WeatherProvider now does it */
+    private long compiledUpsert(ContentValues[] rows) {
+        long start = System.nanoTime();
+        int rowsWritten = 0;
+        mDb.beginTransaction();
+        CompiledUpsert upsert = new CompiledUpsert(mDb, WeatherEntry.TABLE_NAME,
+                WeatherEntry.COLUMN_DATE);
+        try {
+            for (ContentValues row : rows) {
+                if (upsert.upsert(row)) {
+                    rowsWritten++;
+                }
+            }
+            mDb.setTransactionSuccessful();
+        } finally {
+            upsert.close();
+            mDb.endTransaction();
+        }
+        long elapsed = System.nanoTime() - start;
+        assertEquals(rows.length, rowsWritten);
+        return elapsed;
+    }
+
+    private void clearTable() {
+        mDb.delete(WeatherEntry.TABLE_NAME, null, null);
+    }
+
+    private long countRows() {
+        return DatabaseUtils.queryNumEntries(mDb, WeatherEntry.TABLE_NAME);
+    }
+
+    private static ContentValues[] createRows(int rowCount) {
+        ContentValues[] rows = new ContentValues[rowCount];
+        long today = SunshineDateUtils.normalizeDate(System.currentTimeMillis());
+        for (int day = 0; day < rowCount; day++) {
+            rows[day] = WeatherFixtures.createWeatherValues(
+                    today + day * SunshineDateUtils.DAY_IN_MILLIS, day);
+        }
+        return rows;
+    }
+
+    private static void printRow(int rowCount, String table, long loopNanos, long compiledNanos) {
+        System.out.println(String.format(Locale.US, "  %8d %-8s %12.0f %12.0f %7.1fx",
+                rowCount, table, rowsPerSecond(rowCount, loopNanos),
+                rowsPerSecond(rowCount, compiledNanos), (double) loopNanos / compiledNanos));
+    }
+
+    private static double rowsPerSecond(int rowCount, long nanos) {
+        return rowCount * (double) TimeUnit.SECONDS.toNanos(1) / Math.max(1, nanos);
+    }
+}
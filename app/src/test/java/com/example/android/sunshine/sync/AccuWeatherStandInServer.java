@@ -0,0 +1,378 @@
+/*
+ * Copyright (C) 2016 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.example.android.sunshine.sync;
+
+import java.io.BufferedInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.net.InetAddress;
+import java.net.ServerSocket;
+import java.net.Socket;
+import java.net.SocketException;
+import java.nio.charset.Charset;
+import java.util.Collections;
+import java.util.HashSet;
+import java.util.Locale;
+import java.util.Random;
+import java.util.Set;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * A local stand-in for dataservice.accuweather.com, serving the two endpoints Sunshine calls
+ * from recorded responses:
+ * <ul>
+ * <li>locations/v1/search</li>
+ * <li>forecasts/v1/daily/5day/{key}</li>
+ * </ul>
+ * Latency, payload size and the rate of server errors can be set while the server runs, so the
+ * same recorded responses can stand in for a fast Wi-Fi link or a slow, flaky mobile network.
+ * Successful responses can also be made cacheable, as the real service's are.
+ * Point {@link com.example.android.sunshine.utilities.NetworkUtils#setAccuWeatherBaseUrl}
+ * at {@link #getBaseUrl()} to send the app's requests here.
+ */
+public final class AccuWeatherStandInServer {
+
+    private static final Charset US_ASCII = Charset.forName("US-ASCII");
+    private static final Charset UTF_8 = Charset.forName("UTF-8");
+
+    private static final String LOCATION_SEARCH_PATH = "/locations/v1/search";
+    private static final String FORECAST_PATH_PREFIX = "/forecasts/v1/daily/5day/";
+
+    private static final String LOCATION_FIXTURE = "accuweather/location_search.json";
+    private static final String FORECAST_FIXTURE = "accuweather/forecast_5day.json";
+
+    /* What AccuWeather sends when it is overloaded; not a quota error, so the app retries */
+    private static final String SERVER_ERROR_BODY = "{\"Code\":\"ServiceUnavailable\","
+            + "\"Message\":\"The service is temporarily unavailable.\",\"Reference\":\"%s\"}";
+
+    /* What AccuWeather sends for a path it doesn't know, such as a retired location Key */
+    private static final String NOT_FOUND_BODY = "{\"Code\":\"ResourceNotFound\","
+            + "\"Message\":\"The requested resource was not found.\",\"Reference\":\"%s\"}";
+
+    private final byte[] mLocationBody;
+    private final byte[] mForecastBody;
+    private volatile byte[] mPaddedForecastBody;
+
+    private final ServerSocket mServerSocket;
+    private final ExecutorService mExecutor = Executors.newCachedThreadPool();
+    private final Set<Socket> mOpenSockets = Collections.synchronizedSet(new HashSet<Socket>());
+
+    private final Random mRandom = new Random(42);
+    private volatile long mMinLatencyMillis;
+    private volatile long mMaxLatencyMillis;
+    private volatile double mErrorRate;
+    private volatile int mMaxAgeSeconds;
+    private volatile String mRetiredLocationKey;
+
+    private final AtomicInteger mRequestCount = new AtomicInteger();
+    private final AtomicInteger mErrorCount = new AtomicInteger();
+
+    /**
+     * @param locationBody The location search response to serve
+     * @param forecastBody The daily forecast response to serve
+     * @throws IOException If no local port could be bound
+     */
+    public AccuWeatherStandInServer(byte[] locationBody, byte[] forecastBody) throws IOException {
+        mLocationBody = locationBody;
+        mForecastBody = forecastBody;
+        mPaddedForecastBody = forecastBody;
+        mServerSocket = new ServerSocket(0, 50, InetAddress.getByName("127.0.0.1"));
+    }
+
+    /**
+     * Creates a stand-in serving the responses recorded in the accuweather fixtures.
+     *
+     * @return The server, not yet started
+     * @throws IOException If the fixtures couldn't be read, or no local port could be bound
+     */
+    public static AccuWeatherStandInServer fromFixtures() throws IOException {
+        return new AccuWeatherStandInServer(readResource(LOCATION_FIXTURE),
+                readResource(FORECAST_FIXTURE));
+    }
+
+    /* Starts accepting connections on a background thread */
+    public void start() {
+        mExecutor.execute(new Runnable() {
+            @Override
+            public void run() {
+                acceptConnections();
+            }
+        });
+    }
+
+    /* Stops the server and closes every connection */
+    public void shutdown() throws IOException {
+        mServerSocket.close();
+        synchronized (mOpenSockets) {
+            for (Socket socket : mOpenSockets) {
+                closeQuietly(socket);
+            }
+        }
+        mExecutor.shutdownNow();
+    }
+
+    /* The base URL to hand to NetworkUtils.setAccuWeatherBaseUrl, ending in a slash */
+    public String getBaseUrl() {
+        return "http://127.0.0.1:" + mServerSocket.getLocalPort() + "/";
+    }
+
+    /**
+     * Delays every response by a random time in the given range, to stand in for the round trip
+     * and server time of a real network.
+     */
+    public void setLatency(long minMillis, long maxMillis) {
+        mMinLatencyMillis = minMillis;
+        mMaxLatencyMillis = maxMillis;
+    }
+
+    /* Answers this fraction of requests, from 0 to 1, with a 503 */
+    public void setErrorRate(double errorRate) {
+        mErrorRate = errorRate;
+    }
+
+    /**
+     * Grows the forecast response by this many bytes, in a field the app skips over, to see
+     * how the sync copes with bigger payloads than the recorded one.
+     */
+    public void setForecastPaddingBytes(int paddingBytes) {
+        if (paddingBytes <= 0) {
+            mPaddedForecastBody = mForecastBody;
+            return;
+        }
+
+        /* {"Padding":"xxx...", followed by the rest of the recorded forecast */
+        String prefix = "{\"Padding\":\"";
+        String suffix = "\",";
+        int start = indexOf(mForecastBody, (byte) '{') + 1;
+        ByteArrayOutputStream padded = new ByteArrayOutputStream(
+                mForecastBody.length + paddingBytes + prefix.length() + suffix.length());
+        padded.write(prefix.getBytes(US_ASCII), 0, prefix.length());
+        for (int i = 0; i < paddingBytes; i++) {
+            padded.write('x');
+        }
+        padded.write(suffix.getBytes(US_ASCII), 0, suffix.length());
+        padded.write(mForecastBody, start, mForecastBody.length - start);
+        mPaddedForecastBody = padded.toByteArray();
+    }
+
+    /**
+     * Lets clients cache every successful response for this many seconds, with a Cache-Control
+     * max-age header. 0, the default, sends no Cache-Control header.
+     */
+    public void setMaxAgeSeconds(int maxAgeSeconds) {
+        mMaxAgeSeconds = maxAgeSeconds;
+    }
+
+    /**
+     * Answers forecast requests for this location Key with a 404, as AccuWeather does once it
+     * has reassigned a location. null, the default, serves every Key's forecast.
+     */
+    public void setRetiredLocationKey(String locationKey) {
+        mRetiredLocationKey = locationKey;
+    }
+
+    /* The number of requests answered so far */
+    public int getRequestCount() {
+        return mRequestCount.get();
+    }
+
+    /* The number of requests answered with an error so far */
+    public int getErrorCount() {
+        return mErrorCount.get();
+    }
+
+    private void acceptConnections() {
+        while (!mServerSocket.isClosed()) {
+            final Socket socket;
+            try {
+                socket = mServerSocket.accept();
+            } catch (IOException e) {
+                /* The server socket was closed by shutdown() */
+                return;
+            }
+            mOpenSockets.add(socket);
+            mExecutor.execute(new Runnable() {
+                @Override
+                public void run() {
+                    try {
+                        serveConnection(socket);
+                    } catch (SocketException e) {
+                        /* The client went away, or the server is shutting down */
+                    } catch (IOException e) {
+                        e.printStackTrace();
+                    } finally {
+                        mOpenSockets.remove(socket);
+                        closeQuietly(socket);
+                    }
+                }
+            });
+        }
+    }
+
+    /* Answers requests on one keep-alive connection until either side closes it */
+    private void serveConnection(Socket socket) throws IOException {
+        InputStream in = new BufferedInputStream(socket.getInputStream());
+        OutputStream out = socket.getOutputStream();
+
+        while (true) {
+            String requestLine = readLine(in);
+            if (requestLine == null || requestLine.length() == 0) {
+                return;
+            }
+
+            boolean keepAlive = true;
+            String header;
+            while ((header = readLine(in)) != null && header.length() > 0) {
+                if (header.toLowerCase(Locale.US).startsWith("connection:")
+                        && header.toLowerCase(Locale.US).contains("close")) {
+                    keepAlive = false;
+                }
+            }
+
+            String[] parts = requestLine.split(" ");
+            String path = parts.length > 1 ? parts[1] : "/";
+            int query = path.indexOf('?');
+            if (query >= 0) {
+                path = path.substring(0, query);
+            }
+
+            sleep(nextLatencyMillis());
+            mRequestCount.incrementAndGet();
+
+            if (nextIsError()) {
+                mErrorCount.incrementAndGet();
+                writeResponse(out, 503, "Service Unavailable",
+                        String.format(Locale.US, SERVER_ERROR_BODY, path).getBytes(UTF_8), 0);
+            } else if (LOCATION_SEARCH_PATH.equals(path)) {
+                writeResponse(out, 200, "OK", mLocationBody, mMaxAgeSeconds);
+            } else if (path.startsWith(FORECAST_PATH_PREFIX)
+                    && !path.substring(FORECAST_PATH_PREFIX.length())
+                            .equals(mRetiredLocationKey)) {
+                writeResponse(out, 200, "OK", mPaddedForecastBody, mMaxAgeSeconds);
+            } else {
+                mErrorCount.incrementAndGet();
+                writeResponse(out, 404, "Not Found",
+                        String.format(Locale.US, NOT_FOUND_BODY, path).getBytes(UTF_8), 0);
+            }
+
+            if (!keepAlive) {
+                return;
+            }
+        }
+    }
+
+    private static void writeResponse(OutputStream out, int code, String reason, byte[] body,
+            int maxAgeSeconds) throws IOException {
+        String headers = "HTTP/1.1 " + code + " " + reason + "\r\n"
+                + "Content-Type: application/json; charset=utf-8\r\n"
+                + "Content-Length: " + body.length + "\r\n"
+                + (maxAgeSeconds > 0 ? "Cache-Control: max-age=" + maxAgeSeconds + "\r\n" : "")
+                + "Connection: keep-alive\r\n"
+                + "\r\n";
+        out.write(headers.getBytes(US_ASCII));
+        out.write(body);
+        out.flush();
+    }
+
+    private long nextLatencyMillis() {
+        long min = mMinLatencyMillis;
+        long max = mMaxLatencyMillis;
+        if (max <= min) {
+            return min;
+        }
+        synchronized (mRandom) {
+            return min + (long) (mRandom.nextDouble() * (max - min));
+        }
+    }
+
+    private boolean nextIsError() {
+        double errorRate = mErrorRate;
+        if (errorRate <= 0) {
+            return false;
+        }
+        synchronized (mRandom) {
+            return mRandom.nextDouble() < errorRate;
+        }
+    }
+
+    /* Reads one CRLF-terminated line of ASCII, or returns null at the end of the stream */
+    private static String readLine(InputStream in) throws IOException {
+        StringBuilder line = new StringBuilder();
+        int c;
+        while ((c = in.read()) != -1) {
+            if (c == '\n') {
+                int length = line.length();
+                if (length > 0 && line.charAt(length - 1) == '\r') {
+                    line.setLength(length - 1);
+                }
+                return line.toString();
+            }
+            line.append((char) c);
+        }
+        return line.length() > 0 ? line.toString() : null;
+    }
+
+    private static void sleep(long millis) {
+        if (millis <= 0) {
+            return;
+        }
+        try {
+            TimeUnit.MILLISECONDS.sleep(millis);
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+    }
+
+    private static int indexOf(byte[] bytes, byte b) {
+        for (int i = 0; i < bytes.length; i++) {
+            if (bytes[i] == b) {
+                return i;
+            }
+        }
+        throw new IllegalArgumentException("The forecast fixture is not a JSON object");
+    }
+
+    private static byte[] readResource(String name) throws IOException {
+        InputStream in = AccuWeatherStandInServer.class.getClassLoader().getResourceAsStream(name);
+        if (in == null) {
+            throw new IOException("Missing test resource " + name);
+        }
+        try {
+            ByteArrayOutputStream out = new ByteArrayOutputStream();
+            byte[] buffer = new byte[8192];
+            int read;
+            while ((read = in.read(buffer)) != -1) {
+                out.write(buffer, 0, read);
+            }
+            return out.toByteArray();
+        } finally {
+            in.close();
+        }
+    }
+
+    private static void closeQuietly(Socket socket) {
+        try {
+            socket.close();
+        } catch (IOException ignored) {
+            /* Nothing more we can do */
+        }
+    }
+}
@@ -0,0 +1,126 @@
+/*
+ * Copyright (C) 2016 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.example.android.sunshine.sync;
+
+import android.content.Context;
+
+import com.example.android.sunshine.BuildConfig;
+import com.example.android.sunshine.data.LocationKeyCache;
+import com.example.android.sunshine.data.WeatherContract;
+import com.example.android.sunshine.data.WeatherProvider;
+import com.example.android.sunshine.utilities.NetworkUtils;
+import com.example.android.sunshine.utilities.WeatherApiException;
+import com.example.android.sunshine.utilities.WeatherHttpClient;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.robolectric.Robolectric;
+import org.robolectric.RobolectricTestRunner;
+import org.robolectric.RuntimeEnvironment;
+import org.robolectric.annotation.Config;
+
+import java.net.URL;
+
+import static junit.framework.Assert.assertEquals;
+import static junit.framework.Assert.assertFalse;
+import static junit.framework.Assert.assertTrue;
+
+/**
+ * Checks how {@link LocationSyncEngine} copes with AccuWeather reassigning a location: a cached
+ * location Key whose forecast starts returning 404 is dropped and looked up again, once. Runs the
+ * real sync against a local {@link AccuWeatherStandInServer}.
+ */
+@RunWith(RobolectricTestRunner.class)
+@Config(constants = BuildConfig.class, sdk = 23)
+public class TestLocationSyncEngine {
+
+    /* The Key the recorded location search returns */
+    private static final String LOCATION_KEY = "329380";
+
+    /* A Key AccuWeather has since given to another location */
+    private static final String RETIRED_LOCATION_KEY = "2627478";
+
+    private Context mContext;
+    private AccuWeatherStandInServer mServer;
+    private LocationKeyCache mLocationKeyCache;
+    private String mLocationQuery;
+
+    @Before
+    public void setUp() throws Exception {
+        mContext = RuntimeEnvironment.application;
+        Robolectric.setupContentProvider(WeatherProvider.class,
+                WeatherContract.CONTENT_AUTHORITY);
+
+        mServer = AccuWeatherStandInServer.fromFixtures();
+        mServer.start();
+        NetworkUtils.setAccuWeatherBaseUrl(mServer.getBaseUrl());
+
+        /* Start from an empty cache in this test's cache dir */
+        WeatherHttpClient.getInstance().setCache(null);
+        NetworkUtils.getHttpClient(mContext);
+
+        /* The breaker outlives each test, so another test's errors mustn't fail this one */
+        NetworkUtils.getCircuitBreaker(mContext, new URL(mServer.getBaseUrl()).getHost())
+                .recordSuccess();
+
+        mLocationKeyCache = new LocationKeyCache(mContext);
+        mLocationQuery = NetworkUtils.getAccuWeatherLocationQuery(mContext);
+    }
+
+    @After
+    public void tearDown() throws Exception {
+        mLocationKeyCache.remove(mLocationQuery);
+        WeatherHttpClient.getInstance().setCache(null);
+        NetworkUtils.setAccuWeatherBaseUrl(null);
+        mServer.shutdown();
+    }
+
+    @Test
+    public void testRetiredCachedKeyIsLookedUpAgain() {
+        mLocationKeyCache.put(mLocationQuery, RETIRED_LOCATION_KEY);
+        mServer.setRetiredLocationKey(RETIRED_LOCATION_KEY);
+
+        SyncResult result = SunshineSyncTask.performSync(mContext);
+
+        assertTrue("The sync should recover from the retired Key: " + result,
+                result.isSuccessful());
+        assertEquals(1, result.getLocationsUpdated());
+        assertEquals("The new Key should replace the retired one",
+                LOCATION_KEY, mLocationKeyCache.get(mLocationQuery));
+
+        /* The 404, the location search and the forecast for the new Key */
+        assertEquals(3, mServer.getRequestCount());
+        assertEquals(1, mServer.getErrorCount());
+    }
+
+    @Test
+    public void testSearchedKeyIsOnlyRetriedOnce() {
+        mLocationKeyCache.put(mLocationQuery, LOCATION_KEY);
+        mServer.setRetiredLocationKey(LOCATION_KEY);
+
+        SyncResult result = SunshineSyncTask.performSync(mContext);
+
+        /* The search hands back the same Key, whose forecast still 404s, so the sync gives up */
+        assertFalse(result.isSuccessful());
+        assertTrue(result.getError() instanceof WeatherApiException);
+        assertEquals(WeatherApiException.ERROR_LOCATION_NOT_FOUND,
+                ((WeatherApiException) result.getError()).getKind());
+        assertEquals(3, mServer.getRequestCount());
+        assertEquals(2, mServer.getErrorCount());
+    }
+}
@@ -0,0 +1,206 @@
+/*
+ * Copyright (C) 2016 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.example.android.sunshine.sync;
+
+import android.content.Context;
+
+import com.example.android.sunshine.BuildConfig;
+import com.example.android.sunshine.data.WeatherContract;
+import com.example.android.sunshine.data.WeatherProvider;
+import com.example.android.sunshine.utilities.NetworkUtils;
+import com.example.android.sunshine.utilities.WeatherHttpClient;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.robolectric.Robolectric;
+import org.robolectric.RobolectricTestRunner;
+import org.robolectric.RuntimeEnvironment;
+import org.robolectric.annotation.Config;
+
+import java.net.URL;
+import java.util.Collections;
+import java.util.IdentityHashMap;
+import java.util.Set;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import static junit.framework.Assert.assertEquals;
+import static junit.framework.Assert.assertFalse;
+import static junit.framework.Assert.assertNotNull;
+import static junit.framework.Assert.assertTrue;
+
+/**
+ * Fires many sync requests at a {@link SyncCoordinator} at once and checks that they are merged
+ * rather than each running a sync of its own. The syncs are the real thing, run against a local
+ * {@link AccuWeatherStandInServer}, so what is counted is the requests that reached the server.
+ */
+@RunWith(RobolectricTestRunner.class)
+@Config(constants = BuildConfig.class, sdk = 23)
+public class TestSyncCoordinator {
+
+    private static final int CALLERS = 32;
+
+    /* Long enough that every caller arrives while the first sync is still running */
+    private static final long LATENCY_MILLIS = 200;
+
+    /* A first sync looks up the location's key, then downloads its forecast */
+    private static final int FIRST_SYNC_REQUESTS = 2;
+
+    private Context mContext;
+    private AccuWeatherStandInServer mServer;
+
+    @Before
+    public void setUp() throws Exception {
+        mContext = RuntimeEnvironment.application;
+        Robolectric.setupContentProvider(WeatherProvider.class,
+                WeatherContract.CONTENT_AUTHORITY);
+
+        /* Responses stay fresh long enough that a follow-up sync is answered from the cache */
+        mServer = AccuWeatherStandInServer.fromFixtures();
+        mServer.setLatency(LATENCY_MILLIS, LATENCY_MILLIS);
+        mServer.setMaxAgeSeconds(60);
+        mServer.start();
+        NetworkUtils.setAccuWeatherBaseUrl(mServer.getBaseUrl());
+
+        /* Start from an empty cache in this test's cache dir */
+        WeatherHttpClient.getInstance().setCache(null);
+        NetworkUtils.getHttpClient(mContext);
+
+        /* The breaker outlives each test, so another test's errors mustn't fail this one */
+        NetworkUtils.getCircuitBreaker(mContext, new URL(mServer.getBaseUrl()).getHost())
+                .recordSuccess();
+    }
+
+    @After
+    public void tearDown() throws Exception {
+        /* Don't leave cached responses behind for other tests */
+        WeatherHttpClient.getInstance().setCache(null);
+        NetworkUtils.setAccuWeatherBaseUrl(null);
+        mServer.shutdown();
+    }
+
+    @Test
+    public void testConcurrentRequestsShareOneNetworkRoundTrip() throws Exception {
+        final CountingSyncRunner runner = new CountingSyncRunner();
+        final SyncCoordinator coordinator = new SyncCoordinator(runner);
+
+        final CountDownLatch start = new CountDownLatch(1);
+        final CountDownLatch done = new CountDownLatch(CALLERS);
+        final SyncResult[] results = new SyncResult[CALLERS];
+
+        for (int i = 0; i < CALLERS; i++) {
+            final int caller = i;
+            new Thread(new Runnable() {
+                @Override
+                public void run() {
+                    try {
+                        start.await();
+                        results[caller] = coordinator.sync(mContext);
+                    } catch (InterruptedException e) {
+                        Thread.currentThread().interrupt();
+                    } finally {
+                        done.countDown();
+                    }
+                }
+            }).start();
+        }
+
+        start.countDown();
+        assertTrue("Callers never returned", done.await(30, TimeUnit.SECONDS));
+
+        assertFalse("Syncs overlapped", runner.mOverlapped);
+        assertTrue("More than one follow-up ran: " + runner.mRuns.get(), runner.mRuns.get() <= 2);
+        assertEquals("Merged syncs went to the network more than once",
+                FIRST_SYNC_REQUESTS, mServer.getRequestCount());
+
+        /* Each caller got the result of the first sync or of the one follow-up */
+        Set<SyncResult> distinctResults =
+                Collections.newSetFromMap(new IdentityHashMap<SyncResult, Boolean>());
+        for (SyncResult result : results) {
+            assertNotNull(result);
+            assertTrue(result.isSuccessful());
+            distinctResults.add(result);
+        }
+        assertEquals(runner.mRuns.get(), distinctResults.size());
+    }
+
+    @Test
+    public void testRequestAfterSyncEndsRunsAgain() {
+        CountingSyncRunner runner = new CountingSyncRunner();
+        SyncCoordinator coordinator = new SyncCoordinator(runner);
+
+        SyncResult first = coordinator.sync(mContext);
+        assertTrue(first.isSuccessful());
+        assertEquals(1, first.getLocationsUpdated());
+        assertEquals(FIRST_SYNC_REQUESTS, mServer.getRequestCount());
+
+        SyncResult second = coordinator.sync(mContext);
+        assertTrue(second.isSuccessful());
+        assertEquals(2, runner.mRuns.get());
+        assertEquals("The second sync is answered without the network",
+                FIRST_SYNC_REQUESTS, mServer.getRequestCount());
+    }
+
+    @Test
+    public void testFailureIsSharedAndCoordinatorRecovers() {
+        final AtomicInteger calls = new AtomicInteger();
+        SyncCoordinator coordinator = new SyncCoordinator(new SyncCoordinator.SyncRunner() {
+            @Override
+            public SyncResult runSync(Context context) {
+                if (calls.getAndIncrement() == 0) {
+                    throw new IllegalStateException("Database closed");
+                }
+                return SunshineSyncTask.performSync(context);
+            }
+        });
+
+        SyncResult failed = coordinator.sync(mContext);
+        assertFalse(failed.isSuccessful());
+        assertTrue(failed.getError() instanceof IllegalStateException);
+        assertEquals("The failed sync never reached the network", 0, mServer.getRequestCount());
+
+        assertTrue("A failed sync must not block later syncs",
+                coordinator.sync(mContext).isSuccessful());
+        assertEquals(FIRST_SYNC_REQUESTS, mServer.getRequestCount());
+    }
+
+    /**
+     * Runs the real sync, as the app's coordinator does, counting the runs and whether two of
+     * them ever overlapped.
+     */
+    private static final class CountingSyncRunner implements SyncCoordinator.SyncRunner {
+
+        final AtomicInteger mRuns = new AtomicInteger();
+        private final AtomicInteger mRunning = new AtomicInteger();
+        volatile boolean mOverlapped;
+
+        @Override
+        public SyncResult runSync(Context context) {
+            if (mRunning.incrementAndGet() > 1) {
+                mOverlapped = true;
+            }
+            mRuns.incrementAndGet();
+            try {
+                return SunshineSyncTask.performSync(context);
+            } finally {
+                mRunning.decrementAndGet();
+            }
+        }
+    }
+}
@@ -0,0 +1,209 @@
+/*
+ * Copyright (C) 2016 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.example.android.sunshine.sync;
+
+import android.content.Context;
+import android.database.Cursor;
+
+import com.example.android.sunshine.BuildConfig;
+import com.example.android.sunshine.data.WeatherContract;
+import com.example.android.sunshine.data.WeatherProvider;
+import com.example.android.sunshine.utilities.NetworkUtils;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.robolectric.Robolectric;
+import org.robolectric.RobolectricTestRunner;
+import org.robolectric.RuntimeEnvironment;
+import org.robolectric.annotation.Config;
+
+import java.io.PrintStream;
+import java.net.URL;
+import java.util.Arrays;
+import java.util.Locale;
+
+import static junit.framework.Assert.assertEquals;
+import static junit.framework.Assert.assertTrue;
+
+/**
+ * Runs the whole sync, from fetching the forecast through parsing and persisting it to
+ * notifying the user, many times against a local {@link AccuWeatherStandInServer}, and reports
+ * the latency percentiles of each phase.
+ * <p>
+ * This runs on the JVM, so the absolute numbers say more about the sync's own overheads than
+ * about a phone; compare runs of the same scenario before and after a change. The number of
+ * runs per scenario defaults to 50:
+ * <pre>
+ *     ./gradlew testDebugUnitTest --tests '*TestSyncLoad' -Dsunshine.loadtest.runs=500
+ * </pre>
+ */
+@RunWith(RobolectricTestRunner.class)
+@Config(constants = BuildConfig.class, sdk = 23)
+public class TestSyncLoad {
+
+    private static final int RUNS = Integer.getInteger("sunshine.loadtest.runs", 50);
+
+    /* The recorded forecast is 5 days */
+    private static final int FORECAST_DAYS = 5;
+
+    private Context mContext;
+    private AccuWeatherStandInServer mServer;
+
+    @Before
+    public void setUp() throws Exception {
+        mContext = RuntimeEnvironment.application;
+        Robolectric.setupContentProvider(WeatherProvider.class,
+                WeatherContract.CONTENT_AUTHORITY);
+
+        mServer = AccuWeatherStandInServer.fromFixtures();
+        mServer.start();
+        NetworkUtils.setAccuWeatherBaseUrl(mServer.getBaseUrl());
+
+        /* The breaker outlives each test, so one scenario's errors mustn't fail the next */
+        NetworkUtils.getCircuitBreaker(mContext, new URL(mServer.getBaseUrl()).getHost())
+                .recordSuccess();
+    }
+
+    @After
+    public void tearDown() throws Exception {
+        NetworkUtils.setAccuWeatherBaseUrl(null);
+        mServer.shutdown();
+    }
+
+    @Test
+    public void testSyncLatencyOnLocalNetwork() {
+        LoadReport report = runSyncs("local, no latency");
+
+        assertEquals(0, report.mFailures);
+        assertForecastStored();
+    }
+
+    @Test
+    public void testSyncLatencyOnMobileNetwork() {
+        mServer.setLatency(50, 250);
+        LoadReport report = runSyncs("mobile, 50-250ms per request");
+
+        assertEquals(0, report.mFailures);
+        assertTrue("The fetch includes the server's latency",
+                report.percentile(report.mFetch, 50) >= 50);
+    }
+
+    @Test
+    public void testSyncLatencyWithLargeForecast() {
+        mServer.setForecastPaddingBytes(256 * 1024);
+        LoadReport report = runSyncs("local, forecast padded by 256KB");
+
+        assertEquals(0, report.mFailures);
+        assertForecastStored();
+    }
+
+    @Test
+    public void testSyncLatencyWithServerErrors() {
+        mServer.setLatency(20, 60);
+        mServer.setErrorRate(0.05);
+        LoadReport report = runSyncs("mobile, 20-60ms per request, 5% 503s");
+
+        /* Each request is tried 3 times, so a sync only fails if all 3 attempts hit a 503 */
+        assertTrue("Too many syncs failed despite retries: " + report.mFailures,
+                report.mFailures <= Math.max(1, RUNS / 20));
+    }
+
+    private LoadReport runSyncs(String scenario) {
+        LoadReport report = new LoadReport(scenario, RUNS);
+        for (int run = 0; run < RUNS; run++) {
+            SyncResult result = SunshineSyncTask.syncWeather(mContext);
+            report.add(run, result);
+        }
+        report.print(System.out, mServer.getRequestCount(), mServer.getErrorCount());
+        return report;
+    }
+
+    private void assertForecastStored() {
+        Cursor cursor = mContext.getContentResolver().query(
+                WeatherContract.WeatherEntry.CONTENT_URI, null, null, null, null);
+        assertTrue(cursor != null);
+        try {
+            assertEquals(FORECAST_DAYS, cursor.getCount());
+        } finally {
+            cursor.close();
+        }
+    }
+
+    /**
+     * The phase timings of every run of one scenario.
+     */
+    private static final class LoadReport {
+
+        private final String mScenario;
+        private final long[] mFetch;
+        private final long[] mParse;
+        private final long[] mPersist;
+        private final long[] mNotify;
+        private final long[] mTotal;
+        private int mFailures;
+
+        LoadReport(String scenario, int runs) {
+            mScenario = scenario;
+            mFetch = new long[runs];
+            mParse = new long[runs];
+            mPersist = new long[runs];
+            mNotify = new long[runs];
+            mTotal = new long[runs];
+        }
+
+        void add(int run, SyncResult result) {
+            SyncResult.Timing timing = result.getTiming();
+            mFetch[run] = timing.getFetchMillis();
+            mParse[run] = timing.getParseMillis();
+            mPersist[run] = timing.getPersistMillis();
+            mNotify[run] = timing.getNotifyMillis();
+            mTotal[run] = timing.getTotalMillis();
+            if (!result.isSuccessful()) {
+                mFailures++;
+            }
+        }
+
+        /* The nearest-rank percentile, so p99 of 50 runs is the slowest run */
+        long percentile(long[] values, int percentile) {
+            long[] sorted = Arrays.copyOf(values, values.length);
+            Arrays.sort(sorted);
+            int rank = (int) Math.ceil(percentile / 100.0 * sorted.length);
+            return sorted[Math.max(0, rank - 1)];
+        }
+
+        void print(PrintStream out, int requests, int errors) {
+            out.println();
+            out.println(String.format(Locale.US, "Sync load: %s (%d runs, %d requests, "
+                    + "%d 503s, %d failed syncs)", mScenario, mTotal.length, requests, errors,
+                    mFailures));
+            out.println(String.format(Locale.US, "  %-8s %8s %8s %8s %8s",
+                    "phase", "p50 ms", "p95 ms", "p99 ms", "max ms"));
+            printRow(out, "fetch", mFetch);
+            printRow(out, "parse", mParse);
+            printRow(out, "persist", mPersist);
+            printRow(out, "notify", mNotify);
+            printRow(out, "total", mTotal);
+        }
+
+        private void printRow(PrintStream out, String phase, long[] values) {
+            out.println(String.format(Locale.US, "  %-8s %8d %8d %8d %8d", phase,
+                    percentile(values, 50), percentile(values, 95), percentile(values, 99),
+                    percentile(values, 100)));
+        }
+    }
+}
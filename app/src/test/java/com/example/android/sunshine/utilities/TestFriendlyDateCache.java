@@ -0,0 +1,193 @@
+/*
+ * Copyright (C) 2016 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.example.android.sunshine.utilities;
+
+import android.content.Context;
+
+import com.example.android.sunshine.BuildConfig;
+import com.example.android.sunshine.ThreadAllocations;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.robolectric.RobolectricTestRunner;
+import org.robolectric.RuntimeEnvironment;
+import org.robolectric.annotation.Config;
+
+import java.text.SimpleDateFormat;
+import java.util.Locale;
+import java.util.TimeZone;
+
+import static junit.framework.Assert.assertEquals;
+import static junit.framework.Assert.assertSame;
+import static junit.framework.Assert.assertTrue;
+
+/**
+ * Checks that {@link FriendlyDateCache} returns what formatting every date afresh would, and
+ * starts over when the locale or time zone changes. Then compares the time and bytes a forecast's
+ * worth of dates costs with and without it, on JVMs that count the bytes each thread allocates:
+ * <pre>
+ *     ./gradlew testDebugUnitTest --tests '*TestFriendlyDateCache'
+ * </pre>
+ */
+@RunWith(RobolectricTestRunner.class)
+@Config(constants = BuildConfig.class, sdk = 23)
+public class TestFriendlyDateCache {
+
+    private static final long DAY = SunshineDateUtils.DAY_IN_MILLIS;
+
+    private static final int DAYS = 14;
+    private static final int ROUNDS = 2000;
+
+    /* Leaves room for the measurement itself, far less than one allocation per date */
+    private static final long MAX_ALLOCATED_BYTES = 1024;
+
+    private final Context mContext = RuntimeEnvironment.application;
+
+    private Locale mDefaultLocale;
+    private TimeZone mDefaultTimeZone;
+    private FriendlyDateCache mCache;
+
+    @Before
+    public void setUp() {
+        mDefaultLocale = Locale.getDefault();
+        mDefaultTimeZone = TimeZone.getDefault();
+        mCache = new FriendlyDateCache();
+    }
+
+    @After
+    public void tearDown() {
+        Locale.setDefault(mDefaultLocale);
+        TimeZone.setDefault(mDefaultTimeZone);
+    }
+
+    @Test
+    public void testMatchesUncachedFormatting() {
+        long today = SunshineDateUtils.getNormalizedUtcDateForToday();
+        for (int day = -1; day < DAYS; day++) {
+            long date = today + day * DAY;
+            assertEquals(formatUncached(date, false),
+                    mCache.getFriendlyDateString(mContext, date, false));
+            assertEquals(formatUncached(date, true),
+                    mCache.getFriendlyDateString(mContext, date, true));
+        }
+
+        assertTrue(mCache.getFriendlyDateString(mContext, today, false).startsWith("Today"));
+        assertEquals("Tomorrow", mCache.getFriendlyDateString(mContext, today + DAY, false));
+    }
+
+    @Test
+    public void testSecondCallIsCached() {
+        long tomorrow = SunshineDateUtils.getNormalizedUtcDateForToday() + DAY;
+
+        String first = mCache.getFriendlyDateString(mContext, tomorrow, true);
+        String second = mCache.getFriendlyDateString(mContext, tomorrow, true);
+        assertSame(first, second);
+        assertEquals(1, mCache.getMissCount());
+        assertEquals(1, mCache.getHitCount());
+
+        /* The short form is a different String, cached apart */
+        mCache.getFriendlyDateString(mContext, tomorrow, false);
+        assertEquals(2, mCache.getMissCount());
+    }
+
+    @Test
+    public void testLocaleChangeStartsOver() {
+        long inThreeDays = SunshineDateUtils.getNormalizedUtcDateForToday() + 3 * DAY;
+        mCache.getFriendlyDateString(mContext, inThreeDays, false);
+
+        Locale.setDefault(Locale.FRANCE);
+        String dayName = mCache.getFriendlyDateString(mContext, inThreeDays, false);
+        assertEquals(2, mCache.getMissCount());
+        assertEquals(formatUncached(inThreeDays, false), dayName);
+    }
+
+    @Test
+    public void testInvalidateAfterTimeZoneChange() {
+        long today = SunshineDateUtils.getNormalizedUtcDateForToday();
+        mCache.getFriendlyDateString(mContext, today + 3 * DAY, true);
+
+        /* As the time zone broadcast does */
+        TimeZone.setDefault(TimeZone.getTimeZone("Pacific/Kiritimati"));
+        mCache.invalidate();
+
+        long date = SunshineDateUtils.getNormalizedUtcDateForToday() + 3 * DAY;
+        assertEquals(formatUncached(date, true),
+                mCache.getFriendlyDateString(mContext, date, true));
+        assertEquals(2, mCache.getMissCount());
+    }
+
+    @Test
+    public void benchmarkForecastDates() {
+        ThreadAllocations.assumeSupported();
+
+        long today = SunshineDateUtils.getNormalizedUtcDateForToday();
+
+        /* Warm up both paths, so that neither pays for class loading */
+        formatForecastUncached(today, 1);
+        formatForecastCached(today, 1);
+        ThreadAllocations.allocatedBytes();
+
+        long before = ThreadAllocations.allocatedBytes();
+        long uncachedNanos = formatForecastUncached(today, ROUNDS);
+        long uncachedBytes = ThreadAllocations.allocatedBytes() - before;
+
+        before = ThreadAllocations.allocatedBytes();
+        long cachedNanos = formatForecastCached(today, ROUNDS);
+        long cachedBytes = ThreadAllocations.allocatedBytes() - before;
+
+        int calls = DAYS * ROUNDS;
+        System.out.println();
+        System.out.println("Friendly dates, per call over " + calls + " calls");
+        System.out.println(String.format(Locale.US, "  %-10s %10s %10s", "", "ns", "bytes"));
+        System.out.println(String.format(Locale.US, "  %-10s %10d %10d",
+                "uncached", uncachedNanos / calls, uncachedBytes / calls));
+        System.out.println(String.format(Locale.US, "  %-10s %10d %10d",
+                "cached", cachedNanos / calls, cachedBytes / calls));
+
+        assertTrue("Cached dates should not allocate, but " + calls + " calls allocated "
+                + cachedBytes + " bytes", cachedBytes <= MAX_ALLOCATED_BYTES);
+    }
+
+    /* What getFriendlyDateString used to do for every call */
+    private String formatUncached(long date, boolean showFullDate) {
+        return SunshineDateUtils.formatFriendlyDate(mContext, date,
+                SunshineDateUtils.getNormalizedUtcDateForToday(),
+                TimeZone.getDefault().getOffset(date), new SimpleDateFormat("EEEE"),
+                showFullDate);
+    }
+
+    private long formatForecastUncached(long today, int rounds) {
+        long start = System.nanoTime();
+        for (int round = 0; round < rounds; round++) {
+            for (int day = 0; day < DAYS; day++) {
+                formatUncached(today + day * DAY, false);
+            }
+        }
+        return System.nanoTime() - start;
+    }
+
+    private long formatForecastCached(long today, int rounds) {
+        long start = System.nanoTime();
+        for (int round = 0; round < rounds; round++) {
+            for (int day = 0; day < DAYS; day++) {
+                mCache.getFriendlyDateString(mContext, today + day * DAY, false);
+            }
+        }
+        return System.nanoTime() - start;
+    }
+}